@@ -6,46 +6,50 @@ package com.recomdata.i2b2;
  * @author: Alex Wu
  * @date: September 2, 2011
  */
-import java.math.BigDecimal;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
+import java.io.File;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBException;
 
 import org.cdisk.odm.jaxb.ODM;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeListItem;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionDescription;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormData;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormDef;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormRef;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemData;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemDef;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupData;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupDef;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupRef;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemRef;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionMetaDataVersion;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventData;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventDef;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventRef;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
-import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionTranslatedText;
 
-import com.recomdata.i2b2.dao.ClinicalDataDao;
+import com.recomdata.config.Config;
+import com.recomdata.i2b2.dao.BatchSizer;
+import com.recomdata.i2b2.dao.BulkClinicalDataDao;
+import com.recomdata.i2b2.dao.BulkLoadException;
+import com.recomdata.i2b2.dao.ClinicalDataWriterPool;
+import com.recomdata.i2b2.dao.ConnectionPool;
+import com.recomdata.i2b2.dao.DeltaClinicalDataDao;
+import com.recomdata.i2b2.dao.I2B2DBUtils;
 import com.recomdata.i2b2.dao.IClinicalDataDao;
 import com.recomdata.i2b2.dao.IStudyDao;
 import com.recomdata.i2b2.dao.StudyDao;
-import com.recomdata.i2b2.entity.I2B2ClinicalDataInfo;
-import com.recomdata.i2b2.entity.I2B2StudyInfo;
+import com.recomdata.i2b2.entity.ObservationFact;
+import com.recomdata.i2b2.entity.OntologyRow;
+import com.recomdata.i2b2.util.ConceptCodeGenerator;
+import com.recomdata.i2b2.util.MetaDataIndex;
 import com.recomdata.i2b2.util.ODMUtil;
+import com.recomdata.odm.DecodeTable;
+import com.recomdata.odm.ODMStreamHandler;
+import com.recomdata.odm.ODMStreamReader;
+import com.recomdata.odm.ODMStreamSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,294 +68,147 @@ public class I2B2ODMStudyHandler implements IConstants {
     // initialize ODM object
     private ODM odm = null;
 
-    private I2B2StudyInfo studyInfo = new I2B2StudyInfo();
-    private I2B2ClinicalDataInfo clinicalDataInfo = new I2B2ClinicalDataInfo();
-
     private IStudyDao studyDao = null;
     private IClinicalDataDao clinicalDataDao = null;
 
     private Date currentDate = null;
-    private MessageDigest messageDigest = null;
-    private StringBuffer conceptBuffer = new StringBuffer("STUDY|");
-    private MetaDataXML mdx = new MetaDataXML();
+    private ConceptCodeGenerator conceptCodeGenerator = null;
+    private OntologyBuilder ontologyBuilder = null;
+    private int ontologyThreadCount = 1;
 
     /**
-     * Constructor to set ODM object
-     *
-     * @param odm the entire ODM tree.
-     * @throws SQLException
-     * @throws NoSuchAlgorithmException
+     * The indexes of the definitions of the studies.
      */
-    public I2B2ODMStudyHandler(ODM odm) throws SQLException,
-            NoSuchAlgorithmException {
-        this.odm = odm;
-
-        studyDao = new StudyDao();
-        clinicalDataDao = new ClinicalDataDao();
+    private Map<ODMcomplexTypeDefinitionStudy, MetaDataIndex> metaDataIndexes =
+            new IdentityHashMap<ODMcomplexTypeDefinitionStudy, MetaDataIndex>();
 
-        studyInfo.setSourceSystemCd(odm.getSourceSystem());
-        clinicalDataInfo.setSourcesystemCd(odm.getSourceSystem());
+    /**
+     * The compiled (English) decode tables of the code lists used in the clinical data.
+     */
+    private Map<ODMcomplexTypeDefinitionCodeList, DecodeTable> decodeTables =
+            new IdentityHashMap<ODMcomplexTypeDefinitionCodeList, DecodeTable>();
 
-        currentDate = Calendar.getInstance().getTime();
-        messageDigest = MessageDigest.getInstance("MD5");
-    }
+    /**
+     * The connection pool of the writers, if the handler created it itself.
+     */
+    private ConnectionPool ownConnectionPool = null;
 
     /**
-     * set up i2b2 metadata level 1 (Study) info into STUDY
-     *
-     * @throws JAXBException
+     * The study of the clinical data block that is being saved, and the number of
+     * subjects in that block so far.
      */
-    private void saveStudy(ODMcomplexTypeDefinitionStudy study)
-            throws SQLException, JAXBException {
-        // Need to include source system in path to avoid conflicts between servers
-        String studyKey = odm.getSourceSystem() + ":" + study.getOID();
-
-        String studyPath = "\\" + "STUDY" + "\\" + studyKey + "\\";
-        String studyToolTip = "STUDY" + "\\" + studyKey;
-
-        // set c_hlevel 1 data (Study)
-        studyInfo.setChlevel(IConstants.C_HLEVEL_1);
-        studyInfo.setCfullname(studyPath);
-        studyInfo.setCname(study.getGlobalVariables().getStudyName().getValue());
-        studyInfo.setCsynonmCd(IConstants.C_SYNONYM_CD);
-        studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_FOLDER);
-        studyInfo.setCfactTableColumn(IConstants.C_FACTTABLECOLUMN);
-        studyInfo.setCtablename(IConstants.C_TABLENAME);
-        studyInfo.setCcolumnname(IConstants.C_COLUMNNAME);
-        studyInfo.setCcolumnDatatype(IConstants.C_COLUMNDATATYPE);
-        studyInfo.setCoperator(IConstants.C_OPERATOR);
-        studyInfo.setSourceSystemCd(odm.getSourceSystem());
-        studyInfo.setUpdateDate(currentDate);
-        studyInfo.setDownloadDate(currentDate);
-        studyInfo.setImportDate(currentDate);
-        studyInfo.setCdimcode(studyPath);
-        studyInfo.setCtooltip(studyToolTip);
-
-        logStudyInfo();
-
-        // insert level 1 data
-        studyDao.insertMetadata(studyInfo);
-
-        // save child events
-        ODMcomplexTypeDefinitionMetaDataVersion version = study.getMetaDataVersion().get(0);
-
-        if (version.getProtocol().getStudyEventRef() != null) {
-            for (ODMcomplexTypeDefinitionStudyEventRef studyEventRef : version.getProtocol().getStudyEventRef()) {
-                ODMcomplexTypeDefinitionStudyEventDef studyEventDef =
-                        ODMUtil.getStudyEvent(study, studyEventRef.getStudyEventOID());
-
-                saveEvent(study, studyEventDef, studyPath, studyToolTip);
-            }
-        }
-    }
+    private ODMcomplexTypeDefinitionStudy clinicalDataStudy = null;
+    private MetaDataIndex clinicalDataIndex = null;
+    private int encounterNum = 0;
+    private long clinicalDataStartTime = 0;
 
     /**
-     * set up i2b2 metadata level 2 (Event) info into STUDY
+     * Constructor to set ODM object
      *
-     * @throws JAXBException
+     * @param odm the entire ODM tree.
+     * @throws SQLException
+     * @throws NoSuchAlgorithmException
+     * @throws IOException when the configuration cannot be read.
      */
-    private void saveEvent(ODMcomplexTypeDefinitionStudy study,
-                           ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
-                           String studyPath, String studyToolTip) throws SQLException,
-            JAXBException {
-        String eventPath = studyPath + studyEventDef.getOID() + "\\";
-        String eventToolTip = studyToolTip + "\\" + studyEventDef.getOID();
-
-        // set c_hlevel 2 data (StudyEvent)
-        studyInfo.setChlevel(IConstants.C_HLEVEL_2);
-        studyInfo.setCfullname(eventPath);
-        studyInfo.setCname(studyEventDef.getName());
-        studyInfo.setCdimcode(eventPath);
-        studyInfo.setCtooltip(eventToolTip);
-        studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_FOLDER);
-
-        logStudyInfo();
-
-        // insert level 2 data
-        studyDao.insertMetadata(studyInfo);
-
-        for (ODMcomplexTypeDefinitionFormRef formRef : studyEventDef.getFormRef()) {
-            ODMcomplexTypeDefinitionFormDef formDef = ODMUtil.getForm(study, formRef.getFormOID());
-
-            saveForm(study, studyEventDef, formDef, eventPath, eventToolTip);
-        }
+    public I2B2ODMStudyHandler(ODM odm) throws SQLException,
+            NoSuchAlgorithmException, IOException {
+        this(false);
+        setODM(odm);
     }
 
     /**
-     * set up i2b2 metadata level 3 (Form) info into STUDY
+     * Constructor for processODMStream, which reads the ODM metadata from the file.
+     * The observations are always handed to writer threads, so the file is parsed
+     * while the observations are inserted.
      *
-     * @throws JAXBException
+     * @throws SQLException
+     * @throws IOException when the configuration cannot be read.
      */
-    private void saveForm(ODMcomplexTypeDefinitionStudy study,
-                          ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
-                          ODMcomplexTypeDefinitionFormDef formDef, String eventPath,
-                          String eventToolTip) throws SQLException, JAXBException {
-        String formPath = eventPath + formDef.getOID() + "\\";
-        String formToolTip = eventToolTip + "\\" + formDef.getOID();
-
-        // set c_hlevel 3 data (Form)
-        studyInfo.setChlevel(IConstants.C_HLEVEL_3);
-        studyInfo.setCfullname(formPath);
-        studyInfo.setCname(getTranslatedDescription(formDef.getDescription(), "en", formDef.getName()));
-        studyInfo.setCdimcode(formPath);
-        studyInfo.setCtooltip(formToolTip);
-        studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_FOLDER);
-
-        logStudyInfo();
+    public I2B2ODMStudyHandler() throws SQLException, IOException {
+        this(true);
+    }
 
-        // insert level 3 data
-        studyDao.insertMetadata(studyInfo);
+    private I2B2ODMStudyHandler(boolean pipelined) throws SQLException, IOException {
+        Config config = Config.getConfig();
+        studyDao = new StudyDao(BatchSizer.fromConfig(config, "STUDY"));
+        clinicalDataDao = DeltaClinicalDataDao.create(config, createClinicalDataDao(config, pipelined));
 
+        ontologyThreadCount = Integer.parseInt(config.getProperty("chb.i2b2.ontology.threads", "0"));
+        if (ontologyThreadCount <= 0) {
+            ontologyThreadCount = Runtime.getRuntime().availableProcessors();
+        }
 
-        for (ODMcomplexTypeDefinitionItemGroupRef itemGroupRef : formDef.getItemGroupRef()) {
-            ODMcomplexTypeDefinitionItemGroupDef itemGroupDef =
-                    ODMUtil.getItemGroup(study, itemGroupRef.getItemGroupOID());
+        currentDate = Calendar.getInstance().getTime();
+    }
 
-            if (itemGroupDef.getItemRef() != null) {
-                for (ODMcomplexTypeDefinitionItemRef itemRef : itemGroupDef.getItemRef()) {
-                    ODMcomplexTypeDefinitionItemDef itemDef = ODMUtil.getItem(study, itemRef.getItemOID());
+    private void setODM(ODM odm) throws NoSuchAlgorithmException {
+        this.odm = odm;
 
-                    saveItem(study, studyEventDef, formDef, itemDef, formPath, formToolTip);
-                }
-            }
-        }
+        conceptCodeGenerator = new ConceptCodeGenerator(odm.getSourceSystem());
+        // the builder fills the concept codes that the clinical data import looks up
+        ontologyBuilder = new OntologyBuilder(conceptCodeGenerator, odm.getSourceSystem(), currentDate.getTime(),
+                ontologyThreadCount);
     }
 
     /**
-     * set up i2b2 metadata level 4 (Item) info into STUDY and CONCEPT_DIMENSION
-     *
-     * @throws SQLException
-     * @throws JAXBException
+     * Create the DAO for the observation facts: a pool of writers when more than
+     * one writer (chb.i2b2.jdbc.writers) and a connection pool are configured, or
+     * when the handler is pipelined, otherwise a single DAO on the connection of
+     * I2B2DBUtils. Both use JDBC batches, unless a bulk load dialect is configured.
      */
-    private void saveItem(ODMcomplexTypeDefinitionStudy study,
-                          ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
-                          ODMcomplexTypeDefinitionFormDef formDef,
-                          ODMcomplexTypeDefinitionItemDef itemDef, String formPath,
-                          String formToolTip) throws SQLException, JAXBException {
-        String itemPath = formPath + itemDef.getOID() + "\\";
-        String itemToolTip = formToolTip + "\\" + itemDef.getOID();
-
-        // set c_hlevel 4 data (Items)
-        studyInfo.setChlevel(IConstants.C_HLEVEL_4);
-        studyInfo.setCfullname(itemPath);
-        studyInfo.setCname(getTranslatedDescription(itemDef.getDescription(), "en", itemDef.getName()));
-        studyInfo.setCbasecode(generateConceptCode(study.getOID(), studyEventDef.getOID(), formDef.getOID(), itemDef.getOID(), null));
-        studyInfo.setCdimcode(itemPath);
-        studyInfo.setCtooltip(itemToolTip);
-        studyInfo.setCmetadataxml(createMetadataXml(study, itemDef));
-
-        // It is a leaf node
-        if (itemDef.getCodeListRef() == null) {
-            studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_LEAF);
-        } else {
-            studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_FOLDER);
-        }
-
-        logStudyInfo();
-
-        // insert level 4 data
-        studyDao.insertMetadata(studyInfo);
+    private IClinicalDataDao createClinicalDataDao(Config config, boolean pipelined) throws SQLException {
+        int writerCount = Math.max(1, Integer.parseInt(config.getProperty("chb.i2b2.jdbc.writers", "1")));
+        ConnectionPool connectionPool = I2B2DBUtils.getConnectionPool();
 
-        if (itemDef.getCodeListRef() != null) {
-            ODMcomplexTypeDefinitionCodeList codeList = ODMUtil.getCodeList(study, itemDef.getCodeListRef().getCodeListOID());
+        if (pipelined && connectionPool == null) {
+            ownConnectionPool = new ConnectionPool(writerCount);
+            connectionPool = ownConnectionPool;
+        }
 
-            if (codeList != null) {
-                for (ODMcomplexTypeDefinitionCodeListItem codeListItem : codeList.getCodeListItem()) {
-                    // save
-                    // level 5
-                    saveCodeListItem(study, studyEventDef, formDef, itemDef, codeListItem, itemPath, itemToolTip);
-                }
-            }
+        if ((pipelined || writerCount > 1) && connectionPool != null) {
+            return new ClinicalDataWriterPool(config, connectionPool, Math.min(writerCount, connectionPool.size()));
         }
+
+        return BulkClinicalDataDao.create(config);
     }
 
-    private String getTranslatedDescription(
-            ODMcomplexTypeDefinitionDescription description, String lang, String defaultValue) {
-        if (description != null) {
-            for (ODMcomplexTypeDefinitionTranslatedText translatedText : description.getTranslatedText()) {
-                if (translatedText.getLang().equals(lang)) {
-                    return translatedText.getValue();
-                }
+    /**
+     * Write the remaining observations and release the connections of the writers.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        try {
+            clinicalDataDao.close();
+        } finally {
+            if (ownConnectionPool != null) {
+                ownConnectionPool.close();
             }
         }
-
-        return defaultValue;
     }
 
-    private String createMetadataXml(ODMcomplexTypeDefinitionStudy study,
-                                     ODMcomplexTypeDefinitionItemDef itemDef) throws JAXBException {
-        String metadataXml = null;
-
-        switch (itemDef.getDataType()) {
-            case INTEGER:
-                metadataXml = mdx.getIntegerMetadataXML(itemDef.getOID(), itemDef.getName());
-                break;
-
-            case FLOAT:
-            case DOUBLE:
-                metadataXml = mdx.getFloatMetadataXML(itemDef.getOID(), itemDef.getName());
-                break;
-
-            case TEXT:
-            case STRING:
-                if (itemDef.getCodeListRef() == null) {
-                    metadataXml = mdx.getStringMetadataXML(itemDef.getOID(), itemDef.getName());
-                } else {
-                    ODMcomplexTypeDefinitionCodeList codeList =
-                            ODMUtil.getCodeList(study, itemDef.getCodeListRef().getCodeListOID());
-                    String[] codeListValues = ODMUtil.getCodeListValues(codeList, "en");
-
-                    metadataXml = mdx.getEnumMetadataXML(itemDef.getOID(), itemDef.getName(), codeListValues);
-                }
-                break;
-
-            case BOOLEAN:
-
-                break;
-
-            case DATE:
-            case TIME:
-            case DATETIME:
-                metadataXml = mdx.getStringMetadataXML(itemDef.getOID(), itemDef.getName());
-                break;
-
-            default:
+    /**
+     * Build the ontology rows of a study (with the study events in parallel).
+     */
+    private List<OntologyRow> buildOntology(ODMcomplexTypeDefinitionStudy study) throws SQLException {
+        try {
+            return ontologyBuilder.build(study, getMetaDataIndex(study));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while building the study metadata", e);
         }
-
-        return metadataXml;
     }
 
     /**
-     * set up i2b2 metadata level 5 (TranslatedText) info into STUDY
-     *
-     * @throws SQLException
+     * @return the index of the definitions of a study, which is built on first use.
      */
-    private void saveCodeListItem(ODMcomplexTypeDefinitionStudy study,
-                                  ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
-                                  ODMcomplexTypeDefinitionFormDef formDef,
-                                  ODMcomplexTypeDefinitionItemDef itemDef,
-                                  ODMcomplexTypeDefinitionCodeListItem codeListItem, String itemPath,
-                                  String itemToolTip) throws SQLException {
-        String value = ODMUtil.getTranslatedValue(codeListItem, "en");
-        String codedValue = codeListItem.getCodedValue();
-        String codeListItemPath = itemPath + codedValue + "\\";
-        String codeListItemToolTip = itemToolTip + "\\"	+ value;
-
-
-
-        // set c_hlevel 5 data (TranslatedText)
-        studyInfo.setChlevel(IConstants.C_HLEVEL_5);
-        studyInfo.setCfullname(codeListItemPath);
-        studyInfo.setCname(getTranslatedDescription(itemDef.getDescription(), "en", itemDef.getName()) + ": " + value);
-        studyInfo.setCbasecode(generateConceptCode(study.getOID(), studyEventDef.getOID(), formDef.getOID(), itemDef.getOID(), codedValue));
-        studyInfo.setCdimcode(codeListItemPath);
-        studyInfo.setCtooltip(codeListItemToolTip);
-        studyInfo.setCmetadataxml(null);
-        studyInfo.setCvisualAttributes(IConstants.C_VISUALATTRIBUTES_LEAF);
-
-        logStudyInfo();
-
-        studyDao.insertMetadata(studyInfo);
+    private MetaDataIndex getMetaDataIndex(ODMcomplexTypeDefinitionStudy study) {
+        MetaDataIndex metaDataIndex = metaDataIndexes.get(study);
+        if (metaDataIndex == null) {
+            metaDataIndex = new MetaDataIndex(study);
+            metaDataIndexes.put(study, metaDataIndex);
+        }
+        return metaDataIndex;
     }
 
     /**
@@ -388,7 +245,10 @@ public class I2B2ODMStudyHandler implements IConstants {
             log.info("Inserting study metadata into i2b2");
             long startTime = System.currentTimeMillis();
 
-            saveStudy(study);
+            List<OntologyRow> rows = buildOntology(study);
+            logOntologyRows(rows);
+
+            studyDao.insertMetadata(rows);
 
             long endTime = System.currentTimeMillis();
             log.info("Completed loading study metadata into i2b2 in " + (endTime - startTime) + " ms");
@@ -417,77 +277,200 @@ public class I2B2ODMStudyHandler implements IConstants {
             return;
         }
 
-        for (ODMcomplexTypeDefinitionStudy study : odm.getStudy()) {
-            clinicalDataDao.cleanupClinicalData(study.getOID(), odm.getSourceSystem());
-        }
+        cleanupClinicalData();
 
         for (ODMcomplexTypeDefinitionClinicalData clinicalData : odm.getClinicalData()) {
             if (clinicalData.getSubjectData() == null) {
                 continue;
             }
 
-            log.info("Save Clinical data for study OID " + clinicalData.getStudyOID() + " into i2b2...");
-            long startTime = System.currentTimeMillis();
+            if (startClinicalData(clinicalData)) {
+                for (ODMcomplexTypeDefinitionSubjectData subjectData : clinicalData.getSubjectData()) {
+                    saveSubjectData(subjectData);
+                }
 
-            ODMcomplexTypeDefinitionStudy study = ODMUtil.getStudy(odm, clinicalData.getStudyOID());
-            if (study == null) {
-                log.error("ODM does not contain study metadata for study OID " + clinicalData.getStudyOID());
+                endClinicalData(clinicalData);
+            }
+        }
+
+        finishClinicalData();
+    }
+
+    /**
+     * Parse an ODM file as a stream and save its data into i2b2: the metadata is
+     * saved as soon as it has been read and every subject as soon as it has been
+     * unmarshalled, while the writers insert the observations of the previous
+     * subjects. Memory use is bounded by the metadata, one subject and the queues
+     * of the writers.
+     *
+     * @param xmlFile the ODM file.
+     * @throws Exception when the file cannot be read or the data cannot be saved.
+     */
+    public void processODMStream(File xmlFile) throws Exception {
+        log.info("Start to stream ODM xml and save to i2b2");
+
+        processODMStream(ODMStreamReader.createSource(xmlFile));
+    }
 
+    /**
+     * Save the ODM data of a streaming source (like a REDCap project that is
+     * converted while it is retrieved) into i2b2, one subject at a time.
+     *
+     * @param source the source of the ODM data.
+     * @throws Exception when the source cannot be read or the data cannot be saved.
+     */
+    public void processODMStream(ODMStreamSource source) throws Exception {
+        StreamHandler streamHandler = new StreamHandler();
+        source.read(streamHandler);
+
+        if (streamHandler.clinicalDataCleanedUp) {
+            finishClinicalData();
+        }
+    }
+
+    /**
+     * Delete the old clinical data of the studies.
+     */
+    private void cleanupClinicalData() throws SQLException {
+        for (ODMcomplexTypeDefinitionStudy study : odm.getStudy()) {
+            clinicalDataDao.cleanupClinicalData(study.getOID(), odm.getSourceSystem());
+        }
+    }
+
+    /**
+     * Finish saving the clinical data of all blocks: in a delta load, the observations
+     * that are no longer in the ODM are deleted.
+     */
+    private void finishClinicalData() throws SQLException {
+        if (clinicalDataDao instanceof DeltaClinicalDataDao) {
+            ((DeltaClinicalDataDao) clinicalDataDao).finish();
+        }
+    }
+
+    /**
+     * Start saving a clinical data block.
+     *
+     * @return whether the study of the block is known.
+     */
+    private boolean startClinicalData(ODMcomplexTypeDefinitionClinicalData clinicalData) {
+        log.info("Save Clinical data for study OID " + clinicalData.getStudyOID() + " into i2b2...");
+        clinicalDataStartTime = System.currentTimeMillis();
+
+        clinicalDataStudy = ODMUtil.getStudy(odm, clinicalData.getStudyOID());
+        if (clinicalDataStudy == null) {
+            log.error("ODM does not contain study metadata for study OID " + clinicalData.getStudyOID());
+
+            return false;
+        }
+
+        clinicalDataIndex = getMetaDataIndex(clinicalDataStudy);
+
+		/*
+		 * Generate a unique encounter number per subject per study to ensure that
+		 * observation fact primary key is not violated.
+		 */
+        encounterNum = 0;
+
+        return true;
+    }
+
+    /**
+     * Save the observations of one subject of the current clinical data block.
+     */
+    private void saveSubjectData(ODMcomplexTypeDefinitionSubjectData subjectData)
+            throws JAXBException, ParseException, SQLException {
+        if (subjectData.getStudyEventData() == null) {
+            return;
+        }
+
+        encounterNum++;
+
+        for (ODMcomplexTypeDefinitionStudyEventData studyEventData : subjectData.getStudyEventData()) {
+            if (studyEventData.getFormData() == null) {
                 continue;
             }
 
-			/*
-			 * Generate a unique encounter number per subject per study to ensure that
-			 * observation fact primary key is not violated.
-			 */
-            int encounterNum = 0;
-
-            for (ODMcomplexTypeDefinitionSubjectData subjectData : clinicalData.getSubjectData()) {
-                if (subjectData.getStudyEventData() == null) {
+            for (ODMcomplexTypeDefinitionFormData formData : studyEventData.getFormData()) {
+                if (formData.getItemGroupData() == null) {
                     continue;
                 }
 
-                encounterNum++;
-
-                for (ODMcomplexTypeDefinitionStudyEventData studyEventData : subjectData.getStudyEventData()) {
-                    if (studyEventData.getFormData() == null) {
+                for (ODMcomplexTypeDefinitionItemGroupData itemGroupData : formData.getItemGroupData()) {
+                    if (itemGroupData.getItemDataGroup() == null) {
                         continue;
                     }
 
-                    for (ODMcomplexTypeDefinitionFormData formData : studyEventData.getFormData()) {
-                        if (formData.getItemGroupData() == null) {
-                            continue;
-                        }
-
-                        for (ODMcomplexTypeDefinitionItemGroupData itemGroupData : formData.getItemGroupData()) {
-                            if (itemGroupData.getItemDataGroup() == null) {
-                                continue;
-                            }
-
-                            for (ODMcomplexTypeDefinitionItemData itemData : itemGroupData.getItemDataGroup()) {
-                                if (itemData.getValue() != null) {
-                                    saveItemData(study, subjectData, studyEventData, formData, itemData, encounterNum);
-                                }
-                            }
+                    for (ODMcomplexTypeDefinitionItemData itemData : itemGroupData.getItemDataGroup()) {
+                        if (itemData.getValue() != null) {
+                            saveItemData(clinicalDataStudy, subjectData, studyEventData, formData, itemData, encounterNum);
                         }
                     }
                 }
             }
+        }
+    }
 
-			/*
-			 * Flush any remaining batched up observations;
-			 */
-            clinicalDataDao.executeBatch();
+    /**
+     * Finish saving a clinical data block.
+     */
+    private void endClinicalData(ODMcomplexTypeDefinitionClinicalData clinicalData) throws SQLException {
+		/*
+		 * Flush any remaining batched up observations;
+		 */
+        clinicalDataDao.executeBatch();
 
-            long endTime = System.currentTimeMillis();
-            log.info("Completed Clinical data to i2b2 for study OID " + clinicalData.getStudyOID() + " in " + (endTime - startTime) + " ms");
+        long endTime = System.currentTimeMillis();
+        log.info("Completed Clinical data to i2b2 for study OID " + clinicalData.getStudyOID() + " in " + (endTime - clinicalDataStartTime) + " ms");
+
+        clinicalDataStudy = null;
+        clinicalDataIndex = null;
+    }
+
+    /**
+     * The handler that saves the metadata and subjects of a streamed ODM file.
+     */
+    private final class StreamHandler implements ODMStreamHandler {
+        private boolean clinicalDataCleanedUp = false;
+
+        public void processMetaData(ODM odmMetaData) throws Exception {
+            if (odmMetaData.getStudy().isEmpty()) {
+                throw new Exception("No study definitions were found in ODM file.");
+            }
+
+            setODM(odmMetaData);
+            processODMStudy();
+        }
+
+        public void processClinicalDataStart(ODMcomplexTypeDefinitionClinicalData clinicalData) throws SQLException {
+            if (!clinicalDataCleanedUp) {
+                log.info("Parse and save ODM clinical data into i2b2...");
+                cleanupClinicalData();
+                clinicalDataCleanedUp = true;
+            }
+
+            startClinicalData(clinicalData);
+        }
 
+        public void processSubjectData(ODMcomplexTypeDefinitionClinicalData clinicalData,
+                                       ODMcomplexTypeDefinitionSubjectData subjectData)
+                throws JAXBException, ParseException, SQLException {
+            if (clinicalDataStudy != null) {
+                saveSubjectData(subjectData);
+            }
+        }
+
+        public void processClinicalDataEnd(ODMcomplexTypeDefinitionClinicalData clinicalData) throws SQLException {
+            if (clinicalDataStudy != null) {
+                endClinicalData(clinicalData);
+            }
         }
     }
 
-    private void logStudyInfo() {
+    private void logOntologyRows(List<OntologyRow> rows) {
         if (log.isDebugEnabled()) {
-            log.debug("Inserting study metadata record: " + studyInfo);
+            for (OntologyRow row : rows) {
+                log.debug("Inserting study metadata record: " + row);
+            }
         }
     }
 
@@ -500,73 +483,66 @@ public class I2B2ODMStudyHandler implements IConstants {
             int encounterNum) throws JAXBException, ParseException, SQLException {
 
         String itemValue = itemData.getValue();
-        ODMcomplexTypeDefinitionItemDef item = ODMUtil.getItem(study, itemData.getItemOID());
+        ODMcomplexTypeDefinitionItemDef item = clinicalDataIndex.getItem(itemData.getItemOID());
 
-        String conceptCd;
+        String sourceSystem = odm.getSourceSystem();
+        long currentTime = currentDate.getTime();
+        ObservationFact fact;
 
         if (item.getCodeListRef() != null) {
-            clinicalDataInfo.setValTypeCd("T");
-            clinicalDataInfo.setNvalNum(null);
-
-            ODMcomplexTypeDefinitionCodeList codeList = ODMUtil.getCodeList(study, item.getCodeListRef().getCodeListOID());
-            ODMcomplexTypeDefinitionCodeListItem codeListItem = ODMUtil.getCodeListItem(codeList, itemValue);
+            ODMcomplexTypeDefinitionCodeList codeList = clinicalDataIndex.getCodeList(item.getCodeListRef().getCodeListOID());
+            String decodedValue = getDecodeTable(codeList).decode(itemValue);
 
-            if (codeListItem == null) {
+            if (decodedValue == null) {
                 log.error("Code list item for coded value: " + itemValue + " not found in code list: " + codeList.getOID());
                 return;
             } else {
 				/*
 				 * Need to include the item value in the concept code, since there is a different code for each code list item.
 				 */
-                conceptCd = generateConceptCode(
+                String conceptCd = generateConceptCode(
                         study.getOID(),
                         studyEventData.getStudyEventOID(),
                         formData.getFormOID(),
                         itemData.getItemOID(),
                         itemValue);
-                clinicalDataInfo.setTvalChar(ODMUtil.getTranslatedValue(codeListItem, "en"));
+                fact = ObservationFact.text(encounterNum, subjectData.getSubjectKey(), conceptCd, decodedValue,
+                        currentTime, sourceSystem);
             }
         } else if (ODMUtil.isNumericDataType(item.getDataType())) {
-            conceptCd = generateConceptCode(
+            String conceptCd = generateConceptCode(
                     study.getOID(),
                     studyEventData.getStudyEventOID(),
                     formData.getFormOID(),
                     itemData.getItemOID(),
                     null);
 
-            clinicalDataInfo.setValTypeCd("N");
-            clinicalDataInfo.setTvalChar("E");
-            clinicalDataInfo.setNvalNum(itemValue == null || itemValue.trim().equals("") || itemValue.length() == 0 ? null : new BigDecimal(itemValue));
+            fact = ObservationFact.numeric(encounterNum, subjectData.getSubjectKey(), conceptCd, itemValue,
+                    currentTime, sourceSystem);
         } else {
-            conceptCd = generateConceptCode(
+            String conceptCd = generateConceptCode(
                     study.getOID(),
                     studyEventData.getStudyEventOID(),
                     formData.getFormOID(),
                     itemData.getItemOID(),
                     null);
 
-            clinicalDataInfo.setValTypeCd("T");
-            clinicalDataInfo.setTvalChar(itemValue);
-            clinicalDataInfo.setNvalNum(null);
+            fact = ObservationFact.text(encounterNum, subjectData.getSubjectKey(), conceptCd, itemValue,
+                    currentTime, sourceSystem);
         }
 
-        clinicalDataInfo.setConceptCd(conceptCd);
-        clinicalDataInfo.setEncounterNum(encounterNum);
-        clinicalDataInfo.setPatientNum(subjectData.getSubjectKey());
-        clinicalDataInfo.setUpdateDate(currentDate);
-        clinicalDataInfo.setDownloadDate(currentDate);
-        clinicalDataInfo.setImportDate(currentDate);
-        clinicalDataInfo.setStartDate(currentDate);
-        clinicalDataInfo.setEndDate(currentDate);
-
-        log.debug("Inserting clinical data: " + clinicalDataInfo);
+        if (log.isDebugEnabled()) {
+            log.debug("Inserting clinical data: " + fact);
+        }
 
         // save observation
         // into i2b2
 
         try {
-            log.info("clinicalDataInfo: " + clinicalDataInfo);
-            clinicalDataDao.insertObservation(clinicalDataInfo);
+            clinicalDataDao.insertObservation(fact);
+        } catch (BulkLoadException e) {
+            // the facts of a whole staging file are lost, so the load is aborted
+            throw e;
         } catch (SQLException e) {
             String sError = "Error inserting observation_fact record.";
             sError += " study: " + study.getOID();
@@ -576,44 +552,25 @@ public class I2B2ODMStudyHandler implements IConstants {
     }
 
     /**
-     * Create concept code with all OIDs and make the total length less than 50
-     * and unique
+     * @return the English decode table of a code list, which is compiled on first use.
+     */
+    private DecodeTable getDecodeTable(ODMcomplexTypeDefinitionCodeList codeList) {
+        DecodeTable decodeTable = decodeTables.get(codeList);
+        if (decodeTable == null) {
+            decodeTable = DecodeTable.compile(codeList, "en");
+            decodeTables.put(codeList, decodeTable);
+        }
+        return decodeTable;
+    }
+
+    /**
+     * Get the concept code with all OIDs, which is unique and shorter than 50
+     * characters (the codes are generated once and then looked up).
      *
      * @return the unique concept code.
      */
     private String generateConceptCode(String studyOID, String studyEventOID,
                                        String formOID, String itemOID, String value) {
-        conceptBuffer.setLength(6);
-        conceptBuffer.append(studyOID).append("|");
-
-        messageDigest.update(odm.getSourceSystem().getBytes(Charset.forName("UTF-8")));
-        messageDigest.update((byte) '|');
-        messageDigest.update(studyEventOID.getBytes(Charset.forName("UTF-8")));
-        messageDigest.update((byte) '|');
-        messageDigest.update(formOID.getBytes(Charset.forName("UTF-8")));
-        messageDigest.update((byte) '|');
-        messageDigest.update(itemOID.getBytes(Charset.forName("UTF-8")));
-
-        if (value != null) {
-            messageDigest.update((byte) '|');
-            messageDigest.update(value.getBytes(Charset.forName("UTF-8")));
-        }
-
-        byte[] digest = messageDigest.digest();
-        for (byte digestByte : digest) {
-            conceptBuffer.append(Integer.toHexString(0xFF & digestByte));
-        }
-
-        String conceptCode = conceptBuffer.toString();
-        if (log.isDebugEnabled()) {
-            log.debug(new StringBuffer("Concept code ").append(conceptCode)
-                    .append(" generated for studyOID=").append(studyOID)
-                    .append(", studyEventOID=").append(studyEventOID)
-                    .append(", formOID=").append(formOID)
-                    .append(", itemOID=").append(itemOID)
-                    .append(", value=").append(value).toString());
-        }
-
-        return conceptCode;
+        return conceptCodeGenerator.getConceptCode(studyOID, studyEventOID, formOID, itemOID, value);
     }
 }
@@ -15,6 +15,7 @@ package com.recomdata.i2b2;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 
 import nl.vumc.odmtoi2b2.export.Configuration;
 import nl.vumc.odmtoi2b2.export.OdmToFilesConverter;
@@ -26,7 +27,10 @@ import org.slf4j.LoggerFactory;
 
 import com.recomdata.config.Config;
 import com.recomdata.i2b2.dao.I2B2DBUtils;
+import com.recomdata.odm.ODMInput;
 import com.recomdata.odm.ODMLoader;
+import com.recomdata.odm.ODMStreamReader;
+import com.recomdata.odm.ODMStreamSource;
 
 /**
  * This class will be used by both command-line and web app to load ODM files
@@ -47,14 +51,16 @@ public class I2B2ODMStudyHandlerCMLClient {
     private static final Logger logger = LoggerFactory.getLogger(I2B2ODMStudyHandlerCMLClient.class);
 
     /**
-	 * method to process odm xml file and save data into i2b2
+	 * method to process odm xml file and save data into i2b2. The file can be
+	 * plain XML, gzip compressed XML or a zip archive with one or more ODM
+	 * XML entries, which are decompressed while they are read.
 	 * 
 	 * @param odmXmlPath the ODM file to process.
 	 * @param exportFilePath the path of the export file.
      * @param propertiesFilePath the file path to the properties.  @throws Exception
 	 */
     public void loadODMFile2I2B2(String odmXmlPath,
-                                 String exportFilePath,
+                                 final String exportFilePath,
                                  final String propertiesFilePath) throws Exception {
 		File xmlFile = new File(odmXmlPath);
 
@@ -63,9 +69,40 @@ public class I2B2ODMStudyHandlerCMLClient {
 			throw new FileNotFoundException(xmlFile.getPath());
 		}
 
+		ODMInput.readDocuments(xmlFile, new ODMInput.DocumentReader() {
+			public void read(String systemId, InputStream inputStream) throws Exception {
+				logger.info("Loading ODM document " + systemId);
+				loadODMDocument(systemId, inputStream, exportFilePath, propertiesFilePath);
+			}
+		});
+	}
+
+	/**
+	 * method to process one odm xml document and save data into i2b2
+	 */
+	private void loadODMDocument(String systemId, InputStream inputStream,
+	                             String exportFilePath, String propertiesFilePath) throws Exception {
+		if (new Configuration(propertiesFilePath).getStreamOdmFile()) {
+			// Read the ODM xml as a stream, one subject at a time
+			ODMStreamSource source = ODMStreamReader.createSource(systemId, inputStream);
+			if (EXPORT_TO_DATABASE) {
+				I2B2ODMStudyHandler odmHandler = new I2B2ODMStudyHandler();
+				try {
+					odmHandler.processODMStream(source);
+				} finally {
+					odmHandler.close();
+				}
+			} else {
+				OdmToFilesConverter odmHandler = new OdmToFilesConverter();
+				odmHandler.processODMStream(source, exportFilePath, propertiesFilePath);
+				odmHandler.closeExportWriters();
+			}
+			return;
+		}
+
 		// Load and parse ODM xml here by jaxb
 		ODMLoader odmLoader = new ODMLoader();
-		ODM odm = odmLoader.unmarshall(xmlFile);
+		ODM odm = odmLoader.unmarshall(systemId, inputStream);
 
 		if (odm == null || odm.getStudy() == null || odm.getStudy().size() == 0) {
 			throw new Exception("No study definitions were found in ODM file.");
@@ -74,7 +111,11 @@ public class I2B2ODMStudyHandlerCMLClient {
 		// parse ODM XML and save as i2b2 metadata and demodata records
         if (EXPORT_TO_DATABASE) {
             I2B2ODMStudyHandler odmHandler = new I2B2ODMStudyHandler(odm);
-            odmHandler.processODM();
+            try {
+                odmHandler.processODM();
+            } finally {
+                odmHandler.close();
+            }
         } else {
             OdmToFilesConverter odmHandler = new OdmToFilesConverter();
             odmHandler.processODM(odm, exportFilePath, propertiesFilePath);
@@ -102,6 +143,9 @@ public class I2B2ODMStudyHandlerCMLClient {
             logger.info("ODM-to-i2b2 version v3.0 (2015-06-11) started running.");
             if (args.length >= 1) {
 
+                logger.info("Initializing JAXB context...");
+                ODMLoader.initialize();
+
                 if (EXPORT_TO_DATABASE) {
                     logger.info("Initializing database connection...");
                     Config config = Config.getConfig();
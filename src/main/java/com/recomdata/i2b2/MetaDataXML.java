@@ -7,7 +7,7 @@
  */
 package com.recomdata.i2b2;
 
-import java.util.Calendar;
+import java.util.Date;
 
 import org.jdom.Document;
 import org.jdom.Element;
@@ -15,7 +15,11 @@ import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
 /**
- * This class generates metadata xml using the JDOM library.
+ * This class generates metadata xml. The xml of all items has the same structure, so it is written from a template
+ * into a reusable buffer (one per thread), which gives exactly the output of the JDOM library with the compact format:
+ * the values are normalized (leading and trailing white space removed, other white space collapsed to one space) and
+ * escaped, and elements without text are written as empty elements. Values with characters that need a check by JDOM
+ * (control characters, surrogates and non-characters) are still written using the JDOM library.
  *
  * @author <a href="mailto:alex.wu@unknown.org">Alex Wu</a>
  *
@@ -32,6 +36,61 @@ public class MetaDataXML {
      */
     private static final String NOT_AVAILABLE_VALUE = "N/A";
 
+    /**
+     * The line separator of the compact format of JDOM.
+     */
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    /**
+     * The part of the template before the creation date/time.
+     */
+    private static final String TEMPLATE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + LINE_SEPARATOR
+                                                 + "<ValueMetadata><Version>3.02</Version>";
+
+    /**
+     * The part of the template between the data type and the enumeration values.
+     */
+    @SuppressWarnings("SpellCheckingInspection")
+    private static final String TEMPLATE_AFTER_DATA_TYPE = "<CodeType>GRP</CodeType><Loinc>1</Loinc><Flagstouse />"
+                                                           + "<Oktousevalues>N</Oktousevalues><MaxStringLength />"
+                                                           + "<LowofLowValue /><HighofLowValue /><LowofHighValue />"
+                                                           + "<HighofHighValue /><LowofToxicValue /><HighofToxicValue />";
+
+    /**
+     * The part of the template after the enumeration values.
+     */
+    private static final String TEMPLATE_END = "<CommentsDeterminingExclusion><Com /></CommentsDeterminingExclusion>"
+                                               + "<UnitValues><NormalUnits>" + NOT_AVAILABLE_VALUE + "</NormalUnits>"
+                                               + "<EqualUnits>" + NOT_AVAILABLE_VALUE + "</EqualUnits><ExcludingUnits />"
+                                               + "<ConvertingUnits><Units /><MultiplyingFactor /></ConvertingUnits>"
+                                               + "</UnitValues><Analysis><Enums /><Counts /><New /></Analysis>"
+                                               + "</ValueMetadata>" + LINE_SEPARATOR;
+
+    /**
+     * The initial capacity of the buffers.
+     */
+    private static final int BUFFER_CAPACITY = 1024;
+
+    /**
+     * The number of milliseconds in a second.
+     */
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /**
+     * The buffer of each thread in which the metadata xml is written.
+     */
+    private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(BUFFER_CAPACITY);
+        }
+    };
+
+    /**
+     * The last creation date/time text, which only changes every second.
+     */
+    private volatile CreationDateTime creationDateTime = new CreationDateTime(Long.MIN_VALUE, null);
+
     /**
      * Create Enum type metadata xml for items such as Sex, Race, etc.
      *
@@ -41,14 +100,7 @@ public class MetaDataXML {
      * @return the metadata xml (as a string).
      */
     public String getEnumMetadataXML(final String itemOID, final String itemName, final String[] enumValues) {
-        final Element root = createBaseMetadata(itemOID, itemName, "Enum");
-
-        final Element enumValuesElement = root.getChild(ENUM_VALUES_ELEMENT_NAME);
-        for (String enumValue : enumValues) {
-            enumValuesElement.addContent(new Element("Val").setText(enumValue));
-        }
-
-        return toString(root);
+        return getMetadataXML(itemOID, itemName, "Enum", enumValues);
     }
 
     /**
@@ -59,7 +111,7 @@ public class MetaDataXML {
      * @return the metadata xml (as a string).
      */
     public String getIntegerMetadataXML(final String itemOID, final String itemName) {
-        return toString(createBaseMetadata(itemOID, itemName, "Integer"));
+        return getMetadataXML(itemOID, itemName, "Integer", null);
     }
 
     /**
@@ -70,7 +122,7 @@ public class MetaDataXML {
      * @return the metadata xml (as a string).
      */
     public String getFloatMetadataXML(final String itemOID, final String itemName) {
-        return toString(createBaseMetadata(itemOID, itemName, "Float"));
+        return getMetadataXML(itemOID, itemName, "Float", null);
     }
 
     /**
@@ -81,21 +133,201 @@ public class MetaDataXML {
      * @return the metadata xml (as a string).
      */
     public String getStringMetadataXML(final String itemOID, final String itemName) {
-        return toString(createBaseMetadata(itemOID, itemName, "String"));
+        return getMetadataXML(itemOID, itemName, "String", null);
+    }
+
+    /**
+     * Create metadata xml from the template, or with the JDOM library if a value needs a check by JDOM.
+     *
+     * @param testId     the value for the TestID element.
+     * @param testName   the value for the TestName element.
+     * @param dataType   the value for the DataType element.
+     * @param enumValues the enumeration values or null if not needed.
+     * @return the metadata xml (as a string).
+     */
+    private String getMetadataXML(final String testId, final String testName, final String dataType,
+                                  final String[] enumValues) {
+        final String currentDateString = getCreationDateTime();
+        if (!canUseTemplate(testId) || !canUseTemplate(testName) || !canUseTemplate(enumValues)) {
+            return getJdomMetadataXML(currentDateString, testId, testName, dataType, enumValues);
+        }
+
+        final StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        buffer.append(TEMPLATE_START);
+        appendElement(buffer, "CreationDateTime", currentDateString);
+        appendElement(buffer, "TestID", testId);
+        appendElement(buffer, "TestName", testName);
+        appendElement(buffer, "DataType", dataType);
+        buffer.append(TEMPLATE_AFTER_DATA_TYPE);
+        if (enumValues == null || enumValues.length == 0) {
+            buffer.append('<').append(ENUM_VALUES_ELEMENT_NAME).append(" />");
+        } else {
+            buffer.append('<').append(ENUM_VALUES_ELEMENT_NAME).append('>');
+            for (final String enumValue : enumValues) {
+                appendElement(buffer, "Val", enumValue);
+            }
+            buffer.append("</").append(ENUM_VALUES_ELEMENT_NAME).append('>');
+        }
+        buffer.append(TEMPLATE_END);
+        return buffer.toString();
+    }
+
+    /**
+     * Create metadata xml with the JDOM library.
+     *
+     * @param currentDateString the value for the CreationDateTime element.
+     * @param testId            the value for the TestID element.
+     * @param testName          the value for the TestName element.
+     * @param dataType          the value for the DataType element.
+     * @param enumValues        the enumeration values or null if not needed.
+     * @return the metadata xml (as a string).
+     */
+    String getJdomMetadataXML(final String currentDateString, final String testId, final String testName,
+                              final String dataType, final String[] enumValues) {
+        final Element root = createBaseMetadata(currentDateString, testId, testName, dataType);
+        if (enumValues == null) {
+            return toString(root);
+        }
+
+        final Element enumValuesElement = root.getChild(ENUM_VALUES_ELEMENT_NAME);
+        for (String enumValue : enumValues) {
+            enumValuesElement.addContent(new Element("Val").setText(enumValue));
+        }
+
+        return toString(root);
+    }
+
+    /**
+     * Get the text for the CreationDateTime element, which is the current date/time without milliseconds.
+     *
+     * @return the current date/time text.
+     */
+    private String getCreationDateTime() {
+        final long currentSecond = System.currentTimeMillis() / MILLIS_PER_SECOND;
+        CreationDateTime current = creationDateTime;
+        if (current.second != currentSecond) {
+            current = new CreationDateTime(currentSecond, new Date(currentSecond * MILLIS_PER_SECOND).toString());
+            creationDateTime = current;
+        }
+        return current.text;
+    }
+
+    /**
+     * Check whether values can be written from the template.
+     *
+     * @param values the values (may be null).
+     * @return whether none of the values needs a check by JDOM.
+     */
+    private boolean canUseTemplate(final String[] values) {
+        boolean result = true;
+        if (values != null) {
+            for (int index = 0; result && index < values.length; index++) {
+                result = canUseTemplate(values[index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check whether a value can be written from the template: JDOM rejects control characters (other than white
+     * space) and non-characters and checks the surrogate pairs, so those values are written with JDOM.
+     *
+     * @param value the value (may be null).
+     * @return whether the value does not need a check by JDOM.
+     */
+    private boolean canUseTemplate(final String value) {
+        boolean result = true;
+        if (value != null) {
+            for (int index = 0; result && index < value.length(); index++) {
+                final char character = value.charAt(index);
+                result = character >= ' ' ? character < Character.MIN_SURROGATE || character > Character.MAX_SURROGATE
+                                            && character < '\uFFFE'
+                                          : isWhitespace(character);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write an element with a text in the compact format of JDOM: the text is normalized and escaped and an
+     * element without text is written as an empty element.
+     *
+     * @param buffer the buffer to write to.
+     * @param name   the name of the element.
+     * @param text   the text (may be null).
+     */
+    private void appendElement(final StringBuilder buffer, final String name, final String text) {
+        final int start = buffer.length();
+        buffer.append('<').append(name).append('>');
+        final int textStart = buffer.length();
+        boolean pendingSpace = false;
+        for (int index = 0; text != null && index < text.length(); index++) {
+            final char character = text.charAt(index);
+            if (isWhitespace(character)) {
+                pendingSpace = buffer.length() > textStart;
+            } else {
+                if (pendingSpace) {
+                    buffer.append(' ');
+                    pendingSpace = false;
+                }
+                appendEscaped(buffer, character);
+            }
+        }
+        if (buffer.length() == textStart) {
+            buffer.setLength(start);
+            buffer.append('<').append(name).append(" />");
+        } else {
+            buffer.append("</").append(name).append('>');
+        }
+    }
+
+    /**
+     * Write a character of a text, escaped like JDOM does for element text.
+     *
+     * @param buffer    the buffer to write to.
+     * @param character the character.
+     */
+    private void appendEscaped(final StringBuilder buffer, final char character) {
+        switch (character) {
+            case '<':
+                buffer.append("&lt;");
+                break;
+            case '>':
+                buffer.append("&gt;");
+                break;
+            case '&':
+                buffer.append("&amp;");
+                break;
+            default:
+                buffer.append(character);
+        }
+    }
+
+    /**
+     * Check whether a character is XML white space.
+     *
+     * @param character the character.
+     * @return whether the character is a space, tab, carriage return or line feed.
+     */
+    private boolean isWhitespace(final char character) {
+        return character == ' ' || character == '\t' || character == '\r' || character == '\n';
     }
 
     /**
      * Create metadata xml using the specified values (which can be altered if required).
      *
+     * @param currentDateString the value for the CreationDateTime element.
      * @param testId   the value for the TestID element.
      * @param testName the value for the TestName element.
      * @param dataType the value for the DataType element.
      * @return the metadata xml (as a string).
      */
-    private Element createBaseMetadata(final String testId, final String testName, final String dataType) {
+    private Element createBaseMetadata(final String currentDateString, final String testId, final String testName,
+                                       final String dataType) {
         final Element root = new Element("ValueMetadata");
 
-        addSimpleElements(root, testId, testName, dataType);
+        addSimpleElements(root, currentDateString, testId, testName, dataType);
 
         // Add CommentsDeterminingExclusion element with sub element.
         root.addContent(new Element("CommentsDeterminingExclusion").addContent(new Element("Com")));
@@ -125,14 +357,14 @@ public class MetaDataXML {
      * Add the simple elements for the metadat xml to the root element.
      *
      * @param root     the root element for the xml document.
+     * @param currentDateString the value for the CreationDateTime element.
      * @param testId   the value for the TestID element.
      * @param testName the value for the TestName element.
      * @param dataType the value for the DataType element.
      */
     @SuppressWarnings("SpellCheckingInspection")
-    private void addSimpleElements(final Element root, final String testId, final String testName, final String dataType) {
-        final String currentDateString = Calendar.getInstance().getTime().toString();
-
+    private void addSimpleElements(final Element root, final String currentDateString, final String testId,
+                                   final String testName, final String dataType) {
         // Creating children for the root element.
         root.addContent(new Element("Version").setText("3.02"));
         root.addContent(new Element("CreationDateTime").setText(currentDateString));
@@ -173,4 +405,30 @@ public class MetaDataXML {
         // output as a string
         return outputter.outputString(document);
     }
+
+    /**
+     * A creation date/time text and the second (since the epoch) it belongs to.
+     */
+    private static final class CreationDateTime {
+        /**
+         * The second since the epoch.
+         */
+        private final long second;
+
+        /**
+         * The text of the date/time.
+         */
+        private final String text;
+
+        /**
+         * Construct a creation date/time.
+         *
+         * @param second the second since the epoch.
+         * @param text   the text of the date/time.
+         */
+        CreationDateTime(final long second, final String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
 }
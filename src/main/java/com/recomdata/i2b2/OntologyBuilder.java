@@ -0,0 +1,281 @@
+package com.recomdata.i2b2;
+
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ * This class builds the rows of the STUDY ontology table for the study definitions of an ODM.
+ */
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeListItem;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionDescription;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormRef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupRef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemRef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventRef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionTranslatedText;
+
+import com.recomdata.i2b2.entity.OntologyRow;
+import com.recomdata.i2b2.util.ConceptCodeGenerator;
+import com.recomdata.i2b2.util.MetaDataIndex;
+import com.recomdata.i2b2.util.ODMUtil;
+
+/**
+ * Builds the ontology of a study: level 1 (Study), 2 (StudyEvent), 3 (Form),
+ * 4 (Item) and 5 (code list item) rows, in the order in which they were inserted
+ * by the recursive saveStudy of I2B2ODMStudyHandler. The subtrees of the study
+ * events are built in parallel and are joined in protocol order. The threads
+ * share one concept code generator, which keeps the concept codes for the
+ * clinical data import.
+ *
+ */
+public class OntologyBuilder {
+    private final String sourceSystem;
+    private final long loadDate;
+    private final int threadCount;
+    private final MetaDataXML mdx = new MetaDataXML();
+
+    /**
+     * The concept code generator, which is shared by the threads that build rows.
+     */
+    private final ConceptCodeGenerator conceptCodeGenerator;
+
+    /**
+     * @param loadDate the update, download and import date of the rows in milliseconds.
+     * @param threadCount the number of study events that are built in parallel.
+     * @throws NoSuchAlgorithmException when the concept codes cannot be generated.
+     */
+    public OntologyBuilder(String sourceSystem, long loadDate, int threadCount) throws NoSuchAlgorithmException {
+        this(new ConceptCodeGenerator(sourceSystem), sourceSystem, loadDate, threadCount);
+    }
+
+    /**
+     * @param conceptCodeGenerator the generator of the concept codes, which remembers the codes of the rows.
+     * @param loadDate the update, download and import date of the rows in milliseconds.
+     * @param threadCount the number of study events that are built in parallel.
+     */
+    public OntologyBuilder(ConceptCodeGenerator conceptCodeGenerator, String sourceSystem, long loadDate,
+                           int threadCount) {
+        this.conceptCodeGenerator = conceptCodeGenerator;
+        this.sourceSystem = sourceSystem;
+        this.loadDate = loadDate;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Build the ontology rows of a study.
+     *
+     * @param study the study definition.
+     * @param index the index of the definitions of the study.
+     * @return the rows, in insertion order.
+     * @throws InterruptedException when the thread is interrupted while waiting for the study events.
+     */
+    public List<OntologyRow> build(final ODMcomplexTypeDefinitionStudy study, final MetaDataIndex index)
+            throws InterruptedException {
+        // Need to include source system in path to avoid conflicts between servers
+        String studyKey = sourceSystem + ":" + study.getOID();
+
+        final String studyPath = "\\" + "STUDY" + "\\" + studyKey + "\\";
+        final String studyToolTip = "STUDY" + "\\" + studyKey;
+
+        List<OntologyRow> rows = new ArrayList<OntologyRow>();
+        rows.add(new OntologyRow(IConstants.C_HLEVEL_1, studyPath, study.getGlobalVariables().getStudyName().getValue(),
+                IConstants.C_VISUALATTRIBUTES_FOLDER, null, null, studyToolTip, loadDate, sourceSystem));
+
+        List<ODMcomplexTypeDefinitionStudyEventRef> studyEventRefs =
+                study.getMetaDataVersion().get(0).getProtocol().getStudyEventRef();
+
+        if (threadCount == 1 || studyEventRefs.size() <= 1) {
+            for (ODMcomplexTypeDefinitionStudyEventRef studyEventRef : studyEventRefs) {
+                rows.addAll(buildEvent(study, index, studyEventRef.getStudyEventOID(), studyPath, studyToolTip));
+            }
+
+            return rows;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threadCount, studyEventRefs.size()));
+        try {
+            List<Future<List<OntologyRow>>> futures = new ArrayList<Future<List<OntologyRow>>>();
+            for (final ODMcomplexTypeDefinitionStudyEventRef studyEventRef : studyEventRefs) {
+                futures.add(executorService.submit(new Callable<List<OntologyRow>>() {
+                    public List<OntologyRow> call() {
+                        return buildEvent(study, index, studyEventRef.getStudyEventOID(), studyPath, studyToolTip);
+                    }
+                }));
+            }
+
+            for (Future<List<OntologyRow>> future : futures) {
+                rows.addAll(getRows(future));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return rows;
+    }
+
+    private static List<OntologyRow> getRows(Future<List<OntologyRow>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new IllegalStateException("Error building the study metadata", e.getCause());
+        }
+    }
+
+    /**
+     * Build the level 2 (Event) row of a study event and the rows below it.
+     */
+    private List<OntologyRow> buildEvent(ODMcomplexTypeDefinitionStudy study, MetaDataIndex index,
+                                         String studyEventOID, String studyPath, String studyToolTip) {
+        ODMcomplexTypeDefinitionStudyEventDef studyEventDef = index.getStudyEvent(studyEventOID);
+        String eventPath = studyPath + studyEventDef.getOID() + "\\";
+        String eventToolTip = studyToolTip + "\\" + studyEventDef.getOID();
+
+        List<OntologyRow> rows = new ArrayList<OntologyRow>();
+        rows.add(new OntologyRow(IConstants.C_HLEVEL_2, eventPath, studyEventDef.getName(),
+                IConstants.C_VISUALATTRIBUTES_FOLDER, null, null, eventToolTip, loadDate, sourceSystem));
+
+        for (ODMcomplexTypeDefinitionFormRef formRef : studyEventDef.getFormRef()) {
+            ODMcomplexTypeDefinitionFormDef formDef = index.getForm(formRef.getFormOID());
+
+            addForm(rows, study, index, studyEventDef, formDef, eventPath, eventToolTip);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Add the level 3 (Form) row and the item rows of a form.
+     */
+    private void addForm(List<OntologyRow> rows, ODMcomplexTypeDefinitionStudy study, MetaDataIndex index,
+                         ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
+                         ODMcomplexTypeDefinitionFormDef formDef, String eventPath, String eventToolTip) {
+        String formPath = eventPath + formDef.getOID() + "\\";
+        String formToolTip = eventToolTip + "\\" + formDef.getOID();
+
+        rows.add(new OntologyRow(IConstants.C_HLEVEL_3, formPath,
+                getTranslatedDescription(formDef.getDescription(), "en", formDef.getName()),
+                IConstants.C_VISUALATTRIBUTES_FOLDER, null, null, formToolTip, loadDate, sourceSystem));
+
+        for (ODMcomplexTypeDefinitionItemGroupRef itemGroupRef : formDef.getItemGroupRef()) {
+            ODMcomplexTypeDefinitionItemGroupDef itemGroupDef = index.getItemGroup(itemGroupRef.getItemGroupOID());
+
+            for (ODMcomplexTypeDefinitionItemRef itemRef : itemGroupDef.getItemRef()) {
+                ODMcomplexTypeDefinitionItemDef itemDef = index.getItem(itemRef.getItemOID());
+
+                addItem(rows, study, index, studyEventDef, formDef, itemDef, formPath, formToolTip);
+            }
+        }
+    }
+
+    /**
+     * Add the level 4 (Item) row of an item and the level 5 rows of its code list items.
+     */
+    private void addItem(List<OntologyRow> rows, ODMcomplexTypeDefinitionStudy study, MetaDataIndex index,
+                         ODMcomplexTypeDefinitionStudyEventDef studyEventDef,
+                         ODMcomplexTypeDefinitionFormDef formDef, ODMcomplexTypeDefinitionItemDef itemDef,
+                         String formPath, String formToolTip) {
+        String itemPath = formPath + itemDef.getOID() + "\\";
+        String itemToolTip = formToolTip + "\\" + itemDef.getOID();
+        String itemName = getTranslatedDescription(itemDef.getDescription(), "en", itemDef.getName());
+
+        ODMcomplexTypeDefinitionCodeList codeList = null;
+        if (itemDef.getCodeListRef() != null) {
+            codeList = index.getCodeList(itemDef.getCodeListRef().getCodeListOID());
+        }
+
+        // It is a leaf node when it has no code list
+        String visualAttributes = itemDef.getCodeListRef() == null
+                ? IConstants.C_VISUALATTRIBUTES_LEAF : IConstants.C_VISUALATTRIBUTES_FOLDER;
+
+        rows.add(new OntologyRow(IConstants.C_HLEVEL_4, itemPath, itemName, visualAttributes,
+                conceptCodeGenerator.getConceptCode(study.getOID(), studyEventDef.getOID(), formDef.getOID(),
+                        itemDef.getOID(), null),
+                createMetadataXml(itemDef, codeList), itemToolTip, loadDate, sourceSystem));
+
+        if (codeList != null) {
+            for (ODMcomplexTypeDefinitionCodeListItem codeListItem : codeList.getCodeListItem()) {
+                String value = ODMUtil.getTranslatedValue(codeListItem, "en");
+                String codedValue = codeListItem.getCodedValue();
+
+                rows.add(new OntologyRow(IConstants.C_HLEVEL_5, itemPath + codedValue + "\\", itemName + ": " + value,
+                        IConstants.C_VISUALATTRIBUTES_LEAF,
+                        conceptCodeGenerator.getConceptCode(study.getOID(), studyEventDef.getOID(), formDef.getOID(),
+                                itemDef.getOID(), codedValue),
+                        null, itemToolTip + "\\" + value, loadDate, sourceSystem));
+            }
+        }
+    }
+
+    private static String getTranslatedDescription(
+            ODMcomplexTypeDefinitionDescription description, String lang, String defaultValue) {
+        if (description != null) {
+            for (ODMcomplexTypeDefinitionTranslatedText translatedText : description.getTranslatedText()) {
+                if (translatedText.getLang().equals(lang)) {
+                    return translatedText.getValue();
+                }
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private String createMetadataXml(ODMcomplexTypeDefinitionItemDef itemDef,
+                                     ODMcomplexTypeDefinitionCodeList codeList) {
+        String metadataXml = null;
+
+        switch (itemDef.getDataType()) {
+            case INTEGER:
+                metadataXml = mdx.getIntegerMetadataXML(itemDef.getOID(), itemDef.getName());
+                break;
+
+            case FLOAT:
+            case DOUBLE:
+                metadataXml = mdx.getFloatMetadataXML(itemDef.getOID(), itemDef.getName());
+                break;
+
+            case TEXT:
+            case STRING:
+                if (itemDef.getCodeListRef() == null) {
+                    metadataXml = mdx.getStringMetadataXML(itemDef.getOID(), itemDef.getName());
+                } else {
+                    String[] codeListValues = ODMUtil.getCodeListValues(codeList, "en");
+
+                    metadataXml = mdx.getEnumMetadataXML(itemDef.getOID(), itemDef.getName(), codeListValues);
+                }
+                break;
+
+            case BOOLEAN:
+
+                break;
+
+            case DATE:
+            case TIME:
+            case DATETIME:
+                metadataXml = mdx.getStringMetadataXML(itemDef.getOID(), itemDef.getName());
+                break;
+
+            default:
+        }
+
+        return metadataXml;
+    }
+}
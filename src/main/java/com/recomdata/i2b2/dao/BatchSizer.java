@@ -0,0 +1,109 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.recomdata.config.Config;
+
+/**
+ * BatchSizer.java
+ *
+ * The batch size of a DAO. The size is fixed, unless the adaptive mode is on: then
+ * the round trip time of each executeBatch is measured and the batch size is
+ * doubled while full batches take less than half the target latency and halved
+ * while batches take longer than the target latency, within a minimum and maximum.
+ * The timings of the batches are logged at debug level.
+ */
+public class BatchSizer {
+	private static final Logger log = LoggerFactory.getLogger(BatchSizer.class);
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final String name;
+	private final boolean disabled;
+	private final boolean adaptive;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final long targetNanos;
+	private int batchSize;
+
+	/**
+	 * Constructor for a fixed batch size.
+	 */
+	public BatchSizer(String name, int batchSize) {
+		this(name, batchSize, false, batchSize, batchSize, 0);
+	}
+
+	/**
+	 * Constructor for a fixed or adaptive batch size. The batches are disabled
+	 * (every row is executed on its own) when the batch size is 1 or less, or when
+	 * the system property batch.disabled is set.
+	 */
+	public BatchSizer(String name, int batchSize, boolean adaptive, int minBatchSize, int maxBatchSize, long targetMillis) {
+		this.name = name;
+		this.disabled = batchSize <= 1 || Boolean.getBoolean("batch.disabled");
+		this.adaptive = adaptive;
+		this.minBatchSize = Math.max(1, minBatchSize);
+		this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+		this.targetNanos = targetMillis * NANOS_PER_MILLI;
+		this.batchSize = adaptive ? Math.min(Math.max(batchSize, this.minBatchSize), this.maxBatchSize) : batchSize;
+	}
+
+	/**
+	 * Create the batch sizer that is configured with the chb.i2b2.jdbc.batch.*
+	 * properties.
+	 *
+	 * chb.i2b2.jdbc.batch.size: the (initial) batch size (default 100).
+	 * chb.i2b2.jdbc.batch.adaptive: whether to adapt the batch size (default false).
+	 * chb.i2b2.jdbc.batch.min and chb.i2b2.jdbc.batch.max: the limits of the
+	 * adaptive batch size (default 10 and 10000).
+	 * chb.i2b2.jdbc.batch.target.ms: the target latency of a batch (default 250).
+	 */
+	public static BatchSizer fromConfig(Config config, String name) {
+		return new BatchSizer(name,
+				Integer.parseInt(config.getProperty("chb.i2b2.jdbc.batch.size", "100")),
+				Boolean.parseBoolean(config.getProperty("chb.i2b2.jdbc.batch.adaptive", "false")),
+				Integer.parseInt(config.getProperty("chb.i2b2.jdbc.batch.min", "10")),
+				Integer.parseInt(config.getProperty("chb.i2b2.jdbc.batch.max", "10000")),
+				Long.parseLong(config.getProperty("chb.i2b2.jdbc.batch.target.ms", "250")));
+	}
+
+	/**
+	 * @return whether every row should be executed on its own instead of in batches
+	 */
+	public boolean isDisabled() {
+		return disabled;
+	}
+
+	/**
+	 * @return the number of rows after which the batch should be executed
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Register an executed batch and adapt the batch size to its round trip time.
+	 *
+	 * @param rowCount the number of rows in the batch.
+	 * @param nanos the round trip time of executeBatch in nanoseconds.
+	 */
+	public void batchExecuted(int rowCount, long nanos) {
+		int previousBatchSize = batchSize;
+
+		if (adaptive && nanos > targetNanos) {
+			batchSize = Math.max(minBatchSize, batchSize / 2);
+		} else if (adaptive && rowCount >= batchSize && nanos < targetNanos / 2) {
+			batchSize = (int) Math.min(maxBatchSize, 2L * batchSize);
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug(name + " batch of " + rowCount + " rows executed in " + (nanos / NANOS_PER_MILLI) + " ms"
+					+ (batchSize != previousBatchSize ? "; batch size " + previousBatchSize + " -> " + batchSize : ""));
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+import com.recomdata.config.Config;
+import com.recomdata.i2b2.entity.ObservationFact;
+
+/**
+ * BulkClinicalDataDao.java
+ *
+ * DAO that loads observation facts with the bulk mechanism of the database instead
+ * of JDBC batches: the facts are written to a CSV staging file, which is loaded
+ * with one statement of a bulk load dialect when the batch is executed (or when
+ * the staging file reaches its maximum number of rows). The cleanup of the
+ * clinical data is the same as in ClinicalDataDao.
+ */
+public class BulkClinicalDataDao extends ClinicalDataDao {
+	private static final Logger log = LoggerFactory.getLogger(BulkClinicalDataDao.class);
+
+	private static final IBulkLoadDialect[] DIALECTS = {
+			new PostgresBulkLoadDialect(), new SqlServerBulkLoadDialect(), new H2BulkLoadDialect() };
+
+	private static final String[] DIALECT_NAMES = { "postgresql", "sqlserver", "h2" };
+
+	private static final int DEFAULT_MAX_ROWS = 1000000;
+
+	private final IBulkLoadDialect dialect;
+	private final File stagingDirectory;
+	private final int maxRows;
+
+	private File stagingFile = null;
+	private CSVWriter stagingWriter = null;
+	private int stagingRowCount = 0;
+	private long formattedMillis = ObservationFact.NO_DATE;
+	private String formattedDate = null;
+
+	public BulkClinicalDataDao(IBulkLoadDialect dialect, File stagingDirectory, int maxRows) throws SQLException {
+		this(dialect, stagingDirectory, maxRows, I2B2DBUtils.getI2B2DBConnection(), 0);
+	}
+
+	public BulkClinicalDataDao(IBulkLoadDialect dialect, File stagingDirectory, int maxRows,
+			Connection con, int commitInterval) throws SQLException {
+		super(con, commitInterval);
+		this.dialect = dialect;
+		this.stagingDirectory = stagingDirectory;
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * Create the clinical data DAO that is configured with the chb.i2b2.bulkload.*
+	 * properties: a bulk clinical data DAO if a bulk load dialect is configured (and
+	 * supports the database), otherwise a ClinicalDataDao with JDBC batches.
+	 *
+	 * chb.i2b2.bulkload.dialect: none (default), auto (choose by the JDBC url),
+	 * postgresql, sqlserver, h2 or the class name of an IBulkLoadDialect.
+	 * chb.i2b2.bulkload.dir: the directory for the staging files (default: the
+	 * temporary directory).
+	 * chb.i2b2.bulkload.rows: the maximum number of rows in a staging file.
+	 */
+	public static IClinicalDataDao create(Config config) throws SQLException {
+		return create(config, I2B2DBUtils.getI2B2DBConnection(), 0);
+	}
+
+	/**
+	 * Create the configured clinical data DAO on its own connection, with explicit
+	 * transactions of at least commitInterval observations (0 = autocommit).
+	 */
+	public static ClinicalDataDao create(Config config, Connection con, int commitInterval) throws SQLException {
+		IBulkLoadDialect dialect = getDialect(config.getProperty("chb.i2b2.bulkload.dialect", "none"),
+				con.getMetaData().getURL());
+
+		if (dialect == null) {
+			return new ClinicalDataDao(con, commitInterval, BatchSizer.fromConfig(config, OBSERV_FACT_TABLE));
+		}
+
+		File stagingDirectory = new File(config.getProperty("chb.i2b2.bulkload.dir", System.getProperty("java.io.tmpdir")));
+		int maxRows = Integer.parseInt(config.getProperty("chb.i2b2.bulkload.rows", String.valueOf(DEFAULT_MAX_ROWS)));
+		log.info("Loading observation facts in bulk with " + dialect.getClass().getSimpleName()
+				+ " through staging files in " + stagingDirectory.getAbsolutePath());
+
+		return new BulkClinicalDataDao(dialect, stagingDirectory, maxRows, con, commitInterval);
+	}
+
+	/**
+	 * Find a bulk load dialect by name.
+	 *
+	 * @return the dialect, or null if the observation facts should be loaded with JDBC batches.
+	 */
+	public static IBulkLoadDialect getDialect(String dialectName, String jdbcUrl) {
+		if (dialectName.equalsIgnoreCase("none")) {
+			return null;
+		}
+
+		for (int i = 0; i < DIALECTS.length; i++) {
+			if (dialectName.equalsIgnoreCase(DIALECT_NAMES[i])
+					|| (dialectName.equalsIgnoreCase("auto") && DIALECTS[i].supports(jdbcUrl))) {
+				return DIALECTS[i];
+			}
+		}
+
+		if (dialectName.equalsIgnoreCase("auto")) {
+			log.warn("No bulk load dialect for " + jdbcUrl + "; falling back to JDBC batches");
+			return null;
+		}
+
+		try {
+			return (IBulkLoadDialect) Class.forName(dialectName).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+			throw new IllegalArgumentException("Unknown bulk load dialect: " + dialectName, e);
+		}
+	}
+
+	/**
+	 * Method to write ODM clinical data to the staging file
+	 */
+	@Override
+	public void insertObservation(ObservationFact fact) throws SQLException {
+		if (stagingWriter == null) {
+			openStagingFile();
+		}
+
+		String loadDate = formatDate(fact.getLoadDate());
+		stagingWriter.writeNext(new String[] {
+				String.valueOf(fact.getEncounterNum()),
+				fact.getPatientNum(),
+				fact.getConceptCd(),
+				fact.getProviderId(),
+				formatDate(fact.getStartDate()),
+				fact.getModifierCd(),
+				fact.getValTypeCd(),
+				fact.getTvalChar(),
+				fact.isNvalLong() ? String.valueOf(fact.getNvalLong()) : formatDecimal(fact.getNvalNum()),
+				String.valueOf(fact.getInstanceNum()),
+				null,
+				null,
+				null,
+				formatDate(fact.getEndDate()),
+				null,
+				null,
+				null,
+				loadDate,
+				loadDate,
+				loadDate,
+				fact.getSourcesystemCd(),
+				String.valueOf(fact.getUploadId())
+		});
+
+		if (++stagingRowCount >= maxRows) {
+			executeBatch();
+		}
+	}
+
+	/**
+	 * Method to load the staging file into observation_fact. The staging file is
+	 * deleted whether or not it was loaded; when the load fails, a
+	 * BulkLoadException tells how many observation facts were lost.
+	 */
+	@Override
+	public void executeBatch() throws SQLException {
+		if (stagingWriter == null) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int loadedRowCount = stagingRowCount;
+		try {
+			// the CSV writer writes through a PrintWriter, which only records its errors
+			stagingWriter.close();
+			if (stagingWriter.checkError()) {
+				throw new IOException("The staging file is incomplete");
+			}
+
+			Statement stmt = getConnection().createStatement();
+			try {
+				stmt.executeUpdate(dialect.getLoadSql(OBSERV_FACT_TABLE, OBSERV_FACT_COLUMNS,
+						stagingFile.getAbsolutePath()));
+			} finally {
+				stmt.close();
+			}
+		} catch (IOException e) {
+			throw new BulkLoadException("Error writing staging file " + stagingFile, loadedRowCount, e);
+		} catch (SQLException e) {
+			throw new BulkLoadException("Error loading staging file " + stagingFile, loadedRowCount, e);
+		} finally {
+			if (!stagingFile.delete()) {
+				log.warn("Could not delete staging file " + stagingFile);
+			}
+			stagingWriter = null;
+			stagingFile = null;
+			stagingRowCount = 0;
+		}
+
+		log.debug("Loaded " + loadedRowCount + " observation facts in " + (System.currentTimeMillis() - startTime) + " ms");
+		commitIfDue(loadedRowCount);
+	}
+
+	/**
+	 * Method to delete the staging file without loading it, after a failure.
+	 */
+	@Override
+	public void discard() throws SQLException {
+		try {
+			if (stagingWriter != null) {
+				try {
+					stagingWriter.close();
+				} catch (IOException e) {
+					log.warn("Could not close staging file " + stagingFile, e);
+				}
+				if (!stagingFile.delete()) {
+					log.warn("Could not delete staging file " + stagingFile);
+				}
+				stagingWriter = null;
+				stagingFile = null;
+				stagingRowCount = 0;
+			}
+		} finally {
+			super.discard();
+		}
+	}
+
+	private void openStagingFile() throws SQLException {
+		try {
+			stagingFile = File.createTempFile("observation_fact", ".csv", stagingDirectory);
+			stagingWriter = new CSVWriter(openStagingWriter(stagingFile), ',', '"', "\n");
+			stagingWriter.writeNext(OBSERV_FACT_COLUMNS.split(","));
+		} catch (IOException e) {
+			throw new SQLException("Error creating staging file in " + stagingDirectory, e);
+		}
+	}
+
+	/**
+	 * Open the UTF-8 writer of a new staging file.
+	 */
+	protected Writer openStagingWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Format a date as yyyy-mm-dd; the facts of one load share their dates, so the
+	 * last formatted date is reused while the date does not change.
+	 */
+	private String formatDate(long millis) {
+		if (millis == ObservationFact.NO_DATE) {
+			return null;
+		} else if (millis != formattedMillis || formattedDate == null) {
+			formattedMillis = millis;
+			formattedDate = new java.sql.Date(millis).toString();
+		}
+
+		return formattedDate;
+	}
+
+	private static String formatDecimal(BigDecimal decimal) {
+		return (decimal == null) ? null : decimal.toPlainString();
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.sql.SQLException;
+
+/**
+ * BulkLoadException.java
+ *
+ * The failure of the bulk load of a staging file. Unlike the failure of a single
+ * insert, all the observation facts of the staging file are lost, so the load of
+ * the clinical data should be aborted instead of continued.
+ */
+public class BulkLoadException extends SQLException {
+	private static final long serialVersionUID = 1L;
+
+	private final int lostRowCount;
+
+	public BulkLoadException(String message, int lostRowCount, Throwable cause) {
+		super(message + " (" + lostRowCount + " observation facts were not loaded)", cause);
+		this.lostRowCount = lostRowCount;
+	}
+
+	/**
+	 * @return the number of observation facts in the staging file that was not loaded.
+	 */
+	public int getLostRowCount() {
+		return lostRowCount;
+	}
+}
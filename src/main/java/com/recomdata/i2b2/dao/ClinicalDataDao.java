@@ -6,10 +6,12 @@ package com.recomdata.i2b2.dao;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
-import com.recomdata.i2b2.entity.I2B2ClinicalDataInfo;
+import com.recomdata.i2b2.entity.ObservationFact;
 
 /**
  * ConceptDao.java the implementation for IConceptDao
@@ -18,76 +20,189 @@ import com.recomdata.i2b2.entity.I2B2ClinicalDataInfo;
  * author: Alex Wu on 10/19/2011
  */
 public class ClinicalDataDao implements IClinicalDataDao {
-	private int observationBatchCount = 100;
+	/**
+	 * The number of concept codes per delete of observations (below the limit
+	 * of 1000 expressions in an Oracle IN list).
+	 */
+	private static final int DELETE_CHUNK_SIZE = 500;
+
+	private static final String SELECT_FACT_CONCEPTS_SQL = "SELECT DISTINCT concept_cd FROM observation_fact "
+			+ "WHERE concept_cd LIKE ? ESCAPE '" + I2B2DBUtils.LIKE_ESCAPE + "' AND sourcesystem_cd = ?";
+
+	private static final String DELETE_CONCEPTS_SQL = "DELETE FROM concept_dimension "
+			+ "WHERE concept_cd LIKE ? ESCAPE '" + I2B2DBUtils.LIKE_ESCAPE + "' AND sourcesystem_cd = ?";
+
+	private static final String INSERT_CONCEPTS_SQL = "INSERT INTO Concept_Dimension (concept_path, concept_cd, name_char, "
+			+ "update_date, download_date, import_date, sourcesystem_cd) "
+			+ "SELECT C_DIMCODE, C_BASECODE, C_NAME, UPDATE_DATE, DOWNLOAD_DATE, IMPORT_DATE, SOURCESYSTEM_CD "
+			+ "FROM STUDY WHERE C_BASECODE LIKE ? ESCAPE '" + I2B2DBUtils.LIKE_ESCAPE + "'";
+
+	private int observationBatchCount = 0;
 	private PreparedStatement insertObservationStatement = null;
+	private final ObservationFactBinder observationFactBinder = new ObservationFactBinder();
+	private final Connection con;
+	private final int commitInterval;
+	private final BatchSizer batchSizer;
+	private int uncommittedCount = 0;
 
 	public ClinicalDataDao() throws SQLException {
-		Connection con = I2B2DBUtils.getI2B2DBConnection();
+		this(I2B2DBUtils.getI2B2DBConnection(), 0);
+	}
+
+	public ClinicalDataDao(Connection con, int commitInterval) throws SQLException {
+		this(con, commitInterval, new BatchSizer(IClinicalDataDao.OBSERV_FACT_TABLE, IClinicalDataDao.BATCH_SIZE));
+	}
+
+	/**
+	 * Constructor for a DAO on its own connection, which inserts in explicit
+	 * transactions of at least commitInterval observations (0 = autocommit)
+	 * and in batches of the size given by batchSizer.
+	 */
+	public ClinicalDataDao(Connection con, int commitInterval, BatchSizer batchSizer) throws SQLException {
+		this.con = con;
+		this.commitInterval = commitInterval;
+		this.batchSizer = batchSizer;
+		if (commitInterval > 0) {
+			con.setAutoCommit(false);
+		}
 		insertObservationStatement = con.prepareStatement(IClinicalDataDao.INSERT_OBSERV_FACT_SQL);
 	}
 
+	protected Connection getConnection() {
+		return con;
+	}
+
 	/**
-	 * Method to delete records in observation_fact and concept_dimension
+	 * Method to delete records in observation_fact and concept_dimension, in one
+	 * transaction
 	 */
 	public void cleanupClinicalData(String projectID, String sourceSystem) throws SQLException {
-		String conceptCodePattern = "STUDY|" + projectID + "|%";
+		cleanup(projectID, sourceSystem, true);
+	}
+
+	/**
+	 * Method to replace the concept_dimension records of the project with the
+	 * concepts in the (already reloaded) study table, without touching the
+	 * observations.
+	 */
+	public void refreshConcepts(String projectID, String sourceSystem) throws SQLException {
+		cleanup(projectID, sourceSystem, false);
+	}
 
-		// delete observation records for the project
-		String deleteFactsSql = "DELETE FROM observation_fact WHERE concept_cd LIKE '" + conceptCodePattern
-				+ "' AND sourcesystem_cd = '" + sourceSystem + "'";
+	/**
+	 * Run the cleanup statements of the project in a single transaction, which
+	 * is rolled back when one of them fails.
+	 */
+	private void cleanup(String projectID, String sourceSystem, boolean deleteFacts) throws SQLException {
+		String conceptCodePattern = I2B2DBUtils.getPrefixPattern("STUDY|" + projectID + "|");
+		boolean autoCommit = con.getAutoCommit();
 
-		Statement stmt = I2B2DBUtils.getI2B2DBConnection().createStatement();
-		stmt.executeUpdate(deleteFactsSql);
+		con.setAutoCommit(false);
+		try {
+			if (deleteFacts) {
+				deleteObservations(conceptCodePattern, sourceSystem);
+			}
+			replaceConcepts(conceptCodePattern, sourceSystem);
+			con.commit();
+			uncommittedCount = 0;
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+	}
 
-		// delete concept records for the project
-		String deleteConceptsSql = "DELETE FROM concept_dimension WHERE concept_cd LIKE '" + conceptCodePattern
-				+ "' AND sourcesystem_cd = '" + sourceSystem + "'";
+	/**
+	 * Delete the observations of the project per chunk of concept codes, so the
+	 * deletes can use the concept_cd index of observation_fact instead of
+	 * scanning the table. The last chunk is padded with its last code, so one
+	 * prepared statement serves all chunks.
+	 */
+	private void deleteObservations(String conceptCodePattern, String sourceSystem) throws SQLException {
+		List<String> conceptCodes = new ArrayList<String>();
 
-		stmt.executeUpdate(deleteConceptsSql);
+		PreparedStatement selectStmt = con.prepareStatement(SELECT_FACT_CONCEPTS_SQL);
+		try {
+			selectStmt.setString(1, conceptCodePattern);
+			selectStmt.setString(2, sourceSystem);
+			ResultSet rs = selectStmt.executeQuery();
+			while (rs.next()) {
+				conceptCodes.add(rs.getString(1));
+			}
+			rs.close();
+		} finally {
+			selectStmt.close();
+		}
 
-		// populate concept dimension from study table
-		String insertConceptsSql = "INSERT INTO Concept_Dimension (concept_path, concept_cd, name_char, "
-				+ "update_date, download_date, import_date, sourcesystem_cd) "
-				+ "SELECT C_DIMCODE, C_BASECODE, C_NAME, UPDATE_DATE, DOWNLOAD_DATE, IMPORT_DATE, SOURCESYSTEM_CD "
-				+ "FROM STUDY WHERE C_BASECODE LIKE '" + conceptCodePattern + "'";
-		stmt.executeUpdate(insertConceptsSql);
+		if (conceptCodes.isEmpty()) {
+			return;
+		}
+
+		int chunkSize = Math.min(conceptCodes.size(), DELETE_CHUNK_SIZE);
+		PreparedStatement deleteStmt = con.prepareStatement(getDeleteFactsSql(chunkSize));
+		try {
+			for (int start = 0; start < conceptCodes.size(); start += chunkSize) {
+				int end = Math.min(start + chunkSize, conceptCodes.size());
 
-		stmt.close();
+				deleteStmt.setString(1, sourceSystem);
+				for (int i = 0; i < chunkSize; i++) {
+					deleteStmt.setString(i + 2, conceptCodes.get(Math.min(start + i, end - 1)));
+				}
+				deleteStmt.executeUpdate();
+			}
+		} finally {
+			deleteStmt.close();
+		}
+	}
+
+	private static String getDeleteFactsSql(int chunkSize) {
+		StringBuilder sql = new StringBuilder("DELETE FROM observation_fact WHERE sourcesystem_cd = ? AND concept_cd IN (?");
+		for (int i = 1; i < chunkSize; i++) {
+			sql.append(",?");
+		}
+		return sql.append(")").toString();
+	}
+
+	/**
+	 * Replace the concept_dimension records of the project with the concepts
+	 * in the study table.
+	 */
+	private void replaceConcepts(String conceptCodePattern, String sourceSystem) throws SQLException {
+		PreparedStatement deleteStmt = con.prepareStatement(DELETE_CONCEPTS_SQL);
+		try {
+			deleteStmt.setString(1, conceptCodePattern);
+			deleteStmt.setString(2, sourceSystem);
+			deleteStmt.executeUpdate();
+		} finally {
+			deleteStmt.close();
+		}
+
+		// populate concept dimension from study table
+		PreparedStatement insertStmt = con.prepareStatement(INSERT_CONCEPTS_SQL);
+		try {
+			insertStmt.setString(1, conceptCodePattern);
+			insertStmt.executeUpdate();
+		} finally {
+			insertStmt.close();
+		}
 	}
 
 	/**
 	 * Method to insert ODM clinical data to observation_fact
 	 */
-	public void insertObservation(I2B2ClinicalDataInfo clinicalDataInfo) throws SQLException {
-		insertObservationStatement.setInt(1, clinicalDataInfo.getEncounterNum());
-		insertObservationStatement.setString(2, clinicalDataInfo.getPatientNum());
-		insertObservationStatement.setString(3, clinicalDataInfo.getConceptCd());
-		insertObservationStatement.setString(4, clinicalDataInfo.getProviderId());
-		insertObservationStatement.setDate(5, I2B2DBUtils.getSQLDateFromUtilDate(clinicalDataInfo.getStartDate()));
-		insertObservationStatement.setString(6, clinicalDataInfo.getModifierCd());
-		insertObservationStatement.setString(7, clinicalDataInfo.getValTypeCd());
-		insertObservationStatement.setString(8, clinicalDataInfo.getTvalChar());
-		insertObservationStatement.setBigDecimal(9, clinicalDataInfo.getNvalNum());
-		insertObservationStatement.setInt(10, clinicalDataInfo.getInstanceNum());
-		insertObservationStatement.setString(11, clinicalDataInfo.getValueFlagCd());
-		insertObservationStatement.setBigDecimal(12, clinicalDataInfo.getQuantityNum());
-		insertObservationStatement.setString(13, clinicalDataInfo.getUnitsCd());
-		insertObservationStatement.setDate(14, I2B2DBUtils.getSQLDateFromUtilDate(clinicalDataInfo.getEndDate()));
-		insertObservationStatement.setString(15, clinicalDataInfo.getLocationCd());
-		insertObservationStatement.setString(16, clinicalDataInfo.getObservationBlob());
-		insertObservationStatement.setBigDecimal(17, clinicalDataInfo.getConfidenceNum());
-		insertObservationStatement.setDate(18, I2B2DBUtils.getSQLDateFromUtilDate(clinicalDataInfo.getUpdateDate()));
-		insertObservationStatement.setDate(19, I2B2DBUtils.getSQLDateFromUtilDate(clinicalDataInfo.getDownloadDate()));
-		insertObservationStatement.setDate(20, I2B2DBUtils.getSQLDateFromUtilDate(clinicalDataInfo.getImportDate()));
-		insertObservationStatement.setString(21, clinicalDataInfo.getSourcesystemCd());
-		insertObservationStatement.setInt(22, clinicalDataInfo.getUploadId());
-
-		if (Boolean.getBoolean("batch.disabled")) {
+	public void insertObservation(ObservationFact fact) throws SQLException {
+		observationFactBinder.bind(insertObservationStatement, fact);
+
+		uncommittedCount++;
+
+		if (batchSizer.isDisabled()) {
 			insertObservationStatement.execute();
+			commitIfDue(0);
 		} else {
 			insertObservationStatement.addBatch();
 
-			if (++observationBatchCount > BATCH_SIZE) {
+			if (++observationBatchCount >= batchSizer.getBatchSize()) {
 				executeBatch();
 			}
 		}
@@ -95,7 +210,58 @@ public class ClinicalDataDao implements IClinicalDataDao {
 
 	@Override
 	public void executeBatch() throws SQLException {
-		insertObservationStatement.executeBatch();
+		if (observationBatchCount > 0) {
+			long startTime = System.nanoTime();
+			insertObservationStatement.executeBatch();
+			batchSizer.batchExecuted(observationBatchCount, System.nanoTime() - startTime);
+		}
 		observationBatchCount = 0;
+		commitIfDue(0);
+	}
+
+	/**
+	 * Commit the transaction when it holds at least commitInterval observations.
+	 *
+	 * @param newCount the number of observations written since the last call.
+	 */
+	protected void commitIfDue(int newCount) throws SQLException {
+		uncommittedCount += newCount;
+		if (commitInterval > 0 && uncommittedCount >= commitInterval) {
+			commit();
+		}
+	}
+
+	/**
+	 * Commit the observations that have been written, if the DAO uses explicit
+	 * transactions.
+	 */
+	public void commit() throws SQLException {
+		if (commitInterval > 0) {
+			con.commit();
+		}
+		uncommittedCount = 0;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		executeBatch();
+		commit();
+		insertObservationStatement.close();
+	}
+
+	/**
+	 * Close the DAO after a failure, without writing the observations that are
+	 * still batched: the uncommitted observations are rolled back.
+	 */
+	public void discard() throws SQLException {
+		try {
+			if (commitInterval > 0) {
+				con.rollback();
+			}
+		} finally {
+			observationBatchCount = 0;
+			uncommittedCount = 0;
+			insertObservationStatement.close();
+		}
 	}
 }
\ No newline at end of file
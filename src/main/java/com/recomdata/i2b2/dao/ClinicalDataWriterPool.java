@@ -0,0 +1,223 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.recomdata.config.Config;
+import com.recomdata.i2b2.entity.ObservationFact;
+
+/**
+ * ClinicalDataWriterPool.java
+ *
+ * DAO that spreads the observation facts over several writers, each with its own
+ * clinical data DAO on its own pooled connection and its own thread. The
+ * observations are handed to the writers (round robin) through bounded queues,
+ * so the caller waits when the writers fall behind. The writers commit in
+ * explicit transactions of chb.i2b2.jdbc.commit.interval observations and at
+ * every executeBatch, which waits until all writers have written their queues.
+ */
+public class ClinicalDataWriterPool implements IClinicalDataDao {
+	private static final Logger log = LoggerFactory.getLogger(ClinicalDataWriterPool.class);
+
+	private static final ObservationFact FLUSH = ObservationFact.text(0, null, null, null, ObservationFact.NO_DATE, null);
+	private static final ObservationFact STOP = ObservationFact.text(0, null, null, null, ObservationFact.NO_DATE, null);
+
+	private final ConnectionPool connectionPool;
+	private final ClinicalDataDao cleanupDao;
+	private final List<Writer> writers = new ArrayList<Writer>();
+	private final ExecutorService executorService;
+	private final Semaphore flushedWriters = new Semaphore(0);
+	private volatile SQLException failure = null;
+	private int nextWriter = 0;
+
+	public ClinicalDataWriterPool(Config config, ConnectionPool connectionPool, int writerCount) throws SQLException {
+		this.connectionPool = connectionPool;
+		int queueCapacity = Integer.parseInt(config.getProperty("chb.i2b2.jdbc.writer.queue", "10000"));
+		int commitInterval = Integer.parseInt(config.getProperty("chb.i2b2.jdbc.commit.interval", "10000"));
+
+		cleanupDao = new ClinicalDataDao();
+		executorService = Executors.newFixedThreadPool(writerCount);
+		try {
+			for (int i = 0; i < writerCount; i++) {
+				Connection con = connectionPool.getConnection();
+				try {
+					writers.add(new Writer(BulkClinicalDataDao.create(config, con, commitInterval), con, queueCapacity));
+				} catch (SQLException e) {
+					connectionPool.releaseConnection(con);
+					throw e;
+				}
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+
+		for (Writer writer : writers) {
+			executorService.execute(writer);
+		}
+		log.info("Writing observation facts with " + writerCount + " writers");
+	}
+
+	/**
+	 * Method to delete records in observation_fact and concept_dimension, on the
+	 * connection of I2B2DBUtils.
+	 */
+	public void cleanupClinicalData(String projectID, String sourceSystem) throws SQLException {
+		cleanupDao.cleanupClinicalData(projectID, sourceSystem);
+	}
+
+	/**
+	 * Method to hand the observation to the next writer.
+	 */
+	public void insertObservation(ObservationFact fact) throws SQLException {
+		checkFailure();
+		put(writers.get(nextWriter), fact);
+		nextWriter = (nextWriter + 1) % writers.size();
+	}
+
+	/**
+	 * Method to wait until all writers have written and committed their observations.
+	 */
+	public void executeBatch() throws SQLException {
+		for (Writer writer : writers) {
+			put(writer, FLUSH);
+		}
+		try {
+			flushedWriters.acquire(writers.size());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the writers", e);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Method to stop the writers, close their DAOs and give back their connections.
+	 * After a failure, the DAOs are closed without writing their batches.
+	 */
+	public void close() throws SQLException {
+		for (Writer writer : writers) {
+			put(writer, STOP);
+		}
+		executorService.shutdown();
+		try {
+			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while stopping the writers", e);
+		}
+
+		for (Writer writer : writers) {
+			try {
+				if (failure == null) {
+					writer.dao.close();
+				} else {
+					writer.dao.discard();
+				}
+			} catch (SQLException e) {
+				fail(e);
+			} finally {
+				connectionPool.releaseConnection(writer.con);
+			}
+		}
+		writers.clear();
+		cleanupDao.close();
+		checkFailure();
+	}
+
+	private void put(Writer writer, ObservationFact fact) throws SQLException {
+		try {
+			writer.queue.put(fact);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while handing an observation to a writer", e);
+		}
+	}
+
+	/**
+	 * Record a failure; the failures after the first are added to it as
+	 * suppressed exceptions.
+	 */
+	private void fail(SQLException e) {
+		synchronized (this) {
+			if (failure == null) {
+				failure = e;
+			} else if (failure != e) {
+				failure.addSuppressed(e);
+			}
+		}
+	}
+
+	private void checkFailure() throws SQLException {
+		if (failure != null) {
+			throw new SQLException("Error writing observation_fact records", failure);
+		}
+	}
+
+	/**
+	 * A writer thread with its own DAO and connection. After a failure of any
+	 * writer, the writers empty their queues without writing, until they are
+	 * stopped.
+	 */
+	private class Writer implements Runnable {
+		private final ClinicalDataDao dao;
+		private final Connection con;
+		private final BlockingQueue<ObservationFact> queue;
+
+		Writer(ClinicalDataDao dao, Connection con, int queueCapacity) {
+			this.dao = dao;
+			this.con = con;
+			this.queue = new ArrayBlockingQueue<ObservationFact>(queueCapacity);
+		}
+
+		public void run() {
+			try {
+				ObservationFact fact = queue.take();
+				while (fact != STOP) {
+					write(fact);
+					fact = queue.take();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void write(ObservationFact fact) {
+			try {
+				if (failure != null) {
+					return;
+				} else if (fact == FLUSH) {
+					dao.executeBatch();
+					dao.commit();
+				} else {
+					dao.insertObservation(fact);
+				}
+			} catch (SQLException e) {
+				log.error("Error inserting observation_fact record: " + fact, e);
+				fail(e);
+			} catch (RuntimeException e) {
+				log.error("Error inserting observation_fact record: " + fact, e);
+				fail(new SQLException("Error inserting observation_fact record", e));
+			} finally {
+				if (fact == FLUSH) {
+					flushedWriters.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectionPool.java
+ *
+ * A fixed number of connections to the i2b2 database, opened with the settings
+ * of I2B2DBUtils.init(). A connection is taken from the pool by one DAO at a
+ * time and given back when the DAO is closed.
+ */
+public class ConnectionPool {
+	private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private final BlockingQueue<Connection> availableConnections;
+
+	public ConnectionPool(int size) throws SQLException {
+		availableConnections = new ArrayBlockingQueue<Connection>(size);
+		try {
+			for (int i = 0; i < size; i++) {
+				Connection con = I2B2DBUtils.openConnection();
+				connections.add(con);
+				availableConnections.add(con);
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public int size() {
+		return connections.size();
+	}
+
+	/**
+	 * Take a connection from the pool, waiting until one is available.
+	 */
+	public Connection getConnection() throws SQLException {
+		try {
+			return availableConnections.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+	}
+
+	/**
+	 * Give a connection back to the pool, in autocommit mode.
+	 */
+	public void releaseConnection(Connection con) throws SQLException {
+		try {
+			if (!con.getAutoCommit()) {
+				con.rollback();
+				con.setAutoCommit(true);
+			}
+		} finally {
+			availableConnections.add(con);
+		}
+	}
+
+	/**
+	 * Close all the connections of the pool.
+	 */
+	public void close() {
+		for (Connection con : connections) {
+			try {
+				con.close();
+			} catch (SQLException e) {
+				log.error("Error closing pooled connection", e);
+			}
+		}
+		connections.clear();
+		availableConnections.clear();
+	}
+}
@@ -0,0 +1,640 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.recomdata.config.Config;
+import com.recomdata.i2b2.entity.ObservationFact;
+
+/**
+ * DeltaClinicalDataDao.java
+ *
+ * DAO for an incremental load of the clinical data: instead of deleting all
+ * observations of a project and inserting them again, every observation is
+ * compared with a fingerprint index of the previous load and only the changes
+ * are written. New observations are inserted by the wrapped DAO, changed
+ * observations are updated and observations that are no longer in the ODM are
+ * deleted, so the time of a refresh depends on the number of changes instead of
+ * the size of the study.
+ *
+ * An observation is identified by its patient, concept and instance number; the
+ * instance number counts the observations of a patient and concept (0 for the
+ * first), so repeated values of an item get their own rows. The fingerprint
+ * covers the values, but not the dates, so unchanged observations keep the dates
+ * of the load in which they were last written.
+ *
+ * The index of a project is a file in the index directory with a block per
+ * patient: the patient, its encounter number and the fingerprints of its
+ * observations. A patient keeps the encounter number of the previous load and a
+ * new patient gets the next free number, so adding or removing a subject does
+ * not renumber (and update) the subjects after it. Only the positions of the
+ * blocks, the fingerprints of the current patient and the fingerprints of the
+ * removed observations (which are deleted in finish()) are kept in memory; the
+ * blocks of this load are appended to a temporary file, which replaces the
+ * index in close() after a load that finished. The index is moved aside when it
+ * is read, so after a load that failed the next load is a full reload of the
+ * project.
+ */
+public class DeltaClinicalDataDao implements IClinicalDataDao {
+	private static final Logger log = LoggerFactory.getLogger(DeltaClinicalDataDao.class);
+
+	public static final String UPDATE_OBSERV_FACT_SQL = "UPDATE " + OBSERV_FACT_TABLE + " SET "
+			+ "Encounter_Num=?,ValType_Cd=?,TVal_Char=?,NVal_Num=?,Start_Date=?,End_Date=?,"
+			+ "UPDATE_DATE=?,DOWNLOAD_DATE=?,IMPORT_DATE=? "
+			+ "WHERE REDCap_Subject_ID=? AND Concept_Cd=? AND INSTANCE_NUM=? AND SOURCESYSTEM_CD=?";
+
+	public static final String DELETE_OBSERV_FACT_SQL = "DELETE FROM " + OBSERV_FACT_TABLE + " "
+			+ "WHERE REDCap_Subject_ID=? AND Concept_Cd=? AND INSTANCE_NUM=? AND SOURCESYSTEM_CD=?";
+
+	private static final String CONCEPT_CODE_PREFIX = "STUDY|";
+
+	private static final int INDEX_FORMAT = 2;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final IClinicalDataDao dao;
+	private final File indexDirectory;
+	private final ClinicalDataDao conceptDao;
+	private final ObservationFactBinder observationFactBinder = new ObservationFactBinder();
+	private final PreparedStatement updateStatement;
+	private final PreparedStatement deleteStatement;
+	private int updateBatchCount = 0;
+	private int deleteBatchCount = 0;
+
+	private final Map<String, FactIndex> indexes = new HashMap<String, FactIndex>();
+	private boolean finished = false;
+
+	private int insertedCount = 0;
+	private int updatedCount = 0;
+	private int unchangedCount = 0;
+	private int deletedCount = 0;
+
+	/**
+	 * Constructor for a delta DAO that inserts the new observations with dao and
+	 * updates and deletes the other observations on the connection of I2B2DBUtils.
+	 */
+	public DeltaClinicalDataDao(IClinicalDataDao dao, File indexDirectory) throws SQLException {
+		this.dao = dao;
+		this.indexDirectory = indexDirectory;
+		conceptDao = new ClinicalDataDao();
+		updateStatement = I2B2DBUtils.getI2B2DBConnection().prepareStatement(UPDATE_OBSERV_FACT_SQL);
+		deleteStatement = I2B2DBUtils.getI2B2DBConnection().prepareStatement(DELETE_OBSERV_FACT_SQL);
+	}
+
+	/**
+	 * Wrap a clinical data DAO in a delta DAO if chb.i2b2.delta.load is true.
+	 *
+	 * chb.i2b2.delta.load: whether only the changes are loaded (default false).
+	 * chb.i2b2.delta.dir: the directory of the fingerprint indexes (default
+	 * delta-index).
+	 */
+	public static IClinicalDataDao create(Config config, IClinicalDataDao dao) throws SQLException {
+		if (!Boolean.parseBoolean(config.getProperty("chb.i2b2.delta.load", "false"))) {
+			return dao;
+		}
+
+		File indexDirectory = new File(config.getProperty("chb.i2b2.delta.dir", "delta-index"));
+		log.info("Loading the changes of the observation facts, with the fingerprint indexes in " + indexDirectory);
+
+		return new DeltaClinicalDataDao(dao, indexDirectory);
+	}
+
+	/**
+	 * Open the fingerprint index of the project. Without an index, the observations
+	 * of the project are deleted (a full reload); with an index, only the concepts
+	 * are refreshed.
+	 */
+	public void cleanupClinicalData(String projectID, String sourceSystem) throws SQLException {
+		FactIndex previousIndex = indexes.remove(projectID);
+		if (previousIndex != null) {
+			previousIndex.discard();
+		}
+
+		FactIndex index = new FactIndex(getIndexFile(projectID, sourceSystem), sourceSystem);
+
+		if (index.openPrevious()) {
+			log.info("Comparing the observations of project " + projectID + " with the fingerprints of "
+					+ index.previousBlocks.size() + " patients of the previous load");
+			conceptDao.refreshConcepts(projectID, sourceSystem);
+		} else {
+			log.info("No fingerprint index for project " + projectID + "; reloading all observations");
+			dao.cleanupClinicalData(projectID, sourceSystem);
+		}
+
+		try {
+			index.openCurrent(indexDirectory);
+		} catch (IOException e) {
+			index.discard();
+			throw new SQLException("Error creating fingerprint index " + index.currentFile, e);
+		}
+		indexes.put(projectID, index);
+	}
+
+	public void insertObservation(ObservationFact fact) throws SQLException {
+		FactIndex index = indexes.get(getProjectID(fact.getConceptCd()));
+		if (index == null) {
+			dao.insertObservation(fact);
+			return;
+		}
+
+		PatientFacts patient = index.patient;
+		if (patient == null || !patient.patientNum.equals(fact.getPatientNum())) {
+			finishPatient(index);
+			patient = startPatient(index, fact.getPatientNum());
+		}
+
+		FactKey key = new FactKey(fact.getConceptCd(), 0);
+		while (patient.current.containsKey(key)) {
+			key = new FactKey(key.conceptCd, key.instanceNum + 1);
+		}
+
+		ObservationFact instance = fact.withNumbers(patient.encounterNum, key.instanceNum);
+		long fingerprint = getFingerprint(instance);
+		Long previousFingerprint = patient.previous.remove(key);
+
+		if (previousFingerprint == null) {
+			dao.insertObservation(instance);
+			insertedCount++;
+		} else if (previousFingerprint.longValue() != fingerprint) {
+			observationFactBinder.bindUpdate(updateStatement, instance);
+			updateStatement.addBatch();
+			updatedCount++;
+			if (++updateBatchCount >= BATCH_SIZE) {
+				executeUpdates();
+			}
+		} else {
+			unchangedCount++;
+		}
+
+		patient.current.put(key, fingerprint);
+	}
+
+	public void executeBatch() throws SQLException {
+		dao.executeBatch();
+		executeUpdates();
+	}
+
+	/**
+	 * Delete the observations of the previous load that were not in this load. The
+	 * indexes of this load are written when the DAO is closed after this method.
+	 */
+	public void finish() throws SQLException {
+		executeBatch();
+
+		for (FactIndex index : indexes.values()) {
+			finishPatient(index);
+
+			for (Map.Entry<String, Map<FactKey, Long>> entry : index.unseenFacts.entrySet()) {
+				deleteObservations(index, entry.getKey(), entry.getValue());
+			}
+			index.unseenFacts.clear();
+
+			for (Map.Entry<String, PatientBlock> entry : index.previousBlocks.entrySet()) {
+				Map<FactKey, Long> fingerprints = new HashMap<FactKey, Long>();
+				try {
+					index.readPrevious(entry.getValue(), fingerprints);
+				} catch (IOException e) {
+					throw new SQLException("Error reading fingerprint index " + index.previousFile, e);
+				}
+				deleteObservations(index, entry.getKey(), fingerprints);
+			}
+			index.previousBlocks.clear();
+		}
+		executeDeletes();
+
+		log.info("Delta load of observation facts: " + insertedCount + " inserted, " + updatedCount + " updated, "
+				+ deletedCount + " deleted, " + unchangedCount + " unchanged");
+		finished = true;
+	}
+
+	/**
+	 * Close the wrapped DAO and, if the load finished, replace the fingerprint
+	 * indexes with the ones of this load.
+	 */
+	public void close() throws SQLException {
+		try {
+			dao.close();
+			conceptDao.close();
+		} finally {
+			updateStatement.close();
+			deleteStatement.close();
+		}
+
+		try {
+			for (FactIndex index : indexes.values()) {
+				if (finished) {
+					index.commit();
+				} else {
+					index.discard();
+				}
+			}
+		} catch (IOException e) {
+			throw new SQLException("Error writing fingerprint index", e);
+		} finally {
+			indexes.clear();
+		}
+	}
+
+	/**
+	 * Read the fingerprints of a patient of the previous load and find its
+	 * encounter number. A patient that already appeared in this load continues
+	 * with the observations of that appearance and the previous observations it
+	 * did not have yet.
+	 */
+	private PatientFacts startPatient(FactIndex index, String patientNum) throws SQLException {
+		PatientFacts patient;
+		try {
+			PatientBlock currentBlock = index.currentBlocks.get(patientNum);
+			PatientBlock previousBlock = index.previousBlocks.remove(patientNum);
+			if (currentBlock != null) {
+				patient = new PatientFacts(patientNum, currentBlock.encounterNum);
+				index.readCurrent(currentBlock, patient.current);
+				Map<FactKey, Long> unseenFacts = index.unseenFacts.remove(patientNum);
+				if (unseenFacts != null) {
+					patient.previous.putAll(unseenFacts);
+				}
+			} else if (previousBlock != null) {
+				patient = new PatientFacts(patientNum, previousBlock.encounterNum);
+				index.readPrevious(previousBlock, patient.previous);
+			} else {
+				patient = new PatientFacts(patientNum, ++index.maxEncounterNum);
+			}
+		} catch (IOException e) {
+			throw new SQLException("Error reading fingerprint index of patient " + patientNum, e);
+		}
+
+		index.patient = patient;
+		return patient;
+	}
+
+	/**
+	 * Append the fingerprints of the current patient to the index of this load.
+	 * The observations of the previous load that the patient did not have are
+	 * deleted in finish(), as the patient may still appear again in this load.
+	 */
+	private void finishPatient(FactIndex index) throws SQLException {
+		PatientFacts patient = index.patient;
+		if (patient == null) {
+			return;
+		}
+
+		if (!patient.previous.isEmpty()) {
+			index.unseenFacts.put(patient.patientNum, patient.previous);
+		}
+		try {
+			index.writeCurrent(patient);
+		} catch (IOException e) {
+			throw new SQLException("Error writing fingerprint index " + index.currentFile, e);
+		}
+		index.patient = null;
+	}
+
+	private void deleteObservations(FactIndex index, String patientNum, Map<FactKey, Long> fingerprints)
+			throws SQLException {
+		for (FactKey key : fingerprints.keySet()) {
+			deleteStatement.setString(1, patientNum);
+			deleteStatement.setString(2, key.conceptCd);
+			deleteStatement.setInt(3, key.instanceNum);
+			deleteStatement.setString(4, index.sourceSystem);
+			deleteStatement.addBatch();
+			deletedCount++;
+			if (++deleteBatchCount >= BATCH_SIZE) {
+				executeDeletes();
+			}
+		}
+	}
+
+	private void executeUpdates() throws SQLException {
+		if (updateBatchCount > 0) {
+			updateStatement.executeBatch();
+			updateBatchCount = 0;
+		}
+	}
+
+	private void executeDeletes() throws SQLException {
+		if (deleteBatchCount > 0) {
+			deleteStatement.executeBatch();
+			deleteBatchCount = 0;
+		}
+	}
+
+	/**
+	 * @return the project ID in a concept code (STUDY|projectID|hash), or null
+	 */
+	static String getProjectID(String conceptCd) {
+		int end = conceptCd == null ? -1 : conceptCd.lastIndexOf('|');
+		if (end <= CONCEPT_CODE_PREFIX.length() || !conceptCd.startsWith(CONCEPT_CODE_PREFIX)) {
+			return null;
+		}
+
+		return conceptCd.substring(CONCEPT_CODE_PREFIX.length(), end);
+	}
+
+	/**
+	 * @return the 64 bit FNV-1a hash of the values of a fact
+	 */
+	static long getFingerprint(ObservationFact fact) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, fact.getValTypeCd());
+		hash = hash(hash, fact.getTvalChar());
+		hash = hash(hash, fact.isNvalLong() ? Long.toString(fact.getNvalLong())
+				: fact.getNvalNum() == null ? null : fact.getNvalNum().toString());
+		return hash;
+	}
+
+	/**
+	 * Add the characters of a value and a separator (a different one for null) to a hash.
+	 */
+	private static long hash(long hash, String value) {
+		long result = hash;
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				result = (result ^ value.charAt(i)) * FNV_PRIME;
+			}
+		}
+		return (result ^ (value == null ? 0xFFFE : 0xFFFF)) * FNV_PRIME;
+	}
+
+	private File getIndexFile(String projectID, String sourceSystem) {
+		return new File(indexDirectory, (sourceSystem + "_" + projectID).replaceAll("[^A-Za-z0-9._-]", "_")
+				+ ".fingerprints");
+	}
+
+	/**
+	 * The fingerprint indexes of the previous load and of this load, for one
+	 * project. Both files start with the format number, followed by a block per
+	 * patient (the length of the block, the patient, its encounter number, the
+	 * number of observations and the concept, instance number and fingerprint of
+	 * every observation).
+	 */
+	private static final class FactIndex {
+		private final File file;
+		private final File previousFile;
+		private final File currentFile;
+		private final String sourceSystem;
+
+		/** The blocks of the previous load of the patients not seen yet in this load. */
+		private final Map<String, PatientBlock> previousBlocks = new HashMap<String, PatientBlock>();
+		private final Map<String, PatientBlock> currentBlocks = new HashMap<String, PatientBlock>();
+		/** The fingerprints of the previous load that the patients of this load did not have (yet). */
+		private final Map<String, Map<FactKey, Long>> unseenFacts = new HashMap<String, Map<FactKey, Long>>();
+		private RandomAccessFile previousInput;
+		private DataOutputStream currentOutput;
+		private long currentLength;
+		private int maxEncounterNum = 0;
+		private PatientFacts patient;
+
+		FactIndex(File file, String sourceSystem) {
+			this.file = file;
+			this.previousFile = new File(file.getPath() + ".previous");
+			this.currentFile = new File(file.getPath() + ".tmp");
+			this.sourceSystem = sourceSystem;
+		}
+
+		/**
+		 * Move the index aside and find the blocks of its patients.
+		 *
+		 * @return whether the index was read.
+		 */
+		boolean openPrevious() {
+			deleteFile(previousFile);
+			if (!file.isFile()) {
+				return false;
+			}
+			if (!file.renameTo(previousFile)) {
+				log.warn("Could not move fingerprint index " + file + " to " + previousFile);
+				deleteFile(file);
+				return false;
+			}
+
+			boolean read = false;
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(previousFile)));
+				try {
+					if (in.readInt() == INDEX_FORMAT) {
+						long length = previousFile.length();
+						long offset = 4;
+						while (offset < length) {
+							byte[] block = new byte[in.readInt()];
+							in.readFully(block);
+							DataInputStream blockIn = new DataInputStream(new ByteArrayInputStream(block));
+							String patientNum = blockIn.readUTF();
+							int encounterNum = blockIn.readInt();
+							previousBlocks.put(patientNum, new PatientBlock(offset + 4, block.length, encounterNum));
+							maxEncounterNum = Math.max(maxEncounterNum, encounterNum);
+							offset += 4 + block.length;
+						}
+						read = true;
+					} else {
+						log.warn("Unknown format of fingerprint index " + file);
+					}
+				} finally {
+					in.close();
+				}
+
+				if (read) {
+					previousInput = new RandomAccessFile(previousFile, "r");
+				}
+			} catch (IOException e) {
+				log.warn("Could not read fingerprint index " + file, e);
+				read = false;
+			}
+
+			if (!read) {
+				previousBlocks.clear();
+				maxEncounterNum = 0;
+				deleteFile(previousFile);
+			}
+			return read;
+		}
+
+		void openCurrent(File indexDirectory) throws IOException {
+			if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+				throw new IOException("Could not create directory " + indexDirectory);
+			}
+
+			currentOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(currentFile)));
+			currentOutput.writeInt(INDEX_FORMAT);
+			currentLength = 4;
+		}
+
+		void readPrevious(PatientBlock block, Map<FactKey, Long> fingerprints) throws IOException {
+			readBlock(previousInput, block, fingerprints);
+		}
+
+		/**
+		 * Read a block of this load again, for a patient that appears twice.
+		 */
+		void readCurrent(PatientBlock block, Map<FactKey, Long> fingerprints) throws IOException {
+			currentOutput.flush();
+			RandomAccessFile in = new RandomAccessFile(currentFile, "r");
+			try {
+				readBlock(in, block, fingerprints);
+			} finally {
+				in.close();
+			}
+		}
+
+		void writeCurrent(PatientFacts facts) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeUTF(facts.patientNum);
+			out.writeInt(facts.encounterNum);
+			out.writeInt(facts.current.size());
+			for (Map.Entry<FactKey, Long> entry : facts.current.entrySet()) {
+				out.writeUTF(entry.getKey().conceptCd);
+				out.writeInt(entry.getKey().instanceNum);
+				out.writeLong(entry.getValue());
+			}
+			out.close();
+
+			currentOutput.writeInt(bytes.size());
+			bytes.writeTo(currentOutput);
+			currentBlocks.put(facts.patientNum, new PatientBlock(currentLength + 4, bytes.size(), facts.encounterNum));
+			currentLength += 4 + bytes.size();
+		}
+
+		/**
+		 * Replace the index with the one of this load.
+		 */
+		void commit() throws IOException {
+			closeFiles();
+			if (!currentFile.renameTo(file)) {
+				throw new IOException("Could not rename " + currentFile + " to " + file);
+			}
+			deleteFile(previousFile);
+		}
+
+		/**
+		 * Remove both indexes, so the next load is a full reload.
+		 */
+		void discard() {
+			try {
+				closeFiles();
+			} catch (IOException e) {
+				log.warn("Could not close fingerprint index " + file, e);
+			}
+			deleteFile(currentFile);
+			deleteFile(previousFile);
+		}
+
+		private void closeFiles() throws IOException {
+			try {
+				if (currentOutput != null) {
+					currentOutput.close();
+					currentOutput = null;
+				}
+			} finally {
+				if (previousInput != null) {
+					previousInput.close();
+					previousInput = null;
+				}
+			}
+		}
+
+		private static void readBlock(RandomAccessFile in, PatientBlock block, Map<FactKey, Long> fingerprints)
+				throws IOException {
+			byte[] bytes = new byte[block.length];
+			in.seek(block.offset);
+			in.readFully(bytes);
+
+			DataInputStream blockIn = new DataInputStream(new ByteArrayInputStream(bytes));
+			blockIn.readUTF();
+			blockIn.readInt();
+			int size = blockIn.readInt();
+			for (int i = 0; i < size; i++) {
+				FactKey key = new FactKey(blockIn.readUTF(), blockIn.readInt());
+				fingerprints.put(key, blockIn.readLong());
+			}
+		}
+
+		private static void deleteFile(File indexFile) {
+			if (indexFile.exists() && !indexFile.delete()) {
+				log.warn("Could not delete fingerprint index " + indexFile);
+			}
+		}
+	}
+
+	/**
+	 * The position of the block of a patient in an index, and its encounter number.
+	 */
+	private static final class PatientBlock {
+		private final long offset;
+		private final int length;
+		private final int encounterNum;
+
+		PatientBlock(long offset, int length, int encounterNum) {
+			this.offset = offset;
+			this.length = length;
+			this.encounterNum = encounterNum;
+		}
+	}
+
+	/**
+	 * The fingerprints of the patient that is being loaded: the ones of the previous
+	 * load that have not been seen yet in this load and the ones of this load.
+	 */
+	private static final class PatientFacts {
+		private final String patientNum;
+		private final int encounterNum;
+		private final Map<FactKey, Long> previous = new HashMap<FactKey, Long>();
+		private final Map<FactKey, Long> current = new LinkedHashMap<FactKey, Long>();
+
+		PatientFacts(String patientNum, int encounterNum) {
+			this.patientNum = patientNum;
+			this.encounterNum = encounterNum;
+		}
+	}
+
+	/**
+	 * The concept and instance number of an observation of a patient.
+	 */
+	private static final class FactKey {
+		private final String conceptCd;
+		private final int instanceNum;
+		private final int hashCode;
+
+		FactKey(String conceptCd, int instanceNum) {
+			this.conceptCd = conceptCd;
+			this.instanceNum = instanceNum;
+			this.hashCode = conceptCd.hashCode() * 31 + instanceNum;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof FactKey)) {
+				return false;
+			}
+
+			FactKey key = (FactKey) other;
+			return instanceNum == key.instanceNum && conceptCd.equals(key.conceptCd);
+		}
+	}
+}
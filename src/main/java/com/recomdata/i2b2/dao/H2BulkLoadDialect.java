@@ -0,0 +1,23 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+/**
+ * H2BulkLoadDialect.java
+ *
+ * Bulk load for the H2 database with CSVREAD. H2 is not an i2b2 database, but as
+ * an embedded database it can stand in for one to test the bulk load locally.
+ */
+public class H2BulkLoadDialect implements IBulkLoadDialect {
+
+	public boolean supports(String jdbcUrl) {
+		return jdbcUrl.startsWith("jdbc:h2:");
+	}
+
+	public String getLoadSql(String tableName, String columnNames, String stagingFilePath) {
+		return "INSERT INTO " + tableName + " (" + columnNames + ") SELECT * FROM CSVREAD('"
+				+ stagingFilePath.replace("'", "''") + "', NULL, 'charset=UTF-8 fieldSeparator=,')";
+	}
+}
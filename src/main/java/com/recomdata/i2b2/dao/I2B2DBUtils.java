@@ -18,6 +18,9 @@ import com.recomdata.config.Config;
 public class I2B2DBUtils
 {
 	private static Connection conn = null;
+	private static String url = null;
+	private static Properties connectionProps = null;
+	private static ConnectionPool connectionPool = null;
 	
 	private I2B2DBUtils(){}
 	
@@ -28,23 +31,54 @@ public class I2B2DBUtils
 		String dbPass = config.getProperty("chb.i2b2.jdbc.dbpasswd");
 		
 		init(jdbcUrl, dbUser, dbPass, jdbcDriver);
+
+		int poolSize = Integer.parseInt(config.getProperty("chb.i2b2.jdbc.pool.size", "0"));
+		if (poolSize > 0) {
+			connectionPool = new ConnectionPool(poolSize);
+		}
 	}
 	
 	public static void init(String jdbcUrl, String dbUser, String dbPass, String jdbcDriver)
 	throws ClassNotFoundException, SQLException {
-		String url = jdbcUrl;
+		url = jdbcUrl;
 		
-		Properties props = new Properties();
-		props.setProperty("user", dbUser);
-		props.setProperty("password", dbPass);
-		props.setProperty("ssl", "false");
+		connectionProps = new Properties();
+		connectionProps.setProperty("user", dbUser);
+		connectionProps.setProperty("password", dbPass);
+		connectionProps.setProperty("ssl", "false");
 
 		Class.forName(jdbcDriver);
-		conn = DriverManager.getConnection(url, props);
+		conn = openConnection();
+	}
+
+	/**
+	 * Open a new connection with the settings of init(), for a DAO that needs
+	 * a connection of its own.
+	 */
+	public static Connection openConnection() throws SQLException {
+		if (url == null) {
+			throw new RuntimeException("Connection not initialized. Call init() first.");
+		}
+
+		return DriverManager.getConnection(url, connectionProps);
+	}
+
+	/**
+	 * Get the pool of connections for parallel writers, which is created by
+	 * init(Config) when chb.i2b2.jdbc.pool.size is larger than 0.
+	 *
+	 * @return the pool, or null if no pool is configured.
+	 */
+	public static ConnectionPool getConnectionPool() {
+		return connectionPool;
 	}
 	
 	public static void shutdown() {
 		try {
+			if (connectionPool != null) {
+				connectionPool.close();
+				connectionPool = null;
+			}
 			conn.close();
 		} catch (SQLException e) {
 			System.out.println("Error closing connection");
@@ -62,6 +96,42 @@ public class I2B2DBUtils
 		return conn;
 	}
 
+	/**
+	 * The escape character of the LIKE patterns of getPrefixPattern, for a
+	 * LIKE ? ESCAPE '!' predicate (an explicit escape character also overrides
+	 * the backslash that some databases use by default).
+	 */
+	public static final char LIKE_ESCAPE = '!';
+
+	/**
+	 * Get a LIKE pattern that matches the values that start with a prefix, for
+	 * the database of init(). The wildcards in the prefix are escaped, so the
+	 * prefix is matched literally and the database can use an index range scan.
+	 */
+	public static String getPrefixPattern(String prefix) {
+		return getPrefixPattern(prefix, url);
+	}
+
+	/**
+	 * Get a LIKE pattern that matches the values that start with a prefix, for
+	 * the database behind a JDBC url. Only SQL Server gets '[' (which starts a
+	 * character class there) escaped, as Oracle rejects an escape character
+	 * before anything but a wildcard or the escape character itself.
+	 */
+	public static String getPrefixPattern(String prefix, String jdbcUrl) {
+		boolean escapeBracket = jdbcUrl != null
+				&& (jdbcUrl.startsWith("jdbc:sqlserver:") || jdbcUrl.startsWith("jdbc:jtds:sqlserver:"));
+		StringBuilder pattern = new StringBuilder(prefix.length() + 8);
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			if (c == LIKE_ESCAPE || c == '%' || c == '_' || (c == '[' && escapeBracket)) {
+				pattern.append(LIKE_ESCAPE);
+			}
+			pattern.append(c);
+		}
+		return pattern.append('%').toString();
+	}
+
 	/**
 	* Convert util.Date into sql Date
 	*/
@@ -0,0 +1,36 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+/**
+ * IBulkLoadDialect.java
+ *
+ * The database specific part of the bulk load of observation facts: the statement
+ * that loads a staging file into a table. The staging file is a UTF-8 CSV file
+ * (RFC 4180) with a header line, a comma as separator, a double quote as quote
+ * character and a newline as line terminator. Null values are empty and unquoted,
+ * all other values are quoted.
+ */
+public interface IBulkLoadDialect {
+
+	/**
+	 * interface method to check whether the dialect can load into the database
+	 * behind a JDBC url.
+	 *
+	 * @param jdbcUrl the JDBC url of the database.
+	 * @return whether the dialect supports the database.
+	 */
+	public boolean supports(String jdbcUrl);
+
+	/**
+	 * interface method to create the statement that loads a staging file.
+	 *
+	 * @param tableName the table to load into.
+	 * @param columnNames the comma separated columns, in the order of the staging file.
+	 * @param stagingFilePath the path of the staging file, as seen by the database server.
+	 * @return the SQL statement.
+	 */
+	public String getLoadSql(String tableName, String columnNames, String stagingFilePath);
+}
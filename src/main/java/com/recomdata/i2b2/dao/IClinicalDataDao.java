@@ -6,7 +6,7 @@ package com.recomdata.i2b2.dao;
 
 import java.sql.SQLException;
 
-import com.recomdata.i2b2.entity.I2B2ClinicalDataInfo;
+import com.recomdata.i2b2.entity.ObservationFact;
 
 /**
  *
@@ -16,7 +16,9 @@ import com.recomdata.i2b2.entity.I2B2ClinicalDataInfo;
 public interface IClinicalDataDao {
 	public static final int BATCH_SIZE = 100;
 
-	public static final String INSERT_OBSERV_FACT_SQL =  "INSERT INTO Observation_Fact (Encounter_Num,"+
+	public static final String OBSERV_FACT_TABLE = "Observation_Fact";
+
+	public static final String OBSERV_FACT_COLUMNS = "Encounter_Num,"+
 												"REDCap_Subject_ID,"+
 												"Concept_Cd,"+
 												"Provider_Id,"+
@@ -37,7 +39,9 @@ public interface IClinicalDataDao {
 												"DOWNLOAD_DATE,"+
 												"IMPORT_DATE,"+
 												"SOURCESYSTEM_CD,"+
-												"UPLOAD_ID) "+
+												"UPLOAD_ID";
+
+	public static final String INSERT_OBSERV_FACT_SQL =  "INSERT INTO " + OBSERV_FACT_TABLE + " (" + OBSERV_FACT_COLUMNS + ") "+
 												"VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
 
@@ -52,13 +56,19 @@ public interface IClinicalDataDao {
 	/**
 	 * interface method for insert ODM data into i2b2demodata Observation.
 	 *
-	 * @param I2B2ClinicalDataInfo
-	 * @param clinicalDataInfo
-	 * @return
+	 * @param fact the observation fact.
 	 * @throws SQLException
 	 */
-	public void insertObservation(I2B2ClinicalDataInfo clinicalDataInfo) throws SQLException;
+	public void insertObservation(ObservationFact fact) throws SQLException;
 
 	public void executeBatch() throws SQLException;
 
+	/**
+	 * interface method to write the remaining observations and release the
+	 * statements (and connections) of the DAO.
+	 *
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException;
+
 }
\ No newline at end of file
@@ -5,7 +5,9 @@
 package com.recomdata.i2b2.dao;
 
 import java.sql.SQLException;
-import com.recomdata.i2b2.entity.I2B2StudyInfo;
+import java.util.List;
+
+import com.recomdata.i2b2.entity.OntologyRow;
 
 /**
  *
@@ -54,12 +56,19 @@ public interface IStudyDao {
 	/**
 	 * interface method for insert ODM data into i2b2metadata SDUDY.
 	 *
-	 * @param I2B2StudyInfo
-	 * @param studyInfo
-	 * @return
+	 * @param row the ontology row.
+	 * @throws SQLException
+	 */
+	public void insertMetadata(OntologyRow row) throws SQLException;
+
+	/**
+	 * interface method for insert the ontology rows of a study into i2b2metadata
+	 * SDUDY, in batches.
+	 *
+	 * @param rows the ontology rows.
 	 * @throws SQLException
 	 */
-	public void insertMetadata(I2B2StudyInfo studyInfo) throws SQLException;
+	public void insertMetadata(List<OntologyRow> rows) throws SQLException;
 	
 	public void executeBatch() throws SQLException;
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import com.recomdata.i2b2.entity.ObservationFact;
+
+/**
+ * ObservationFactBinder.java
+ *
+ * Binds an observation fact to the parameters of IClinicalDataDao.INSERT_OBSERV_FACT_SQL
+ * (or of DeltaClinicalDataDao.UPDATE_OBSERV_FACT_SQL).
+ * The facts of one load share their dates, so the binder keeps the last java.sql.Date
+ * it created and reuses it while the date does not change.
+ */
+public class ObservationFactBinder {
+	private long cachedMillis = ObservationFact.NO_DATE;
+	private Date cachedDate = null;
+
+	public void bind(PreparedStatement statement, ObservationFact fact) throws SQLException {
+		statement.setInt(1, fact.getEncounterNum());
+		statement.setString(2, fact.getPatientNum());
+		statement.setString(3, fact.getConceptCd());
+		statement.setString(4, fact.getProviderId());
+		statement.setDate(5, getDate(fact.getStartDate()));
+		statement.setString(6, fact.getModifierCd());
+		statement.setString(7, fact.getValTypeCd());
+		statement.setString(8, fact.getTvalChar());
+		if (fact.isNvalLong()) {
+			statement.setLong(9, fact.getNvalLong());
+		} else {
+			statement.setBigDecimal(9, fact.getNvalNum());
+		}
+		statement.setInt(10, fact.getInstanceNum());
+		statement.setString(11, null);
+		statement.setBigDecimal(12, null);
+		statement.setString(13, null);
+		statement.setDate(14, getDate(fact.getEndDate()));
+		statement.setString(15, null);
+		statement.setString(16, null);
+		statement.setBigDecimal(17, null);
+		Date loadDate = getDate(fact.getLoadDate());
+		statement.setDate(18, loadDate);
+		statement.setDate(19, loadDate);
+		statement.setDate(20, loadDate);
+		statement.setString(21, fact.getSourcesystemCd());
+		statement.setInt(22, fact.getUploadId());
+	}
+
+	/**
+	 * Bind the values and dates of a fact to DeltaClinicalDataDao.UPDATE_OBSERV_FACT_SQL,
+	 * which updates the observation with the same patient, concept and instance.
+	 */
+	public void bindUpdate(PreparedStatement statement, ObservationFact fact) throws SQLException {
+		statement.setInt(1, fact.getEncounterNum());
+		statement.setString(2, fact.getValTypeCd());
+		statement.setString(3, fact.getTvalChar());
+		if (fact.isNvalLong()) {
+			statement.setLong(4, fact.getNvalLong());
+		} else {
+			statement.setBigDecimal(4, fact.getNvalNum());
+		}
+		statement.setDate(5, getDate(fact.getStartDate()));
+		statement.setDate(6, getDate(fact.getEndDate()));
+		Date loadDate = getDate(fact.getLoadDate());
+		statement.setDate(7, loadDate);
+		statement.setDate(8, loadDate);
+		statement.setDate(9, loadDate);
+		statement.setString(10, fact.getPatientNum());
+		statement.setString(11, fact.getConceptCd());
+		statement.setInt(12, fact.getInstanceNum());
+		statement.setString(13, fact.getSourcesystemCd());
+	}
+
+	/**
+	 * @return the SQL date for the milliseconds, or null for ObservationFact.NO_DATE
+	 */
+	private Date getDate(long millis) {
+		if (millis == ObservationFact.NO_DATE) {
+			return null;
+		} else if (millis != cachedMillis || cachedDate == null) {
+			cachedMillis = millis;
+			cachedDate = new Date(millis);
+		}
+
+		return cachedDate;
+	}
+}
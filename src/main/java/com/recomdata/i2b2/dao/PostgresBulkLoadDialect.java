@@ -0,0 +1,24 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+/**
+ * PostgresBulkLoadDialect.java
+ *
+ * Bulk load for PostgreSQL with COPY FROM a file. The staging file is read by the
+ * database server, so it has to be on a file system that the server can read and
+ * the database user needs the pg_read_server_files role (or superuser).
+ */
+public class PostgresBulkLoadDialect implements IBulkLoadDialect {
+
+	public boolean supports(String jdbcUrl) {
+		return jdbcUrl.startsWith("jdbc:postgresql:");
+	}
+
+	public String getLoadSql(String tableName, String columnNames, String stagingFilePath) {
+		return "COPY " + tableName + " (" + columnNames + ") FROM '" + stagingFilePath.replace("'", "''")
+				+ "' WITH (FORMAT csv, HEADER true, ENCODING 'UTF8')";
+	}
+}
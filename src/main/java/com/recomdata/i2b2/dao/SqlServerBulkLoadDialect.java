@@ -0,0 +1,40 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.dao;
+
+/**
+ * SqlServerBulkLoadDialect.java
+ *
+ * Bulk load for SQL Server (2017 or later, for the CSV format) with BULK INSERT.
+ * The staging file is read by the database server, so it has to be on a share
+ * that the server can read. BULK INSERT does not take a column list, so the file
+ * is loaded into a temporary table with the columns of the staging file, from
+ * which the rows are inserted into the named columns of the table.
+ */
+public class SqlServerBulkLoadDialect implements IBulkLoadDialect {
+
+	public boolean supports(String jdbcUrl) {
+		return jdbcUrl.startsWith("jdbc:sqlserver:") || jdbcUrl.startsWith("jdbc:jtds:sqlserver:");
+	}
+
+	public String getLoadSql(String tableName, String columnNames, String stagingFilePath) {
+		String stagingTable = "#" + tableName + "_staging";
+		StringBuilder stagingColumns = new StringBuilder();
+		for (String columnName : columnNames.split(",")) {
+			if (stagingColumns.length() > 0) {
+				stagingColumns.append(',');
+			}
+			stagingColumns.append(columnName.trim()).append(" NVARCHAR(MAX) NULL");
+		}
+
+		return "IF OBJECT_ID('tempdb.." + stagingTable + "') IS NOT NULL DROP TABLE " + stagingTable + "; "
+				+ "CREATE TABLE " + stagingTable + " (" + stagingColumns + "); "
+				+ "BULK INSERT " + stagingTable + " FROM '" + stagingFilePath.replace("'", "''")
+				+ "' WITH (FORMAT = 'CSV', FIRSTROW = 2, FIELDTERMINATOR = ',', ROWTERMINATOR = '0x0a', "
+				+ "CODEPAGE = '65001', KEEPNULLS, TABLOCK); "
+				+ "INSERT INTO " + tableName + " (" + columnNames + ") SELECT " + columnNames + " FROM " + stagingTable
+				+ "; DROP TABLE " + stagingTable;
+	}
+}
@@ -5,15 +5,15 @@
 package com.recomdata.i2b2.dao;
 
 import java.util.Calendar;
+import java.util.List;
 
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
-import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
-import com.recomdata.i2b2.entity.I2B2StudyInfo;
+import com.recomdata.i2b2.entity.OntologyRow;
 
 /**
  * StudyDao.java the implementation for IStudyDao
@@ -22,10 +22,21 @@ import com.recomdata.i2b2.entity.I2B2StudyInfo;
  * Wu on 09/02/2011
  */
 public class StudyDao implements IStudyDao {
+	private static final String COUNT_SQL = "SELECT count(*) FROM STUDY WHERE C_HLEVEL = ? AND C_FULLNAME = ?";
+
+	private static final String DELETE_SQL = "DELETE FROM STUDY WHERE C_FULLNAME LIKE ? ESCAPE '"
+			+ I2B2DBUtils.LIKE_ESCAPE + "'";
+
 	private PreparedStatement insertMetadataStatement = null;
-	private int metadataBatchCount = 100;
+	private int metadataBatchCount = 0;
+	private final BatchSizer batchSizer;
 	
 	public StudyDao() throws SQLException {
+		this(new BatchSizer("STUDY", IStudyDao.BATCH_SIZE));
+	}
+
+	public StudyDao(BatchSizer batchSizer) throws SQLException {
+		this.batchSizer = batchSizer;
 		Connection con = I2B2DBUtils.getI2B2DBConnection();
 		insertMetadataStatement = con.prepareStatement(IStudyDao.INSERT_SQL);
 	}
@@ -33,7 +44,9 @@ public class StudyDao implements IStudyDao {
 	/**
 	 * Method to insert ODM data into metadata.STUDY
 	 */
-	public void insertMetadata(I2B2StudyInfo studyInfo) throws SQLException {		
+	public void insertMetadata(OntologyRow studyInfo) throws SQLException {
+		Date loadDate = new Date(studyInfo.getLoadDate());
+
 		insertMetadataStatement.setInt(1, studyInfo.getChlevel());
 		insertMetadataStatement.setString(2, studyInfo.getCfullname());
 		insertMetadataStatement.setString(3, studyInfo.getCname());
@@ -51,60 +64,86 @@ public class StudyDao implements IStudyDao {
 		insertMetadataStatement.setString(15, studyInfo.getCcomment());
 		insertMetadataStatement.setString(16, studyInfo.getCtooltip());
 		insertMetadataStatement.setString(17, studyInfo.getMappliedPath());
-		insertMetadataStatement.setDate(18, I2B2DBUtils.getSQLDateFromUtilDate(studyInfo.getUpdateDate()));
-		insertMetadataStatement.setDate(19, I2B2DBUtils.getSQLDateFromUtilDate(studyInfo.getDownloadDate()));
-		insertMetadataStatement.setDate(20, I2B2DBUtils.getSQLDateFromUtilDate(studyInfo.getImportDate()));
+		insertMetadataStatement.setDate(18, loadDate);
+		insertMetadataStatement.setDate(19, loadDate);
+		insertMetadataStatement.setDate(20, loadDate);
 		insertMetadataStatement.setString(21, studyInfo.getSourceSystemCd());
 		insertMetadataStatement.setString(22, studyInfo.getValuetype());
 
-		if (Boolean.getBoolean("batch.disabled")) { 
+		if (batchSizer.isDisabled()) { 
 			insertMetadataStatement.execute();
 		} else {
 			insertMetadataStatement.addBatch();
 			
-			if (++metadataBatchCount >= BATCH_SIZE) {
+			if (++metadataBatchCount >= batchSizer.getBatchSize()) {
 				executeBatch();			
 			}
 		}
 	}
 	
+	/**
+	 * Method to insert the ontology rows of a study into metadata.STUDY, in
+	 * batches of the size given by the batch sizer
+	 */
+	public void insertMetadata(List<OntologyRow> rows) throws SQLException {
+		for (OntologyRow row : rows) {
+			insertMetadata(row);
+		}
+	}
+
 	public void executeBatch() throws SQLException {
-		insertMetadataStatement.executeBatch();
+		if (metadataBatchCount > 0) {
+			long startTime = System.nanoTime();
+			insertMetadataStatement.executeBatch();
+			batchSizer.batchExecuted(metadataBatchCount, System.nanoTime() - startTime);
+		}
 		metadataBatchCount = 0;
 	}
 
 	/**
-	 * method to delete records in metadata.STUDY and insert level 0 record
+	 * method to delete records in metadata.STUDY and insert level 0 record, in
+	 * one transaction
 	 */
 	public void preSetupI2B2Study(String projectID, String sourceSystem) throws SQLException {
 		Date currentDate = I2B2DBUtils.getSQLDateFromUtilDate(Calendar.getInstance().getTime());
+		Connection con = I2B2DBUtils.getI2B2DBConnection();
+		boolean autoCommit = con.getAutoCommit();
+
+		con.setAutoCommit(false);
+		try {
+			deleteI2B2Study(con, projectID, sourceSystem);
 
-		deleteI2B2Study(projectID, sourceSystem);
-
-		if (!checkI2B2Data(0, "\\STUDY\\")) {
-			insertMetadataStatement.setInt(1, 0);
-			insertMetadataStatement.setString(2, "\\STUDY\\");
-			insertMetadataStatement.setString(3, "Study");
-			insertMetadataStatement.setString(4, "N");
-			insertMetadataStatement.setString(5, "FA");
-			insertMetadataStatement.setInt(6, 0);
-			insertMetadataStatement.setString(7, null);
-			insertMetadataStatement.setString(8, null);
-			insertMetadataStatement.setString(9, "concept_cd");
-			insertMetadataStatement.setString(10, "concept_dimension");
-			insertMetadataStatement.setString(11, "concept_path");
-			insertMetadataStatement.setString(12, "T");
-			insertMetadataStatement.setString(13, "LIKE");
-			insertMetadataStatement.setString(14, "\\STUDY\\");
-			insertMetadataStatement.setString(15, null);
-			insertMetadataStatement.setString(16, "STUDY");
-			insertMetadataStatement.setString(17, "@");
-			insertMetadataStatement.setDate(18, currentDate);
-			insertMetadataStatement.setDate(19, currentDate);
-			insertMetadataStatement.setDate(20, currentDate);
-			insertMetadataStatement.setString(21, null);
-			insertMetadataStatement.setString(22, null);
-			insertMetadataStatement.executeUpdate();			
+			if (!checkI2B2Data(con, 0, "\\STUDY\\")) {
+				insertMetadataStatement.setInt(1, 0);
+				insertMetadataStatement.setString(2, "\\STUDY\\");
+				insertMetadataStatement.setString(3, "Study");
+				insertMetadataStatement.setString(4, "N");
+				insertMetadataStatement.setString(5, "FA");
+				insertMetadataStatement.setInt(6, 0);
+				insertMetadataStatement.setString(7, null);
+				insertMetadataStatement.setString(8, null);
+				insertMetadataStatement.setString(9, "concept_cd");
+				insertMetadataStatement.setString(10, "concept_dimension");
+				insertMetadataStatement.setString(11, "concept_path");
+				insertMetadataStatement.setString(12, "T");
+				insertMetadataStatement.setString(13, "LIKE");
+				insertMetadataStatement.setString(14, "\\STUDY\\");
+				insertMetadataStatement.setString(15, null);
+				insertMetadataStatement.setString(16, "STUDY");
+				insertMetadataStatement.setString(17, "@");
+				insertMetadataStatement.setDate(18, currentDate);
+				insertMetadataStatement.setDate(19, currentDate);
+				insertMetadataStatement.setDate(20, currentDate);
+				insertMetadataStatement.setString(21, null);
+				insertMetadataStatement.setString(22, null);
+				insertMetadataStatement.executeUpdate();
+			}
+			con.commit();
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
 		}
 	}
 
@@ -112,32 +151,38 @@ public class StudyDao implements IStudyDao {
 	 * check to see if i2b2 record already existed
 	 * @throws SQLException 
 	 */
-	private boolean checkI2B2Data(int c_hlevel, String c_fullNamePath) throws SQLException {
+	private boolean checkI2B2Data(Connection con, int c_hlevel, String c_fullNamePath) throws SQLException {
 		int count = 0;
 
-		Statement st = I2B2DBUtils.getI2B2DBConnection().createStatement();
-		ResultSet rs = st.executeQuery("SELECT count(*) FROM STUDY WHERE C_HLEVEL = "
-						+ c_hlevel + " AND C_FULLNAME = " + "'" + c_fullNamePath + "'");
-
-		if (rs.next()) {
-			count = rs.getInt(1);
+		PreparedStatement stmt = con.prepareStatement(COUNT_SQL);
+		try {
+			stmt.setInt(1, c_hlevel);
+			stmt.setString(2, c_fullNamePath);
+			ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				count = rs.getInt(1);
+			}
+			rs.close();
+		} finally {
+			stmt.close();
 		}
-		
+
 		return count > 0;
 	}
 	
 	/**
-	 * Delete all records in testing study table. cautiously for conducting this
-	 * in production
+	 * Delete all records of the study in the study table. cautiously for
+	 * conducting this in production
 	 */
-	private void deleteI2B2Study(String projectID, String sourceSystem) throws SQLException {
-		
-		String cPath = "\\STUDY\\" + sourceSystem + ":" + projectID + "\\%";
-		
-		Statement stmt = I2B2DBUtils.getI2B2DBConnection().createStatement();
-		String deleteStudyOntologySql = "DELETE FROM STUDY WHERE C_FULLNAME LIKE '" + cPath + "'";
-		
-		stmt.executeUpdate(deleteStudyOntologySql);
-		stmt.close();
+	private void deleteI2B2Study(Connection con, String projectID, String sourceSystem) throws SQLException {
+		String cPath = "\\STUDY\\" + sourceSystem + ":" + projectID + "\\";
+
+		PreparedStatement stmt = con.prepareStatement(DELETE_SQL);
+		try {
+			stmt.setString(1, I2B2DBUtils.getPrefixPattern(cPath));
+			stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.entity;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable record for one row of Observation_Fact. The facts are created once per
+ * item value and are never changed afterwards, so they can be handed to writers on
+ * other threads without copying.
+ *
+ * The dates are kept as milliseconds (NO_DATE for none) and the update, download and
+ * import date share one load date. A numeric value that is an integer of at most 18
+ * digits is kept as a long; other numeric values are kept as a BigDecimal. The value
+ * flag, quantity, units, location, blob and confidence columns are not filled from
+ * ODM and are always null.
+ */
+public final class ObservationFact {
+	public static final long NO_DATE = Long.MIN_VALUE;
+
+	private static final String DEFAULT_CODE = "@";
+	private static final int MAX_LONG_DIGITS = 18;
+
+	private final int encounterNum;
+	private final String patientNum;
+	private final String conceptCd;
+	private final String valTypeCd;
+	private final String tvalChar;
+	private final boolean nvalIsLong;
+	private final long nvalLong;
+	private final BigDecimal nvalDecimal;
+	private final int instanceNum;
+	private final long startDate;
+	private final long endDate;
+	private final long loadDate;
+	private final String sourcesystemCd;
+
+	private ObservationFact(int encounterNum, String patientNum, String conceptCd, String valTypeCd, String tvalChar,
+			boolean nvalIsLong, long nvalLong, BigDecimal nvalDecimal, int instanceNum, long date, String sourcesystemCd) {
+		this.encounterNum = encounterNum;
+		this.patientNum = patientNum;
+		this.conceptCd = conceptCd;
+		this.valTypeCd = valTypeCd;
+		this.tvalChar = tvalChar;
+		this.nvalIsLong = nvalIsLong;
+		this.nvalLong = nvalLong;
+		this.nvalDecimal = nvalDecimal;
+		this.instanceNum = instanceNum;
+		this.startDate = date;
+		this.endDate = date;
+		this.loadDate = date;
+		this.sourcesystemCd = sourcesystemCd;
+	}
+
+	/**
+	 * Create a text fact (value type T).
+	 *
+	 * @param date the start, end and load date in milliseconds, or NO_DATE.
+	 */
+	public static ObservationFact text(int encounterNum, String patientNum, String conceptCd, String tvalChar,
+			long date, String sourcesystemCd) {
+		return new ObservationFact(encounterNum, patientNum, conceptCd, "T", tvalChar, false, 0, null, 0, date, sourcesystemCd);
+	}
+
+	/**
+	 * Create a numeric fact (value type N, with E for "equals" as text value).
+	 *
+	 * @param value the numeric value as text; an empty value gives a fact without numeric value.
+	 * @param date the start, end and load date in milliseconds, or NO_DATE.
+	 * @throws NumberFormatException when the value is not a number.
+	 */
+	public static ObservationFact numeric(int encounterNum, String patientNum, String conceptCd, String value,
+			long date, String sourcesystemCd) {
+		if (value == null || value.trim().length() == 0) {
+			return new ObservationFact(encounterNum, patientNum, conceptCd, "N", "E", false, 0, null, 0, date, sourcesystemCd);
+		} else if (isLong(value)) {
+			return new ObservationFact(encounterNum, patientNum, conceptCd, "N", "E", true, Long.parseLong(value), null, 0,
+					date, sourcesystemCd);
+		}
+
+		return new ObservationFact(encounterNum, patientNum, conceptCd, "N", "E", false, 0, new BigDecimal(value), 0,
+				date, sourcesystemCd);
+	}
+
+	/**
+	 * Create a copy of this fact with another instance number, which tells facts of
+	 * the same patient and concept apart.
+	 */
+	public ObservationFact withInstanceNum(int newInstanceNum) {
+		return withNumbers(encounterNum, newInstanceNum);
+	}
+
+	/**
+	 * Create a copy of this fact with another encounter and instance number.
+	 */
+	public ObservationFact withNumbers(int newEncounterNum, int newInstanceNum) {
+		if (newEncounterNum == encounterNum && newInstanceNum == instanceNum) {
+			return this;
+		}
+
+		return new ObservationFact(newEncounterNum, patientNum, conceptCd, valTypeCd, tvalChar, nvalIsLong, nvalLong,
+				nvalDecimal, newInstanceNum, loadDate, sourcesystemCd);
+	}
+
+	/**
+	 * @return whether the text is an integer (with an optional minus sign) that fits in a long
+	 */
+	private static boolean isLong(String value) {
+		int start = value.startsWith("-") ? 1 : 0;
+		if (value.length() == start || value.length() - start > MAX_LONG_DIGITS) {
+			return false;
+		}
+
+		for (int i = start; i < value.length(); i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int getEncounterNum() {
+		return encounterNum;
+	}
+
+	public String getPatientNum() {
+		return patientNum;
+	}
+
+	public String getConceptCd() {
+		return conceptCd;
+	}
+
+	public String getProviderId() {
+		return DEFAULT_CODE;
+	}
+
+	public String getModifierCd() {
+		return DEFAULT_CODE;
+	}
+
+	public int getInstanceNum() {
+		return instanceNum;
+	}
+
+	public String getValTypeCd() {
+		return valTypeCd;
+	}
+
+	public String getTvalChar() {
+		return tvalChar;
+	}
+
+	/**
+	 * @return whether the numeric value is kept as a long (see getNvalLong)
+	 */
+	public boolean isNvalLong() {
+		return nvalIsLong;
+	}
+
+	public long getNvalLong() {
+		return nvalLong;
+	}
+
+	/**
+	 * @return the numeric value, or null if there is none
+	 */
+	public BigDecimal getNvalNum() {
+		return nvalIsLong ? BigDecimal.valueOf(nvalLong) : nvalDecimal;
+	}
+
+	public long getStartDate() {
+		return startDate;
+	}
+
+	public long getEndDate() {
+		return endDate;
+	}
+
+	/**
+	 * @return the update, download and import date
+	 */
+	public long getLoadDate() {
+		return loadDate;
+	}
+
+	public String getSourcesystemCd() {
+		return sourcesystemCd;
+	}
+
+	public int getUploadId() {
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ObservationFact [patientNum=");
+		builder.append(patientNum);
+		builder.append(", encounterNum=");
+		builder.append(encounterNum);
+		builder.append(", conceptCd=");
+		builder.append(conceptCd);
+		builder.append(", valTypeCd=");
+		builder.append(valTypeCd);
+		builder.append(", tvalChar=");
+		builder.append(tvalChar);
+		builder.append(", nvalNum=");
+		builder.append(getNvalNum());
+		builder.append(", sourcesystemCd=");
+		builder.append(sourcesystemCd);
+		builder.append("]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.entity;
+
+import com.recomdata.i2b2.IConstants;
+
+/**
+ * Immutable record for one row of the STUDY ontology table. The rows of a study
+ * are built (possibly on several threads) before they are inserted, so every row
+ * has its own record instead of one shared bean that is changed for each row.
+ *
+ * The dimension code is the full name of the row and the update, download and
+ * import date share one load date in milliseconds. The columns that are the same
+ * for all rows of an ODM study (like the table and column of the concepts) come
+ * from IConstants.
+ */
+public final class OntologyRow {
+	private static final String APPLIED_PATH = "@";
+
+	private final int chlevel;
+	private final String cfullname;
+	private final String cname;
+	private final String cvisualAttributes;
+	private final String cbasecode;
+	private final String cmetadataxml;
+	private final String ctooltip;
+	private final long loadDate;
+	private final String sourceSystemCd;
+
+	/**
+	 * @param cbasecode the concept code, or null for a folder without concept.
+	 * @param cmetadataxml the value metadata XML, or null.
+	 * @param loadDate the update, download and import date in milliseconds.
+	 */
+	public OntologyRow(int chlevel, String cfullname, String cname, String cvisualAttributes, String cbasecode,
+			String cmetadataxml, String ctooltip, long loadDate, String sourceSystemCd) {
+		this.chlevel = chlevel;
+		this.cfullname = cfullname;
+		this.cname = cname;
+		this.cvisualAttributes = cvisualAttributes;
+		this.cbasecode = cbasecode;
+		this.cmetadataxml = cmetadataxml;
+		this.ctooltip = ctooltip;
+		this.loadDate = loadDate;
+		this.sourceSystemCd = sourceSystemCd;
+	}
+
+	public int getChlevel() {
+		return chlevel;
+	}
+
+	public String getCfullname() {
+		return cfullname;
+	}
+
+	public String getCname() {
+		return cname;
+	}
+
+	public String getCsynonmCd() {
+		return IConstants.C_SYNONYM_CD;
+	}
+
+	public String getCvisualAttributes() {
+		return cvisualAttributes;
+	}
+
+	public int getCtotalNum() {
+		return 0;
+	}
+
+	public String getCbasecode() {
+		return cbasecode;
+	}
+
+	public String getCmetadataxml() {
+		return cmetadataxml;
+	}
+
+	public String getCfactTableColumn() {
+		return IConstants.C_FACTTABLECOLUMN;
+	}
+
+	public String getCtablename() {
+		return IConstants.C_TABLENAME;
+	}
+
+	public String getCcolumnname() {
+		return IConstants.C_COLUMNNAME;
+	}
+
+	public String getCcolumnDatatype() {
+		return IConstants.C_COLUMNDATATYPE;
+	}
+
+	public String getCoperator() {
+		return IConstants.C_OPERATOR;
+	}
+
+	public String getCdimcode() {
+		return cfullname;
+	}
+
+	public String getCcomment() {
+		return null;
+	}
+
+	public String getCtooltip() {
+		return ctooltip;
+	}
+
+	public String getMappliedPath() {
+		return APPLIED_PATH;
+	}
+
+	/**
+	 * @return the update, download and import date
+	 */
+	public long getLoadDate() {
+		return loadDate;
+	}
+
+	public String getSourceSystemCd() {
+		return sourceSystemCd;
+	}
+
+	public String getValuetype() {
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "OntologyRow [cbasecode=" + cbasecode + ", cdimcode="
+				+ cfullname + ", chlevel=" + chlevel + ", cname=" + cname + "]";
+	}
+}
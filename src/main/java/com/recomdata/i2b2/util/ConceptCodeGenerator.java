@@ -0,0 +1,151 @@
+package com.recomdata.i2b2.util;
+
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ * ConceptCodeGenerator creates the concept codes of items and code list items
+ * and remembers them, so each concept code is hashed only once. The generator is
+ * thread-safe: the ontology builder threads fill it while the metadata is built,
+ * and the clinical data import looks the same codes up afterwards.
+ */
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ConceptCodeGenerator {
+	private static final Logger log = LoggerFactory.getLogger(ConceptCodeGenerator.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final String PREFIX = "STUDY|";
+
+	private final byte[] sourceSystemBytes;
+
+	/**
+	 * The message digest and concept builder of each thread.
+	 */
+	private final ThreadLocal<MessageDigest> messageDigests = new ThreadLocal<MessageDigest>();
+	private final ThreadLocal<StringBuilder> conceptBuilders = new ThreadLocal<StringBuilder>();
+
+	/**
+	 * Map<[studyOID, studyEventOID, formOID, itemOID, value], concept code>.
+	 */
+	private final ConcurrentMap<ConceptKey, String> conceptCodes = new ConcurrentHashMap<ConceptKey, String>();
+
+	public ConceptCodeGenerator(String sourceSystem) throws NoSuchAlgorithmException {
+		sourceSystemBytes = sourceSystem.getBytes(UTF_8);
+		messageDigests.set(MessageDigest.getInstance("MD5"));
+	}
+
+	/**
+	 * Get the concept code with all OIDs, which is generated on first use: the
+	 * study OID followed by the MD5 hash of the source system and the other OIDs.
+	 * Every byte of the hash is written as hexadecimal without a leading zero, like
+	 * the concept codes that are already in i2b2 databases.
+	 *
+	 * @param value the coded value of a code list item, or null for an item.
+	 * @return the unique concept code.
+	 */
+	public String getConceptCode(String studyOID, String studyEventOID, String formOID, String itemOID, String value) {
+		ConceptKey key = new ConceptKey(studyOID, studyEventOID, formOID, itemOID, value);
+		String conceptCode = conceptCodes.get(key);
+
+		if (conceptCode == null) {
+			conceptCode = generateConceptCode(studyOID, studyEventOID, formOID, itemOID, value);
+			String otherConceptCode = conceptCodes.putIfAbsent(key, conceptCode);
+			if (otherConceptCode != null) {
+				conceptCode = otherConceptCode;
+			}
+		}
+
+		return conceptCode;
+	}
+
+	private String generateConceptCode(String studyOID, String studyEventOID, String formOID, String itemOID, String value) {
+		MessageDigest messageDigest = getMessageDigest();
+		StringBuilder conceptBuilder = conceptBuilders.get();
+		if (conceptBuilder == null) {
+			conceptBuilder = new StringBuilder(PREFIX);
+			conceptBuilders.set(conceptBuilder);
+		}
+
+		conceptBuilder.setLength(PREFIX.length());
+		conceptBuilder.append(studyOID).append("|");
+
+		messageDigest.update(sourceSystemBytes);
+		messageDigest.update((byte) '|');
+		messageDigest.update(studyEventOID.getBytes(UTF_8));
+		messageDigest.update((byte) '|');
+		messageDigest.update(formOID.getBytes(UTF_8));
+		messageDigest.update((byte) '|');
+		messageDigest.update(itemOID.getBytes(UTF_8));
+
+		if (value != null) {
+			messageDigest.update((byte) '|');
+			messageDigest.update(value.getBytes(UTF_8));
+		}
+
+		for (byte digestByte : messageDigest.digest()) {
+			int unsignedByte = 0xFF & digestByte;
+			if (unsignedByte >= 0x10) {
+				conceptBuilder.append(HEX_DIGITS[unsignedByte >>> 4]);
+			}
+			conceptBuilder.append(HEX_DIGITS[unsignedByte & 0x0F]);
+		}
+
+		String conceptCode = conceptBuilder.toString();
+		if (log.isDebugEnabled()) {
+			log.debug(new StringBuilder("Concept code ").append(conceptCode)
+					.append(" generated for studyOID=").append(studyOID)
+					.append(", studyEventOID=").append(studyEventOID)
+					.append(", formOID=").append(formOID)
+					.append(", itemOID=").append(itemOID)
+					.append(", value=").append(value).toString());
+		}
+
+		return conceptCode;
+	}
+
+	private MessageDigest getMessageDigest() {
+		MessageDigest messageDigest = messageDigests.get();
+		if (messageDigest == null) {
+			try {
+				messageDigest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				// the constructor already got an MD5 digest
+				throw new IllegalStateException(e);
+			}
+			messageDigests.set(messageDigest);
+		}
+
+		return messageDigest;
+	}
+
+	/**
+	 * The OIDs (and value) of a concept code.
+	 */
+	private static final class ConceptKey {
+		private final String[] parts;
+		private final int hashCode;
+
+		ConceptKey(String... parts) {
+			this.parts = parts;
+			this.hashCode = Arrays.hashCode(parts);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof ConceptKey && Arrays.equals(parts, ((ConceptKey) other).parts);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.i2b2.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemGroupDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionMetaDataVersion;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventDef;
+
+/**
+ * MetaDataIndex.java
+ *
+ * Index of the definitions in the (first) MetaDataVersion of a study by OID, so
+ * references are resolved with a lookup instead of the linear scans of ODMUtil.
+ * When an OID is defined more than once, the first definition is used, like in
+ * ODMUtil. The index is not changed after construction, so it can be shared by
+ * threads.
+ */
+public class MetaDataIndex {
+	private final Map<String, ODMcomplexTypeDefinitionStudyEventDef> studyEventDefs =
+			new HashMap<String, ODMcomplexTypeDefinitionStudyEventDef>();
+	private final Map<String, ODMcomplexTypeDefinitionFormDef> formDefs =
+			new HashMap<String, ODMcomplexTypeDefinitionFormDef>();
+	private final Map<String, ODMcomplexTypeDefinitionItemGroupDef> itemGroupDefs =
+			new HashMap<String, ODMcomplexTypeDefinitionItemGroupDef>();
+	private final Map<String, ODMcomplexTypeDefinitionItemDef> itemDefs =
+			new HashMap<String, ODMcomplexTypeDefinitionItemDef>();
+	private final Map<String, ODMcomplexTypeDefinitionCodeList> codeLists =
+			new HashMap<String, ODMcomplexTypeDefinitionCodeList>();
+
+	public MetaDataIndex(ODMcomplexTypeDefinitionStudy study) {
+		ODMcomplexTypeDefinitionMetaDataVersion version = study.getMetaDataVersion().get(0);
+
+		for (ODMcomplexTypeDefinitionStudyEventDef studyEventDef : version.getStudyEventDef()) {
+			putFirst(studyEventDefs, studyEventDef.getOID(), studyEventDef);
+		}
+		for (ODMcomplexTypeDefinitionFormDef formDef : version.getFormDef()) {
+			putFirst(formDefs, formDef.getOID(), formDef);
+		}
+		for (ODMcomplexTypeDefinitionItemGroupDef itemGroupDef : version.getItemGroupDef()) {
+			putFirst(itemGroupDefs, itemGroupDef.getOID(), itemGroupDef);
+		}
+		for (ODMcomplexTypeDefinitionItemDef itemDef : version.getItemDef()) {
+			putFirst(itemDefs, itemDef.getOID(), itemDef);
+		}
+		for (ODMcomplexTypeDefinitionCodeList codeList : version.getCodeList()) {
+			putFirst(codeLists, codeList.getOID(), codeList);
+		}
+	}
+
+	private static <T> void putFirst(Map<String, T> definitions, String oid, T definition) {
+		if (!definitions.containsKey(oid)) {
+			definitions.put(oid, definition);
+		}
+	}
+
+	public ODMcomplexTypeDefinitionStudyEventDef getStudyEvent(String studyEventOID) {
+		return studyEventDefs.get(studyEventOID);
+	}
+
+	public ODMcomplexTypeDefinitionFormDef getForm(String formOID) {
+		return formDefs.get(formOID);
+	}
+
+	public ODMcomplexTypeDefinitionItemGroupDef getItemGroup(String itemGroupOID) {
+		return itemGroupDefs.get(itemGroupOID);
+	}
+
+	public ODMcomplexTypeDefinitionItemDef getItem(String itemOID) {
+		return itemDefs.get(itemOID);
+	}
+
+	public ODMcomplexTypeDefinitionCodeList getCodeList(String codeListOID) {
+		return codeLists.get(codeListOID);
+	}
+}
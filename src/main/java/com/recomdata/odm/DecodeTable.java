@@ -0,0 +1,64 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.recomdata.i2b2.util.ODMUtil;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeListItem;
+
+/**
+ * A decode table maps the coded values of a code list to their decoded (translated) values for one language.
+ * It is compiled once from the metadata, after which decoding a coded value is a single hash lookup.
+ */
+public final class DecodeTable {
+
+    /**
+     * Map<coded value, decoded value>.
+     */
+    private final Map<String, String> decodedValues;
+
+    /**
+     * Constructs a decode table.
+     *
+     * @param decodedValues the map from coded values to decoded values.
+     */
+    private DecodeTable(final Map<String, String> decodedValues) {
+        this.decodedValues = decodedValues;
+    }
+
+    /**
+     * Compiles the decode table for a code list and a language. If a coded value occurs more than once in the
+     * code list, the first code list item is used, just like ODMUtil.getCodeListItem does.
+     *
+     * @param codeList the code list.
+     * @param lang     the language of the decoded values (the first translation is used if this language is
+     *                 not available).
+     * @return the decode table.
+     */
+    public static DecodeTable compile(final ODMcomplexTypeDefinitionCodeList codeList, final String lang) {
+        final Map<String, String> decodedValues = new HashMap<>();
+        for (ODMcomplexTypeDefinitionCodeListItem codeListItem : codeList.getCodeListItem()) {
+            if (!decodedValues.containsKey(codeListItem.getCodedValue())) {
+                decodedValues.put(codeListItem.getCodedValue(), ODMUtil.getTranslatedValue(codeListItem, lang));
+            }
+        }
+        return new DecodeTable(decodedValues);
+    }
+
+    /**
+     * Returns the decoded value for a coded value.
+     *
+     * @param codedValue the coded value.
+     * @return the decoded value, or null if the code list has no item with this coded value.
+     */
+    public String decode(final String codedValue) {
+        return decodedValues.get(codedValue);
+    }
+}
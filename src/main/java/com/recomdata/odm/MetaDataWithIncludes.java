@@ -5,7 +5,11 @@
 
 package com.recomdata.odm;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.cdisk.odm.jaxb.ODM;
 import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
@@ -21,6 +25,10 @@ import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventDef;
  * metadata is spread over different metadata blocks and over different studies. It contains all the
  * information to retrieve the correct metadata.
  *
+ * The definitions are looked up in hash indexes (one per definition type) that are built on the first
+ * lookup of that type. An index contains the definitions of this metadata block and of all included
+ * blocks, so a lookup is a single hash probe.
+ *
  * @author <a href="mailto:w.blonde@vumc.nl">Ward Blondé</a>
  * @author <a href="mailto:f.debruijn@vumc.nl">Freek de Bruijn</a>
  */
@@ -42,6 +50,121 @@ public class MetaDataWithIncludes {
      */
     private List<MetaDataWithIncludes> metaDataIncludes;
 
+    /**
+     * The index of the study event definitions.
+     */
+    private final OIDIndex<ODMcomplexTypeDefinitionStudyEventDef> studyEventDefIndex =
+            new OIDIndex<ODMcomplexTypeDefinitionStudyEventDef>() {
+                @Override
+                protected List<ODMcomplexTypeDefinitionStudyEventDef> getDefinitions() {
+                    return metaDataVersion.getStudyEventDef();
+                }
+
+                @Override
+                protected String getOID(final ODMcomplexTypeDefinitionStudyEventDef definition) {
+                    return definition.getOID();
+                }
+
+                @Override
+                protected OIDIndex<ODMcomplexTypeDefinitionStudyEventDef> getIncludedIndex(
+                        final MetaDataWithIncludes metaDataInclude) {
+                    return metaDataInclude.studyEventDefIndex;
+                }
+            };
+
+    /**
+     * The index of the form definitions.
+     */
+    private final OIDIndex<ODMcomplexTypeDefinitionFormDef> formDefIndex =
+            new OIDIndex<ODMcomplexTypeDefinitionFormDef>() {
+                @Override
+                protected List<ODMcomplexTypeDefinitionFormDef> getDefinitions() {
+                    return metaDataVersion.getFormDef();
+                }
+
+                @Override
+                protected String getOID(final ODMcomplexTypeDefinitionFormDef definition) {
+                    return definition.getOID();
+                }
+
+                @Override
+                protected OIDIndex<ODMcomplexTypeDefinitionFormDef> getIncludedIndex(
+                        final MetaDataWithIncludes metaDataInclude) {
+                    return metaDataInclude.formDefIndex;
+                }
+            };
+
+    /**
+     * The index of the item group definitions.
+     */
+    private final OIDIndex<ODMcomplexTypeDefinitionItemGroupDef> itemGroupDefIndex =
+            new OIDIndex<ODMcomplexTypeDefinitionItemGroupDef>() {
+                @Override
+                protected List<ODMcomplexTypeDefinitionItemGroupDef> getDefinitions() {
+                    return metaDataVersion.getItemGroupDef();
+                }
+
+                @Override
+                protected String getOID(final ODMcomplexTypeDefinitionItemGroupDef definition) {
+                    return definition.getOID();
+                }
+
+                @Override
+                protected OIDIndex<ODMcomplexTypeDefinitionItemGroupDef> getIncludedIndex(
+                        final MetaDataWithIncludes metaDataInclude) {
+                    return metaDataInclude.itemGroupDefIndex;
+                }
+            };
+
+    /**
+     * The index of the item definitions.
+     */
+    private final OIDIndex<ODMcomplexTypeDefinitionItemDef> itemDefIndex =
+            new OIDIndex<ODMcomplexTypeDefinitionItemDef>() {
+                @Override
+                protected List<ODMcomplexTypeDefinitionItemDef> getDefinitions() {
+                    return metaDataVersion.getItemDef();
+                }
+
+                @Override
+                protected String getOID(final ODMcomplexTypeDefinitionItemDef definition) {
+                    return definition.getOID();
+                }
+
+                @Override
+                protected OIDIndex<ODMcomplexTypeDefinitionItemDef> getIncludedIndex(
+                        final MetaDataWithIncludes metaDataInclude) {
+                    return metaDataInclude.itemDefIndex;
+                }
+            };
+
+    /**
+     * The index of the code lists.
+     */
+    private final OIDIndex<ODMcomplexTypeDefinitionCodeList> codeListIndex =
+            new OIDIndex<ODMcomplexTypeDefinitionCodeList>() {
+                @Override
+                protected List<ODMcomplexTypeDefinitionCodeList> getDefinitions() {
+                    return metaDataVersion.getCodeList();
+                }
+
+                @Override
+                protected String getOID(final ODMcomplexTypeDefinitionCodeList definition) {
+                    return definition.getOID();
+                }
+
+                @Override
+                protected OIDIndex<ODMcomplexTypeDefinitionCodeList> getIncludedIndex(
+                        final MetaDataWithIncludes metaDataInclude) {
+                    return metaDataInclude.codeListIndex;
+                }
+            };
+
+    /**
+     * The compiled decode tables: Map<language, Map<code list OID, decode table>>.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, DecodeTable>> decodeTables = new ConcurrentHashMap<>();
+
     /**
      * Constructs a metadata object for a given study and a given metadata version in the study.
      *
@@ -86,32 +209,7 @@ public class MetaDataWithIncludes {
      * @return The study event object.
      */
     public ODMcomplexTypeDefinitionStudyEventDef getStudyEventDef(final String studyEventOID) {
-        ODMcomplexTypeDefinitionStudyEventDef studyEventDef = searchStudyEventDef(studyEventOID);
-
-        int includeIndex = 0;
-        while (studyEventDef == null && includeIndex < metaDataIncludes.size()) {
-            studyEventDef = metaDataIncludes.get(includeIndex).getStudyEventDef(studyEventOID);
-            includeIndex++;
-        }
-
-        return studyEventDef;
-    }
-
-    /**
-     * A helper method that searches the study event object in the list of recursively included
-     * metadata objects, for a given study event OID.
-     *
-     * @param studyEventOID The given study event OID.
-     * @return The study event object.
-     */
-    private ODMcomplexTypeDefinitionStudyEventDef searchStudyEventDef(final String studyEventOID) {
-        ODMcomplexTypeDefinitionStudyEventDef result = null;
-        for (ODMcomplexTypeDefinitionStudyEventDef studyEventDef : metaDataVersion.getStudyEventDef()) {
-            if (studyEventDef.getOID().equals(studyEventOID)) {
-                result = studyEventDef;
-            }
-        }
-        return result;
+        return studyEventDefIndex.get(studyEventOID);
     }
 
     /**
@@ -121,32 +219,7 @@ public class MetaDataWithIncludes {
      * @return The form object.
      */
     public ODMcomplexTypeDefinitionFormDef getFormDef(final String formOID) {
-        ODMcomplexTypeDefinitionFormDef formDef = searchFormDef(formOID);
-
-        int includeIndex = 0;
-        while (formDef == null && includeIndex < metaDataIncludes.size()) {
-            formDef = metaDataIncludes.get(includeIndex).getFormDef(formOID);
-            includeIndex++;
-        }
-
-        return formDef;
-    }
-
-    /**
-     * A helper method that searches the form object in the list of recursively included
-     * metadata objects, for a given form OID.
-     *
-     * @param formOID The given form OID.
-     * @return The form object.
-     */
-    private ODMcomplexTypeDefinitionFormDef searchFormDef(final String formOID) {
-        ODMcomplexTypeDefinitionFormDef result = null;
-        for (ODMcomplexTypeDefinitionFormDef formDef : metaDataVersion.getFormDef()) {
-            if (formDef.getOID().equals(formOID)) {
-                result = formDef;
-            }
-        }
-        return result;
+        return formDefIndex.get(formOID);
     }
 
     /**
@@ -156,32 +229,7 @@ public class MetaDataWithIncludes {
      * @return The item group object.
      */
     public ODMcomplexTypeDefinitionItemGroupDef getItemGroupDef(final String itemGroupOID) {
-        ODMcomplexTypeDefinitionItemGroupDef itemGroupDef = searchItemGroupDef(itemGroupOID);
-
-        int includeIndex = 0;
-        while (itemGroupDef == null && includeIndex < metaDataIncludes.size()) {
-            itemGroupDef = metaDataIncludes.get(includeIndex).getItemGroupDef(itemGroupOID);
-            includeIndex++;
-        }
-
-        return itemGroupDef;
-    }
-
-    /**
-     * A helper method that searches the item group object in the list of recursively included
-     * metadata objects, for a given item group OID.
-     *
-     * @param itemGroupOID The given item group OID.
-     * @return The item group object.
-     */
-    private ODMcomplexTypeDefinitionItemGroupDef searchItemGroupDef(final String itemGroupOID) {
-        ODMcomplexTypeDefinitionItemGroupDef result = null;
-        for (ODMcomplexTypeDefinitionItemGroupDef itemGroupDef : metaDataVersion.getItemGroupDef()) {
-            if (itemGroupDef.getOID().equals(itemGroupOID)) {
-                result = itemGroupDef;
-            }
-        }
-        return result;
+        return itemGroupDefIndex.get(itemGroupOID);
     }
 
     /**
@@ -191,67 +239,120 @@ public class MetaDataWithIncludes {
      * @return The item object.
      */
     public ODMcomplexTypeDefinitionItemDef getItemDef(final String itemOID) {
-        ODMcomplexTypeDefinitionItemDef itemDef = searchItemDef(itemOID);
-
-        int includeIndex = 0;
-        while (itemDef == null && includeIndex < metaDataIncludes.size()) {
-            itemDef = metaDataIncludes.get(includeIndex).getItemDef(itemOID);
-            includeIndex++;
-        }
-
-        return itemDef;
+        return itemDefIndex.get(itemOID);
     }
 
     /**
-     * A helper method that searches the item object in the list of recursively included
-     * metadata objects, for a given item OID.
+     * Returns the code list object for a given code list OID.
      *
-     * @param itemOID The given item OID.
-     * @return The item object.
+     * @param codeListOID The given code list OID.
+     * @return The code list object.
      */
-    private ODMcomplexTypeDefinitionItemDef searchItemDef(final String itemOID) {
-        ODMcomplexTypeDefinitionItemDef result = null;
-        for (ODMcomplexTypeDefinitionItemDef itemDef : metaDataVersion.getItemDef()) {
-            if (itemDef.getOID().equals(itemOID)) {
-                result = itemDef;
-            }
-        }
-        return result;
+    public ODMcomplexTypeDefinitionCodeList getCodeList(final String codeListOID) {
+        return codeListIndex.get(codeListOID);
     }
 
-
     /**
-     * Returns the code list object for a given code list OID.
+     * Returns the decode table for a given code list OID and language. The table is compiled on first use
+     * and reused afterwards.
      *
      * @param codeListOID The given code list OID.
-     * @return The code list object.
+     * @param lang The language of the decoded values.
+     * @return The decode table, or null if there is no code list with this OID.
      */
-    public ODMcomplexTypeDefinitionCodeList getCodeList(final String codeListOID) {
-        ODMcomplexTypeDefinitionCodeList codeList = searchCodeList(codeListOID);
-
-        int includeIndex = 0;
-        while (codeList == null && includeIndex < metaDataIncludes.size()) {
-            codeList = metaDataIncludes.get(includeIndex).getCodeList(codeListOID);
-            includeIndex++;
+    public DecodeTable getDecodeTable(final String codeListOID, final String lang) {
+        ConcurrentMap<String, DecodeTable> languageTables = decodeTables.get(lang);
+        if (languageTables == null) {
+            decodeTables.putIfAbsent(lang, new ConcurrentHashMap<String, DecodeTable>());
+            languageTables = decodeTables.get(lang);
         }
 
-        return codeList;
+        DecodeTable decodeTable = languageTables.get(codeListOID);
+        if (decodeTable == null) {
+            final ODMcomplexTypeDefinitionCodeList codeList = getCodeList(codeListOID);
+            if (codeList != null) {
+                decodeTable = DecodeTable.compile(codeList, lang);
+                languageTables.putIfAbsent(codeListOID, decodeTable);
+            }
+        }
+        return decodeTable;
     }
 
     /**
-     * A helper method that searches the code list object in the list of recursively included
-     * metadata objects, for a given code list OID.
+     * A hash index from OID to definition for one type of definition. The index is built on the first lookup
+     * and covers this metadata block and the included blocks, with the same precedence as a search through
+     * the lists: the last definition with an OID in this block wins, and the included blocks are only used
+     * for OIDs that are not defined in this block, in the order of the includes.
      *
-     * @param codeListOID The given code list OID.
-     * @return The code list object.
+     * @param <T> The type of definition.
      */
-    private ODMcomplexTypeDefinitionCodeList searchCodeList(final String codeListOID) {
-        ODMcomplexTypeDefinitionCodeList result = null;
-        for (ODMcomplexTypeDefinitionCodeList codeList : metaDataVersion.getCodeList()) {
-            if (codeList.getOID().equals(codeListOID)) {
-                result = codeList;
+    private abstract class OIDIndex<T> {
+        /**
+         * The index, or null if it has not been built yet. Building it twice (by two threads) is harmless.
+         */
+        private volatile Map<String, T> definitionsByOID;
+
+        /**
+         * Returns the definition with a given OID.
+         *
+         * @param oid The given OID.
+         * @return The definition, or null if there is no definition with this OID.
+         */
+        public T get(final String oid) {
+            return getIndex().get(oid);
+        }
+
+        /**
+         * Returns the index, building it if necessary.
+         *
+         * @return The index.
+         */
+        private Map<String, T> getIndex() {
+            Map<String, T> index = definitionsByOID;
+            if (index == null) {
+                index = buildIndex();
+                definitionsByOID = index;
             }
+            return index;
         }
-        return result;
+
+        /**
+         * Builds the index for this metadata block and its includes.
+         *
+         * @return The index.
+         */
+        private Map<String, T> buildIndex() {
+            final Map<String, T> index = new HashMap<>();
+            for (int includeIndex = metaDataIncludes.size() - 1; includeIndex >= 0; includeIndex--) {
+                index.putAll(getIncludedIndex(metaDataIncludes.get(includeIndex)).getIndex());
+            }
+            for (T definition : getDefinitions()) {
+                index.put(getOID(definition), definition);
+            }
+            return index;
+        }
+
+        /**
+         * Returns the definitions of this type in this metadata block.
+         *
+         * @return The definitions.
+         */
+        protected abstract List<T> getDefinitions();
+
+        /**
+         * Returns the OID of a definition.
+         *
+         * @param definition The definition.
+         * @return The OID.
+         */
+        protected abstract String getOID(T definition);
+
+        /**
+         * Returns the index of the same type of definition in an included metadata block.
+         *
+         * @param metaDataInclude The included metadata block.
+         * @return The index of the included block.
+         */
+        protected abstract OIDIndex<T> getIncludedIndex(MetaDataWithIncludes metaDataInclude);
     }
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens the ODM documents in an input file, which can be plain XML, gzip compressed XML or a zip archive with one
+ * or more ODM XML entries. The format is recognized by the first bytes of the file (not by its extension), and
+ * compressed documents are decompressed while they are parsed, so every byte of the file is read once and no
+ * unpacked copy is written to disk.
+ */
+public final class ODMInput {
+
+    /**
+     * The buffer size used for reading the file and the decompressed documents.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The first bytes of a gzip file.
+     */
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+
+    /**
+     * The first bytes of a zip archive (the signature of a local file header).
+     */
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    /**
+     * Receives the ODM documents of an input file.
+     */
+    public interface DocumentReader {
+
+        /**
+         * Reads one ODM document.
+         *
+         * @param systemId    the system id of the document, used to resolve relative references.
+         * @param inputStream the (decompressed) document; closing it is allowed but not required.
+         * @throws Exception when the document cannot be read.
+         */
+        void read(String systemId, InputStream inputStream) throws Exception;
+    }
+
+    /**
+     * Hidden constructor for this utility class.
+     */
+    private ODMInput() {
+    }
+
+    /**
+     * Passes the ODM documents of a file to the reader: the file itself for plain or gzip compressed XML, and
+     * every XML entry (in archive order) for a zip archive.
+     *
+     * @param file   the input file.
+     * @param reader the reader that receives the documents.
+     * @return the number of documents that were read.
+     * @throws Exception when the file cannot be read, or when the reader fails.
+     */
+    public static int readDocuments(final File file, final DocumentReader reader) throws Exception {
+        final String systemId = file.toURI().toString();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            if (startsWith(inputStream, GZIP_MAGIC)) {
+                reader.read(systemId, new BufferedInputStream(new GZIPInputStream(inputStream, BUFFER_SIZE), BUFFER_SIZE));
+                return 1;
+            } else if (startsWith(inputStream, ZIP_MAGIC)) {
+                return readZipEntries(systemId, new ZipInputStream(inputStream), reader);
+            } else {
+                reader.read(systemId, inputStream);
+                return 1;
+            }
+        }
+    }
+
+    /**
+     * Passes the single ODM document of a file to the reader.
+     *
+     * @param file   the input file.
+     * @param reader the reader that receives the document.
+     * @throws Exception when the file cannot be read, when it is a zip archive with more (or less) than one XML
+     *                   entry, or when the reader fails.
+     */
+    public static void readDocument(final File file, final DocumentReader reader) throws Exception {
+        final int documentCount = readDocuments(file, new DocumentReader() {
+            private boolean documentRead;
+
+            @Override
+            public void read(final String systemId, final InputStream inputStream) throws Exception {
+                if (documentRead) {
+                    throw new IOException("The archive " + file + " contains more than one ODM document.");
+                }
+                documentRead = true;
+                reader.read(systemId, inputStream);
+            }
+        });
+        if (documentCount == 0) {
+            throw new IOException("The archive " + file + " does not contain an ODM document.");
+        }
+    }
+
+    /**
+     * Passes the XML entries of a zip archive to the reader.
+     *
+     * @param systemId       the system id of the archive.
+     * @param zipInputStream the archive.
+     * @param reader         the reader that receives the entries.
+     * @return the number of entries that were read.
+     * @throws Exception when the archive cannot be read, or when the reader fails.
+     */
+    private static int readZipEntries(final String systemId, final ZipInputStream zipInputStream,
+                                      final DocumentReader reader) throws Exception {
+        int documentCount = 0;
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ENGLISH).endsWith(".xml")) {
+                // The parsers close their input, which must not close the archive.
+                final InputStream entryStream = new FilterInputStream(zipInputStream) {
+                    @Override
+                    public void close() {
+                    }
+                };
+                reader.read("jar:" + systemId + "!/" + entry.getName(), new BufferedInputStream(entryStream, BUFFER_SIZE));
+                documentCount++;
+            }
+            zipInputStream.closeEntry();
+        }
+        return documentCount;
+    }
+
+    /**
+     * Checks whether a stream starts with some bytes, without consuming them.
+     *
+     * @param inputStream the stream, which supports mark and reset.
+     * @param magic       the bytes.
+     * @return whether the stream starts with the bytes.
+     * @throws IOException when the stream cannot be read.
+     */
+    private static boolean startsWith(final InputStream inputStream, final byte[] magic) throws IOException {
+        inputStream.mark(magic.length);
+        try {
+            for (final byte magicByte : magic) {
+                if (inputStream.read() != (magicByte & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            inputStream.reset();
+        }
+    }
+}
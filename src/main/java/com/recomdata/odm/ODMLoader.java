@@ -9,27 +9,142 @@ package com.recomdata.odm;
  */
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.Writer;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
 
 import org.cdisk.odm.jaxb.*;
 
 public class ODMLoader {
 
-	/**unmashell ODM XML File to a ODM object
+	/**
+	 * The package with the generated ODM classes.
+	 */
+	private static final String ODM_JAXB_PACKAGE = "org.cdisk.odm.jaxb";
+
+	/**
+	 * The JAXB context for the ODM classes. Creating a context reflects over all generated classes, so it is
+	 * created once per process and shared (a JAXBContext is thread-safe).
+	 */
+	private static volatile JAXBContext context;
+
+	/**
+	 * Unmarshallers that are not in use. Unmarshallers are not thread-safe, so each one is used by a single
+	 * thread at a time and returned to this pool afterwards.
+	 */
+	private static final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+
+	/**
+	 * Marshallers that are not in use, pooled like the unmarshallers.
+	 */
+	private static final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<Marshaller>();
+
+	/**
+	 * Creates the shared JAXB context and an unmarshaller up front, so the first ODM file does not pay
+	 * for it. Calling this method is optional.
+	 */
+	public static void initialize() throws JAXBException {
+		releaseUnmarshaller(acquireUnmarshaller());
+	}
+
+	/**
+	 * @return the shared JAXB context for the ODM classes.
+	 */
+	static JAXBContext getContext() throws JAXBException {
+		JAXBContext result = context;
+		if (result == null) {
+			synchronized (ODMLoader.class) {
+				result = context;
+				if (result == null) {
+					result = JAXBContext.newInstance(ODM_JAXB_PACKAGE);
+					context = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Takes an unmarshaller from the pool, or creates one if the pool is empty. Return it with
+	 * releaseUnmarshaller when done.
+	 */
+	static Unmarshaller acquireUnmarshaller() throws JAXBException {
+		Unmarshaller unmarshaller = unmarshallers.poll();
+		return unmarshaller != null ? unmarshaller : getContext().createUnmarshaller();
+	}
+
+	/**
+	 * Returns an unmarshaller to the pool.
+	 */
+	static void releaseUnmarshaller(Unmarshaller unmarshaller) {
+		unmarshallers.offer(unmarshaller);
+	}
+
+	/**
+	 * Takes a marshaller (with formatted output) from the pool, or creates one if the pool is empty.
+	 */
+	private static Marshaller acquireMarshaller() throws JAXBException {
+		Marshaller marshaller = marshallers.poll();
+		if (marshaller == null) {
+			marshaller = getContext().createMarshaller();
+			marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE);
+		}
+		return marshaller;
+	}
+
+	/**unmashell ODM XML File to a ODM object. The file can be plain XML, gzip
+	 * compressed XML or a zip archive with one ODM XML entry (see ODMInput).
 	 */
 	public ODM unmarshall(File xml) throws JAXBException {
-		ODM odm = new ODM();
+		final ODM[] odm = {new ODM()};
 		try {
-			JAXBContext context = JAXBContext.newInstance("org.cdisk.odm.jaxb");
+			ODMInput.readDocument(xml, new ODMInput.DocumentReader() {
+				public void read(String systemId, InputStream inputStream) throws JAXBException {
+					odm[0] = unmarshall(systemId, inputStream);
+				}
+			});
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+
+		return odm[0];
+	}
+
+	/**unmashell all ODM documents of a file (every XML entry of a zip archive)
+	 */
+	public List<ODM> unmarshallAll(File xml) throws Exception {
+		final List<ODM> odms = new ArrayList<ODM>();
+		ODMInput.readDocuments(xml, new ODMInput.DocumentReader() {
+			public void read(String systemId, InputStream inputStream) throws JAXBException {
+				odms.add(unmarshall(systemId, inputStream));
+			}
+		});
+
+		return odms;
+	}
 
-			Unmarshaller unmarshaller = context.createUnmarshaller();
-			odm = (ODM) unmarshaller.unmarshal(xml);
+	/**unmashell an ODM XML document to a ODM object
+	 */
+	public ODM unmarshall(String systemId, InputStream inputStream) throws JAXBException {
+		ODM odm = new ODM();
+		try {
+			Unmarshaller unmarshaller = acquireUnmarshaller();
+			try {
+				StreamSource source = new StreamSource(inputStream, systemId);
+				odm = (ODM) unmarshaller.unmarshal(source);
+			} finally {
+				releaseUnmarshaller(unmarshaller);
+			}
 
 		} catch (JAXBException jaxbEx) {
 			jaxbEx.printStackTrace();
@@ -42,13 +157,13 @@ public class ODMLoader {
 	*/
 	public void marshall(Object odm, Writer writer) throws JAXBException {
 		try {
-			JAXBContext context = JAXBContext.newInstance("org.cdisk.odm.jaxb");
-
-			Marshaller marshaller = context.createMarshaller();
-			marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE);
-
-			//marshaller.marshal(odm, System.out);
-			marshaller.marshal(odm, writer);
+			Marshaller marshaller = acquireMarshaller();
+			try {
+				//marshaller.marshal(odm, System.out);
+				marshaller.marshal(odm, writer);
+			} finally {
+				marshallers.offer(marshaller);
+			}
 
 		} catch (JAXBException jaxbEx) {
 			jaxbEx.printStackTrace();
@@ -0,0 +1,55 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
+
+/**
+ * Receives the parts of an ODM file from an {@link ODMStreamReader}, in document order. The metadata is
+ * passed once and in full; the clinical data is passed one subject at a time, so a handler never sees
+ * more than the metadata and a single subject.
+ */
+public interface ODMStreamHandler {
+
+    /**
+     * Handles the metadata of the ODM file. This method is called exactly once, before the first clinical
+     * data block (or at the end of the file when there is no clinical data).
+     *
+     * @param odm an odm object with the root attributes and all the study, admin and reference data of the
+     *            file; the list of clinical data blocks is always empty.
+     * @throws Exception when the handler fails.
+     */
+    void processMetaData(ODM odm) throws Exception;
+
+    /**
+     * Signals the start of a clinical data block.
+     *
+     * @param clinicalData the clinical data block with its study OID and metadata version OID, but without
+     *                     subject data.
+     * @throws Exception when the handler fails.
+     */
+    void processClinicalDataStart(ODMcomplexTypeDefinitionClinicalData clinicalData) throws Exception;
+
+    /**
+     * Handles the data of one subject (aka patient).
+     *
+     * @param clinicalData the clinical data block that contains the subject (without subject data).
+     * @param subjectData  the fully unmarshalled data of the subject.
+     * @throws Exception when the handler fails.
+     */
+    void processSubjectData(ODMcomplexTypeDefinitionClinicalData clinicalData,
+                            ODMcomplexTypeDefinitionSubjectData subjectData) throws Exception;
+
+    /**
+     * Signals the end of a clinical data block.
+     *
+     * @param clinicalData the clinical data block that has been completed (without subject data).
+     * @throws Exception when the handler fails.
+     */
+    void processClinicalDataEnd(ODMcomplexTypeDefinitionClinicalData clinicalData) throws Exception;
+}
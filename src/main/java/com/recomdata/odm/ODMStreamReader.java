@@ -0,0 +1,279 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.cdisk.odm.jaxb.FileType;
+import org.cdisk.odm.jaxb.Granularity;
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionAdminData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionAssociation;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionReferenceData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
+import org.cdisk.odm.jaxb.YesOnly;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads an ODM XML file with a StAX cursor instead of unmarshalling the whole file at once. The study,
+ * admin and reference data are unmarshalled completely and passed to the handler as metadata; the clinical
+ * data is unmarshalled one SubjectData element at a time. Peak memory use is therefore bounded by the size
+ * of the metadata plus one subject, instead of by the size of the file.
+ */
+public class ODMStreamReader {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ODMStreamReader.class);
+
+    /**
+     * The namespace of the ODM elements.
+     */
+    private static final String ODM_NAMESPACE = "http://www.cdisc.org/ns/odm/v1.3";
+
+    /**
+     * Creates a source that reads an ODM XML file with a new stream reader.
+     *
+     * @param xml the ODM XML file.
+     * @return the source.
+     */
+    public static ODMStreamSource createSource(final File xml) {
+        return new ODMStreamSource() {
+            @Override
+            public void read(final ODMStreamHandler handler) throws Exception {
+                new ODMStreamReader().read(xml, handler);
+            }
+        };
+    }
+
+    /**
+     * Creates a source that reads an ODM XML document from an input stream with a new stream reader.
+     *
+     * @param systemId    the system id of the document, used to resolve relative references.
+     * @param inputStream the stream with the ODM XML document.
+     * @return the source.
+     */
+    public static ODMStreamSource createSource(final String systemId, final InputStream inputStream) {
+        return new ODMStreamSource() {
+            @Override
+            public void read(final ODMStreamHandler handler) throws Exception {
+                new ODMStreamReader().read(systemId, inputStream, handler);
+            }
+        };
+    }
+
+    /**
+     * Reads an ODM XML file and passes its contents to the handler. The file can be plain XML, gzip compressed XML
+     * or a zip archive with one ODM XML entry, which is decompressed while it is read (see {@link ODMInput}).
+     *
+     * @param xml     the ODM XML file.
+     * @param handler the handler that receives the metadata and the subjects.
+     * @throws Exception when the file cannot be read or parsed, or when the handler fails.
+     */
+    public void read(final File xml, final ODMStreamHandler handler) throws Exception {
+        ODMInput.readDocument(xml, new ODMInput.DocumentReader() {
+            @Override
+            public void read(final String systemId, final InputStream inputStream) throws Exception {
+                ODMStreamReader.this.read(systemId, inputStream, handler);
+            }
+        });
+    }
+
+    /**
+     * Reads an ODM XML document from an input stream and passes its contents to the handler.
+     *
+     * @param systemId    the system id of the document, used to resolve relative references.
+     * @param inputStream the stream with the ODM XML document.
+     * @param handler     the handler that receives the metadata and the subjects.
+     * @throws Exception when the document cannot be parsed, or when the handler fails.
+     */
+    public void read(final String systemId, final InputStream inputStream, final ODMStreamHandler handler)
+            throws Exception {
+        final Unmarshaller unmarshaller = ODMLoader.acquireUnmarshaller();
+        try {
+            final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(systemId, inputStream);
+            try {
+                readDocument(reader, unmarshaller, handler);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            ODMLoader.releaseUnmarshaller(unmarshaller);
+        }
+    }
+
+    /**
+     * Reads the ODM root element with its contents and passes them to the handler.
+     *
+     * @param reader       the reader, positioned before the ODM root element.
+     * @param unmarshaller the unmarshaller for the metadata elements and the subjects.
+     * @param handler      the handler that receives the metadata and the subjects.
+     * @throws Exception when the document cannot be parsed, or when the handler fails.
+     */
+    private void readDocument(final XMLStreamReader reader, final Unmarshaller unmarshaller,
+                              final ODMStreamHandler handler) throws Exception {
+        reader.nextTag();
+        final ODM odm = readRootAttributes(reader);
+        boolean metaDataProcessed = false;
+
+        reader.next();
+        while (reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                reader.next();
+            } else if (isOdmElement(reader, "ClinicalData")) {
+                if (!metaDataProcessed) {
+                    handler.processMetaData(odm);
+                    metaDataProcessed = true;
+                }
+                readClinicalData(reader, unmarshaller, handler);
+            } else {
+                readMetaDataElement(reader, unmarshaller, odm);
+            }
+        }
+
+        if (!metaDataProcessed) {
+            handler.processMetaData(odm);
+        }
+    }
+
+    /**
+     * Creates an odm object without content and copies the attributes of the ODM root element into it.
+     *
+     * @param reader the reader, positioned on the ODM root element.
+     * @return the odm object.
+     * @throws DatatypeConfigurationException when the date-time attributes cannot be converted.
+     */
+    private ODM readRootAttributes(final XMLStreamReader reader) throws DatatypeConfigurationException {
+        final ODM odm = new ODM();
+        final DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+        for (int attributeIndex = 0; attributeIndex < reader.getAttributeCount(); attributeIndex++) {
+            final String name = reader.getAttributeLocalName(attributeIndex);
+            final String value = reader.getAttributeValue(attributeIndex);
+            switch (name) {
+                case "Description":         odm.setDescription(value); break;
+                case "FileType":            odm.setFileType(FileType.fromValue(value.trim())); break;
+                case "Granularity":         odm.setGranularity(Granularity.fromValue(value.trim())); break;
+                case "Archival":            odm.setArchival(YesOnly.fromValue(value.trim())); break;
+                case "FileOID":             odm.setFileOID(value); break;
+                case "CreationDateTime":    odm.setCreationDateTime(datatypeFactory.newXMLGregorianCalendar(value.trim())); break;
+                case "PriorFileOID":        odm.setPriorFileOID(value); break;
+                case "AsOfDateTime":        odm.setAsOfDateTime(datatypeFactory.newXMLGregorianCalendar(value.trim())); break;
+                case "ODMVersion":          odm.setODMVersion(value); break;
+                case "Originator":          odm.setOriginator(value); break;
+                case "SourceSystem":        odm.setSourceSystem(value); break;
+                case "SourceSystemVersion": odm.setSourceSystemVersion(value); break;
+                case "Id":                  odm.setId(value); break;
+                default:                    break;
+            }
+        }
+        return odm;
+    }
+
+    /**
+     * Unmarshals a child element of the ODM root element that is not clinical data and adds it to the odm
+     * object. Elements that are not used by the converters (like signatures) are skipped.
+     *
+     * @param reader       the reader, positioned on the start of the element.
+     * @param unmarshaller the unmarshaller.
+     * @param odm          the odm object to which the element is added.
+     * @throws JAXBException      when the element cannot be unmarshalled.
+     * @throws XMLStreamException when the element cannot be read.
+     */
+    private void readMetaDataElement(final XMLStreamReader reader, final Unmarshaller unmarshaller, final ODM odm)
+            throws JAXBException, XMLStreamException {
+        if (isOdmElement(reader, "Study")) {
+            odm.getStudy().add(unmarshaller.unmarshal(reader, ODMcomplexTypeDefinitionStudy.class).getValue());
+        } else if (isOdmElement(reader, "AdminData")) {
+            odm.getAdminData().add(unmarshaller.unmarshal(reader, ODMcomplexTypeDefinitionAdminData.class).getValue());
+        } else if (isOdmElement(reader, "ReferenceData")) {
+            odm.getReferenceData().add(
+                    unmarshaller.unmarshal(reader, ODMcomplexTypeDefinitionReferenceData.class).getValue());
+        } else if (isOdmElement(reader, "Association")) {
+            odm.getAssociation().add(
+                    unmarshaller.unmarshal(reader, ODMcomplexTypeDefinitionAssociation.class).getValue());
+        } else {
+            logger.debug("Skipping ODM element " + reader.getLocalName());
+            skipElement(reader);
+        }
+    }
+
+    /**
+     * Reads a clinical data block and passes its subjects to the handler one at a time. Audit records,
+     * signatures and annotations in the block are skipped.
+     *
+     * @param reader       the reader, positioned on the start of the clinical data element.
+     * @param unmarshaller the unmarshaller.
+     * @param handler      the handler that receives the subjects.
+     * @throws Exception when the clinical data cannot be read, or when the handler fails.
+     */
+    private void readClinicalData(final XMLStreamReader reader, final Unmarshaller unmarshaller,
+                                  final ODMStreamHandler handler) throws Exception {
+        final ODMcomplexTypeDefinitionClinicalData clinicalData = new ODMcomplexTypeDefinitionClinicalData();
+        clinicalData.setStudyOID(reader.getAttributeValue(null, "StudyOID"));
+        clinicalData.setMetaDataVersionOID(reader.getAttributeValue(null, "MetaDataVersionOID"));
+        handler.processClinicalDataStart(clinicalData);
+
+        reader.next();
+        while (reader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                reader.next();
+            } else if (isOdmElement(reader, "SubjectData")) {
+                final ODMcomplexTypeDefinitionSubjectData subjectData =
+                        unmarshaller.unmarshal(reader, ODMcomplexTypeDefinitionSubjectData.class).getValue();
+                handler.processSubjectData(clinicalData, subjectData);
+            } else {
+                skipElement(reader);
+            }
+        }
+        reader.next();
+
+        handler.processClinicalDataEnd(clinicalData);
+    }
+
+    /**
+     * Checks whether the reader is positioned on an ODM element with a specific name.
+     *
+     * @param reader    the reader, positioned on the start of an element.
+     * @param localName the local name of the element.
+     * @return whether the element is the ODM element with the given name.
+     */
+    private boolean isOdmElement(final XMLStreamReader reader, final String localName) {
+        return localName.equals(reader.getLocalName()) && ODM_NAMESPACE.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * Skips an element with all its content. Afterwards the reader is positioned on the first event after
+     * the element, just like after unmarshalling an element.
+     *
+     * @param reader the reader, positioned on the start of the element.
+     * @throws XMLStreamException when the element cannot be read.
+     */
+    private void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 0;
+        do {
+            if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+            reader.next();
+        } while (depth > 0);
+    }
+}
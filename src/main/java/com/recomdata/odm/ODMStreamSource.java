@@ -0,0 +1,22 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+/**
+ * A source of ODM data that is passed to an {@link ODMStreamHandler} in document order, like an ODM file that
+ * is read by an {@link ODMStreamReader} or a REDCap project that is converted while it is retrieved. The
+ * converters accept any source, so they never need the complete odm tree.
+ */
+public interface ODMStreamSource {
+
+    /**
+     * Reads the source and passes the metadata and the subjects to the handler.
+     *
+     * @param handler the handler that receives the metadata and the subjects.
+     * @throws Exception when the source cannot be read, or when the handler fails.
+     */
+    void read(ODMStreamHandler handler) throws Exception;
+}
@@ -4,10 +4,14 @@ import java.io.IOException;
 import java.io.Reader;
 import java.math.BigInteger;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
@@ -50,8 +54,10 @@ import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 
-import com.recomdata.i2b2.util.ODMUtil;
+import com.recomdata.odm.ODMStreamHandler;
+import com.recomdata.odm.ODMStreamSource;
 import com.recomdata.redcap.ws.GetRedcapService;
+import com.recomdata.redcap.ws.RedcapPageReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,56 +67,211 @@ public class Redcap2ODM {
      */
 	private Logger logger = LoggerFactory.getLogger(Redcap2ODM.class);
 
+	/**
+	 * The parameter with the fields to export.
+	 */
+	public static final String FIELDS_PARAM = "fields";
+
 	public ODM buildODM(String projectID, String projectName, String projectDescription,
 			String baseUrl, String metadataPath, String clinicalDataPath, String token)
 	throws IOException, JAXBException, DatatypeConfigurationException {
-		ODM odm = new ODM();
-		odm.setCreationDateTime(RedcapODMUtils.getXMLGregorianCalendar(Calendar.getInstance().getTime()));
-		odm.setFileOID("000-000-000");
-		odm.setODMVersion("1.3.1");
-		odm.setFileType(FileType.TRANSACTIONAL);
-		odm.setAsOfDateTime(odm.getCreationDateTime());
-		odm.setSourceSystem(new URL(baseUrl).getHost());
-
-		JsonFactory factory = new JsonFactory();
-		JsonParser metadataParser = factory.createJsonParser(readServiceData(projectID, baseUrl + metadataPath, token));
+		return buildODM(projectID, projectName, projectDescription, new URL(baseUrl).getHost(),
+				readServiceData(projectID, baseUrl + metadataPath, token),
+				readServiceData(projectID, baseUrl + clinicalDataPath, token));
+	}
 
-		ODMcomplexTypeDefinitionStudy odmStudy;
+	/**
+	 * Build the complete ODM of a project from the REDCap metadata and records
+	 * in JSON.
+	 */
+	public ODM buildODM(String projectID, String projectName, String projectDescription,
+			String sourceSystem, Reader metadataReader, Reader clinicalDataReader)
+	throws IOException, JAXBException, DatatypeConfigurationException {
+		ODM odm = createODM(sourceSystem);
+		ODMcomplexTypeDefinitionStudy odmStudy = readStudyMetadata(projectID, projectName, projectDescription, metadataReader);
+		odm.getStudy().add(odmStudy);
 
+		JsonParser clinicalDataParser = new JsonFactory().createJsonParser(clinicalDataReader);
 		try {
-			odmStudy = buildStudyMetadata(projectID, projectName, projectDescription, metadataParser);
-			odm.getStudy().add(odmStudy);
-			metadataParser.close();
-		} catch (IOException e) {
-			if (metadataParser != null) {
+			ODMcomplexTypeDefinitionClinicalData clinicalData = createClinicalData(odmStudy);
+			ClinicalDataField field = startClinicalData(clinicalDataParser);
+
+			ODMcomplexTypeDefinitionSubjectData subjectData;
+			while ((subjectData = readSubjectData(clinicalDataParser, field)) != null) {
+				clinicalData.getSubjectData().add(subjectData);
+			}
+
+			odm.getClinicalData().add(clinicalData);
+		} finally {
+			closeParser(clinicalDataParser);
+		}
+
+		return odm;
+	}
+
+	/**
+	 * Create a source that converts a REDCap project while its records are
+	 * retrieved: the handler receives the metadata and then one subject at a
+	 * time, so the records are converted in a single pass and the ODM of the
+	 * whole project is never held in memory.
+	 */
+	public ODMStreamSource createStreamSource(final String projectID, final String projectName,
+			final String projectDescription, final String baseUrl, final String metadataPath,
+			final String clinicalDataPath, final String token) {
+		return new ODMStreamSource() {
+			@Override
+			public void read(ODMStreamHandler handler) throws Exception {
+				streamODM(projectID, projectName, projectDescription, new URL(baseUrl).getHost(),
+						readServiceData(projectID, baseUrl + metadataPath, token),
+						readServiceData(projectID, baseUrl + clinicalDataPath, token), handler);
+			}
+		};
+	}
+
+	/**
+	 * Convert the REDCap metadata and records in JSON and pass them to the
+	 * handler, one subject at a time. The records of a subject are expected
+	 * to be consecutive, like in the REDCap export.
+	 */
+	public void streamODM(String projectID, String projectName, String projectDescription,
+			String sourceSystem, Reader metadataReader, Reader clinicalDataReader, ODMStreamHandler handler)
+	throws Exception {
+		ODMcomplexTypeDefinitionStudy odmStudy = streamMetaData(projectID, projectName, projectDescription,
+				sourceSystem, metadataReader, handler);
+
+		ODMcomplexTypeDefinitionClinicalData clinicalData = createClinicalData(odmStudy);
+		handler.processClinicalDataStart(clinicalData);
+		streamSubjects(clinicalData, clinicalDataReader, handler);
+		handler.processClinicalDataEnd(clinicalData);
+	}
+
+	/**
+	 * Create a source that converts a REDCap project while its records are
+	 * retrieved in pages of pageSize record ids, over up to threads concurrent
+	 * connections. The record ids are retrieved first, by requesting only the
+	 * record id field (the first field of the project).
+	 */
+	public ODMStreamSource createPagedStreamSource(final String projectID, final String projectName,
+			final String projectDescription, final String baseUrl, final String metadataPath,
+			final String clinicalDataPath, final String token, final int pageSize, final int threads) {
+		return new ODMStreamSource() {
+			@Override
+			public void read(ODMStreamHandler handler) throws Exception {
+				ODMcomplexTypeDefinitionStudy odmStudy = streamMetaData(projectID, projectName, projectDescription,
+						new URL(baseUrl).getHost(), readServiceData(projectID, baseUrl + metadataPath, token), handler);
+
+				String endpoint = getServiceEndpoint(projectID, baseUrl + clinicalDataPath);
+				List<String> recordIDs = readRecordIDs(endpoint, token, getRecordIDField(odmStudy));
+				logger.info("Reading " + recordIDs.size() + " records of project " + projectID + " in pages of "
+						+ pageSize + " records");
+
+				ODMcomplexTypeDefinitionClinicalData clinicalData = createClinicalData(odmStudy);
+				handler.processClinicalDataStart(clinicalData);
+
+				RedcapPageReader pageReader = new GetRedcapService().readRedcapWebServicePages(
+						endpoint, getServiceParams(token), recordIDs, pageSize, threads, null, 0);
 				try {
-					metadataParser.close();
-				} catch (IOException f) {
-					logger.error("Exception while closing the metadata parser.", f);
+					Reader page;
+					while ((page = pageReader.nextPage()) != null) {
+						streamSubjects(clinicalData, page, handler);
+					}
+				} finally {
+					pageReader.close();
 				}
+
+				handler.processClinicalDataEnd(clinicalData);
 			}
+		};
+	}
 
-			throw e;
+	private ODMcomplexTypeDefinitionStudy streamMetaData(String projectID, String projectName,
+			String projectDescription, String sourceSystem, Reader metadataReader, ODMStreamHandler handler)
+	throws Exception {
+		ODM odm = createODM(sourceSystem);
+		ODMcomplexTypeDefinitionStudy odmStudy = readStudyMetadata(projectID, projectName, projectDescription, metadataReader);
+		odm.getStudy().add(odmStudy);
+		handler.processMetaData(odm);
+		return odmStudy;
+	}
+
+	private void streamSubjects(ODMcomplexTypeDefinitionClinicalData clinicalData, Reader clinicalDataReader,
+			ODMStreamHandler handler) throws Exception {
+		JsonParser clinicalDataParser = new JsonFactory().createJsonParser(clinicalDataReader);
+		try {
+			ClinicalDataField field = startClinicalData(clinicalDataParser);
+
+			ODMcomplexTypeDefinitionSubjectData subjectData;
+			while ((subjectData = readSubjectData(clinicalDataParser, field)) != null) {
+				handler.processSubjectData(clinicalData, subjectData);
+			}
+		} finally {
+			closeParser(clinicalDataParser);
+		}
+	}
+
+	/**
+	 * The record id field is the first field of a REDCap project.
+	 */
+	private String getRecordIDField(ODMcomplexTypeDefinitionStudy odmStudy) throws IOException {
+		List<ODMcomplexTypeDefinitionItemDef> itemDefs = odmStudy.getMetaDataVersion().get(0).getItemDef();
+		if (itemDefs.isEmpty()) {
+			throw new IOException("No fields were found in the metadata of project " + odmStudy.getOID());
 		}
+		return itemDefs.get(0).getName();
+	}
 
-		JsonParser clinicalDataParser = factory.createJsonParser(readServiceData(projectID, baseUrl + clinicalDataPath, token));
+	/**
+	 * Read the distinct record ids of the project (in the order of the
+	 * export) by requesting only the values of the record id field.
+	 */
+	private List<String> readRecordIDs(String endpoint, String token, String recordIDField) throws IOException {
+		Map<String, String> params = getServiceParams(token);
+		params.put(FIELDS_PARAM, recordIDField);
 
+		JsonParser jp = new JsonFactory().createJsonParser(
+				new GetRedcapService().readRedcapWebServiceData(endpoint, params, null, 0));
 		try {
-			ODMcomplexTypeDefinitionClinicalData clinicalData = buildClinicalData(odmStudy, clinicalDataParser);
-			odm.getClinicalData().add(clinicalData);
-		} catch (IOException e) {
-			try {
-				metadataParser.close();
-			} catch (IOException f) {
-				logger.error("Exception while closing the metadata parser.", f);
+			Set<String> recordIDs = new LinkedHashSet<>();
+			ClinicalDataField field = startClinicalData(jp);
+			while (field.available) {
+				recordIDs.add(field.subjectID);
+				field.read(jp);
 			}
-
-			throw e;
+			return new ArrayList<>(recordIDs);
+		} finally {
+			closeParser(jp);
 		}
+	}
 
+	private ODM createODM(String sourceSystem) throws DatatypeConfigurationException {
+		ODM odm = new ODM();
+		odm.setCreationDateTime(RedcapODMUtils.getXMLGregorianCalendar(Calendar.getInstance().getTime()));
+		odm.setFileOID("000-000-000");
+		odm.setODMVersion("1.3.1");
+		odm.setFileType(FileType.TRANSACTIONAL);
+		odm.setAsOfDateTime(odm.getCreationDateTime());
+		odm.setSourceSystem(sourceSystem);
 		return odm;
 	}
 
+	private ODMcomplexTypeDefinitionStudy readStudyMetadata(String projectID, String projectName,
+			String projectDescription, Reader metadataReader) throws IOException, JAXBException {
+		JsonParser metadataParser = new JsonFactory().createJsonParser(metadataReader);
+		try {
+			return buildStudyMetadata(projectID, projectName, projectDescription, metadataParser);
+		} finally {
+			closeParser(metadataParser);
+		}
+	}
+
+	private void closeParser(JsonParser parser) {
+		try {
+			parser.close();
+		} catch (IOException e) {
+			logger.error("Exception while closing the JSON parser.", e);
+		}
+	}
+
 	private ODMcomplexTypeDefinitionStudy buildStudyMetadata(
 			String studyOID, String studyName, String studyDesc, JsonParser jp)
 	throws IOException, JAXBException {
@@ -146,6 +307,17 @@ public class Redcap2ODM {
 		ODMcomplexTypeDefinitionItemGroupDef currentItemGroup = null;
 		HashMap<String,String> codeListMap = new HashMap<>();
 
+		/*
+		 * Registries of the study event and form definitions by OID, so finding a
+		 * definition does not need a scan of all definitions. The form OIDs per study
+		 * event prevent duplicate form references when the fields of an event are not
+		 * consecutive. Item groups need no registry: each form gets its own, which is
+		 * created together with the form.
+		 */
+		Map<String, ODMcomplexTypeDefinitionStudyEventDef> studyEvents = new HashMap<>();
+		Map<String, Set<String>> studyEventForms = new HashMap<>();
+		Map<String, ODMcomplexTypeDefinitionFormDef> forms = new HashMap<>();
+
 		MetadataField field = new MetadataField();
 		jp.nextValue(); // Start top level object
 		jp.nextValue(); // Object fields
@@ -187,19 +359,25 @@ public class Redcap2ODM {
 				 */
 				currentForm = null;
 
-				currentStudyEvent = new ODMcomplexTypeDefinitionStudyEventDef();
-				currentStudyEvent.setName(studyEventName);
-				currentStudyEvent.setOID("SE." + studyEventName);
-				currentStudyEvent.setRepeating(YesOrNo.NO); // True value is unknown
-				currentStudyEvent.setType(EventType.COMMON); // True value is unknown
-				odmMetadataVersion.getStudyEventDef().add(currentStudyEvent);
-
-				List<ODMcomplexTypeDefinitionStudyEventRef> eventRefs = odmMetadataVersion.getProtocol().getStudyEventRef();
-				ODMcomplexTypeDefinitionStudyEventRef eventRef = new ODMcomplexTypeDefinitionStudyEventRef();
-				eventRef.setStudyEventOID(currentStudyEvent.getOID());
-				eventRef.setMandatory(YesOrNo.NO); // True value is unknown
-				eventRef.setOrderNumber(BigInteger.valueOf(eventRefs.size() + 1));
-				eventRefs.add(eventRef);
+				String studyEventOID = "SE." + studyEventName;
+				currentStudyEvent = studyEvents.get(studyEventOID);
+				if (currentStudyEvent == null) {
+					currentStudyEvent = new ODMcomplexTypeDefinitionStudyEventDef();
+					currentStudyEvent.setName(studyEventName);
+					currentStudyEvent.setOID(studyEventOID);
+					currentStudyEvent.setRepeating(YesOrNo.NO); // True value is unknown
+					currentStudyEvent.setType(EventType.COMMON); // True value is unknown
+					odmMetadataVersion.getStudyEventDef().add(currentStudyEvent);
+					studyEvents.put(studyEventOID, currentStudyEvent);
+					studyEventForms.put(studyEventOID, new HashSet<String>());
+
+					List<ODMcomplexTypeDefinitionStudyEventRef> eventRefs = odmMetadataVersion.getProtocol().getStudyEventRef();
+					ODMcomplexTypeDefinitionStudyEventRef eventRef = new ODMcomplexTypeDefinitionStudyEventRef();
+					eventRef.setStudyEventOID(currentStudyEvent.getOID());
+					eventRef.setMandatory(YesOrNo.NO); // True value is unknown
+					eventRef.setOrderNumber(BigInteger.valueOf(eventRefs.size() + 1));
+					eventRefs.add(eventRef);
+				}
 			}
 
 			if (currentForm == null || !currentForm.getName().equals(field.formName)) {
@@ -208,13 +386,15 @@ public class Redcap2ODM {
 				 * The form either already exists or will be created below.
 				 */
 				String formOID = "FM." + field.formName;
-				ODMcomplexTypeDefinitionFormRef formRef = new ODMcomplexTypeDefinitionFormRef();
-				formRef.setFormOID(formOID);
-				formRef.setMandatory(YesOrNo.NO); //True value is unknown
-				formRef.setOrderNumber(BigInteger.valueOf(currentStudyEvent.getFormRef().size() + 1));
-				currentStudyEvent.getFormRef().add(formRef);
+				if (studyEventForms.get(currentStudyEvent.getOID()).add(formOID)) {
+					ODMcomplexTypeDefinitionFormRef formRef = new ODMcomplexTypeDefinitionFormRef();
+					formRef.setFormOID(formOID);
+					formRef.setMandatory(YesOrNo.NO); //True value is unknown
+					formRef.setOrderNumber(BigInteger.valueOf(currentStudyEvent.getFormRef().size() + 1));
+					currentStudyEvent.getFormRef().add(formRef);
+				}
 
-				currentForm = ODMUtil.getForm(odmStudy, formOID);
+				currentForm = forms.get(formOID);
 				if (currentForm != null) {
 					/*
 					 * Already constructed this form definition, so skip all fields until next form
@@ -229,6 +409,7 @@ public class Redcap2ODM {
 				currentForm.setName(field.formName);
 				currentForm.setRepeating(YesOrNo.NO); // True value is unknown
 				odmMetadataVersion.getFormDef().add(currentForm);
+				forms.put(formOID, currentForm);
 
 				/*
 				 * Define a default item group and reference for each form
@@ -317,47 +498,55 @@ public class Redcap2ODM {
 		return odmStudy;
 	}
 
-	private ODMcomplexTypeDefinitionClinicalData buildClinicalData(
-			ODMcomplexTypeDefinitionStudy odmStudy, JsonParser jp)
-	throws IOException, JAXBException {
+	private ODMcomplexTypeDefinitionClinicalData createClinicalData(ODMcomplexTypeDefinitionStudy odmStudy) {
 		ODMcomplexTypeDefinitionClinicalData clinicalData = new ODMcomplexTypeDefinitionClinicalData();
 		clinicalData.setStudyOID(odmStudy.getOID());
 		clinicalData.setMetaDataVersionOID(odmStudy.getMetaDataVersion().get(0).getOID());
+		return clinicalData;
+	}
 
-		ODMcomplexTypeDefinitionSubjectData currentSubjectData = null;
-		ODMcomplexTypeDefinitionStudyEventData currentStudyEventData = null;
-		ODMcomplexTypeDefinitionFormData currentFormData = null;
-		ODMcomplexTypeDefinitionItemGroupData currentItemGroupData = null;
-
-		ClinicalDataField field = new ClinicalDataField();
+	/**
+	 * Move the parser to the records and read the first record.
+	 */
+	private ClinicalDataField startClinicalData(JsonParser jp) throws IOException {
 		jp.nextValue(); // Start top level object
 		jp.nextValue(); // project data fields
 
-		while (jp.getCurrentToken() != JsonToken.END_ARRAY) { // iterate over records
-			if (!field.read(jp)) {
-				break;
-			}
+		ClinicalDataField field = new ClinicalDataField();
+		field.read(jp);
+		return field;
+	}
 
-			if (logger.isDebugEnabled()) {
-				logger.debug("Read  " + field);
-			}
+	/**
+	 * Read the consecutive records of the next subject. The field holds the
+	 * first record of the subject and afterwards the first record of the next
+	 * subject.
+	 *
+	 * @return the data of the subject, or null when there are no more records.
+	 */
+	private ODMcomplexTypeDefinitionSubjectData readSubjectData(JsonParser jp, ClinicalDataField field)
+	throws IOException {
+		if (!field.available) {
+			return null;
+		}
 
-			if (currentSubjectData == null || !currentSubjectData.getSubjectKey().equals(field.subjectID)) {
-				currentSubjectData = new ODMcomplexTypeDefinitionSubjectData();
-				currentSubjectData.setSubjectKey(field.subjectID);
-				clinicalData.getSubjectData().add(currentSubjectData);
+		ODMcomplexTypeDefinitionSubjectData subjectData = new ODMcomplexTypeDefinitionSubjectData();
+		subjectData.setSubjectKey(field.subjectID);
 
-				/*
-				 * New subject, so make sure we create a new StudyEventData element for it
-				 */
-				currentStudyEventData = null;
+		ODMcomplexTypeDefinitionStudyEventData currentStudyEventData = null;
+		ODMcomplexTypeDefinitionFormData currentFormData = null;
+		ODMcomplexTypeDefinitionItemGroupData currentItemGroupData = null;
+
+		do {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Read  " + field);
 			}
 
 			String studyEventOID = "SE." + field.armName + ": " + field.eventName;
 			if (currentStudyEventData == null || !currentStudyEventData.getStudyEventOID().equals(studyEventOID)) {
 				currentStudyEventData = new ODMcomplexTypeDefinitionStudyEventData();
 				currentStudyEventData.setStudyEventOID(studyEventOID);
-				currentSubjectData.getStudyEventData().add(currentStudyEventData);
+				subjectData.getStudyEventData().add(currentStudyEventData);
 
 				/*
 				 * New study event, so make sure we create a new FormData element for it
@@ -393,9 +582,9 @@ public class Redcap2ODM {
 			itemData.setValue(field.value);
 
 			currentItemGroupData.getItemDataGroup().add(itemData);
-		}
+		} while (field.read(jp) && field.subjectID.equals(subjectData.getSubjectKey()));
 
-		return clinicalData;
+		return subjectData;
 	}
 
 	private String getOdmDataType(MetadataField field) {
@@ -428,13 +617,12 @@ public class Redcap2ODM {
 
 	private Reader readServiceData(String projectID, String serviceUrl, String token)
 	throws IOException {
-		String endpoint = serviceUrl + "?projectID=" + projectID;
+		String endpoint = getServiceEndpoint(projectID, serviceUrl);
 		GetRedcapService service = new GetRedcapService();
 
 		Map<String, String> params = null;
 		if (token != null) {
-			params = new HashMap<>();
-			params.put("token", token);
+			params = getServiceParams(token);
 		}
 
 		return service.readRedcapWebServiceData(endpoint, params, null, 0);
@@ -443,6 +631,18 @@ public class Redcap2ODM {
 //		return new BufferedReader(new FileReader(testFile));
 	}
 
+	private String getServiceEndpoint(String projectID, String serviceUrl) {
+		return serviceUrl + "?projectID=" + projectID;
+	}
+
+	private Map<String, String> getServiceParams(String token) {
+		Map<String, String> params = new HashMap<>();
+		if (token != null) {
+			params.put("token", token);
+		}
+		return params;
+	}
+
 	private void skipToNextForm(JsonParser jp, MetadataField field) throws IOException {
 		String eventName = field.eventName;
 		String formName = field.formName;
@@ -522,6 +722,8 @@ public class Redcap2ODM {
 	}
 
 	public static class ClinicalDataField {
+		boolean available;
+
 		String subjectID;
 		String armName;
 		String eventName;
@@ -530,7 +732,8 @@ public class Redcap2ODM {
 		String value;
 
 		private boolean read(JsonParser jp) throws IOException {
-			if (jp.nextToken() == JsonToken.END_ARRAY) {
+			available = jp.nextToken() != JsonToken.END_ARRAY;
+			if (!available) {
 				return false;
 			}
 
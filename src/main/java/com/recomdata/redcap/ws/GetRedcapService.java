@@ -8,8 +8,11 @@
 package com.recomdata.redcap.ws;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
@@ -17,9 +20,12 @@ import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**This class is a RESTful web service client that get Redcap data fron all the API
@@ -28,6 +34,10 @@ import org.apache.commons.lang.StringUtils;
 *  The code also takes care of right encoding of parameters. The result is a json/xml string,
 */
 public class GetRedcapService {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final Logger logger = LoggerFactory.getLogger(GetRedcapService.class);
+
 	/**Create a web query for RESTful web service
 	 * @throws UnsupportedEncodingException 
 	 */
@@ -46,6 +56,10 @@ public class GetRedcapService {
 	}
 	
 	public BufferedReader readRedcapWebServiceData(String endpoint, Map<String, String> params, String proxy, int port) throws IOException {
+		return new BufferedReader(new InputStreamReader(openRedcapWebServiceData(endpoint, params, proxy, port), "UTF-8"));
+	}
+
+	private InputStream openRedcapWebServiceData(String endpoint, Map<String, String> params, String proxy, int port) throws IOException {
 		Proxy proxyObject = null;
 		if (StringUtils.isNotBlank(proxy) && port > 0) {
 			InetSocketAddress proxyAddress = new InetSocketAddress(proxy, port);
@@ -74,7 +88,59 @@ public class GetRedcapService {
 		}
 
 		//retrieve result
-		return new BufferedReader(new InputStreamReader(urlc.getInputStream(), "UTF-8"));		
+		return urlc.getInputStream();
+	}
+
+	/**
+	 * Post the query and read the complete response. A failed request (like a
+	 * timeout or a server error) is sent again, up to maxAttempts requests in
+	 * total, with a delay that doubles after every failure.
+	 *
+	 * @return the response in bytes
+	 * @throws IOException the exception of the last request
+	 */
+	public byte[] fetchRedcapWebServiceData(String endpoint, Map<String, String> params, String proxy, int port,
+			int maxAttempts, long retryDelay) throws IOException {
+		long delay = retryDelay;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				InputStream in = openRedcapWebServiceData(endpoint, params, proxy, port);
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+					byte[] buffer = new byte[BUFFER_SIZE];
+					int count;
+					while ((count = in.read(buffer)) != -1) {
+						out.write(buffer, 0, count);
+					}
+					return out.toByteArray();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				logger.warn("Request " + attempt + " of " + maxAttempts + " to " + endpoint + " failed, retrying: " + e);
+			}
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry " + endpoint);
+			}
+			delay *= 2;
+		}
+	}
+
+	/**
+	 * Read the records with the given ids in pages of pageSize records (passed
+	 * in the records parameter), which are retrieved over up to threads
+	 * concurrent connections and returned in order.
+	 */
+	public RedcapPageReader readRedcapWebServicePages(String endpoint, Map<String, String> params,
+			List<String> recordIds, int pageSize, int threads, String proxy, int port) {
+		return new RedcapPageReader(this, endpoint, params, recordIds, pageSize, threads, proxy, port);
 	}
 
 	/**
@@ -0,0 +1,142 @@
+/**
+ * Copyright(c)  2011-2012 Recombinant Data Corp., All rights Reserved
+ */
+
+package com.recomdata.redcap.ws;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * RedcapPageReader.java
+ *
+ * Reads the records of a REDCap project in pages of record ids instead of in
+ * one request. The pages are retrieved over several concurrent connections
+ * (with retries of failed pages), but are returned in the order of the record
+ * ids, so the records of a subject stay consecutive. At most threads pages are
+ * retrieved ahead of the page that is being parsed, so the memory use is
+ * bounded by the page size instead of by the size of the project.
+ */
+public class RedcapPageReader implements Closeable {
+	public static final String RECORDS_PARAM = "records";
+
+	public static final int DEFAULT_ATTEMPTS = 3;
+
+	public static final long DEFAULT_RETRY_DELAY = 1000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final GetRedcapService service;
+	private final String endpoint;
+	private final Map<String, String> params;
+	private final List<List<String>> pages = new ArrayList<>();
+	private final String proxy;
+	private final int port;
+	private final int threads;
+	private final ExecutorService executor;
+	private final Queue<Future<byte[]>> pendingPages = new ArrayDeque<>();
+	private int nextPage = 0;
+	private int maxAttempts = DEFAULT_ATTEMPTS;
+	private long retryDelay = DEFAULT_RETRY_DELAY;
+
+	public RedcapPageReader(GetRedcapService service, String endpoint, Map<String, String> params,
+			List<String> recordIds, int pageSize, int threads, String proxy, int port) {
+		if (pageSize < 1 || threads < 1) {
+			throw new IllegalArgumentException("The page size and the number of threads must be positive");
+		}
+
+		this.service = service;
+		this.endpoint = endpoint;
+		this.params = params != null ? params : Collections.<String, String>emptyMap();
+		this.proxy = proxy;
+		this.port = port;
+		this.threads = threads;
+		for (int start = 0; start < recordIds.size(); start += pageSize) {
+			pages.add(recordIds.subList(start, Math.min(start + pageSize, recordIds.size())));
+		}
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Set the number of requests per page (including the first request) and
+	 * the delay before the first retry, which doubles for every next retry.
+	 */
+	public void setRetries(int maxAttempts, long retryDelay) {
+		this.maxAttempts = maxAttempts;
+		this.retryDelay = retryDelay;
+	}
+
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * Wait for the next page of records.
+	 *
+	 * @return a reader of the response for the page, or null after the last page
+	 * @throws IOException the exception of the last request for the page
+	 */
+	public Reader nextPage() throws IOException {
+		submitPages();
+
+		Future<byte[]> page = pendingPages.poll();
+		if (page == null) {
+			return null;
+		}
+
+		byte[] response;
+		try {
+			response = page.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a page of " + endpoint);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to read a page of " + endpoint, e.getCause());
+		}
+
+		submitPages();
+		return new InputStreamReader(new ByteArrayInputStream(response), UTF_8);
+	}
+
+	/**
+	 * Stop the retrieval of the pages that have not been read.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void submitPages() {
+		while (pendingPages.size() < threads && nextPage < pages.size()) {
+			final Map<String, String> pageParams = new HashMap<>(params);
+			pageParams.put(RECORDS_PARAM, StringUtils.join(pages.get(nextPage++), ','));
+
+			pendingPages.add(executor.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return service.fetchRedcapWebServiceData(endpoint, pageParams, proxy, port, maxAttempts, retryDelay);
+				}
+			}));
+		}
+	}
+}
@@ -0,0 +1,695 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A clinical data shard keeps the clinical data of a part of the patients of a study: one row per entity (a patient,
+ * an event repeat or an item group repeat) in its own clinical data store. A file exporter has one shard, or several
+ * shards when the subjects are converted in parallel; each patient always goes to the same shard, and a shard is
+ * only used by one thread at a time, so no locks are needed.
+ *
+ * The rows remember the sequence number of the subject during which they were created, and the ordinals of the
+ * repeating events and item groups remember the sequence number of their first use. With these, the shards are
+ * merged into the same rows and entity IDs as one shard would have produced.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ClinicalDataShard {
+    /**
+     * The column identifier of the second column, which contains the IDs of the event types.
+     */
+    static final String COLUMN_ID_WITH_PATIENT_IDS = "columnIdWithPatientIds";
+
+    /**
+     * The column identifier of the second column, which contains the IDs of the event types.
+     */
+    static final String COLUMN_ID_WITH_EVENT_IDS = "columnIdWithEventIds";
+
+    /**
+     * The column identifier of the third column, which contains the human readable event type names.
+     */
+    static final String COLUMN_ID_WITH_EVENT_NAMES = "columnIdWithEventNames";
+
+    /**
+     * The column identifier of the fourth column, which contains the event repeat key (nr in the
+     * series of repeated events).
+     */
+    static final String COLUMN_ID_WITH_EVENT_NR = "columnIdWithEventNr";
+
+    /**
+     * The column identifier of the fifth column, which contains the item group type IDs.
+     */
+    static final String COLUMN_ID_WITH_IG_IDS = "columnIdWithIgIds";
+
+    /**
+     * The column identifier of the sixth column, which contains the human readable item group names.
+     */
+    static final String COLUMN_ID_WITH_IG_NAMES = "columnIdWithIgNames";
+
+    /**
+     * The column identifier of the sixth column, which contains the item group repeat key (nr in the
+     * series of repeated item groups).
+     */
+    static final String COLUMN_ID_WITH_IG_NR = "columnIdWithIgNr";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ClinicalDataShard.class);
+
+    /**
+     * The abbreviation for 'event' in the ID of an entity.
+     */
+    private static final String EVENT_ABBREVIATION_IN_ID = "_E";
+
+    /**
+     * The abbreviation for 'item group' in the ID of an entity.
+     */
+    private static final String ITEM_GROUP_ABBREVIATION_IN_ID = "_IG";
+
+    /**
+     * The abbreviation for 'repeat' in the ID of an entity.
+     */
+    private static final String REPEAT_ABBREVIATION_IN_ID = "_R";
+
+    /**
+     * The initial number of rows for which a subject sequence number can be kept.
+     */
+    private static final int INITIAL_ROW_CAPACITY = 1024;
+
+    /**
+     * The clinical data store with one row per entity, in which the clinical data is kept until it is written to
+     * the clinical data file.
+     */
+    private final ClinicalDataStore clinicalDataStore;
+
+    /**
+     * Mapping of (column ID + word) to values, which is filled by the file exporter with the metadata.
+     */
+    private final Map<String, String> wordMap;
+
+    /**
+     * Mapping of event or item group IDs to the human readable names, which is filled by the file exporter with
+     * the metadata.
+     */
+    private final Map<String, String> eventOrIGIdToNameMap;
+
+    /**
+     * The IDs of a type of repeating event, which are turned into an integer (the ordinal)
+     * and then made part of the ID of a repeated event of this type of repeating event (the eventEntityId).
+     */
+    private final OrdinalRegistry repeatingEventIds = new OrdinalRegistry();
+
+    /**
+     * The IDs of a type of repeating item group, which are turned into an integer (the ordinal)
+     * and then made part of the ID of a repeated item group of this type of repeating item group
+     * (the itemGroupEntityId).
+     */
+    private final OrdinalRegistry repeatingItemGroupIds = new OrdinalRegistry();
+
+    /**
+     * The patient IDs, which are turned into an integer (the ordinal) for the entity keys.
+     */
+    private final OrdinalRegistry patientIds = new OrdinalRegistry();
+
+    /**
+     * Map<entity key, row index in the clinical data store>.
+     */
+    private final Map<EntityKey, Integer> entityRowIndexes = new HashMap<>();
+
+    /**
+     * The entity keys of the rows, indexed by row index.
+     */
+    private final List<EntityKey> rowKeys = new ArrayList<>();
+
+    /**
+     * The entity key that is reused to look up the row of an entity, so that no key is created for rows that
+     * already exist.
+     */
+    private final EntityKey probeKey = new EntityKey();
+
+    /**
+     * The sequence numbers of the subjects during which the rows were created, indexed by row index.
+     */
+    private long[] rowSequences = new long[INITIAL_ROW_CAPACITY];
+
+    /**
+     * The sequence number of the subject that is being converted.
+     */
+    private long subjectSequence;
+
+    /**
+     * Construct a clinical data shard.
+     *
+     * @param memoryBudget         the number of bytes of clinical data that is kept in memory before it is spilled
+     *                             to a temporary file; 0 or less means no budget.
+     * @param wordMap              the mapping of (column ID + word) to values.
+     * @param eventOrIGIdToNameMap the mapping of event or item group IDs to the human readable names.
+     */
+    public ClinicalDataShard(final long memoryBudget, final Map<String, String> wordMap,
+                             final Map<String, String> eventOrIGIdToNameMap) {
+        this.clinicalDataStore = new ClinicalDataStore(memoryBudget);
+        this.wordMap = wordMap;
+        this.eventOrIGIdToNameMap = eventOrIGIdToNameMap;
+    }
+
+    /**
+     * Add a column, or look up the index of a column that was added before.
+     *
+     * @param columnId the column ID.
+     * @return the column index.
+     */
+    public int addColumn(final String columnId) {
+        return clinicalDataStore.addColumn(columnId);
+    }
+
+    /**
+     * Start the conversion of a subject. The sequence numbers of the subjects determine the order of the rows
+     * when several shards are merged.
+     *
+     * @param sequence the sequence number of the subject, which should not decrease between calls.
+     */
+    public void startSubject(final long sequence) {
+        this.subjectSequence = sequence;
+    }
+
+    /**
+     * Write the clinical data to the row of its entity.
+     *
+     * @param columnId The full path of OIDs, which identifies a column.
+     * @param dataValue The value, which might not yet be converted to a number.
+     * @param patientId The identifier of the patient.
+     * @param eventId The OID of a type of repeating event.
+     * @param eventRepeatKey The repeat key that identifies an event repeat.
+     * @param itemGroupId The OID of a type of repeating item group.
+     * @param itemGroupRepeatKey The repeat key that identifies an item group repeat.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    public void storeClinicalDataInfo(final String columnId,
+                                      final String dataValue,
+                                      final String patientId,
+                                      final String eventId,
+                                      final String eventRepeatKey,
+                                      final String itemGroupId,
+                                      final String itemGroupRepeatKey) throws IOException {
+
+        if (eventRepeatKey == null && itemGroupRepeatKey == null) {
+            addPatientData(columnId, dataValue, patientId);
+        } else if (eventRepeatKey != null && itemGroupRepeatKey == null) {
+            addEventData(columnId, dataValue, patientId, eventId, eventRepeatKey);
+        } else if (eventRepeatKey == null) {
+            addItemGroupData(columnId, dataValue, patientId, eventId, itemGroupId, itemGroupRepeatKey);
+        } else {
+            addEventAndItemGroupData(columnId, dataValue, patientId, eventId,
+                    eventRepeatKey, itemGroupId, itemGroupRepeatKey);
+        }
+    }
+
+    /**
+     * Write the clinical data to a clinical data map, for the case of a patient.
+     *
+     * @param columnId The full path of OIDs, which identifies a column.
+     * @param dataValue The value, which might not yet be converted to a number.
+     * @param patientId The identifier of the patient.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void addPatientData(final String columnId,
+                                final String dataValue,
+                                final String patientId) throws IOException {
+        probeKey.set(patientIds.getOrdinal(patientId), 0, null, 0, null);
+
+        int rowIndex = getEntityRowIndex();
+        if (rowIndex == -1) {
+            rowIndex = addEntityRow(patientId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_PATIENT_IDS, patientId);
+        }
+
+        addWordOrNumber(columnId, dataValue, rowIndex);
+
+        logger.debug("Adding patient data for {}", patientId);
+    }
+
+    /**
+     * Write the clinical data to a clinical data map, for the case of an event repeat.
+     *
+     * @param columnId The full path of OIDs, which identifies a column.
+     * @param dataValue The value, which might not yet be converted to a number.
+     * @param patientId The identifier of the patient.
+     * @param eventId   The OID that identifies the type of repeating event.
+     * @param eventRepeatKey The repeat key that identifies the event repeat.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void addEventData(final String columnId,
+                              final String dataValue,
+                              final String patientId,
+                              final String eventId,
+                              final String eventRepeatKey) throws IOException {
+        final int repeatingEventIndex = repeatingEventIds.getOrdinal(eventId, subjectSequence);
+        probeKey.set(patientIds.getOrdinal(patientId), repeatingEventIndex, eventRepeatKey, 0, null);
+
+        int rowIndex = getEntityRowIndex();
+        if (rowIndex == -1) {
+            rowIndex = addEntityRow(buildEntityId(patientId, repeatingEventIndex, eventRepeatKey, 0, null));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_PATIENT_IDS, patientId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_IDS, eventId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_NAMES, getEventOrIGName(eventId));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_NR, eventRepeatKey);
+        }
+
+        addWordOrNumber(columnId, dataValue, rowIndex);
+
+        logger.debug("Adding event data for {}", clinicalDataStore.getRowId(rowIndex));
+    }
+
+    /**
+     * Write the clinical data to a clinical data map, for the case of an item group repeat,
+     * that does not belong to a repeating event.
+     *
+     * @param columnId The full path of OIDs, which identifies a column.
+     * @param dataValue The value, which might not yet be converted to a number.
+     * @param patientId The identifier of the patient.
+     * @param eventId   The OID that identifies the non-repeating event.
+     * @param itemGroupId  The OID that identifies the type of repeating item group.
+     * @param itemGroupRepeatKey The repeat key that identifies the item group repeat.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void addItemGroupData(final String columnId,
+                                  final String dataValue,
+                                  final String patientId,
+                                  final String eventId,
+                                  final String itemGroupId,
+                                  final String itemGroupRepeatKey) throws IOException {
+        final int repeatingEventIndex = repeatingEventIds.getOrdinal(eventId, subjectSequence);
+        final int repeatingItemGroupIndex = repeatingItemGroupIds.getOrdinal(itemGroupId, subjectSequence);
+        probeKey.set(patientIds.getOrdinal(patientId), repeatingEventIndex, null,
+                     repeatingItemGroupIndex, itemGroupRepeatKey);
+
+        int rowIndex = getEntityRowIndex();
+        if (rowIndex == -1) {
+            rowIndex = addEntityRow(buildEntityId(patientId, repeatingEventIndex, null,
+                                                  repeatingItemGroupIndex, itemGroupRepeatKey));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_PATIENT_IDS, patientId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_IDS, eventId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_NAMES, getEventOrIGName(eventId));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_IDS, itemGroupId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_NAMES, getEventOrIGName(itemGroupId));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_NR, itemGroupRepeatKey);
+        }
+
+        addWordOrNumber(columnId, dataValue, rowIndex);
+
+        logger.debug("Adding IG1 data for {}", clinicalDataStore.getRowId(rowIndex));
+    }
+
+    /**
+     * Write the clinical data to a clinical data map, for the case of an item group repeat,
+     * that does belong to an event repeat.
+     *
+     * @param columnId The full path of OIDs, which identifies a column.
+     * @param dataValue The value, which might not yet be converted to a number.
+     * @param patientId The identifier of the patient.
+     * @param eventId   The OID that identifies the type of repeating event.
+     * @param eventRepeatKey The repeat key that identifies the event repeat.
+     * @param itemGroupId  The OID that identifies the type of repeating item group.
+     * @param itemGroupRepeatKey The repeat key that identifies the item group repeat.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void addEventAndItemGroupData(final String columnId,
+                                          final String dataValue,
+                                          final String patientId,
+                                          final String eventId,
+                                          final String eventRepeatKey,
+                                          final String itemGroupId,
+                                          final String itemGroupRepeatKey) throws IOException {
+        final int repeatingEventIndex = repeatingEventIds.getOrdinal(eventId, subjectSequence);
+        final int repeatingItemGroupIndex = repeatingItemGroupIds.getOrdinal(itemGroupId, subjectSequence);
+        probeKey.set(patientIds.getOrdinal(patientId), repeatingEventIndex, eventRepeatKey,
+                     repeatingItemGroupIndex, itemGroupRepeatKey);
+
+        int rowIndex = getEntityRowIndex();
+        if (rowIndex == -1) {
+            rowIndex = addEntityRow(buildEntityId(patientId, repeatingEventIndex, eventRepeatKey,
+                                                  repeatingItemGroupIndex, itemGroupRepeatKey));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_PATIENT_IDS, patientId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_IDS, eventId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_NAMES, getEventOrIGName(eventId));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_EVENT_NR, eventRepeatKey);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_IDS, itemGroupId);
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_NAMES, getEventOrIGName(itemGroupId));
+            setEntityValue(rowIndex, COLUMN_ID_WITH_IG_NR, itemGroupRepeatKey);
+        }
+
+        addWordOrNumber(columnId, dataValue, rowIndex);
+
+        logger.debug("Adding IG2 data for {}", clinicalDataStore.getRowId(rowIndex));
+    }
+
+    /**
+     * Build the ID of an entity, which is written in the first column of the clinical data file: the patient ID,
+     * followed by the ordinal of the repeating event type, the event repeat key, the ordinal of the repeating item
+     * group type and the item group repeat key, as far as they apply.
+     *
+     * @param patientId          the identifier of the patient.
+     * @param eventOrdinal       the ordinal of the type of repeating event, or 0.
+     * @param eventRepeatKey     the event repeat key, or null.
+     * @param itemGroupOrdinal   the ordinal of the type of repeating item group, or 0.
+     * @param itemGroupRepeatKey the item group repeat key, or null.
+     * @return the entity ID.
+     */
+    private static String buildEntityId(final String patientId, final int eventOrdinal, final String eventRepeatKey,
+                                        final int itemGroupOrdinal, final String itemGroupRepeatKey) {
+        final StringBuilder entityId = new StringBuilder(patientId);
+        if (eventOrdinal != 0) {
+            entityId.append(EVENT_ABBREVIATION_IN_ID).append(eventOrdinal);
+        }
+        if (eventRepeatKey != null) {
+            entityId.append(REPEAT_ABBREVIATION_IN_ID).append(eventRepeatKey);
+        }
+        if (itemGroupOrdinal != 0) {
+            entityId.append(ITEM_GROUP_ABBREVIATION_IN_ID).append(itemGroupOrdinal)
+                    .append(REPEAT_ABBREVIATION_IN_ID).append(itemGroupRepeatKey);
+        }
+        return entityId.toString();
+    }
+
+    /**
+     * Look up the row of the entity that is identified by the probe key.
+     *
+     * @return the row index in the clinical data store, or -1 if the entity has no row yet.
+     */
+    private int getEntityRowIndex() {
+        final Integer rowIndex = entityRowIndexes.get(probeKey);
+        return rowIndex != null ? rowIndex : -1;
+    }
+
+    /**
+     * Add a row for the entity that is identified by the probe key.
+     *
+     * @param entityId The ID of the entity, which is written in the first column of the clinical data file.
+     * @return the row index in the clinical data store.
+     */
+    private int addEntityRow(final String entityId) {
+        final int rowIndex = clinicalDataStore.addRow(entityId);
+        final EntityKey entityKey = probeKey.copy();
+        entityRowIndexes.put(entityKey, rowIndex);
+        rowKeys.add(entityKey);
+        if (rowIndex == rowSequences.length) {
+            rowSequences = Arrays.copyOf(rowSequences, rowSequences.length * 2);
+        }
+        rowSequences[rowIndex] = subjectSequence;
+        return rowIndex;
+    }
+
+    /**
+     * Get the human readable name of an event or item group.
+     *
+     * @param eventOrIGId The OID of the event or item group.
+     * @return the name, or the OID if the name is not known.
+     */
+    private String getEventOrIGName(final String eventOrIGId) {
+        final String name = eventOrIGIdToNameMap.get(eventOrIGId);
+        return name != null ? name : eventOrIGId;
+    }
+
+    /**
+     * Adds a word or a number to a field in the clinical data file. Replaces a word by a number in case the
+     * word map has assigned such a replacement.
+     *
+     * @param columnId The column of the field in the clinical data file.
+     * @param dataValue The non-replaced data value.
+     * @param rowIndex The index of the row of the field in the clinical data store.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void addWordOrNumber(final String columnId, final String dataValue, final int rowIndex)
+            throws IOException {
+        final String mappedValue = wordMap.get(columnId + dataValue);
+        if (mappedValue != null) {
+            //fills clinical data with words from word map
+            setEntityValue(rowIndex, columnId, mappedValue);
+        } else {
+            setEntityValue(rowIndex, columnId, dataValue);
+        }
+    }
+
+    /**
+     * Sets the value of a field in the clinical data store.
+     *
+     * @param rowIndex The index of the row of the field.
+     * @param columnId The column of the field.
+     * @param value The value.
+     * @throws IOException when spilling the clinical data to disk fails.
+     */
+    private void setEntityValue(final int rowIndex, final String columnId, final String value) throws IOException {
+        clinicalDataStore.setValue(rowIndex, clinicalDataStore.addColumn(columnId), value);
+    }
+
+    /**
+     * Get the registry of the repeating event types.
+     *
+     * @return the registry.
+     */
+    public OrdinalRegistry getRepeatingEventIds() {
+        return repeatingEventIds;
+    }
+
+    /**
+     * Get the registry of the repeating item group types.
+     *
+     * @return the registry.
+     */
+    public OrdinalRegistry getRepeatingItemGroupIds() {
+        return repeatingItemGroupIds;
+    }
+
+    /**
+     * Open a cursor over the rows of this shard, in the order in which they were created.
+     *
+     * @param eventOrdinalMap     the mapping of the ordinals of the repeating event types of this shard to the
+     *                            ordinals that are used in the entity IDs.
+     * @param itemGroupOrdinalMap the mapping of the ordinals of the repeating item group types of this shard to the
+     *                            ordinals that are used in the entity IDs.
+     * @return the cursor, which is positioned on the first row (if any).
+     * @throws IOException when reading the clinical data that was spilled to disk fails.
+     */
+    public Cursor openCursor(final int[] eventOrdinalMap, final int[] itemGroupOrdinalMap) throws IOException {
+        return new Cursor(eventOrdinalMap, itemGroupOrdinalMap);
+    }
+
+    /**
+     * Delete the temporary files to which the clinical data was spilled.
+     */
+    public void deleteRunFiles() {
+        clinicalDataStore.deleteRunFiles();
+    }
+
+    /**
+     * A cursor over the rows of a shard, in the order in which they were created.
+     */
+    public final class Cursor implements Closeable {
+        /**
+         * The reader of the rows in the clinical data store.
+         */
+        private final ClinicalDataStore.RowReader rowReader;
+
+        /**
+         * The mapping of the ordinals of the repeating event types to the ordinals in the entity IDs.
+         */
+        private final int[] eventOrdinalMap;
+
+        /**
+         * The mapping of the ordinals of the repeating item group types to the ordinals in the entity IDs.
+         */
+        private final int[] itemGroupOrdinalMap;
+
+        /**
+         * The index of the current row, or the row count when all rows have been read.
+         */
+        private int rowIndex = -1;
+
+        /**
+         * The values of the current row, indexed by column index.
+         */
+        private String[] rowValues;
+
+        /**
+         * Open a cursor and move it to the first row.
+         *
+         * @param eventOrdinalMap     the mapping of the ordinals of the repeating event types.
+         * @param itemGroupOrdinalMap the mapping of the ordinals of the repeating item group types.
+         * @throws IOException when reading the clinical data that was spilled to disk fails.
+         */
+        private Cursor(final int[] eventOrdinalMap, final int[] itemGroupOrdinalMap) throws IOException {
+            this.rowReader = clinicalDataStore.openRowReader();
+            this.eventOrdinalMap = eventOrdinalMap;
+            this.itemGroupOrdinalMap = itemGroupOrdinalMap;
+            advance();
+        }
+
+        /**
+         * Move to the next row.
+         *
+         * @throws IOException when reading the clinical data that was spilled to disk fails.
+         */
+        public void advance() throws IOException {
+            rowIndex++;
+            rowValues = rowReader.hasNext() ? rowReader.next() : null;
+        }
+
+        /**
+         * Check whether the cursor is positioned on a row.
+         *
+         * @return whether there is a current row.
+         */
+        public boolean hasRow() {
+            return rowValues != null;
+        }
+
+        /**
+         * Get the sequence number of the subject during which the current row was created.
+         *
+         * @return the subject sequence number.
+         */
+        public long getRowSequence() {
+            return rowSequences[rowIndex];
+        }
+
+        /**
+         * Get the entity ID of the current row, with the mapped ordinals.
+         *
+         * @return the entity ID.
+         */
+        public String getEntityId() {
+            final EntityKey entityKey = rowKeys.get(rowIndex);
+            return buildEntityId(patientIds.getId(entityKey.patientOrdinal),
+                                 eventOrdinalMap[entityKey.eventOrdinal], entityKey.eventRepeatKey,
+                                 itemGroupOrdinalMap[entityKey.itemGroupOrdinal], entityKey.itemGroupRepeatKey);
+        }
+
+        /**
+         * Get the values of the current row, indexed by column index. The array is reused for the next row.
+         *
+         * @return the values.
+         */
+        public String[] getRowValues() {
+            return rowValues;
+        }
+
+        /**
+         * Get the ID of a column.
+         *
+         * @param columnIndex the column index.
+         * @return the column ID.
+         */
+        public String getColumnId(final int columnIndex) {
+            return clinicalDataStore.getColumnId(columnIndex);
+        }
+
+        @Override
+        public void close() {
+            rowReader.close();
+        }
+    }
+
+    /**
+     * The key that identifies an entity (a row in the clinical data file): the patient, and optionally the event
+     * repeat and/or the item group repeat. The ordinals come from the ordinal registries; 0 means that the entity
+     * is not an event repeat or item group repeat.
+     */
+    private static final class EntityKey {
+        /**
+         * The multiplier for combining the hash codes of the parts of the key.
+         */
+        private static final int HASH_MULTIPLIER = 31;
+
+        /**
+         * The ordinal of the patient.
+         */
+        private int patientOrdinal;
+
+        /**
+         * The ordinal of the type of repeating event, or 0.
+         */
+        private int eventOrdinal;
+
+        /**
+         * The event repeat key, or null.
+         */
+        private String eventRepeatKey;
+
+        /**
+         * The ordinal of the type of repeating item group, or 0.
+         */
+        private int itemGroupOrdinal;
+
+        /**
+         * The item group repeat key, or null.
+         */
+        private String itemGroupRepeatKey;
+
+        /**
+         * Set all the parts of this key.
+         *
+         * @param patient         the ordinal of the patient.
+         * @param event           the ordinal of the type of repeating event, or 0.
+         * @param eventRepeat     the event repeat key, or null.
+         * @param itemGroup       the ordinal of the type of repeating item group, or 0.
+         * @param itemGroupRepeat the item group repeat key, or null.
+         */
+        private void set(final int patient, final int event, final String eventRepeat,
+                         final int itemGroup, final String itemGroupRepeat) {
+            this.patientOrdinal = patient;
+            this.eventOrdinal = event;
+            this.eventRepeatKey = eventRepeat;
+            this.itemGroupOrdinal = itemGroup;
+            this.itemGroupRepeatKey = itemGroupRepeat;
+        }
+
+        /**
+         * Create a copy of this key, which can be stored in a map.
+         *
+         * @return the copy.
+         */
+        private EntityKey copy() {
+            final EntityKey copy = new EntityKey();
+            copy.set(patientOrdinal, eventOrdinal, eventRepeatKey, itemGroupOrdinal, itemGroupRepeatKey);
+            return copy;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof EntityKey)) {
+                return false;
+            }
+            final EntityKey other = (EntityKey) object;
+            return patientOrdinal == other.patientOrdinal
+                    && eventOrdinal == other.eventOrdinal
+                    && itemGroupOrdinal == other.itemGroupOrdinal
+                    && Objects.equals(eventRepeatKey, other.eventRepeatKey)
+                    && Objects.equals(itemGroupRepeatKey, other.itemGroupRepeatKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = patientOrdinal;
+            hashCode = HASH_MULTIPLIER * hashCode + eventOrdinal;
+            hashCode = HASH_MULTIPLIER * hashCode + Objects.hashCode(eventRepeatKey);
+            hashCode = HASH_MULTIPLIER * hashCode + itemGroupOrdinal;
+            return HASH_MULTIPLIER * hashCode + Objects.hashCode(itemGroupRepeatKey);
+        }
+    }
+}
@@ -0,0 +1,855 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The clinical data store keeps the rows of the clinical data file until they can be written. Column IDs are
+ * interned to dense int indexes, rows are numbered in the order in which they are added and the values are stored
+ * per column in an int array: each cell either refers to an entry in the dictionary of distinct values of that
+ * column, or holds a small non-negative integer directly. An empty cell costs four bytes and a populated cell only
+ * a few more than that.
+ *
+ * When a memory budget is set and the estimated size of the cells exceeds it, the cells are spilled to a temporary
+ * run file, sorted by row and column, after which the store starts with empty columns again. A column only holds
+ * the rows from the first to the last row that it has a cell for since the last spill, so the cost of a spill is
+ * proportional to the cells in memory and not to all the rows of the store. Whenever MERGE_FAN_IN run files of the
+ * same size class have been written, they are merged into one, so the number of run files grows logarithmically.
+ * The rows are read back with a RowReader, which merges the run files and the cells in memory; a later value of a
+ * cell replaces an earlier value.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ClinicalDataStore {
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ClinicalDataStore.class);
+
+    /**
+     * The cell code for a cell without a value.
+     */
+    private static final int ABSENT = 0;
+
+    /**
+     * The cell code for a cell whose value was cleared, which also clears the value in earlier run files.
+     */
+    private static final int CLEARED = Integer.MIN_VALUE;
+
+    /**
+     * The value length that is written to a run file for a cleared cell.
+     */
+    private static final int CLEARED_LENGTH = -1;
+
+    /**
+     * The maximum number of digits of an integer value that is stored directly in a cell.
+     */
+    private static final int MAX_INLINE_DIGITS = 9;
+
+    /**
+     * The initial number of cells of a column.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The number of bytes of a cell.
+     */
+    private static final int CELL_BYTES = 4;
+
+    /**
+     * The estimated number of bytes of a string and its hash map entry, excluding the characters.
+     */
+    private static final int STRING_ENTRY_BYTES = 96;
+
+    /**
+     * The size of the buffers for writing and reading the run files.
+     */
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of run files that are merged into one run file (and the maximum number of run files that a row
+     * reader opens).
+     */
+    private static final int MERGE_FAN_IN = 16;
+
+    /**
+     * The character encoding of the values in the run files.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Map<column ID, column index>.
+     */
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+
+    /**
+     * The column IDs, in order of their column index.
+     */
+    private final List<String> columnIds = new ArrayList<>();
+
+    /**
+     * The columns, in order of their column index.
+     */
+    private final List<Column> columns = new ArrayList<>();
+
+    /**
+     * The row IDs, in order of their row index (which is the order in which the rows were added).
+     */
+    private final List<String> rowIds = new ArrayList<>();
+
+    /**
+     * The maximum estimated number of bytes of the cells in memory, or 0 for no maximum.
+     */
+    private final long memoryBudget;
+
+    /**
+     * The estimated number of bytes of the cells in memory.
+     */
+    private long cellBytes;
+
+    /**
+     * The run files that the cells were spilled to, from the oldest to the newest.
+     */
+    private final List<File> runFiles = new ArrayList<>();
+
+    /**
+     * The merge level of each run file: 0 for a spilled run file and one more than the level of the merged run
+     * files for a merged run file. The levels do not increase from the oldest to the newest run file.
+     */
+    private final List<Integer> runLevels = new ArrayList<>();
+
+    /**
+     * Construct a clinical data store that keeps all cells in memory.
+     */
+    public ClinicalDataStore() {
+        this(0);
+    }
+
+    /**
+     * Construct a clinical data store with a memory budget.
+     *
+     * @param memoryBudget the maximum estimated number of bytes of the cells in memory, or 0 for no maximum.
+     */
+    public ClinicalDataStore(final long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Get the index of a column, adding the column if it is not yet known.
+     *
+     * @param columnId the ID of the column.
+     * @return the column index.
+     */
+    public int addColumn(final String columnId) {
+        final Integer columnIndex = columnIndexes.get(columnId);
+        if (columnIndex != null) {
+            return columnIndex;
+        }
+        final int newColumnIndex = columnIds.size();
+        columnIndexes.put(columnId, newColumnIndex);
+        columnIds.add(columnId);
+        columns.add(new Column());
+        return newColumnIndex;
+    }
+
+    /**
+     * Get the number of columns.
+     *
+     * @return the number of columns.
+     */
+    public int getColumnCount() {
+        return columnIds.size();
+    }
+
+    /**
+     * Get the ID of a column.
+     *
+     * @param columnIndex the column index.
+     * @return the column ID.
+     */
+    public String getColumnId(final int columnIndex) {
+        return columnIds.get(columnIndex);
+    }
+
+    /**
+     * Add a new (empty) row.
+     *
+     * @param rowId the ID of the row.
+     * @return the row index.
+     */
+    public int addRow(final String rowId) {
+        final int rowIndex = rowIds.size();
+        rowIds.add(rowId);
+        return rowIndex;
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows.
+     */
+    public int getRowCount() {
+        return rowIds.size();
+    }
+
+    /**
+     * Get the ID of a row.
+     *
+     * @param rowIndex the row index.
+     * @return the row ID.
+     */
+    public String getRowId(final int rowIndex) {
+        return rowIds.get(rowIndex);
+    }
+
+    /**
+     * Get the number of run files that the cells were spilled to.
+     *
+     * @return the number of run files.
+     */
+    public int getRunCount() {
+        return runFiles.size();
+    }
+
+    /**
+     * Set the value of a cell, replacing the previous value (if any). The cells are spilled to a run file when
+     * this makes them exceed the memory budget.
+     *
+     * @param rowIndex    the row index.
+     * @param columnIndex the column index.
+     * @param value       the value; null clears the cell.
+     * @throws IOException when spilling the cells to a run file fails.
+     */
+    public void setValue(final int rowIndex, final int columnIndex, final String value) throws IOException {
+        cellBytes += columns.get(columnIndex).setValue(rowIndex, value);
+        if (memoryBudget > 0 && cellBytes > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Open a reader for the rows, in order of their row index. The store should not be changed while the reader
+     * is open.
+     *
+     * @return the row reader.
+     * @throws IOException when a run file cannot be opened.
+     */
+    public RowReader openRowReader() throws IOException {
+        while (runFiles.size() > MERGE_FAN_IN) {
+            mergeRunFiles(runFiles.size() - MERGE_FAN_IN);
+        }
+        return new RowReader();
+    }
+
+    /**
+     * Delete the run files.
+     */
+    public void deleteRunFiles() {
+        for (final File runFile : runFiles) {
+            deleteRunFile(runFile);
+        }
+        runFiles.clear();
+        runLevels.clear();
+    }
+
+    /**
+     * Write the cells in memory to a new run file, sorted by row and column, and clear the columns. When this
+     * completes MERGE_FAN_IN run files of the same level, those run files are merged.
+     *
+     * @throws IOException when writing the run file fails.
+     */
+    private void spill() throws IOException {
+        final long[] cellKeys = getCellKeys();
+        Arrays.sort(cellKeys);
+        final File runFile = createRunFile();
+        logger.info("Spilling " + cellBytes + " bytes of clinical data to run file " + runFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE))) {
+            for (final long cellKey : cellKeys) {
+                final int columnIndex = (int) cellKey;
+                columns.get(columnIndex).writeCell(output, (int) (cellKey >>> Integer.SIZE), columnIndex);
+            }
+        }
+        runFiles.add(runFile);
+        runLevels.add(0);
+        for (int columnIndex = 0; columnIndex < columns.size(); columnIndex++) {
+            columns.set(columnIndex, new Column());
+        }
+        cellBytes = 0;
+
+        int firstRun = runFiles.size() - MERGE_FAN_IN;
+        while (firstRun >= 0 && runLevels.get(firstRun).equals(runLevels.get(runFiles.size() - 1))) {
+            mergeRunFiles(firstRun);
+            firstRun = runFiles.size() - MERGE_FAN_IN;
+        }
+    }
+
+    /**
+     * Get the keys of the cells in memory that have a value or were cleared: the row index in the high and the
+     * column index in the low 32 bits, so sorting the keys sorts the cells by row and column.
+     *
+     * @return the cell keys, unsorted.
+     */
+    private long[] getCellKeys() {
+        int cellCount = 0;
+        for (final Column column : columns) {
+            cellCount += column.getCellCount();
+        }
+        final long[] cellKeys = new long[cellCount];
+        int keyIndex = 0;
+        for (int columnIndex = 0; columnIndex < columns.size(); columnIndex++) {
+            keyIndex = columns.get(columnIndex).addCellKeys(cellKeys, keyIndex, columnIndex);
+        }
+        return cellKeys;
+    }
+
+    /**
+     * Merge the newest run files, from a run file up to the last one, into one run file. The merged run file keeps
+     * the newest value (or clearing) of each cell.
+     *
+     * @param firstRun the index of the oldest run file to merge.
+     * @throws IOException when reading or writing a run file fails.
+     */
+    private void mergeRunFiles(final int firstRun) throws IOException {
+        final List<File> mergedFiles = new ArrayList<>(runFiles.subList(firstRun, runFiles.size()));
+        final File runFile = createRunFile();
+        logger.info("Merging " + mergedFiles.size() + " run files of clinical data into run file " + runFile);
+        final List<RunInput> runInputs = new ArrayList<>();
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE))) {
+            for (final File mergedFile : mergedFiles) {
+                runInputs.add(new RunInput(mergedFile));
+            }
+            final RowCells rowCells = new RowCells(columns.size());
+            int rowIndex = getNextRowIndex(runInputs);
+            while (rowIndex >= 0) {
+                for (final RunInput runInput : runInputs) {
+                    runInput.readRow(rowIndex, rowCells);
+                }
+                rowCells.write(output, rowIndex);
+                rowCells.clear();
+                rowIndex = getNextRowIndex(runInputs);
+            }
+        } finally {
+            for (final RunInput runInput : runInputs) {
+                runInput.close();
+            }
+        }
+
+        int level = 0;
+        for (int runIndex = runFiles.size() - 1; runIndex >= firstRun; runIndex--) {
+            level = Math.max(level, runLevels.get(runIndex) + 1);
+            deleteRunFile(runFiles.remove(runIndex));
+            runLevels.remove(runIndex);
+        }
+        runFiles.add(runFile);
+        runLevels.add(level);
+    }
+
+    /**
+     * Get the lowest row index of the next cells of some run files.
+     *
+     * @param runInputs the inputs of the run files.
+     * @return the row index, or -1 when all cells have been read.
+     */
+    private static int getNextRowIndex(final List<RunInput> runInputs) {
+        int rowIndex = -1;
+        for (final RunInput runInput : runInputs) {
+            if (runInput.nextRowIndex >= 0 && (rowIndex < 0 || runInput.nextRowIndex < rowIndex)) {
+                rowIndex = runInput.nextRowIndex;
+            }
+        }
+        return rowIndex;
+    }
+
+    /**
+     * Delete a run file.
+     *
+     * @param runFile the run file.
+     */
+    private static void deleteRunFile(final File runFile) {
+        if (!runFile.delete()) {
+            logger.warn("Could not delete run file " + runFile);
+        }
+    }
+
+    /**
+     * Create a new temporary run file.
+     *
+     * @return the run file.
+     * @throws IOException when the run file cannot be created.
+     */
+    private static File createRunFile() throws IOException {
+        final File runFile = File.createTempFile("clinical-data-", ".run");
+        runFile.deleteOnExit();
+        return runFile;
+    }
+
+    /**
+     * Check whether a value is a non-negative integer without leading zeros that fits in a cell. Only these values
+     * are stored directly, because converting them back to a string gives exactly the original value.
+     *
+     * @param value the value.
+     * @return whether the value can be stored directly in a cell.
+     */
+    private static boolean isInlineInteger(final String value) {
+        final int length = value.length();
+        boolean inline = length > 0 && length <= MAX_INLINE_DIGITS && (length == 1 || value.charAt(0) != '0');
+        for (int charIndex = 0; inline && charIndex < length; charIndex++) {
+            final char character = value.charAt(charIndex);
+            inline = character >= '0' && character <= '9';
+        }
+        return inline;
+    }
+
+    /**
+     * The cells of one column. A cell code of zero means no value, a positive code refers to the dictionary
+     * (code - 1 is the index of the value) and another negative code than CLEARED holds an integer value
+     * (-code - 1 is the value).
+     */
+    private static class Column {
+        /**
+         * The row index of the first cell code.
+         */
+        private int baseRowIndex;
+
+        /**
+         * The cell codes from the base row index on; rows outside this array have no value in this column.
+         */
+        private int[] cells = new int[0];
+
+        /**
+         * Map<value, dictionary index>.
+         */
+        private final Map<String, Integer> dictionaryIndexes = new HashMap<>();
+
+        /**
+         * The distinct values in this column, in order of their dictionary index.
+         */
+        private final List<String> dictionary = new ArrayList<>();
+
+        /**
+         * Set the value of a cell.
+         *
+         * @param rowIndex the row index.
+         * @param value    the value; null clears the cell.
+         * @return the estimated number of bytes that this column grew.
+         */
+        private long setValue(final int rowIndex, final String value) {
+            long addedBytes = 0;
+            if (cells.length == 0) {
+                baseRowIndex = rowIndex;
+            }
+            if (rowIndex < baseRowIndex || rowIndex - baseRowIndex >= cells.length) {
+                addedBytes += grow(rowIndex);
+            }
+            final int dictionarySize = dictionary.size();
+            cells[rowIndex - baseRowIndex] = encode(value);
+            if (dictionary.size() > dictionarySize) {
+                addedBytes += STRING_ENTRY_BYTES + 2L * value.length();
+            }
+            return addedBytes;
+        }
+
+        /**
+         * Grow the cell codes to include a row, at least doubling their number.
+         *
+         * @param rowIndex the row index.
+         * @return the estimated number of bytes that this column grew.
+         */
+        private long grow(final int rowIndex) {
+            final int endRowIndex = Math.max(baseRowIndex + cells.length, rowIndex + 1);
+            final int capacity = Math.max(INITIAL_CAPACITY,
+                                          Math.max(endRowIndex - Math.min(baseRowIndex, rowIndex), cells.length * 2));
+            final int newBaseRowIndex = rowIndex < baseRowIndex ? Math.max(0, endRowIndex - capacity) : baseRowIndex;
+            final int[] newCells = new int[capacity];
+            System.arraycopy(cells, 0, newCells, baseRowIndex - newBaseRowIndex, cells.length);
+            final long addedBytes = (long) (capacity - cells.length) * CELL_BYTES;
+            cells = newCells;
+            baseRowIndex = newBaseRowIndex;
+            return addedBytes;
+        }
+
+        /**
+         * Get the code of a cell.
+         *
+         * @param rowIndex the row index.
+         * @return the cell code.
+         */
+        private int getCode(final int rowIndex) {
+            final int cellIndex = rowIndex - baseRowIndex;
+            return cellIndex >= 0 && cellIndex < cells.length ? cells[cellIndex] : ABSENT;
+        }
+
+        /**
+         * Get the number of cells that have a value or were cleared.
+         *
+         * @return the number of cells.
+         */
+        private int getCellCount() {
+            int cellCount = 0;
+            for (final int code : cells) {
+                if (code != ABSENT) {
+                    cellCount++;
+                }
+            }
+            return cellCount;
+        }
+
+        /**
+         * Add the keys of the cells that have a value or were cleared (see getCellKeys).
+         *
+         * @param cellKeys    the cell keys.
+         * @param keyIndex    the index of the first key to add.
+         * @param columnIndex the index of this column.
+         * @return the index after the last added key.
+         */
+        private int addCellKeys(final long[] cellKeys, final int keyIndex, final int columnIndex) {
+            int nextKeyIndex = keyIndex;
+            for (int cellIndex = 0; cellIndex < cells.length; cellIndex++) {
+                if (cells[cellIndex] != ABSENT) {
+                    cellKeys[nextKeyIndex++] = ((long) (baseRowIndex + cellIndex) << Integer.SIZE) | columnIndex;
+                }
+            }
+            return nextKeyIndex;
+        }
+
+        /**
+         * Get the value for a cell code.
+         *
+         * @param code the cell code, which should not be ABSENT.
+         * @return the value, or null if the cell was cleared.
+         */
+        private String decode(final int code) {
+            final String value;
+            if (code > 0) {
+                value = dictionary.get(code - 1);
+            } else if (code == CLEARED) {
+                value = null;
+            } else {
+                value = String.valueOf(-code - 1);
+            }
+            return value;
+        }
+
+        /**
+         * Encode a value to a cell code, adding it to the dictionary if needed.
+         *
+         * @param value the value.
+         * @return the cell code.
+         */
+        private int encode(final String value) {
+            if (value == null) {
+                return CLEARED;
+            }
+            if (isInlineInteger(value)) {
+                return -Integer.parseInt(value) - 1;
+            }
+            Integer dictionaryIndex = dictionaryIndexes.get(value);
+            if (dictionaryIndex == null) {
+                dictionaryIndex = dictionary.size();
+                dictionaryIndexes.put(value, dictionaryIndex);
+                dictionary.add(value);
+            }
+            return dictionaryIndex + 1;
+        }
+
+        /**
+         * Write a cell to a run file as (row index, column index, value length, value bytes), if it has a value
+         * or was cleared.
+         *
+         * @param output      the run file output.
+         * @param rowIndex    the row index.
+         * @param columnIndex the index of this column.
+         * @throws IOException when writing fails.
+         */
+        private void writeCell(final DataOutputStream output, final int rowIndex, final int columnIndex)
+                throws IOException {
+            final int code = getCode(rowIndex);
+            if (code != ABSENT) {
+                ClinicalDataStore.writeCell(output, rowIndex, columnIndex, decode(code));
+            }
+        }
+    }
+
+    /**
+     * Write a cell to a run file as (row index, column index, value length, value bytes).
+     *
+     * @param output      the run file output.
+     * @param rowIndex    the row index.
+     * @param columnIndex the column index.
+     * @param value       the value, or null if the cell was cleared.
+     * @throws IOException when writing fails.
+     */
+    private static void writeCell(final DataOutputStream output, final int rowIndex, final int columnIndex,
+                                  final String value) throws IOException {
+        output.writeInt(rowIndex);
+        output.writeInt(columnIndex);
+        if (value == null) {
+            output.writeInt(CLEARED_LENGTH);
+        } else {
+            final byte[] bytes = value.getBytes(UTF8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * The cells of one row that were read from run files: the value (or clearing) of each cell that was read and
+     * the column indexes of those cells.
+     */
+    private static final class RowCells {
+        /**
+         * The values of the row, indexed by column index; empty and cleared cells are null.
+         */
+        private final String[] values;
+
+        /**
+         * Whether each cell was read, indexed by column index.
+         */
+        private final boolean[] present;
+
+        /**
+         * The column indexes of the cells that were read, in the order in which they were read first.
+         */
+        private final int[] presentColumns;
+
+        /**
+         * The number of cells that were read.
+         */
+        private int presentCount;
+
+        /**
+         * Construct the cells of a row.
+         *
+         * @param columnCount the number of columns.
+         */
+        private RowCells(final int columnCount) {
+            this.values = new String[columnCount];
+            this.present = new boolean[columnCount];
+            this.presentColumns = new int[columnCount];
+        }
+
+        /**
+         * Set the value of a cell.
+         *
+         * @param columnIndex the column index.
+         * @param value       the value, or null if the cell was cleared.
+         */
+        private void set(final int columnIndex, final String value) {
+            if (!present[columnIndex]) {
+                present[columnIndex] = true;
+                presentColumns[presentCount++] = columnIndex;
+            }
+            values[columnIndex] = value;
+        }
+
+        /**
+         * Write the cells that were read to a run file, sorted by column.
+         *
+         * @param output   the run file output.
+         * @param rowIndex the row index.
+         * @throws IOException when writing fails.
+         */
+        private void write(final DataOutputStream output, final int rowIndex) throws IOException {
+            Arrays.sort(presentColumns, 0, presentCount);
+            for (int presentIndex = 0; presentIndex < presentCount; presentIndex++) {
+                final int columnIndex = presentColumns[presentIndex];
+                writeCell(output, rowIndex, columnIndex, values[columnIndex]);
+            }
+        }
+
+        /**
+         * Clear the cells for the next row.
+         */
+        private void clear() {
+            for (int presentIndex = 0; presentIndex < presentCount; presentIndex++) {
+                final int columnIndex = presentColumns[presentIndex];
+                present[columnIndex] = false;
+                values[columnIndex] = null;
+            }
+            presentCount = 0;
+        }
+    }
+
+    /**
+     * A reader that returns the rows in order of their row index. It merges the run files, which are all sorted
+     * by row and column, with the cells in memory. The value of a cell in a newer run file replaces the value in
+     * an older one, and the cells in memory replace the values in all run files.
+     */
+    public final class RowReader implements Closeable {
+        /**
+         * The inputs of the run files, from the oldest to the newest.
+         */
+        private final List<RunInput> runInputs = new ArrayList<>();
+
+        /**
+         * The cells of the current row.
+         */
+        private final RowCells rowCells = new RowCells(columns.size());
+
+        /**
+         * The index of the row that will be read next.
+         */
+        private int nextRowIndex;
+
+        /**
+         * Open the run files.
+         *
+         * @throws IOException when a run file cannot be opened.
+         */
+        private RowReader() throws IOException {
+            try {
+                for (final File runFile : runFiles) {
+                    runInputs.add(new RunInput(runFile));
+                }
+            } catch (final IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Check whether there is another row.
+         *
+         * @return whether there is another row.
+         */
+        public boolean hasNext() {
+            return nextRowIndex < rowIds.size();
+        }
+
+        /**
+         * Read the next row. The returned array is reused for the following row.
+         *
+         * @return the values of the row, indexed by column index; empty cells are null.
+         * @throws IOException when reading a run file fails.
+         */
+        public String[] next() throws IOException {
+            final int rowIndex = nextRowIndex++;
+            rowCells.clear();
+            for (final RunInput runInput : runInputs) {
+                runInput.readRow(rowIndex, rowCells);
+            }
+            for (int columnIndex = 0; columnIndex < rowCells.values.length; columnIndex++) {
+                final Column column = columns.get(columnIndex);
+                final int code = column.getCode(rowIndex);
+                if (code != ABSENT) {
+                    rowCells.set(columnIndex, column.decode(code));
+                }
+            }
+            return rowCells.values;
+        }
+
+        /**
+         * Close the run files.
+         */
+        @Override
+        public void close() {
+            for (final RunInput runInput : runInputs) {
+                runInput.close();
+            }
+        }
+    }
+
+    /**
+     * The input of one run file, which keeps the row index of the next cell.
+     */
+    private static final class RunInput {
+        /**
+         * The run file input.
+         */
+        private final DataInputStream input;
+
+        /**
+         * The number of bytes left in the run file.
+         */
+        private long remainingBytes;
+
+        /**
+         * The row index of the next cell, or -1 when all cells have been read.
+         */
+        private int nextRowIndex;
+
+        /**
+         * Open a run file.
+         *
+         * @param runFile the run file.
+         * @throws IOException when the run file cannot be opened.
+         */
+        private RunInput(final File runFile) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER_SIZE));
+            this.remainingBytes = runFile.length();
+            this.nextRowIndex = readRowIndex();
+        }
+
+        /**
+         * Read the cells of a row into the row cells.
+         *
+         * @param rowIndex the row index.
+         * @param rowCells the cells of the row.
+         * @throws IOException when reading fails.
+         */
+        private void readRow(final int rowIndex, final RowCells rowCells) throws IOException {
+            while (nextRowIndex == rowIndex) {
+                final int columnIndex = input.readInt();
+                final int length = input.readInt();
+                String value = null;
+                if (length != CLEARED_LENGTH) {
+                    final byte[] bytes = new byte[length];
+                    input.readFully(bytes);
+                    value = new String(bytes, UTF8);
+                }
+                rowCells.set(columnIndex, value);
+                remainingBytes -= 2 * CELL_BYTES + Math.max(0, length);
+                nextRowIndex = readRowIndex();
+            }
+        }
+
+        /**
+         * Read the row index of the next cell.
+         *
+         * @return the row index, or -1 at the end of the run file.
+         * @throws IOException when reading fails.
+         */
+        private int readRowIndex() throws IOException {
+            int rowIndex = -1;
+            if (remainingBytes > 0) {
+                rowIndex = input.readInt();
+                remainingBytes -= CELL_BYTES;
+            }
+            return rowIndex;
+        }
+
+        /**
+         * Close the run file.
+         */
+        private void close() {
+            try {
+                input.close();
+            } catch (final IOException e) {
+                logger.warn("Could not close run file.", e);
+            }
+        }
+    }
+}
@@ -29,6 +29,11 @@ public class Configuration {
      */
     private static final Logger logger = LoggerFactory.getLogger(Configuration.class);
 
+    /**
+     * The default buffer size in kilobytes of each export file (the default size of a buffered writer).
+     */
+    private static final int DEFAULT_OUTPUT_BUFFER_SIZE = 8;
+
     /**
      * The location of the log4j properties file.
      */
@@ -50,6 +55,39 @@ public class Configuration {
      */
     private boolean avoidTransmartSymbolBugs;
 
+    /**
+     * A boolean that indicates whether the ODM file should be read as a stream, one subject at a time,
+     * instead of being loaded into memory as a whole.
+     */
+    private boolean streamOdmFile;
+
+    /**
+     * The memory budget in megabytes for the clinical data of one study, after which the clinical data is
+     * spilled to temporary files (0 = no budget, everything is kept in memory).
+     */
+    private int clinicalDataMemoryBudget;
+
+    /**
+     * The number of threads that convert the studies in an ODM file in parallel (1 = sequential conversion).
+     */
+    private int conversionThreads = 1;
+
+    /**
+     * The number of shards into which the subjects of a study are divided to convert them in parallel
+     * (1 = sequential conversion).
+     */
+    private int clinicalDataShards = 1;
+
+    /**
+     * The compression of the export files.
+     */
+    private OutputCodec outputCodec = OutputCodec.NONE;
+
+    /**
+     * The buffer size in kilobytes of each export file.
+     */
+    private int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+
     /**
      * Construct the configuration object by reading in the properties in the configuration file.
      *
@@ -68,6 +106,12 @@ public class Configuration {
             this.forbiddenSymbolRegex = properties.getProperty("forbidden-symbols-regex");
             final String avoidTransmartSymbolBugsAsString = properties.getProperty("avoid-transmart-symbol-bugs");
             this.avoidTransmartSymbolBugs = Boolean.parseBoolean(avoidTransmartSymbolBugsAsString);
+            this.streamOdmFile = Boolean.parseBoolean(properties.getProperty("stream-odm-file"));
+            this.clinicalDataMemoryBudget = getIntegerProperty(properties, "clinical-data-memory-budget", 0);
+            this.conversionThreads = getIntegerProperty(properties, "conversion-threads", 1);
+            this.clinicalDataShards = getIntegerProperty(properties, "clinical-data-shards", 1);
+            this.outputCodec = OutputCodec.fromName(properties.getProperty("output-codec"));
+            this.outputBufferSize = getIntegerProperty(properties, "output-buffer-size", DEFAULT_OUTPUT_BUFFER_SIZE);
 
             fileInputStream.close();
             inputStreamReader.close();
@@ -77,6 +121,21 @@ public class Configuration {
         }
     }
 
+    /**
+     * Get an optional integer property.
+     *
+     * @param properties   the properties from the configuration file.
+     * @param key          the key of the property.
+     * @param defaultValue the value that is returned if the property is missing or blank.
+     * @return the value of the property, or the default value.
+     */
+    private static int getIntegerProperty(final Properties properties, final String key, final int defaultValue) {
+        final String valueAsString = properties.getProperty(key);
+        return valueAsString != null && !"".equals(valueAsString.trim())
+               ? Integer.parseInt(valueAsString.trim())
+               : defaultValue;
+    }
+
     /**
      * Get the path and the filename that contain the properties for logging errors, warnings, etc.,
      * called the log4j properties file.
@@ -114,4 +173,67 @@ public class Configuration {
     public boolean getAvoidTransmartSymbolBugs() {
         return avoidTransmartSymbolBugs;
     }
+
+    /**
+     * Get the information whether the ODM file should be read as a stream, one subject at a time. This keeps
+     * the memory use bounded for very large ODM files. True = read as a stream.
+     *
+     * @return the boolean that says true in case the ODM file should be read as a stream.
+     */
+    public boolean getStreamOdmFile() {
+        return streamOdmFile;
+    }
+
+    /**
+     * Get the memory budget in megabytes for the clinical data of one study. When the clinical data of a study
+     * grows beyond this budget, it is spilled to temporary files and merged again when the clinical data file
+     * is written. 0 = no budget.
+     *
+     * @return the memory budget in megabytes, or 0 if there is no budget.
+     */
+    public int getClinicalDataMemoryBudget() {
+        return clinicalDataMemoryBudget;
+    }
+
+    /**
+     * Get the number of threads that convert the studies in an ODM file in parallel. Each defining study (a
+     * study with its own metadata, together with the study-sites that include its metadata) is converted by
+     * one thread, so more threads only help for ODM files with several defining studies. The metadata is always
+     * processed sequentially, so the column names do not depend on the number of threads. 1 = sequential.
+     *
+     * @return the number of conversion threads.
+     */
+    public int getConversionThreads() {
+        return conversionThreads;
+    }
+
+    /**
+     * Get the number of shards into which the subjects of a study are divided. Each shard keeps its own clinical
+     * data and is converted by its own thread; the shards are merged when the clinical data file is written, which
+     * gives the same file as a sequential conversion. 1 = sequential.
+     *
+     * @return the number of clinical data shards.
+     */
+    public int getClinicalDataShards() {
+        return clinicalDataShards;
+    }
+
+    /**
+     * Get the compression of the export files: none, gzip (smallest files) or fast (fastest compression). The
+     * compressed files get the extension .gz after their usual name.
+     *
+     * @return the output codec.
+     */
+    public OutputCodec getOutputCodec() {
+        return outputCodec;
+    }
+
+    /**
+     * Get the buffer size in kilobytes of each export file. Larger buffers mean fewer (and larger) writes to disk.
+     *
+     * @return the buffer size in kilobytes.
+     */
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
 }
@@ -5,11 +5,10 @@
 
 package nl.vumc.odmtoi2b2.export;
 
-import au.com.bytecode.opencsv.CSVWriter;
-
 import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 
@@ -49,64 +48,12 @@ public class FileExporter {
      */
     private static final String FILENAME = "Filename";
 
-    /**
-     * The abbreviation for 'event' in the ID of an entity.
-     */
-    private static final String EVENT_ABBREVIATION_IN_ID = "_E";
-
-    /**
-     * The abbreviation for 'item group' in the ID of an entity.
-     */
-    private static final String ITEM_GROUP_ABBREVIATION_IN_ID = "_IG";
-
-    /**
-     * The abbreviation for 'repeat' in the ID of an entity.
-     */
-    private static final String REPEAT_ABBREVIATION_IN_ID = "_R";
-
     /**
      * The column identifier of the very first column, which contains a unique ID for each row in the clinical data
      * file.
      */
     private static final String COLUMN_ID_WITH_ROW_IDS = "columnIdWithRowIds";
 
-    /**
-     * The column identifier of the second column, which contains the IDs of the event types.
-     */
-    private static final String COLUMN_ID_WITH_PATIENT_IDS = "columnIdWithPatientIds";
-
-    /**
-     * The column identifier of the second column, which contains the IDs of the event types.
-     */
-    private static final String COLUMN_ID_WITH_EVENT_IDS = "columnIdWithEventIds";
-
-    /**
-     * The column identifier of the third column, which contains the human readable event type names.
-     */
-    private static final String COLUMN_ID_WITH_EVENT_NAMES = "columnIdWithEventNames";
-
-    /**
-     * The column identifier of the fourth column, which contains the event repeat key (nr in the
-     * series of repeated events).
-     */
-    private static final String COLUMN_ID_WITH_EVENT_NR = "columnIdWithEventNr";
-
-    /**
-     * The column identifier of the fifth column, which contains the item group type IDs.
-     */
-    private static final String COLUMN_ID_WITH_IG_IDS = "columnIdWithIgIds";
-
-    /**
-     * The column identifier of the sixth column, which contains the human readable item group names.
-     */
-    private static final String COLUMN_ID_WITH_IG_NAMES = "columnIdWithIgNames";
-
-    /**
-     * The column identifier of the sixth column, which contains the item group repeat key (nr in the
-     * series of repeated item groups).
-     */
-    private static final String COLUMN_ID_WITH_IG_NR = "columnIdWithIgNr";
-
     /**
      * The name of the node in the partonomic hierarchy that leads to the primary keys that identify
      * either an event type, or an event repeat or an item group type or an item group repeat.
@@ -136,9 +83,20 @@ public class FileExporter {
     private static final String UTF8 = "UTF-8";
 
     /**
-     * The regex that specifies all the symbols that should not appear in the output file.
+     * The number of bytes in a kilobyte.
      */
-    private String forbiddenSymbolRegex;
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long BYTES_PER_MEGABYTE = (long) BYTES_PER_KILOBYTE * BYTES_PER_KILOBYTE;
+
+    /**
+     * The writer that formats the lines of all the export files, removing the symbols that should not appear in
+     * the output files.
+     */
+    private TsvWriter tsvWriter;
 
     /**
      * The boolean that is true when precautions have to be taken to avoid bugs caused by
@@ -193,58 +151,68 @@ public class FileExporter {
     private List<String> columnHeaders;
 
     /**
-     * The column IDs (paths) for the clinical data.
+     * The indexes in the clinical data store of the columns (OID paths) for the clinical data, in the order in
+     * which they are written to the clinical data file.
      */
-    private List<String> columnIds;
+    private List<Integer> columnIndexes;
 
     /**
-     * The entity IDs (either patient id, event id, or IG id), which correspond to the rows in the clinical data.
+     * The current column number during the processing of the study info.
      */
-    private List<String> entityIds;
+    private int currentColumnNumber;
 
     /**
-     * The IDs of a type of repeating event, which are turned into an integer (the place in the list)
-     * and then made part of the ID of a repeated event of this type of repeating event (the eventEntityId).
+     * The current column id during the processing of the study info.
      */
-    private List<String> repeatingEventIds;
+    private String currentColumnId;
 
     /**
-     * The IDs of a type of repeating item group, which are turned into an integer (the place in the list)
-     * and then made part of the ID of a repeated item group of this type of repeating item group
-     * (the itemGroupEntityId).
+     * Mapping of (column ID + word) to values for the current patient.
      */
-    private List<String> repeatingItemGroupIds;
+    private Map<String, String> wordMap;
 
     /**
-     * The current column number during the processing of the study info.
+     * Mapping of event or item group IDs to the human readable names.
      */
-    private int currentColumnNumber;
+    private Map<String, String> eventOrIGIdToNameMap;
 
     /**
-     * The current column id during the processing of the study info.
+     * The clinical data shards, which keep the clinical data until it is written to the clinical data file. Each
+     * patient is assigned to one shard; with more than one shard, the subjects can be converted in parallel.
      */
-    private String currentColumnId;
+    private ClinicalDataShard[] clinicalDataShards;
 
     /**
-     * Mapping of (column ID + word) to values for the current patient.
+     * Whether the subjects are started with the startSubject method. If not, the clinical data is stored by one
+     * thread and a new subject is started whenever the patient changes.
      */
-    private Map<String, String> wordMap;
+    private volatile boolean subjectsStartedExplicitly;
 
     /**
-     * Mapping of event or item group IDs to the human readable names.
+     * The sequence number of the last subject that was started implicitly.
      */
-    private Map<String, String> eventOrIGIdToNameMap;
+    private long implicitSubjectSequence;
 
     /**
-     * A map of maps: Map<patientID, patientData>, with patientData a map of columnIds to data values.
+     * The patient of the last subject that was started implicitly.
      */
-    private Map<String, Map<String, String>> clinicalDataMap;
+    private String lastPatientId;
 
     /**
      * The cut-off length of the clinical data entry strings in the clinical data file.
      */
     private int maxClinicalDataEntry;
 
+    /**
+     * The compression of the export files.
+     */
+    private OutputCodec outputCodec;
+
+    /**
+     * The buffer size in bytes of each export file.
+     */
+    private int outputBufferSize;
+
     /**
      * Construct a file exporter.
      *
@@ -261,20 +229,24 @@ public class FileExporter {
         this.clinicalDataFileName = studyNameWithUnderscores + "_clinical_data.txt";
         this.exportFilePath = exportFilePath;
         this.maxClinicalDataEntry = configuration.getMaxClinicalDataEntry();
-        this.forbiddenSymbolRegex = configuration.getForbiddenSymbolRegex();
         this.avoidTransmartSymbolBugs = configuration.getAvoidTransmartSymbolBugs();
+        this.tsvWriter = new TsvWriter(configuration.getForbiddenSymbolRegex(), avoidTransmartSymbolBugs);
+        this.outputCodec = configuration.getOutputCodec();
+        this.outputBufferSize = configuration.getOutputBufferSize() * BYTES_PER_KILOBYTE;
         this.writeWordMapHeaders = true;
         this.valueCounter = 1;
         this.increasedColumnNumber = false;
         this.currentColumnNumber = 0;
         this.currentColumnId = null;
-        initializeColumnHeadersAndIds();
-        this.entityIds = new ArrayList<>();
-        this.repeatingEventIds = new ArrayList<>();
-        this.repeatingItemGroupIds = new ArrayList<>();
         this.wordMap = new HashMap<>();
         this.eventOrIGIdToNameMap = new HashMap<>();
-        this.clinicalDataMap = new HashMap<>();
+        final int shardCount = Math.max(1, configuration.getClinicalDataShards());
+        final long shardMemoryBudget = configuration.getClinicalDataMemoryBudget() * BYTES_PER_MEGABYTE / shardCount;
+        this.clinicalDataShards = new ClinicalDataShard[shardCount];
+        for (int shardIndex = 0; shardIndex < shardCount; shardIndex++) {
+            clinicalDataShards[shardIndex] = new ClinicalDataShard(shardMemoryBudget, wordMap, eventOrIGIdToNameMap);
+        }
+        initializeColumnHeadersAndIds();
         setColumnsName(columnsFileName);
         setWordMapName(wordMapFileName);
         setClinicalDataName(this.clinicalDataFileName);
@@ -295,23 +267,108 @@ public class FileExporter {
                 "Item_group_name",
                 "Instance_num"));
 
-        this.columnIds = new ArrayList<>(Arrays.asList(
-                COLUMN_ID_WITH_PATIENT_IDS,
-                COLUMN_ID_WITH_EVENT_IDS,
-                COLUMN_ID_WITH_EVENT_NAMES,
-                COLUMN_ID_WITH_EVENT_NR,
-                COLUMN_ID_WITH_IG_IDS,
-                COLUMN_ID_WITH_IG_NAMES,
-                COLUMN_ID_WITH_IG_NR));
+        this.columnIndexes = new ArrayList<>();
+        for (final String columnId : Arrays.asList(ClinicalDataShard.COLUMN_ID_WITH_PATIENT_IDS,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_EVENT_IDS,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_EVENT_NAMES,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_EVENT_NR,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_IG_IDS,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_IG_NAMES,
+                                                   ClinicalDataShard.COLUMN_ID_WITH_IG_NR)) {
+            columnIndexes.add(addColumn(columnId));
+        }
+    }
+
+    /**
+     * Add a column to all the clinical data shards. The columns are added before any clinical data is stored, so
+     * they get the same index in every shard.
+     *
+     * @param columnId the column ID.
+     * @return the column index.
+     */
+    private int addColumn(final String columnId) {
+        int columnIndex = -1;
+        for (final ClinicalDataShard clinicalDataShard : clinicalDataShards) {
+            columnIndex = clinicalDataShard.addColumn(columnId);
+        }
+        return columnIndex;
+    }
+
+    /**
+     * Get the number of clinical data shards. With more than one shard, the subjects of different shards can be
+     * converted in parallel, as long as the subjects of one shard are converted one after another.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return clinicalDataShards.length;
+    }
+
+    /**
+     * Get the shard to which the clinical data of a patient is written.
+     *
+     * @param patientId the identifier of the patient.
+     * @return the shard index.
+     */
+    public int getShardIndex(final String patientId) {
+        return (patientId.hashCode() & Integer.MAX_VALUE) % clinicalDataShards.length;
     }
 
     /**
-     * Get a copy of the clinical data map. This method is meant for testing purposes.
+     * Start the conversion of a subject. When the subjects are converted in parallel, this method should be called
+     * (on the thread of the shard) before the clinical data of each subject is stored: the rows of the shards are
+     * written in the order of the subject sequence numbers, which gives the same clinical data file as a sequential
+     * conversion. When it is never called, a new subject is started whenever the patient changes.
      *
-     * @return a copy of the clinical data map.
+     * @param patientId the identifier of the patient.
+     * @param sequence  the sequence number of the subject in the ODM file.
      */
-    protected Map<String, Map<String, String>> getClinicalDataMap() {
-        return new HashMap<>(clinicalDataMap);
+    public void startSubject(final String patientId, final long sequence) {
+        subjectsStartedExplicitly = true;
+        clinicalDataShards[getShardIndex(patientId)].startSubject(sequence);
+    }
+
+    /**
+     * Get the clinical data as a map of maps: Map<entityID, entityData>, with entityData a map of column IDs to
+     * data values. This method is meant for testing purposes.
+     *
+     * @return the clinical data map.
+     * @throws IOException when reading the clinical data that was spilled to disk fails.
+     */
+    protected Map<String, Map<String, String>> getClinicalDataMap() throws IOException {
+        final Map<String, Map<String, String>> clinicalDataMap = new HashMap<>();
+        final List<ClinicalDataShard.Cursor> cursors = openCursors();
+        try {
+            for (ClinicalDataShard.Cursor cursor = selectCursor(cursors); cursor != null; cursor = selectCursor(cursors)) {
+                final String[] rowValues = cursor.getRowValues();
+                final String entityId = cursor.getEntityId();
+                final Map<String, String> entityData = new HashMap<>();
+                entityData.put(COLUMN_ID_WITH_ROW_IDS, entityId);
+                for (int columnIndex = 0; columnIndex < rowValues.length; columnIndex++) {
+                    if (rowValues[columnIndex] != null) {
+                        entityData.put(cursor.getColumnId(columnIndex), rowValues[columnIndex]);
+                    }
+                }
+                clinicalDataMap.put(entityId, entityData);
+                cursor.advance();
+            }
+        } finally {
+            closeCursors(cursors);
+        }
+        return clinicalDataMap;
+    }
+
+    /**
+     * Open a writer for an export file, which is compressed with the output codec.
+     *
+     * @param fileName the name of the export file (without the extension of the output codec).
+     * @return the writer.
+     * @throws IOException when the file cannot be created.
+     */
+    private BufferedWriter openWriter(final String fileName) throws IOException {
+        final String filePath = exportFilePath + fileName + outputCodec.getExtension();
+        final OutputStream outputStream = outputCodec.wrap(new FileOutputStream(filePath), outputBufferSize);
+        return new BufferedWriter(new OutputStreamWriter(outputStream, UTF8), outputBufferSize);
     }
 
     /**
@@ -321,9 +378,8 @@ public class FileExporter {
      */
     private void setColumnsName(final String columnsFileName) {
         try {
-            final FileOutputStream fileOutputStream = new FileOutputStream(exportFilePath + columnsFileName);
-            columnsWriter = new BufferedWriter(new OutputStreamWriter(fileOutputStream, UTF8));
-            logger.info("Writing columns to file " + exportFilePath + columnsFileName);
+            columnsWriter = openWriter(columnsFileName);
+            logger.info("Writing columns to file " + exportFilePath + columnsFileName + outputCodec.getExtension());
         } catch (final IOException e) {
             logger.error("Error while setting the columns filename.", e);
         }
@@ -354,9 +410,8 @@ public class FileExporter {
      */
     private void setWordMapName(final String wordMapFileName) {
         try {
-            final FileOutputStream fileOutputStream = new FileOutputStream(exportFilePath + wordMapFileName);
-            wordMapWriter = new BufferedWriter(new OutputStreamWriter(fileOutputStream, UTF8));
-            logger.info("Writing word mappings to file " + exportFilePath + wordMapFileName);
+            wordMapWriter = openWriter(wordMapFileName);
+            logger.info("Writing word mappings to file " + exportFilePath + wordMapFileName + outputCodec.getExtension());
         } catch (final IOException e) {
             logger.error("Error while setting the word map filename.", e);
         }
@@ -369,9 +424,8 @@ public class FileExporter {
      */
     private void setClinicalDataName(final String clinicalDataFileName) {
         try {
-            final FileOutputStream fileOutputStream = new FileOutputStream(exportFilePath + clinicalDataFileName);
-            clinicalDataWriter = new BufferedWriter(new OutputStreamWriter(fileOutputStream, UTF8));
-            logger.info("Writing clinical data to file " + exportFilePath + clinicalDataFileName);
+            clinicalDataWriter = openWriter(clinicalDataFileName);
+            logger.info("Writing clinical data to file " + exportFilePath + clinicalDataFileName + outputCodec.getExtension());
         } catch (final IOException e) {
             logger.error("Error while setting the clinical data filename.", e);
         }
@@ -432,7 +486,7 @@ public class FileExporter {
 
         currentColumnId = oidPath;
         columnHeaders.add(preferredItemName);
-        columnIds.add(oidPath);
+        columnIndexes.add(addColumn(oidPath));
     }
 
     /**
@@ -523,6 +577,7 @@ public class FileExporter {
      * @param eventRepeatKey The repeat key that identifies an event repeat.
      * @param itemGroupId The OID of a type of repeating item group.
      * @param itemGroupRepeatKey The repeat key that identifies an item group repeat.
+     * @throws IOException when spilling the clinical data to disk fails.
      */
     public void storeClinicalDataInfo(final String columnId,
                                       final String dataValue,
@@ -530,253 +585,15 @@ public class FileExporter {
                                       final String eventId,
                                       final String eventRepeatKey,
                                       final String itemGroupId,
-                                      final String itemGroupRepeatKey) {
-
-        if (eventRepeatKey == null && itemGroupRepeatKey == null) {
-            addPatientData(columnId, dataValue, patientId);
-        } else if (eventRepeatKey != null && itemGroupRepeatKey == null) {
-            addEventData(columnId, dataValue, patientId, eventId, eventRepeatKey);
-        } else if (eventRepeatKey == null) {
-            addItemGroupData(columnId, dataValue, patientId, eventId, itemGroupId, itemGroupRepeatKey);
-        } else {
-            addEventAndItemGroupData(columnId, dataValue, patientId, eventId,
-                    eventRepeatKey, itemGroupId, itemGroupRepeatKey);
+                                      final String itemGroupRepeatKey) throws IOException {
+        final ClinicalDataShard clinicalDataShard = clinicalDataShards[getShardIndex(patientId)];
+        if (!subjectsStartedExplicitly && !patientId.equals(lastPatientId)) {
+            implicitSubjectSequence++;
+            clinicalDataShard.startSubject(implicitSubjectSequence);
+            lastPatientId = patientId;
         }
-    }
-
-    /**
-     * Write the clinical data to a clinical data map, for the case of a patient.
-     *
-     * @param columnId The full path of OIDs, which identifies a column.
-     * @param dataValue The value, which might not yet be converted to a number.
-     * @param patientId The identifier of the patient.
-     */
-    private void addPatientData(final String columnId,
-                                final String dataValue,
-                                final String patientId) {
-        /**
-         * Mapping of column ID to values for the current entity.
-         */
-        Map<String, String> entityData = new HashMap<>();
-
-        if (clinicalDataMap.containsKey(patientId)) {
-            entityData = clinicalDataMap.get(patientId);
-        } else {
-            entityIds.add(patientId);
-            entityData.put(COLUMN_ID_WITH_ROW_IDS, patientId);
-            entityData.put(COLUMN_ID_WITH_PATIENT_IDS, patientId);
-            clinicalDataMap.put(patientId, entityData);
-        }
-
-        entityData = addWordOrNumber(columnId, dataValue, entityData);
-
-        logger.debug("Adding patient data for " + patientId);
-        clinicalDataMap.put(patientId, entityData);
-    }
-
-    /**
-     * Write the clinical data to a clinical data map, for the case of an event repeat.
-     *
-     * @param columnId The full path of OIDs, which identifies a column.
-     * @param dataValue The value, which might not yet be converted to a number.
-     * @param patientId The identifier of the patient.
-     * @param eventId   The OID that identifies the type of repeating event.
-     * @param eventRepeatKey The repeat key that identifies the event repeat.
-     */
-    private void addEventData(final String columnId,
-                              final String dataValue,
-                              final String patientId,
-                              final String eventId,
-                              final String eventRepeatKey) {
-        /**
-         * Mapping of column ID to values for the current entity.
-         */
-        Map<String, String> entityData = new HashMap<>();
-
-        if (!repeatingEventIds.contains(eventId)) {
-            repeatingEventIds.add(eventId);
-        }
-
-        final int repeatingEventIndex = repeatingEventIds.indexOf(eventId) + 1;
-        final String eventEntityId = patientId
-                + EVENT_ABBREVIATION_IN_ID + repeatingEventIndex
-                + REPEAT_ABBREVIATION_IN_ID + eventRepeatKey;
-
-        if (clinicalDataMap.containsKey(eventEntityId)) {
-            entityData = clinicalDataMap.get(eventEntityId);
-        } else {
-            entityIds.add(eventEntityId);
-            String eventName = eventId;
-            if (eventOrIGIdToNameMap.containsKey(eventId)) {
-                eventName = eventOrIGIdToNameMap.get(eventId);
-            }
-            entityData.put(COLUMN_ID_WITH_ROW_IDS, eventEntityId);
-            entityData.put(COLUMN_ID_WITH_PATIENT_IDS, patientId);
-            entityData.put(COLUMN_ID_WITH_EVENT_IDS, eventId);
-            entityData.put(COLUMN_ID_WITH_EVENT_NAMES, eventName);
-            entityData.put(COLUMN_ID_WITH_EVENT_NR, eventRepeatKey);
-            clinicalDataMap.put(eventEntityId, entityData);
-        }
-
-        entityData = addWordOrNumber(columnId, dataValue, entityData);
-
-        logger.debug("Adding event data for " + eventEntityId);
-        clinicalDataMap.put(eventEntityId, entityData);
-    }
-
-    /**
-     * Write the clinical data to a clinical data map, for the case of an item group repeat,
-     * that does not belong to a repeating event.
-     *
-     * @param columnId The full path of OIDs, which identifies a column.
-     * @param dataValue The value, which might not yet be converted to a number.
-     * @param patientId The identifier of the patient.
-     * @param eventId   The OID that identifies the non-repeating event.
-     * @param itemGroupId  The OID that identifies the type of repeating item group.
-     * @param itemGroupRepeatKey The repeat key that identifies the item group repeat.
-     */
-    private void addItemGroupData(final String columnId,
-                                  final String dataValue,
-                                  final String patientId,
-                                  final String eventId,
-                                  final String itemGroupId,
-                                  final String itemGroupRepeatKey) {
-        /**
-         * Mapping of column ID to values for the current entity.
-         */
-        Map<String, String> entityData = new HashMap<>();
-
-        if (!repeatingEventIds.contains(eventId)) {
-            repeatingEventIds.add(eventId);
-        }
-
-        if (!repeatingItemGroupIds.contains(itemGroupId)) {
-            repeatingItemGroupIds.add(itemGroupId);
-        }
-
-        final int repeatingEventIndex = repeatingEventIds.indexOf(eventId) + 1;
-        final int repeatingItemGroupIndex = repeatingItemGroupIds.indexOf(itemGroupId) + 1;
-        final String itemGroupEntityId = patientId
-                + EVENT_ABBREVIATION_IN_ID  + repeatingEventIndex
-                + ITEM_GROUP_ABBREVIATION_IN_ID + repeatingItemGroupIndex
-                + REPEAT_ABBREVIATION_IN_ID  + itemGroupRepeatKey;
-
-        if (clinicalDataMap.containsKey(itemGroupEntityId)) {
-            entityData = clinicalDataMap.get(itemGroupEntityId);
-        } else {
-            entityIds.add(itemGroupEntityId);
-            String eventName = eventId;
-            String itemGroupName = itemGroupId;
-            if (eventOrIGIdToNameMap.containsKey(eventId)) {
-                eventName = eventOrIGIdToNameMap.get(eventId);
-            }
-            if (eventOrIGIdToNameMap.containsKey(itemGroupId)) {
-                itemGroupName = eventOrIGIdToNameMap.get(itemGroupId);
-            }
-            entityData.put(COLUMN_ID_WITH_ROW_IDS, itemGroupEntityId);
-            entityData.put(COLUMN_ID_WITH_PATIENT_IDS, patientId);
-            entityData.put(COLUMN_ID_WITH_EVENT_IDS, eventId);
-            entityData.put(COLUMN_ID_WITH_EVENT_NAMES, eventName);
-            entityData.put(COLUMN_ID_WITH_IG_IDS, itemGroupId);
-            entityData.put(COLUMN_ID_WITH_IG_NAMES, itemGroupName);
-            entityData.put(COLUMN_ID_WITH_IG_NR, itemGroupRepeatKey);
-            clinicalDataMap.put(itemGroupEntityId, entityData);
-        }
-
-        entityData = addWordOrNumber(columnId, dataValue, entityData);
-
-        logger.debug("Adding IG1 data for " + itemGroupEntityId);
-        clinicalDataMap.put(itemGroupEntityId, entityData);
-    }
-
-    /**
-     * Write the clinical data to a clinical data map, for the case of an item group repeat,
-     * that does belong to an event repeat.
-     *
-     * @param columnId The full path of OIDs, which identifies a column.
-     * @param dataValue The value, which might not yet be converted to a number.
-     * @param patientId The identifier of the patient.
-     * @param eventId   The OID that identifies the type of repeating event.
-     * @param eventRepeatKey The repeat key that identifies the event repeat.
-     * @param itemGroupId  The OID that identifies the type of repeating item group.
-     * @param itemGroupRepeatKey The repeat key that identifies the item group repeat.
-     */
-    private void addEventAndItemGroupData(final String columnId,
-                                          final String dataValue,
-                                          final String patientId,
-                                          final String eventId,
-                                          final String eventRepeatKey,
-                                          final String itemGroupId,
-                                          final String itemGroupRepeatKey) {
-        /**
-         * Mapping of column ID to values for the current entity.
-         */
-        Map<String, String> entityData = new HashMap<>();
-
-        if (!repeatingEventIds.contains(eventId)) {
-            repeatingEventIds.add(eventId);
-        }
-
-        if (!repeatingItemGroupIds.contains(itemGroupId)) {
-            repeatingItemGroupIds.add(itemGroupId);
-        }
-
-        final int repeatingEventIndex = repeatingEventIds.indexOf(eventId) + 1;
-        final int repeatingItemGroupIndex = repeatingItemGroupIds.indexOf(itemGroupId) + 1;
-        final String itemGroupEntityId = patientId
-                + EVENT_ABBREVIATION_IN_ID  + repeatingEventIndex
-                + REPEAT_ABBREVIATION_IN_ID + eventRepeatKey
-                + ITEM_GROUP_ABBREVIATION_IN_ID + repeatingItemGroupIndex
-                + REPEAT_ABBREVIATION_IN_ID + itemGroupRepeatKey;
-
-        if (clinicalDataMap.containsKey(itemGroupEntityId)) {
-            entityData = clinicalDataMap.get(itemGroupEntityId);
-        } else {
-            entityIds.add(itemGroupEntityId);
-            String eventName = eventId;
-            String itemGroupName = itemGroupId;
-            if (eventOrIGIdToNameMap.containsKey(eventId)) {
-                eventName = eventOrIGIdToNameMap.get(eventId);
-            }
-            if (eventOrIGIdToNameMap.containsKey(itemGroupId)) {
-                itemGroupName = eventOrIGIdToNameMap.get(itemGroupId);
-            }
-            entityData.put(COLUMN_ID_WITH_ROW_IDS, itemGroupEntityId);
-            entityData.put(COLUMN_ID_WITH_PATIENT_IDS, patientId);
-            entityData.put(COLUMN_ID_WITH_EVENT_IDS, eventId);
-            entityData.put(COLUMN_ID_WITH_EVENT_NAMES, eventName);
-            entityData.put(COLUMN_ID_WITH_EVENT_NR, eventRepeatKey);
-            entityData.put(COLUMN_ID_WITH_IG_IDS, itemGroupId);
-            entityData.put(COLUMN_ID_WITH_IG_NAMES, itemGroupName);
-            entityData.put(COLUMN_ID_WITH_IG_NR, itemGroupRepeatKey);
-            clinicalDataMap.put(itemGroupEntityId, entityData);
-        }
-
-        entityData = addWordOrNumber(columnId, dataValue, entityData);
-
-        logger.debug("Adding IG2 data for " + itemGroupEntityId);
-        clinicalDataMap.put(itemGroupEntityId, entityData);
-    }
-
-    /**
-     * Adds a word or a number to a field in the clinical data file. Replaces a word by a number in case the
-     * word map has assigned such a replacement.
-     *
-     * @param columnId The column of the field in the clinical data file.
-     * @param dataValue The non-replaced data value.
-     * @param entityData The data of the row of the field in the clinical data file.
-     * @return entityData The data of the row of the field in the clinical data file.
-     */
-    private Map<String, String> addWordOrNumber(final String columnId,
-                                                final String dataValue,
-                                                final Map<String, String> entityData) {
-        if (wordMap.get(columnId + dataValue) != null) {
-            //fills clinical data with words from word map
-            entityData.put(columnId, wordMap.get(columnId + dataValue));
-        } else {
-            entityData.put(columnId, dataValue);
-        }
-        return entityData;
+        clinicalDataShard.storeClinicalDataInfo(columnId, dataValue, patientId, eventId,
+                eventRepeatKey, itemGroupId, itemGroupRepeatKey);
     }
 
 //    /**
@@ -845,54 +662,120 @@ public class FileExporter {
     private void writeEntityData() throws IOException {
 
         writeCSVData(clinicalDataWriter, columnHeaders);
-        for (final String entityId : entityIds) {
-            final List<String> rowAsList = new ArrayList<>();
-            final Map<String, String> patientData = clinicalDataMap.get(entityId);
-            for (final String columnId : columnIds) {
-                final String rawDataEntry = patientData.get(columnId);
-                String dataEntry;
-                if (rawDataEntry == null) {
-                    dataEntry = "";
-                } else if (rawDataEntry.length() > maxClinicalDataEntry) {
-                    final String tooLongIndicator = "...";
-                    final int logSegmentLength = 15;
-                    dataEntry = rawDataEntry.substring(0, maxClinicalDataEntry - tooLongIndicator.length())
-                            + tooLongIndicator;
-                    logger.warn("Data entry " + dataEntry.substring(0, logSegmentLength) + " of " + entityId
-                            + " and column " + columnId + " was cut off at "
-                            + rawDataEntry.substring(maxClinicalDataEntry - logSegmentLength,
-                            maxClinicalDataEntry - tooLongIndicator.length()));
-                } else {
-                    dataEntry = rawDataEntry;
-                }
-                rowAsList.add(dataEntry);
+        final int[] columnIndexArray = new int[columnIndexes.size()];
+        for (int position = 0; position < columnIndexArray.length; position++) {
+            columnIndexArray[position] = columnIndexes.get(position);
+        }
+        final List<ClinicalDataShard.Cursor> cursors = openCursors();
+        try {
+            for (ClinicalDataShard.Cursor cursor = selectCursor(cursors); cursor != null; cursor = selectCursor(cursors)) {
+                writeEntityRow(cursor, columnIndexArray);
+                cursor.advance();
+            }
+        } finally {
+            closeCursors(cursors);
+        }
+    }
+
+    /**
+     * Open a cursor over the rows of each clinical data shard. The ordinals of the repeating events and item groups
+     * of the shards are merged, so the entity IDs are the same as with a single shard.
+     *
+     * @return the cursors.
+     * @throws IOException when reading the clinical data that was spilled to disk fails.
+     */
+    private List<ClinicalDataShard.Cursor> openCursors() throws IOException {
+        final List<OrdinalRegistry> repeatingEventIds = new ArrayList<>();
+        final List<OrdinalRegistry> repeatingItemGroupIds = new ArrayList<>();
+        for (final ClinicalDataShard clinicalDataShard : clinicalDataShards) {
+            repeatingEventIds.add(clinicalDataShard.getRepeatingEventIds());
+            repeatingItemGroupIds.add(clinicalDataShard.getRepeatingItemGroupIds());
+        }
+        final List<int[]> eventOrdinalMaps = OrdinalRegistry.merge(repeatingEventIds);
+        final List<int[]> itemGroupOrdinalMaps = OrdinalRegistry.merge(repeatingItemGroupIds);
+        final List<ClinicalDataShard.Cursor> cursors = new ArrayList<>();
+        try {
+            for (int shardIndex = 0; shardIndex < clinicalDataShards.length; shardIndex++) {
+                cursors.add(clinicalDataShards[shardIndex].openCursor(eventOrdinalMaps.get(shardIndex),
+                                                                      itemGroupOrdinalMaps.get(shardIndex)));
+            }
+        } catch (final IOException e) {
+            closeCursors(cursors);
+            throw e;
+        }
+        return cursors;
+    }
+
+    /**
+     * Select the cursor with the next row in the clinical data file: the row that was created for the subject with
+     * the lowest sequence number. The rows of one shard are already in that order.
+     *
+     * @param cursors the cursors over the rows of the shards.
+     * @return the cursor with the next row, or null if all rows have been read.
+     */
+    private static ClinicalDataShard.Cursor selectCursor(final List<ClinicalDataShard.Cursor> cursors) {
+        ClinicalDataShard.Cursor selectedCursor = null;
+        for (final ClinicalDataShard.Cursor cursor : cursors) {
+            if (cursor.hasRow() && (selectedCursor == null || cursor.getRowSequence() < selectedCursor.getRowSequence())) {
+                selectedCursor = cursor;
             }
-            writeCSVData(clinicalDataWriter, rowAsList);
         }
+        return selectedCursor;
     }
 
+    /**
+     * Close the cursors over the rows of the shards.
+     *
+     * @param cursors the cursors.
+     */
+    private static void closeCursors(final List<ClinicalDataShard.Cursor> cursors) {
+        for (final ClinicalDataShard.Cursor cursor : cursors) {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Write one row of clinical data to the tab-delimited clinical data file.
+     *
+     * @param cursor The cursor that is positioned on the row.
+     * @param columnIndexArray The column indexes, in the order in which they are written.
+     * @throws IOException An input-output exception.
+     */
+    private void writeEntityRow(final ClinicalDataShard.Cursor cursor, final int[] columnIndexArray)
+            throws IOException {
+        final String[] rowValues = cursor.getRowValues();
+        for (final int columnIndex : columnIndexArray) {
+            final String rawDataEntry = rowValues[columnIndex];
+            String dataEntry;
+            if (rawDataEntry == null) {
+                dataEntry = "";
+            } else if (rawDataEntry.length() > maxClinicalDataEntry) {
+                final String tooLongIndicator = "...";
+                final int logSegmentLength = 15;
+                dataEntry = rawDataEntry.substring(0, maxClinicalDataEntry - tooLongIndicator.length())
+                        + tooLongIndicator;
+                logger.warn("Data entry " + dataEntry.substring(0, logSegmentLength) + " of "
+                        + cursor.getEntityId() + " and column "
+                        + cursor.getColumnId(columnIndex) + " was cut off at "
+                        + rawDataEntry.substring(maxClinicalDataEntry - logSegmentLength,
+                        maxClinicalDataEntry - tooLongIndicator.length()));
+            } else {
+                dataEntry = rawDataEntry;
+            }
+            tsvWriter.appendValue(dataEntry);
+        }
+        tsvWriter.endLine(clinicalDataWriter);
+    }
 
     /**
-     * Write one line of tab separated data to the correct file. Replaces double quotes by single quotes first.
+     * Write one line of tab separated data to the correct file. Removes the forbidden symbols and, if needed, applies
+     * the substitutions that avoid tranSMART symbol bugs first.
      * @param writer The correct file.
      * @param rowAsList The line as a list of items that will be separated by tabs.
      * @throws IOException An input-output exception.
      */
     private void writeCSVData(final Writer writer, final List<String> rowAsList) throws IOException {
-        if (forbiddenSymbolRegex != null && !"".equals(forbiddenSymbolRegex.trim())) {
-            for (int i = 0; i < rowAsList.size(); i++) {
-                rowAsList.set(i, rowAsList.get(i).replaceAll(forbiddenSymbolRegex, ""));
-            }
-        }
-        if (avoidTransmartSymbolBugs) {
-            for (int i = 0; i < rowAsList.size(); i++) {
-                rowAsList.set(i, StringUtilities.convertString(rowAsList.get(i)));
-            }
-        }
-        final CSVWriter csvWriter = new CSVWriter(writer, '\t', CSVWriter.NO_QUOTE_CHARACTER);
-        final String[] rowAsArray = rowAsList.toArray(new String[rowAsList.size()]);
-        csvWriter.writeNext(rowAsArray);
+        tsvWriter.writeLine(writer, rowAsList);
     }
 
     /**
@@ -908,5 +791,8 @@ public class FileExporter {
         } catch (final IOException e) {
             e.printStackTrace();
         }
+        for (final ClinicalDataShard clinicalDataShard : clinicalDataShards) {
+            clinicalDataShard.deleteRunFiles();
+        }
     }
 }
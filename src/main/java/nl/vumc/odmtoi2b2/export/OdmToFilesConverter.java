@@ -6,7 +6,11 @@
 package nl.vumc.odmtoi2b2.export;
 
 import com.recomdata.i2b2.util.ODMUtil;
+import com.recomdata.odm.DecodeTable;
 import com.recomdata.odm.MetaDataWithIncludes;
+import com.recomdata.odm.ODMStreamHandler;
+import com.recomdata.odm.ODMStreamReader;
+import com.recomdata.odm.ODMStreamSource;
 
 import java.io.File;
 import java.io.IOException;
@@ -15,6 +19,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.bind.JAXBException;
 
@@ -115,9 +120,9 @@ public class OdmToFilesConverter {
     private String exportFilePath;
 
     /**
-     * The metadata of a study, including the metadata fragments that are included with an include tag.
+     * The number of threads that convert the defining studies in parallel (1 = sequential conversion).
      */
-    private MetaDataWithIncludes metaDataWithIncludes;
+    private int conversionThreads;
 
     /**
      * A list with the full human-readable names of the columns, which are used as identifiers within tranSMART.
@@ -127,6 +132,8 @@ public class OdmToFilesConverter {
 
     /**
      * Map<studyName, fileExporter> to keep track of all the file exporters that were created.
+     * The maps of this class are filled before the conversion tasks of the defining studies are started, which
+     * only read from them.
      */
     private Map<String, FileExporter> fileExporters;
 
@@ -140,16 +147,24 @@ public class OdmToFilesConverter {
      */
     private Map<String, String> studies;
 
+    /**
+     * Map<definingStudyName, subjectShardRunner> with the runners that convert the subjects of the defining
+     * studies whose file exporters have more than one clinical data shard.
+     */
+    private Map<String, SubjectShardRunner> subjectShardRunners;
+
 
     /**
      * This class is instantiated once for each ODM file.
      */
     public OdmToFilesConverter() {
-        this.fileExporters = new HashMap<>();
-        this.metaDataMap = new HashMap<>();
+        this.fileExporters = new ConcurrentHashMap<>();
+        this.metaDataMap = new ConcurrentHashMap<>();
         this.modelStudiesAsColumn = false;
+        this.conversionThreads = 1;
         this.columnFullNameList = new ArrayList<>();
         this.studies = new HashMap<>();
+        this.subjectShardRunners = new ConcurrentHashMap<>();
     }
 
     /**
@@ -174,20 +189,72 @@ public class OdmToFilesConverter {
     }
 
     /**
-     * Closes the files after the data has been written.
+     * This method is the streaming alternative for processODM: the ODM file is read with a StAX cursor and
+     * the clinical data is converted one subject at a time, so the complete odm tree is never held in memory.
+     * The output is the same as that of processODM.
+     *
+     * @param odmFile            the ODM XML file.
+     * @param exportFilePath     the path to the directory in which the export files will be written.
+     * @param propertiesFilePath the file path to the properties.
+     * @throws Exception when the ODM file cannot be read or the export files cannot be written.
+     */
+    public void processODMStream(final File odmFile, final String exportFilePath,
+                                 final String propertiesFilePath) throws Exception {
+        processODMStream(ODMStreamReader.createSource(odmFile), exportFilePath, propertiesFilePath);
+    }
+
+    /**
+     * This method converts the ODM data of a streaming source (like a REDCap project that is converted while
+     * it is retrieved) one subject at a time, just like the streaming alternative for an ODM file.
+     *
+     * @param source             the source of the ODM data.
+     * @param exportFilePath     the path to the directory in which the export files will be written.
+     * @param propertiesFilePath the file path to the properties.
+     * @throws Exception when the source cannot be read or the export files cannot be written.
+     */
+    public void processODMStream(final ODMStreamSource source, final String exportFilePath,
+                                 final String propertiesFilePath) throws Exception {
+        this.exportFilePath = exportFilePath + File.separator;
+
+        try {
+            source.read(new StreamHandler(propertiesFilePath));
+            finishSubjectShardRunners();
+        } finally {
+            stopSubjectShardRunners();
+        }
+    }
+
+    /**
+     * Closes the files after the data has been written. Closing a file exporter writes its clinical data file,
+     * so the file exporters of the defining studies are closed in parallel if more than one conversion thread is
+     * configured.
      */
     public void closeExportWriters() {
+        final StudyTaskRunner studyTaskRunner = new StudyTaskRunner(conversionThreads);
         for (ODMcomplexTypeDefinitionStudy study : odm.getStudy()) {
             final String studyName = study.getGlobalVariables().getStudyName().getValue();
-            if (fileExporters.containsKey(studyName)) {
-                logger.debug("Closing file exporter for study " + studyName);
-                fileExporters.get(studyName).close();
+            final FileExporter fileExporter = fileExporters.get(studyName);
+            if (fileExporter != null) {
+                studyTaskRunner.add(studyName, new StudyTaskRunner.StudyTask() {
+                    @Override
+                    public void run() {
+                        logger.debug("Closing file exporter for study " + studyName);
+                        fileExporter.close();
+                    }
+                });
             }
         }
+        try {
+            studyTaskRunner.runAll();
+        } catch (final IOException | JAXBException e) {
+            logger.error("Error while closing the file exporters.", e);
+        }
     }
 
     /**
-     * Process the metadata by traversing all the studies in the ODM file.
+     * Process the metadata by traversing all the studies in the ODM file. The metadata is always processed
+     * sequentially, because the preferred names of the columns are kept unique across all the defining studies
+     * in the order of the ODM file; only the clinical data is converted in parallel.
      *
      * @param propertiesFilePath the file path to the properties.
      * @throws IOException An input-output exception.
@@ -198,9 +265,12 @@ public class OdmToFilesConverter {
         // 1) Lookup all metadata definition values and paths for each tree leaf.
         // 2) Pass the metadata to the corresponding file exporter.
 
+        conversionThreads = new Configuration(propertiesFilePath).getConversionThreads();
+        final StudyTaskRunner studyTaskRunner = new StudyTaskRunner(1);
         for (ODMcomplexTypeDefinitionStudy study : odm.getStudy()) {
-            saveStudy(study, propertiesFilePath);
+            saveStudy(study, propertiesFilePath, studyTaskRunner);
         }
+        studyTaskRunner.runAll();
         writeStudySites();
     }
 
@@ -244,17 +314,19 @@ public class OdmToFilesConverter {
      * 1. Handle included metadata issue.
      * 2. Create a fileExporter object for the study, but not if it is a study-site. If the study is not
      *    a study-site, it contains its own metadata. It is then called a defining study.
-     * 3. Loop through all the events.
+     * 3. Add a task to the study task runner that loops through all the events.
      *
      * @param study              the current ODM study
      *                           definingStudy: the furthest study from which metadata is included with an include tag
      * @param propertiesFilePath the file path to the properties.
+     * @param studyTaskRunner    the runner for the tasks that loop through the events of the defining studies.
      * @throws IOException   An input-output exception.
      * @throws JAXBException A Java Architecture for XML Binding exception.
      */
     // todo: split this method up into smaller pieces? (Checkstyle: "Cyclomatic Complexity is 8 (max allowed is 7).")
     // CHECKSTYLE_OFF: CyclomaticComplexityCheck
-    private void saveStudy(final ODMcomplexTypeDefinitionStudy study, final String propertiesFilePath)
+    private void saveStudy(final ODMcomplexTypeDefinitionStudy study, final String propertiesFilePath,
+                           final StudyTaskRunner studyTaskRunner)
         throws IOException, JAXBException {
         final String studyName = study.getGlobalVariables().getStudyName().getValue();
         final String studyOID = study.getOID();
@@ -274,7 +346,7 @@ public class OdmToFilesConverter {
             }
             modelStudiesAsColumn = true;
         }
-        metaDataWithIncludes = new MetaDataWithIncludes(metaData, studyOID, metaDataWithIncludesList);
+        final MetaDataWithIncludes metaDataWithIncludes = new MetaDataWithIncludes(metaData, studyOID, metaDataWithIncludesList);
         metaDataMap.put(getMetaDataKey(study), metaDataWithIncludes);
 
         // 2. Create a fileExporter for the defining studies.
@@ -290,15 +362,36 @@ public class OdmToFilesConverter {
 
         // 3. Loop through the events.
         if (metaData.getProtocol().getStudyEventRef() != null && includedMetaData == null) {
-            for (ODMcomplexTypeDefinitionStudyEventRef eventRef : metaData.getProtocol().getStudyEventRef()) {
-                final ODMcomplexTypeDefinitionStudyEventDef eventDef =
-                        metaDataWithIncludes.getStudyEventDef(eventRef.getStudyEventOID());
-                saveEvent(definingStudy, eventDef);
-            }
+            studyTaskRunner.add(definingStudyName, new StudyTaskRunner.StudyTask() {
+                @Override
+                public void run() throws IOException, JAXBException {
+                    saveEvents(definingStudy, metaDataWithIncludes, metaData);
+                }
+            });
         }
     }
     // CHECKSTYLE_ON: CyclomaticComplexityCheck
 
+    /**
+     * Loops through the events of a defining study.
+     *
+     * @param definingStudy        The study in which the metadata is defined.
+     * @param metaDataWithIncludes The metadata of the study, including the included metadata fragments.
+     * @param metaData             The metadata block of the study.
+     * @throws IOException An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private void saveEvents(final ODMcomplexTypeDefinitionStudy definingStudy,
+                            final MetaDataWithIncludes metaDataWithIncludes,
+                            final ODMcomplexTypeDefinitionMetaDataVersion metaData)
+            throws JAXBException, IOException {
+        for (ODMcomplexTypeDefinitionStudyEventRef eventRef : metaData.getProtocol().getStudyEventRef()) {
+            final ODMcomplexTypeDefinitionStudyEventDef eventDef =
+                    metaDataWithIncludes.getStudyEventDef(eventRef.getStudyEventOID());
+            saveEvent(definingStudy, metaDataWithIncludes, eventDef);
+        }
+    }
+
     /**
      * Get the metadata for a given study, even if the metadata is stored in another study and
      * referenced by an include tag.
@@ -325,11 +418,13 @@ public class OdmToFilesConverter {
      * Handles an event by looping through all its forms (= Case Report Forms).
      *
      * @param definingStudy The study in which the metadata is defined.
+     * @param metaDataWithIncludes The metadata of the study, including the included metadata fragments.
      * @param eventDef The event object, part of the odm object, that contains the data.
      * @throws IOException An input-output exception.
      * @throws JAXBException A Java Architecture for XML Binding exception.
      */
     private void saveEvent(final ODMcomplexTypeDefinitionStudy definingStudy,
+                           final MetaDataWithIncludes metaDataWithIncludes,
                            final ODMcomplexTypeDefinitionStudyEventDef eventDef)
             throws JAXBException, IOException {
 
@@ -338,7 +433,7 @@ public class OdmToFilesConverter {
 //              final ODMcomplexTypeDefinitionFormDef formDef = ODMUtil.getFormDef(study, formRef.getFormOID());
                 final ODMcomplexTypeDefinitionFormDef formDef = metaDataWithIncludes.getFormDef(formRef.getFormOID());
 
-                saveForm(definingStudy, eventDef, formDef);
+                saveForm(definingStudy, metaDataWithIncludes, eventDef, formDef);
             }
         }
     }
@@ -347,12 +442,14 @@ public class OdmToFilesConverter {
      * Handles a form by looping through all its item groups.
      *
      * @param definingStudy The study in which the metadata is defined.
+     * @param metaDataWithIncludes The metadata of the study, including the included metadata fragments.
      * @param eventDef The event object, part of the study object, that contains the data.
      * @param formDef  The form object, part of the event object, that contains the data.
      * @throws IOException An input-output exception.
      * @throws JAXBException A Java Architecture for XML Binding exception.
      */
     private void saveForm(final ODMcomplexTypeDefinitionStudy definingStudy,
+                          final MetaDataWithIncludes metaDataWithIncludes,
                           final ODMcomplexTypeDefinitionStudyEventDef eventDef,
                           final ODMcomplexTypeDefinitionFormDef formDef)
             throws JAXBException, IOException {
@@ -362,7 +459,7 @@ public class OdmToFilesConverter {
                 final ODMcomplexTypeDefinitionItemGroupDef itemGroupDef =
                         metaDataWithIncludes.getItemGroupDef(itemGroupRef.getItemGroupOID());
 
-                saveItemGroup(definingStudy, eventDef, formDef, itemGroupDef);
+                saveItemGroup(definingStudy, metaDataWithIncludes, eventDef, formDef, itemGroupDef);
             }
         }
     }
@@ -371,6 +468,7 @@ public class OdmToFilesConverter {
      * Handles an itemGroup by looping through all its items.
      *
      * @param definingStudy The study in which the metadata is defined.
+     * @param metaDataWithIncludes The metadata of the study, including the included metadata fragments.
      * @param eventDef The event object, part of the study object, that contains the data.
      * @param formDef  The form object, part of the event object, that contains the data.
      * @param itemGroupDef The itemGroup object, part of the form object, that contains the data.
@@ -378,6 +476,7 @@ public class OdmToFilesConverter {
      * @throws JAXBException A Java Architecture for XML Binding exception.
      */
     private void saveItemGroup(final ODMcomplexTypeDefinitionStudy definingStudy,
+                               final MetaDataWithIncludes metaDataWithIncludes,
                                final ODMcomplexTypeDefinitionStudyEventDef eventDef,
                                final ODMcomplexTypeDefinitionFormDef formDef,
                                final ODMcomplexTypeDefinitionItemGroupDef itemGroupDef)
@@ -531,20 +630,60 @@ public class OdmToFilesConverter {
 
     /**
      * This method loops through the clinical data objects, which are part of the odm tree, in order
-     * to save its contents.
+     * to save its contents. The clinical data objects of a defining study (and its study-sites) are saved
+     * in the order of the ODM file; different defining studies are saved in parallel if more than one
+     * conversion thread is configured.
+     *
+     * @throws IOException An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
      */
-    private void processODMClinicalData() {
-        for (ODMcomplexTypeDefinitionClinicalData clinicalData : odm.getClinicalData()) {
+    private void processODMClinicalData() throws IOException, JAXBException {
+        final StudyTaskRunner studyTaskRunner = new StudyTaskRunner(conversionThreads);
+        for (final ODMcomplexTypeDefinitionClinicalData clinicalData : odm.getClinicalData()) {
             if (clinicalData.getSubjectData() != null) {
-                final String studyOID = clinicalData.getStudyOID();
-                final ODMcomplexTypeDefinitionStudy study = ODMUtil.getStudy(odm, studyOID);
+                final ODMcomplexTypeDefinitionStudy study = getClinicalDataStudy(clinicalData);
                 if (study != null) {
-                    saveClinicalData(study, clinicalData);
-                } else {
-                    logger.error("ODM does not contain study metadata for study OID " + studyOID);
+                    studyTaskRunner.add(getDefiningStudyName(study), new StudyTaskRunner.StudyTask() {
+                        @Override
+                        public void run() throws IOException, JAXBException {
+                            saveClinicalData(study, clinicalData);
+                        }
+                    });
                 }
             }
         }
+        try {
+            studyTaskRunner.runAll();
+            finishSubjectShardRunners();
+        } finally {
+            stopSubjectShardRunners();
+        }
+    }
+
+    /**
+     * Returns the name of the study in which the metadata of a study is defined.
+     *
+     * @param study The study or study-site.
+     * @return The name of the defining study.
+     */
+    private String getDefiningStudyName(final ODMcomplexTypeDefinitionStudy study) {
+        final ODMcomplexTypeDefinitionStudy definingStudy = getMetaData(study).getDefiningStudy(odm);
+        return definingStudy.getGlobalVariables().getStudyName().getValue();
+    }
+
+    /**
+     * Looks up the study to which a clinical data object belongs.
+     *
+     * @param clinicalData The clinical data object.
+     * @return The study, or null (after logging an error) if the ODM does not contain the study.
+     */
+    private ODMcomplexTypeDefinitionStudy getClinicalDataStudy(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+        final String studyOID = clinicalData.getStudyOID();
+        final ODMcomplexTypeDefinitionStudy study = ODMUtil.getStudy(odm, studyOID);
+        if (study == null) {
+            logger.error("ODM does not contain study metadata for study OID " + studyOID);
+        }
+        return study;
     }
 
     /**
@@ -552,17 +691,81 @@ public class OdmToFilesConverter {
      *
      * @param study The study in which the patient is stored.
      * @param clinicalData The clinical data object in which the patient is stored.
+     * @throws IOException An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
      */
     private void saveClinicalData(final ODMcomplexTypeDefinitionStudy study,
-                                  final ODMcomplexTypeDefinitionClinicalData clinicalData) {
-        final String studyOID = clinicalData.getStudyOID();
-        logger.info("Write Clinical data for study OID " + studyOID + " to clinical data file...");
+                                  final ODMcomplexTypeDefinitionClinicalData clinicalData)
+            throws IOException, JAXBException {
+        logClinicalDataStart(clinicalData);
 
         for (ODMcomplexTypeDefinitionSubjectData subjectData : clinicalData.getSubjectData()) {
             if (subjectData.getStudyEventData() != null) {
-                saveSubjectData(study, subjectData);
+                convertSubjectData(study, subjectData);
+            }
+        }
+    }
+
+    /**
+     * Saves the data of one patient right away, or, if the file exporter of the defining study has more than one
+     * clinical data shard, submits it to the thread of the shard of the patient.
+     *
+     * @param study The study or study-site in which the patient is treated.
+     * @param subjectData The data of a particular patient.
+     * @throws IOException An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private void convertSubjectData(final ODMcomplexTypeDefinitionStudy study,
+                                    final ODMcomplexTypeDefinitionSubjectData subjectData)
+            throws IOException, JAXBException {
+        final String definingStudyName = getDefiningStudyName(study);
+        final FileExporter fileExporter = fileExporters.get(definingStudyName);
+        if (fileExporter.getShardCount() <= 1) {
+            saveSubjectData(study, subjectData);
+        } else {
+            SubjectShardRunner subjectShardRunner = subjectShardRunners.get(definingStudyName);
+            if (subjectShardRunner == null) {
+                subjectShardRunner = new SubjectShardRunner(fileExporter);
+                subjectShardRunners.put(definingStudyName, subjectShardRunner);
             }
+            subjectShardRunner.submit(subjectData.getSubjectKey(), new StudyTaskRunner.StudyTask() {
+                @Override
+                public void run() throws IOException {
+                    saveSubjectData(study, subjectData);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the subjects that were submitted to the threads of the clinical data shards have been saved.
+     *
+     * @throws IOException An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private void finishSubjectShardRunners() throws IOException, JAXBException {
+        for (final SubjectShardRunner subjectShardRunner : subjectShardRunners.values()) {
+            subjectShardRunner.finish();
+        }
+    }
+
+    /**
+     * Stops the threads of the clinical data shards, also when the conversion failed.
+     */
+    private void stopSubjectShardRunners() {
+        for (final SubjectShardRunner subjectShardRunner : subjectShardRunners.values()) {
+            subjectShardRunner.stop();
         }
+        subjectShardRunners.clear();
+    }
+
+    /**
+     * Logs that the clinical data of a study is being written.
+     *
+     * @param clinicalData The clinical data object that is being written.
+     */
+    private void logClinicalDataStart(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+        logger.info("Write Clinical data for study OID " + clinicalData.getStudyOID() + " to clinical data file...");
     }
 
     /**
@@ -571,11 +774,11 @@ public class OdmToFilesConverter {
      *
      * @param study The study or study-site in which the patient is treated.
      * @param subjectData The data of a particular patient.
+     * @throws IOException An input-output exception.
      */
     private void saveSubjectData(final ODMcomplexTypeDefinitionStudy study,
-                                 final ODMcomplexTypeDefinitionSubjectData subjectData) {
-        final ODMcomplexTypeDefinitionStudy definingStudy = metaDataMap.get(getMetaDataKey(study)).getDefiningStudy(odm);
-        final String definingStudyName = definingStudy.getGlobalVariables().getStudyName().getValue();
+                                 final ODMcomplexTypeDefinitionSubjectData subjectData) throws IOException {
+        final String definingStudyName = getDefiningStudyName(study);
         final String oidPath = definingStudyName + SEP + STUDY_SITE;
         final String studyName = study.getGlobalVariables().getStudyName().getValue();
         final String patientId = subjectData.getSubjectKey();
@@ -597,10 +800,11 @@ public class OdmToFilesConverter {
      * @param study The study or study-site in which the patient is treated.
      * @param subjectData The data of a particular patient.
      * @param eventData The data of a particular event.
+     * @throws IOException An input-output exception.
      */
     private void saveEventData(final ODMcomplexTypeDefinitionStudy study,
                                final ODMcomplexTypeDefinitionSubjectData subjectData,
-                               final ODMcomplexTypeDefinitionStudyEventData eventData) {
+                               final ODMcomplexTypeDefinitionStudyEventData eventData) throws IOException {
         for (ODMcomplexTypeDefinitionFormData formData : eventData.getFormData()) {
             if (formData.getItemGroupData() != null) {
                 saveFormData(study, subjectData, eventData, formData);
@@ -615,11 +819,12 @@ public class OdmToFilesConverter {
      * @param subjectData The data of a particular patient.
      * @param eventData The data of a particular event.
      * @param formData The data of a particular form.
+     * @throws IOException An input-output exception.
      */
     private void saveFormData(final ODMcomplexTypeDefinitionStudy study,
                               final ODMcomplexTypeDefinitionSubjectData subjectData,
                               final ODMcomplexTypeDefinitionStudyEventData eventData,
-                              final ODMcomplexTypeDefinitionFormData formData) {
+                              final ODMcomplexTypeDefinitionFormData formData) throws IOException {
         for (ODMcomplexTypeDefinitionItemGroupData itemGroupData : formData.getItemGroupData()) {
             if (itemGroupData.getItemDataGroup() != null) {
                 saveItemGroupData(study, subjectData, eventData, formData, itemGroupData);
@@ -635,12 +840,13 @@ public class OdmToFilesConverter {
      * @param eventData The data of a particular event.
      * @param formData The data of a particular form.
      * @param itemGroupData The data of a particular item group.
+     * @throws IOException An input-output exception.
      */
     private void saveItemGroupData(final ODMcomplexTypeDefinitionStudy study,
                                    final ODMcomplexTypeDefinitionSubjectData subjectData,
                                    final ODMcomplexTypeDefinitionStudyEventData eventData,
                                    final ODMcomplexTypeDefinitionFormData formData,
-                                   final ODMcomplexTypeDefinitionItemGroupData itemGroupData) {
+                                   final ODMcomplexTypeDefinitionItemGroupData itemGroupData) throws IOException {
         for (ODMcomplexTypeDefinitionItemData itemData : itemGroupData.getItemDataGroup()) {
             if (itemData.getValue() != null) {
                 saveItemData(study, subjectData, eventData, formData, itemGroupData, itemData);
@@ -659,13 +865,14 @@ public class OdmToFilesConverter {
      * @param formData The data of a particular form.
      * @param itemGroupData The data of a particular item group.
      * @param itemData The data of a particular item.
+     * @throws IOException An input-output exception.
      */
     private void saveItemData(final ODMcomplexTypeDefinitionStudy study,
                               final ODMcomplexTypeDefinitionSubjectData subjectData,
                               final ODMcomplexTypeDefinitionStudyEventData eventData,
                               final ODMcomplexTypeDefinitionFormData formData,
                               final ODMcomplexTypeDefinitionItemGroupData itemGroupData,
-                              final ODMcomplexTypeDefinitionItemData itemData) {
+                              final ODMcomplexTypeDefinitionItemData itemData) throws IOException {
         final ODMcomplexTypeDefinitionStudy definingStudy = metaDataMap.get(getMetaDataKey(study)).getDefiningStudy(odm);
         final String definingStudyName = definingStudy.getGlobalVariables().getStudyName().getValue();
         final String oidPath = definingStudy.getOID() + SEP
@@ -674,7 +881,8 @@ public class OdmToFilesConverter {
                              + itemData.getItemOID() + SEP;
         final String itemValue = itemData.getValue();
 //      final ODMcomplexTypeDefinitionItemDef item = ODMUtil.getItem(study, itemData.getItemOID());
-        final ODMcomplexTypeDefinitionItemDef itemDef = getMetaData(study).getItemDef(itemData.getItemOID());
+        final MetaDataWithIncludes metaData = getMetaData(study);
+        final ODMcomplexTypeDefinitionItemDef itemDef = metaData.getItemDef(itemData.getItemOID());
         final String wordValue;
         final BigDecimal bigDecimal;
         final String patientId = subjectData.getSubjectKey();
@@ -686,14 +894,12 @@ public class OdmToFilesConverter {
         if (itemDef.getCodeListRef() != null) {
             bigDecimal = null;
 
-            final ODMcomplexTypeDefinitionCodeList codeList = getMetaData(study).getCodeList(itemDef.getCodeListRef().getCodeListOID());
-            final ODMcomplexTypeDefinitionCodeListItem codeListItem = ODMUtil.getCodeListItem(codeList, itemValue);
+            final String codeListOID = itemDef.getCodeListRef().getCodeListOID();
+            wordValue = decodeValue(metaData, codeListOID, itemValue);
 
-            if (codeListItem == null) {
-                logger.error("Code list item for coded value: " + itemValue + " not found in code list: " + codeList.getOID());
+            if (wordValue == null) {
+                logger.error("Code list item for coded value: " + itemValue + " not found in code list: " + codeListOID);
                 return;
-            } else {
-                wordValue = ODMUtil.getTranslatedValue(codeListItem, LANGUAGE);
             }
         } else if (ODMUtil.isNumericDataType(itemDef.getDataType())) {
             wordValue = "";
@@ -707,4 +913,73 @@ public class OdmToFilesConverter {
         fileExporters.get(definingStudyName).storeClinicalDataInfo(oidPath, finalValue, patientId,
                 eventId, eventRepeatKey, itemGroupId, itemGroupRepeatKey);
     }
+
+    /**
+     * Decodes a coded value with the compiled decode table of a code list.
+     *
+     * @param metaData The metadata in which the code list is defined.
+     * @param codeListOID The OID of the code list.
+     * @param codedValue The coded value.
+     * @return The decoded value, or null if the code list or the coded value is unknown.
+     */
+    private String decodeValue(final MetaDataWithIncludes metaData, final String codeListOID, final String codedValue) {
+        final DecodeTable decodeTable = metaData.getDecodeTable(codeListOID, LANGUAGE);
+        return decodeTable != null ? decodeTable.decode(codedValue) : null;
+    }
+
+    /**
+     * Receives the metadata and the subjects from the streaming ODM reader and passes them to the same
+     * methods that are used for the odm tree.
+     */
+    private final class StreamHandler implements ODMStreamHandler {
+        /**
+         * The file path to the properties.
+         */
+        private final String propertiesFilePath;
+
+        /**
+         * The study of the clinical data block that is being read, or null if the study is unknown.
+         */
+        private ODMcomplexTypeDefinitionStudy clinicalDataStudy;
+
+        /**
+         * Constructs a handler for one ODM file.
+         *
+         * @param propertiesFilePath the file path to the properties.
+         */
+        private StreamHandler(final String propertiesFilePath) {
+            this.propertiesFilePath = propertiesFilePath;
+        }
+
+        @Override
+        public void processMetaData(final ODM odmMetaData) throws IOException, JAXBException {
+            if (odmMetaData.getStudy().isEmpty()) {
+                throw new IOException("No study definitions were found in ODM file.");
+            }
+            odm = odmMetaData;
+            processODMStudy(propertiesFilePath);
+        }
+
+        @Override
+        public void processClinicalDataStart(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+            clinicalDataStudy = getClinicalDataStudy(clinicalData);
+            if (clinicalDataStudy != null) {
+                logClinicalDataStart(clinicalData);
+            }
+        }
+
+        @Override
+        public void processSubjectData(final ODMcomplexTypeDefinitionClinicalData clinicalData,
+                                       final ODMcomplexTypeDefinitionSubjectData subjectData)
+                throws IOException, JAXBException {
+            if (clinicalDataStudy != null && subjectData.getStudyEventData() != null) {
+                convertSubjectData(clinicalDataStudy, subjectData);
+            }
+        }
+
+        @Override
+        public void processClinicalDataEnd(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+            clinicalDataStudy = null;
+        }
+    }
 }
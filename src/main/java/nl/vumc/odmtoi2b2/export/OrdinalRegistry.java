@@ -0,0 +1,125 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordinal registry turns IDs (like the OIDs of repeating events) into ordinals: the first ID that is registered
+ * gets ordinal 1, the second distinct ID gets ordinal 2, and so on. Looking up an ID takes constant time.
+ *
+ * When the data is split over several registries (one per shard of subjects), each registration can be tagged with
+ * a sequence number, after which the registries can be merged into the ordinals that a single registry would have
+ * given when the registrations had been done in the order of the sequence numbers.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class OrdinalRegistry {
+    /**
+     * Map<ID, ordinal>.
+     */
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    /**
+     * The IDs, in the order of their ordinals.
+     */
+    private final List<String> ids = new ArrayList<>();
+
+    /**
+     * The sequence numbers of the first registrations of the IDs, in the order of their ordinals.
+     */
+    private final List<Long> firstSequences = new ArrayList<>();
+
+    /**
+     * Get the ordinal of an ID, registering the ID if it is not yet known.
+     *
+     * @param id the ID.
+     * @return the ordinal, which starts at 1.
+     */
+    public int getOrdinal(final String id) {
+        return getOrdinal(id, 0);
+    }
+
+    /**
+     * Get the ordinal of an ID, registering the ID with a sequence number if it is not yet known.
+     *
+     * @param id       the ID.
+     * @param sequence the sequence number of the registration, which should not decrease between calls.
+     * @return the ordinal, which starts at 1.
+     */
+    public int getOrdinal(final String id, final long sequence) {
+        Integer ordinal = ordinals.get(id);
+        if (ordinal == null) {
+            ordinal = ordinals.size() + 1;
+            ordinals.put(id, ordinal);
+            ids.add(id);
+            firstSequences.add(sequence);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Get the ID with an ordinal.
+     *
+     * @param ordinal the ordinal, which starts at 1.
+     * @return the ID.
+     */
+    public String getId(final int ordinal) {
+        return ids.get(ordinal - 1);
+    }
+
+    /**
+     * Get the number of registered IDs.
+     *
+     * @return the number of IDs.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Merge several registries into one numbering. The IDs are ordered by the sequence number of their first
+     * registration (in any of the registries), then by the index of the registry and then by their ordinal in that
+     * registry; the merged ordinals are given out in that order.
+     *
+     * @param registries the registries.
+     * @return for each registry, an array that maps its ordinals (the index) to the merged ordinals (index 0 is
+     *         not used).
+     */
+    static List<int[]> merge(final List<OrdinalRegistry> registries) {
+        final List<long[]> registrations = new ArrayList<>();
+        final List<int[]> ordinalMaps = new ArrayList<>();
+        for (int registryIndex = 0; registryIndex < registries.size(); registryIndex++) {
+            final OrdinalRegistry registry = registries.get(registryIndex);
+            for (int ordinal = 1; ordinal <= registry.size(); ordinal++) {
+                registrations.add(new long[]{registry.firstSequences.get(ordinal - 1), registryIndex, ordinal});
+            }
+            ordinalMaps.add(new int[registry.size() + 1]);
+        }
+        Collections.sort(registrations, new Comparator<long[]>() {
+            @Override
+            public int compare(final long[] registration1, final long[] registration2) {
+                int result = 0;
+                for (int part = 0; result == 0 && part < registration1.length; part++) {
+                    result = Long.compare(registration1[part], registration2[part]);
+                }
+                return result;
+            }
+        });
+        final OrdinalRegistry merged = new OrdinalRegistry();
+        for (final long[] registration : registrations) {
+            final int registryIndex = (int) registration[1];
+            final int ordinal = (int) registration[2];
+            ordinalMaps.get(registryIndex)[ordinal] = merged.getOrdinal(registries.get(registryIndex).getId(ordinal));
+        }
+        return ordinalMaps;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression of the export files. Compressed files get the extension .gz after their usual name, so unpacking
+ * them gives the file names that the columns file refers to.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public enum OutputCodec {
+    /**
+     * No compression: plain UTF-8 text files.
+     */
+    NONE(""),
+
+    /**
+     * Gzip with the default compression level, for the smallest files.
+     */
+    GZIP(Constants.GZIP_EXTENSION),
+
+    /**
+     * Gzip with the fastest compression level, which costs little more time than writing plain files. The files
+     * are somewhat larger than with GZIP, but are read by the same tools.
+     */
+    FAST(Constants.GZIP_EXTENSION);
+
+    /**
+     * The extension that is appended to the names of the export files.
+     */
+    private final String extension;
+
+    /**
+     * The constants of the output codecs, which cannot be referenced from the enum constants in the codec itself.
+     */
+    private static final class Constants {
+        /**
+         * The extension of gzip files.
+         */
+        private static final String GZIP_EXTENSION = ".gz";
+
+        /**
+         * Hidden constructor for this constants class.
+         */
+        private Constants() {
+        }
+    }
+
+    /**
+     * Construct an output codec.
+     *
+     * @param extension the extension that is appended to the names of the export files.
+     */
+    OutputCodec(final String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Get the output codec with the given name (case insensitive).
+     *
+     * @param name the name of the codec: none, gzip or fast; a missing or blank name means none.
+     * @return the output codec.
+     */
+    public static OutputCodec fromName(final String name) {
+        return name != null && !"".equals(name.trim())
+               ? valueOf(name.trim().toUpperCase(Locale.ENGLISH))
+               : NONE;
+    }
+
+    /**
+     * Get the extension that is appended to the names of the export files.
+     *
+     * @return the extension, or an empty string if the files are not compressed.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Wrap a file output stream in the compression of this codec.
+     *
+     * @param outputStream the file output stream.
+     * @param bufferSize   the buffer size in bytes of the compression.
+     * @return the stream that compresses its output into the file output stream.
+     * @throws IOException when writing the header of the compressed file fails.
+     */
+    public OutputStream wrap(final OutputStream outputStream, final int bufferSize) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new LevelGzipOutputStream(outputStream, bufferSize, Deflater.DEFAULT_COMPRESSION);
+            case FAST:
+                return new LevelGzipOutputStream(outputStream, bufferSize, Deflater.BEST_SPEED);
+            default:
+                return outputStream;
+        }
+    }
+
+    /**
+     * A gzip output stream with a specific compression level.
+     */
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        /**
+         * Construct a gzip output stream.
+         *
+         * @param outputStream the underlying output stream.
+         * @param bufferSize   the buffer size in bytes.
+         * @param level        the compression level.
+         * @throws IOException when writing the gzip header fails.
+         */
+        private LevelGzipOutputStream(final OutputStream outputStream, final int bufferSize, final int level)
+                throws IOException {
+            super(outputStream, bufferSize);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+
+/**
+ * This class runs the conversion tasks of the defining studies in an ODM file, either one after another or on a
+ * pool of threads. The tasks are grouped by defining study: the tasks of one defining study always run on one
+ * thread and in the order in which they were added, because they all write to the same file exporter. Different
+ * defining studies have their own file exporters and metadata, so their groups can run in parallel.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class StudyTaskRunner {
+    /**
+     * A conversion task for a defining study.
+     */
+    interface StudyTask {
+        /**
+         * Run the task.
+         *
+         * @throws IOException   An input-output exception.
+         * @throws JAXBException A Java Architecture for XML Binding exception.
+         */
+        void run() throws IOException, JAXBException;
+    }
+
+    /**
+     * The maximum number of threads (1 = run the tasks on the calling thread).
+     */
+    private final int threadCount;
+
+    /**
+     * Map<definingStudyName, tasks> with the tasks that have been added and not yet run.
+     */
+    private final Map<String, List<StudyTask>> tasksPerStudy = new LinkedHashMap<>();
+
+    /**
+     * Construct a task runner.
+     *
+     * @param threadCount the maximum number of threads (1 or less = run the tasks on the calling thread).
+     */
+    public StudyTaskRunner(final int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Add a task for a defining study.
+     *
+     * @param definingStudyName the name of the defining study.
+     * @param task              the task.
+     */
+    public void add(final String definingStudyName, final StudyTask task) {
+        List<StudyTask> tasks = tasksPerStudy.get(definingStudyName);
+        if (tasks == null) {
+            tasks = new ArrayList<>();
+            tasksPerStudy.put(definingStudyName, tasks);
+        }
+        tasks.add(task);
+    }
+
+    /**
+     * Run all the tasks that have been added and wait until they are finished. If a task fails, the exception of
+     * the first failing study (in the order in which the studies were added) is thrown.
+     *
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    public void runAll() throws IOException, JAXBException {
+        final List<List<StudyTask>> taskGroups = new ArrayList<>(tasksPerStudy.values());
+        tasksPerStudy.clear();
+        if (threadCount <= 1 || taskGroups.size() <= 1) {
+            for (final List<StudyTask> taskGroup : taskGroups) {
+                runTaskGroup(taskGroup);
+            }
+        } else {
+            runInParallel(taskGroups);
+        }
+    }
+
+    /**
+     * Run the task groups on a pool of threads.
+     *
+     * @param taskGroups the tasks, grouped by defining study.
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private void runInParallel(final List<List<StudyTask>> taskGroups) throws IOException, JAXBException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threadCount, taskGroups.size()));
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (final List<StudyTask> taskGroup : taskGroups) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, JAXBException {
+                        runTaskGroup(taskGroup);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                waitFor(future);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the tasks of one defining study in order.
+     *
+     * @param taskGroup the tasks of the defining study.
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private static void runTaskGroup(final List<StudyTask> taskGroup) throws IOException, JAXBException {
+        for (final StudyTask task : taskGroup) {
+            task.run();
+        }
+    }
+
+    /**
+     * Wait for a task to finish and rethrow its exception, if any.
+     *
+     * @param future the future of the task.
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    static void waitFor(final Future<Void> future) throws IOException, JAXBException {
+        try {
+            future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting the studies.");
+        } catch (final ExecutionException e) {
+            rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Rethrow the exception of a failed task.
+     *
+     * @param cause the exception that was thrown by the task.
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    private static void rethrow(final Throwable cause) throws IOException, JAXBException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof JAXBException) {
+            throw (JAXBException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException(cause);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+
+/**
+ * This class converts the subjects of one defining study in parallel, using the clinical data shards of its file
+ * exporter. Each shard has its own thread, which converts the subjects of that shard in the order in which they
+ * are submitted; the subjects get increasing sequence numbers, with which the file exporter merges the shards in
+ * the original subject order. The number of subjects that wait for a shard is limited, so a streamed ODM file is
+ * not read much further ahead than the conversion.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class SubjectShardRunner {
+    /**
+     * The maximum number of subjects that wait for or are converted by one shard.
+     */
+    private static final int MAX_PENDING_SUBJECTS_PER_SHARD = 64;
+
+    /**
+     * The file exporter of the defining study.
+     */
+    private final FileExporter fileExporter;
+
+    /**
+     * The single thread executors of the shards.
+     */
+    private final List<ExecutorService> shardExecutors = new ArrayList<>();
+
+    /**
+     * The futures of the subjects that were submitted to each shard and have not yet been checked.
+     */
+    private final List<Deque<Future<Void>>> pendingSubjects = new ArrayList<>();
+
+    /**
+     * The sequence number of the last submitted subject.
+     */
+    private long subjectSequence;
+
+    /**
+     * Construct a subject shard runner with a thread for each shard of a file exporter.
+     *
+     * @param fileExporter the file exporter of the defining study.
+     */
+    public SubjectShardRunner(final FileExporter fileExporter) {
+        this.fileExporter = fileExporter;
+        for (int shardIndex = 0; shardIndex < fileExporter.getShardCount(); shardIndex++) {
+            shardExecutors.add(Executors.newSingleThreadExecutor());
+            pendingSubjects.add(new ArrayDeque<Future<Void>>());
+        }
+    }
+
+    /**
+     * Submit the conversion of a subject to the shard of its patient. If a subject that was submitted earlier to
+     * this shard failed, its exception is thrown.
+     *
+     * @param patientId   the identifier of the patient.
+     * @param subjectTask the task that converts the subject.
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    public void submit(final String patientId, final StudyTaskRunner.StudyTask subjectTask)
+            throws IOException, JAXBException {
+        final int shardIndex = fileExporter.getShardIndex(patientId);
+        final Deque<Future<Void>> shardPendingSubjects = pendingSubjects.get(shardIndex);
+        while (!shardPendingSubjects.isEmpty()
+               && (shardPendingSubjects.peekFirst().isDone()
+                   || shardPendingSubjects.size() >= MAX_PENDING_SUBJECTS_PER_SHARD)) {
+            StudyTaskRunner.waitFor(shardPendingSubjects.pollFirst());
+        }
+        subjectSequence++;
+        final long sequence = subjectSequence;
+        shardPendingSubjects.addLast(shardExecutors.get(shardIndex).submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, JAXBException {
+                fileExporter.startSubject(patientId, sequence);
+                subjectTask.run();
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Wait until all the submitted subjects have been converted and stop the threads. If a subject failed, its
+     * exception is thrown.
+     *
+     * @throws IOException   An input-output exception.
+     * @throws JAXBException A Java Architecture for XML Binding exception.
+     */
+    public void finish() throws IOException, JAXBException {
+        try {
+            for (final Deque<Future<Void>> shardPendingSubjects : pendingSubjects) {
+                while (!shardPendingSubjects.isEmpty()) {
+                    StudyTaskRunner.waitFor(shardPendingSubjects.pollFirst());
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop the threads, without waiting for the submitted subjects. This method can be called more than once.
+     */
+    public void stop() {
+        for (final ExecutorService shardExecutor : shardExecutors) {
+            shardExecutor.shutdownNow();
+        }
+    }
+}
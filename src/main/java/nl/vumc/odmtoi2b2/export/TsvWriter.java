@@ -0,0 +1,298 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package nl.vumc.odmtoi2b2.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * This class writes lines of tab separated values to the export files. A line is assembled in a reusable character
+ * buffer: the forbidden symbols are removed, the tranSMART substitutions are applied (see
+ * StringUtilities.convertString) and the values are escaped in a single pass over the characters. The output is the
+ * same as that of an opencsv CSVWriter with a tab separator and no quote character: a double quote and a null
+ * character are preceded by a double quote and lines end with a newline.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class TsvWriter {
+    /**
+     * The separator between the values on a line.
+     */
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * The character that ends a line.
+     */
+    private static final char LINE_END = '\n';
+
+    /**
+     * The character that is escaped, and that is used as escape character.
+     */
+    private static final char DOUBLE_QUOTE = '"';
+
+    /**
+     * The other character that is escaped (the quote character of opencsv's CSVWriter.NO_QUOTE_CHARACTER).
+     */
+    private static final char NULL_CHARACTER = '\u0000';
+
+    /**
+     * The initial size of the line buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * The characters that are removed from the values, or null if no characters are removed or if the forbidden
+     * symbols are not a simple character class (in that case the forbiddenSymbolPattern is used).
+     */
+    private final BitSet forbiddenCharacters;
+
+    /**
+     * The pattern of forbidden symbols, which is only used if it could not be turned into a set of characters.
+     */
+    private final Pattern forbiddenSymbolPattern;
+
+    /**
+     * Whether the substitutions that avoid tranSMART symbol bugs are applied.
+     */
+    private final boolean avoidTransmartSymbolBugs;
+
+    /**
+     * The buffer in which the current line is assembled.
+     */
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of characters of the current line in the buffer.
+     */
+    private int length;
+
+    /**
+     * Whether a value was already appended to the current line.
+     */
+    private boolean lineHasValues;
+
+    /**
+     * Construct a TSV writer.
+     *
+     * @param forbiddenSymbolRegex     the regular expression of the symbols that are removed from the values; null or
+     *                                 blank if no symbols are removed.
+     * @param avoidTransmartSymbolBugs whether the substitutions that avoid tranSMART symbol bugs are applied.
+     */
+    public TsvWriter(final String forbiddenSymbolRegex, final boolean avoidTransmartSymbolBugs) {
+        this.avoidTransmartSymbolBugs = avoidTransmartSymbolBugs;
+        if (forbiddenSymbolRegex == null || "".equals(forbiddenSymbolRegex.trim())) {
+            this.forbiddenCharacters = null;
+            this.forbiddenSymbolPattern = null;
+        } else {
+            this.forbiddenCharacters = parseCharacterClass(forbiddenSymbolRegex);
+            this.forbiddenSymbolPattern = forbiddenCharacters == null ? Pattern.compile(forbiddenSymbolRegex) : null;
+        }
+    }
+
+    /**
+     * Write one line with values.
+     *
+     * @param writer the writer of the export file.
+     * @param values the values.
+     * @throws IOException when writing fails.
+     */
+    public void writeLine(final Writer writer, final List<String> values) throws IOException {
+        for (final String value : values) {
+            appendValue(value);
+        }
+        endLine(writer);
+    }
+
+    /**
+     * Append a value to the current line.
+     *
+     * @param value the value; null is written as an empty value.
+     */
+    public void appendValue(final String value) {
+        if (lineHasValues) {
+            append(SEPARATOR);
+        }
+        lineHasValues = true;
+        if (value != null) {
+            final String allowedValue = forbiddenSymbolPattern != null
+                    ? forbiddenSymbolPattern.matcher(value).replaceAll("")
+                    : value;
+            appendCharacters(allowedValue);
+        }
+    }
+
+    /**
+     * Write the current line and start a new one.
+     *
+     * @param writer the writer of the export file.
+     * @throws IOException when writing fails.
+     */
+    public void endLine(final Writer writer) throws IOException {
+        append(LINE_END);
+        writer.write(buffer, 0, length);
+        length = 0;
+        lineHasValues = false;
+    }
+
+    /**
+     * Append the characters of a value, removing the forbidden characters, applying the tranSMART substitutions and
+     * escaping double quotes and null characters.
+     *
+     * @param value the value.
+     */
+    private void appendCharacters(final String value) {
+        boolean previousWasDoubleQuote = false;
+        for (int charIndex = 0; charIndex < value.length(); charIndex++) {
+            final char character = value.charAt(charIndex);
+            if (forbiddenCharacters == null || !forbiddenCharacters.get(character)) {
+                final boolean isDoubleQuote = character == DOUBLE_QUOTE;
+                if (!avoidTransmartSymbolBugs) {
+                    appendEscaped(character);
+                } else if (!isDoubleQuote || !previousWasDoubleQuote) {
+                    appendEscaped(convertCharacter(character));
+                }
+                previousWasDoubleQuote = isDoubleQuote;
+            }
+        }
+    }
+
+    /**
+     * Apply the tranSMART substitutions to a character: ` becomes ' and \ becomes /.
+     *
+     * @param character the character.
+     * @return the substituted character.
+     */
+    private static char convertCharacter(final char character) {
+        final char converted;
+        if (character == '`') {
+            converted = '\'';
+        } else if (character == '\\') {
+            converted = '/';
+        } else {
+            converted = character;
+        }
+        return converted;
+    }
+
+    /**
+     * Append a character, preceded by a double quote if it is a double quote or a null character.
+     *
+     * @param character the character.
+     */
+    private void appendEscaped(final char character) {
+        if (character == DOUBLE_QUOTE || character == NULL_CHARACTER) {
+            append(DOUBLE_QUOTE);
+        }
+        append(character);
+    }
+
+    /**
+     * Append a character to the buffer, growing the buffer if needed.
+     *
+     * @param character the character.
+     */
+    private void append(final char character) {
+        if (length == buffer.length) {
+            final char[] newBuffer = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+        buffer[length++] = character;
+    }
+
+    /**
+     * Turn a regular expression into the set of characters that it matches, if it is a single literal character
+     * or a simple character class like [`'"<>\[\]] (without ranges, negation or nested classes).
+     *
+     * @param regex the regular expression.
+     * @return the set of characters, or null if the regular expression is not that simple.
+     */
+    static BitSet parseCharacterClass(final String regex) {
+        BitSet characters = null;
+        if (regex.length() == 1 && !isRegexMetaCharacter(regex.charAt(0))) {
+            characters = new BitSet();
+            characters.set(regex.charAt(0));
+        } else if (regex.length() > 2 && regex.charAt(0) == '[' && regex.charAt(regex.length() - 1) == ']'
+                   && regex.charAt(1) != '^') {
+            characters = parseCharacterClassBody(regex.substring(1, regex.length() - 1));
+        }
+        return characters;
+    }
+
+    /**
+     * Turn the body of a character class (the part between the square brackets) into a set of characters.
+     *
+     * @param body the body of the character class.
+     * @return the set of characters, or null if the body contains anything but literal and escaped characters.
+     */
+    private static BitSet parseCharacterClassBody(final String body) {
+        BitSet characters = new BitSet();
+        int charIndex = 0;
+        while (characters != null && charIndex < body.length()) {
+            final char character = body.charAt(charIndex);
+            if (character == '\\' && charIndex + 1 < body.length()) {
+                final int escaped = getEscapedCharacter(body.charAt(charIndex + 1));
+                if (escaped >= 0) {
+                    characters.set(escaped);
+                } else {
+                    characters = null;
+                }
+                charIndex += 2;
+            } else if (isCharacterClassMetaCharacter(character)) {
+                characters = null;
+            } else {
+                characters.set(character);
+                charIndex++;
+            }
+        }
+        return characters;
+    }
+
+    /**
+     * Get the character that is meant by an escape sequence in a character class.
+     *
+     * @param escapedCharacter the character after the backslash.
+     * @return the character, or -1 if the escape sequence is not a single character (like \d or \p).
+     */
+    private static int getEscapedCharacter(final char escapedCharacter) {
+        final int character;
+        if (escapedCharacter == 't') {
+            character = '\t';
+        } else if (escapedCharacter == 'n') {
+            character = '\n';
+        } else if (escapedCharacter == 'r') {
+            character = '\r';
+        } else if (Character.isLetterOrDigit(escapedCharacter)) {
+            character = -1;
+        } else {
+            character = escapedCharacter;
+        }
+        return character;
+    }
+
+    /**
+     * Check whether a character has a special meaning inside a character class, apart from an escape sequence.
+     *
+     * @param character the character.
+     * @return whether the character is a character class meta character.
+     */
+    private static boolean isCharacterClassMetaCharacter(final char character) {
+        return "[]-&\\".indexOf(character) != -1;
+    }
+
+    /**
+     * Check whether a character has a special meaning in a regular expression.
+     *
+     * @param character the character.
+     * @return whether the character is a regular expression meta character.
+     */
+    private static boolean isRegexMetaCharacter(final char character) {
+        return "\\^$.|?*+()[]{}".indexOf(character) != -1;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2;
+
+import com.recomdata.i2b2.dao.I2B2DBUtils;
+import com.recomdata.i2b2.dao.I2B2TestSchema;
+import com.recomdata.odm.ODMLoader;
+import org.cdisk.odm.jaxb.ODM;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the I2B2ODMStudyHandler class, with an embedded H2 database standing in for the i2b2 database.
+ */
+public class I2B2ODMStudyHandlerTest {
+
+    private static final File EXAMPLE_FILE = Paths.get("src", "test", "resources", "examples", "CDISC_ODM_example_3.xml").toFile();
+
+    /**
+     * The query for the observation facts.
+     */
+    private static final String FACT_QUERY = "SELECT * FROM Observation_Fact ORDER BY 1, 2, 3";
+
+    /**
+     * The query for the study metadata, without the metadata XML (which contains the time of the export).
+     */
+    private static final String STUDY_QUERY = "SELECT C_HLEVEL, C_FULLNAME, C_NAME, C_VISUALATTRIBUTES, C_BASECODE, C_DIMCODE, "
+                                              + "C_TOOLTIP, SOURCESYSTEM_CD FROM STUDY ORDER BY C_FULLNAME";
+
+    /**
+     * The query for the concepts.
+     */
+    private static final String CONCEPT_QUERY = "SELECT concept_path, concept_cd, name_char, sourcesystem_cd "
+                                                + "FROM Concept_Dimension ORDER BY 1, 2";
+
+    @Test
+    public void testStreamedExportMatchesUnmarshalledExport() throws Exception {
+        // The database export needs a source system, which the example does not have.
+        final File odmFile = File.createTempFile("odm-with-source-system", ".xml");
+        odmFile.deleteOnExit();
+        final Charset charset = Charset.forName("ISO-8859-1");
+        final String xml = new String(Files.readAllBytes(EXAMPLE_FILE.toPath()), charset);
+        Files.write(odmFile.toPath(), xml.replace("ODMVersion=\"1.3.0\"", "ODMVersion=\"1.3.0\" SourceSystem=\"test\"").getBytes(charset));
+
+        ODMLoader.initialize();
+        I2B2TestSchema.createDatabase("unmarshalled");
+        final List<List<String>> unmarshalledFacts;
+        final List<List<String>> unmarshalledStudy;
+        try {
+            final ODM odm = new ODMLoader().unmarshall(odmFile);
+            final I2B2ODMStudyHandler handler = new I2B2ODMStudyHandler(odm);
+            try {
+                handler.processODM();
+            } finally {
+                handler.close();
+            }
+            unmarshalledFacts = readRows(FACT_QUERY);
+            unmarshalledStudy = readRows(STUDY_QUERY);
+        } finally {
+            I2B2DBUtils.shutdown();
+        }
+
+        I2B2TestSchema.createDatabase("streamed");
+        try {
+            final I2B2ODMStudyHandler streamHandler = new I2B2ODMStudyHandler();
+            try {
+                streamHandler.processODMStream(odmFile);
+            } finally {
+                streamHandler.close();
+            }
+
+            assertFalse(unmarshalledFacts.isEmpty());
+            assertEquals(unmarshalledFacts, readRows(FACT_QUERY));
+            assertEquals(unmarshalledStudy, readRows(STUDY_QUERY));
+        } finally {
+            I2B2DBUtils.shutdown();
+        }
+    }
+
+    @Test
+    public void testReloadReplacesStudy() throws Exception {
+        ODMLoader.initialize();
+        I2B2TestSchema.createDatabase("reload");
+        try {
+            final ODM odm = new ODMLoader().unmarshall(EXAMPLE_FILE);
+            odm.setSourceSystem("test");
+            process(odm);
+            final List<List<String>> facts = readRows(FACT_QUERY);
+            final List<List<String>> study = readRows(STUDY_QUERY);
+            final List<List<String>> concepts = readRows(CONCEPT_QUERY);
+
+            process(odm);
+
+            assertFalse(facts.isEmpty());
+            assertEquals(facts, readRows(FACT_QUERY));
+            assertEquals(study, readRows(STUDY_QUERY));
+            assertEquals(concepts, readRows(CONCEPT_QUERY));
+        } finally {
+            I2B2DBUtils.shutdown();
+        }
+    }
+
+    private static void process(final ODM odm) throws Exception {
+        final I2B2ODMStudyHandler handler = new I2B2ODMStudyHandler(odm);
+        try {
+            handler.processODM();
+        } finally {
+            handler.close();
+        }
+    }
+
+    private static List<List<String>> readRows(final String query) throws SQLException {
+        final List<List<String>> rows = new ArrayList<>();
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        final ResultSet resultSet = statement.executeQuery(query);
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        while (resultSet.next()) {
+            final List<String> row = new ArrayList<>();
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                row.add(resultSet.getString(column));
+            }
+            rows.add(row);
+        }
+        statement.close();
+        return rows;
+    }
+}
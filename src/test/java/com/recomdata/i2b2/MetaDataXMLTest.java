@@ -2,11 +2,13 @@ package com.recomdata.i2b2;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -85,6 +87,41 @@ public class MetaDataXMLTest {
         checkMetadataXML(metaDataXML.getStringMetadataXML(ITEM_OID, ITEM_NAME), "String", null);
     }
 
+    /**
+     * Test that the template gives the same metadata xml as JDOM, also for values with white space, characters that
+     * are escaped, non-ASCII characters and characters that JDOM has to check.
+     */
+    @Test
+    public void testTemplateMatchesJdom() {
+        final String[] values = {"plain", "  leading and trailing  ", "inner \t\r\n  white space", " ", "", null,
+                                 "<tag> & \"quotes\" 'apostrophes' ]]>", "caf\u00e9 \u00df \u4e2d\u6587 \u00a0nbsp\u0085",
+                                 "surrogate pair \ud83d\ude00", "&amp; already escaped"};
+        for (final String value : values) {
+            checkSameAsJdom(metaDataXML.getIntegerMetadataXML(value, ITEM_NAME), value, ITEM_NAME, "Integer", null);
+            checkSameAsJdom(metaDataXML.getFloatMetadataXML(ITEM_OID, value), ITEM_OID, value, "Float", null);
+            checkSameAsJdom(metaDataXML.getStringMetadataXML(value, value), value, value, "String", null);
+        }
+        checkSameAsJdom(metaDataXML.getEnumMetadataXML(ITEM_OID, ITEM_NAME, values), ITEM_OID, ITEM_NAME, "Enum", values);
+        checkSameAsJdom(metaDataXML.getEnumMetadataXML(ITEM_OID, ITEM_NAME, new String[0]), ITEM_OID, ITEM_NAME, "Enum",
+                        new String[0]);
+    }
+
+    /**
+     * Check that metadata xml is the same as the metadata xml that JDOM creates with the same creation date/time.
+     *
+     * @param metadataXML the actual metadata xml.
+     * @param testId      the test ID.
+     * @param testName    the test name.
+     * @param dataType    the data type.
+     * @param enumValues  the enumeration values or null if not needed.
+     */
+    private void checkSameAsJdom(final String metadataXML, final String testId, final String testName,
+                                 final String dataType, final String[] enumValues) {
+        final Matcher matcher = Pattern.compile("<CreationDateTime>([^<]*)</CreationDateTime>").matcher(metadataXML);
+        assertTrue(metadataXML, matcher.find());
+        assertEquals(metaDataXML.getJdomMetadataXML(matcher.group(1), testId, testName, dataType, enumValues), metadataXML);
+    }
+
     /**
      * Check the metadata xml by matching it to the regular expression.
      *
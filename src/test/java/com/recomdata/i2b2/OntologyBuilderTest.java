@@ -0,0 +1,82 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2;
+
+import com.recomdata.i2b2.entity.OntologyRow;
+import com.recomdata.i2b2.util.ConceptCodeGenerator;
+import com.recomdata.i2b2.util.MetaDataIndex;
+import com.recomdata.odm.ODMLoader;
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the OntologyBuilder class.
+ */
+public class OntologyBuilderTest {
+
+    @Test
+    public void testParallelBuildMatchesSequentialBuild() throws Exception {
+        ODMLoader.initialize();
+        final ODM odm = new ODMLoader().unmarshall(Paths.get("src", "test", "resources", "examples", "CDISC_ODM_example_3.xml").toFile());
+        final ODMcomplexTypeDefinitionStudy study = odm.getStudy().get(0);
+        final MetaDataIndex index = new MetaDataIndex(study);
+
+        final ConceptCodeGenerator conceptCodeGenerator = new ConceptCodeGenerator("test");
+        final List<OntologyRow> sequentialRows = new OntologyBuilder("test", 0, 1).build(study, index);
+        final List<OntologyRow> parallelRows = new OntologyBuilder(conceptCodeGenerator, "test", 0, 4).build(study, index);
+
+        assertEquals(describe(sequentialRows), describe(parallelRows));
+        assertEquals(IConstants.C_HLEVEL_1, sequentialRows.get(0).getChlevel());
+        assertEquals("\\STUDY\\test:" + study.getOID() + "\\", sequentialRows.get(0).getCfullname());
+        for (final OntologyRow row : sequentialRows) {
+            assertEquals(row.getCfullname(), row.getCdimcode());
+            assertEquals(row.getChlevel() >= IConstants.C_HLEVEL_4, row.getCbasecode() != null);
+            if (row.getChlevel() < IConstants.C_HLEVEL_4) {
+                assertNull(row.getCmetadataxml());
+            }
+        }
+    }
+
+    @Test
+    public void testBuildFillsSharedConceptCodes() throws Exception {
+        ODMLoader.initialize();
+        final ODM odm = new ODMLoader().unmarshall(Paths.get("src", "test", "resources", "examples", "CDISC_ODM_example_3.xml").toFile());
+        final ODMcomplexTypeDefinitionStudy study = odm.getStudy().get(0);
+        final ConceptCodeGenerator conceptCodeGenerator = new ConceptCodeGenerator("test");
+
+        final List<OntologyRow> rows = new OntologyBuilder(conceptCodeGenerator, "test", 0, 4).build(study, new MetaDataIndex(study));
+
+        int itemCount = 0;
+        for (final OntologyRow row : rows) {
+            if (row.getChlevel() == IConstants.C_HLEVEL_4) {
+                // The path of an item row ends with \<event OID>\<form OID>\<item OID>\.
+                final String[] oids = row.getCfullname().split("\\\\");
+                final int last = oids.length - 1;
+                // The clinical data import finds the code that the builder generated instead of hashing again.
+                assertSame(row.getCbasecode(), conceptCodeGenerator.getConceptCode(study.getOID(), oids[last - 2],
+                                                                                   oids[last - 1], oids[last], null));
+                itemCount++;
+            }
+        }
+        assertTrue(itemCount > 0);
+    }
+
+    private static List<String> describe(final List<OntologyRow> rows) {
+        final List<String> descriptions = new ArrayList<>();
+        for (final OntologyRow row : rows) {
+            descriptions.add(row.getChlevel() + "|" + row.getCfullname() + "|" + row.getCname() + "|" + row.getCvisualAttributes()
+                             + "|" + row.getCbasecode() + "|" + row.getCtooltip() + "|" + (row.getCmetadataxml() != null));
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the BatchSizer class.
+ */
+public class BatchSizerTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void testFixedBatchSize() {
+        final BatchSizer batchSizer = new BatchSizer("test", 100);
+        batchSizer.batchExecuted(100, 1);
+        batchSizer.batchExecuted(100, 10000 * MILLIS);
+        assertEquals(100, batchSizer.getBatchSize());
+        assertFalse(batchSizer.isDisabled());
+        assertTrue(new BatchSizer("test", 1).isDisabled());
+    }
+
+    @Test
+    public void testAdaptiveBatchSize() {
+        final BatchSizer batchSizer = new BatchSizer("test", 100, true, 50, 300, 100);
+
+        // Fast full batches grow the batch size up to the maximum.
+        batchSizer.batchExecuted(100, 10 * MILLIS);
+        assertEquals(200, batchSizer.getBatchSize());
+        batchSizer.batchExecuted(200, 10 * MILLIS);
+        assertEquals(300, batchSizer.getBatchSize());
+
+        // A fast partial batch (the last one of a study) and a batch near the target keep the batch size.
+        batchSizer.batchExecuted(20, 1 * MILLIS);
+        batchSizer.batchExecuted(300, 80 * MILLIS);
+        assertEquals(300, batchSizer.getBatchSize());
+
+        // Slow batches shrink the batch size down to the minimum.
+        batchSizer.batchExecuted(300, 500 * MILLIS);
+        assertEquals(150, batchSizer.getBatchSize());
+        batchSizer.batchExecuted(150, 500 * MILLIS);
+        batchSizer.batchExecuted(75, 500 * MILLIS);
+        assertEquals(50, batchSizer.getBatchSize());
+    }
+}
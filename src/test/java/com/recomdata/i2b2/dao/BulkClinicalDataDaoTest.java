@@ -0,0 +1,177 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import com.recomdata.i2b2.entity.ObservationFact;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the BulkClinicalDataDao class, with an embedded H2 database standing in for the i2b2 database.
+ */
+public class BulkClinicalDataDaoTest {
+
+    private static final String[] TEXT_VALUES = {"plain", null, "comma, \"quote\" and\nnewline", null, "", null, "unicode \u00e9\u00df"};
+
+    private static final String[] NUMERIC_VALUES = {null, "-42", null, "12.5", null, "", null};
+
+    @Test
+    public void testBulkLoadMatchesJdbcBatches() throws Exception {
+        I2B2TestSchema.createDatabase("jdbc");
+        final ClinicalDataDao jdbcDao = new ClinicalDataDao();
+        insertObservations(jdbcDao);
+        final List<List<Object>> jdbcRows = readObservations();
+        I2B2DBUtils.shutdown();
+
+        I2B2TestSchema.createDatabase("bulk");
+        final File stagingDirectory = new File(System.getProperty("java.io.tmpdir"));
+        final BulkClinicalDataDao bulkDao = new BulkClinicalDataDao(new H2BulkLoadDialect(), stagingDirectory, 3);
+        insertObservations(bulkDao);
+        final List<List<Object>> bulkRows = readObservations();
+        I2B2DBUtils.shutdown();
+
+        assertEquals(TEXT_VALUES.length, jdbcRows.size());
+        assertEquals(jdbcRows, bulkRows);
+        assertEquals("", bulkRows.get(4).get(7));
+        assertEquals("E", bulkRows.get(5).get(7));
+        assertNull(bulkRows.get(5).get(8));
+        assertEquals(0, new BigDecimal("-42").compareTo(new BigDecimal((String) bulkRows.get(1).get(8))));
+        assertEquals(0, new BigDecimal("12.5").compareTo(new BigDecimal((String) bulkRows.get(3).get(8))));
+    }
+
+    @Test
+    public void testFailedBulkLoadReportsLostRows() throws Exception {
+        I2B2TestSchema.createDatabase("failed");
+        final File stagingDirectory = new File(System.getProperty("java.io.tmpdir"));
+        final BulkClinicalDataDao bulkDao = new BulkClinicalDataDao(new H2BulkLoadDialect(), stagingDirectory, 3);
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        statement.executeUpdate("ALTER TABLE Observation_Fact RENAME TO Observation_Fact_Backup");
+        try {
+            insertObservations(bulkDao);
+            fail("The bulk load into a missing table should fail");
+        } catch (final BulkLoadException e) {
+            assertEquals(3, e.getLostRowCount());
+        }
+
+        // After the failure the staging file starts empty again, so the next facts are loaded together.
+        statement.executeUpdate("ALTER TABLE Observation_Fact_Backup RENAME TO Observation_Fact");
+        statement.close();
+        final long date = System.currentTimeMillis();
+        bulkDao.insertObservation(ObservationFact.text(1, "subject-1", "STUDY|S|1", "first", date, "test"));
+        bulkDao.insertObservation(ObservationFact.text(2, "subject-2", "STUDY|S|2", "second", date, "test"));
+        assertEquals(0, readObservations().size());
+        bulkDao.insertObservation(ObservationFact.text(3, "subject-3", "STUDY|S|3", "third", date, "test"));
+        assertEquals(3, readObservations().size());
+        I2B2DBUtils.shutdown();
+    }
+
+    @Test
+    public void testIncompleteStagingFileIsNotLoaded() throws Exception {
+        I2B2TestSchema.createDatabase("incomplete");
+        final File stagingDirectory = new File(System.getProperty("java.io.tmpdir"));
+        final BulkClinicalDataDao bulkDao = new BulkClinicalDataDao(new H2BulkLoadDialect(), stagingDirectory, 3) {
+            @Override
+            protected Writer openStagingWriter(final File file) {
+                return new FailingWriter();
+            }
+        };
+        try {
+            insertObservations(bulkDao);
+            fail("The bulk load of an incomplete staging file should fail");
+        } catch (final BulkLoadException e) {
+            assertEquals(3, e.getLostRowCount());
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(0, readObservations().size());
+        I2B2DBUtils.shutdown();
+    }
+
+    @Test
+    public void testGetDialect() {
+        assertNull(BulkClinicalDataDao.getDialect("none", "jdbc:h2:mem:test"));
+        assertNull(BulkClinicalDataDao.getDialect("auto", "jdbc:oracle:thin:@localhost:1521:xe"));
+        assertTrue(BulkClinicalDataDao.getDialect("auto", "jdbc:postgresql://localhost/i2b2") instanceof PostgresBulkLoadDialect);
+        assertTrue(BulkClinicalDataDao.getDialect("auto", "jdbc:jtds:sqlserver://localhost/i2b2") instanceof SqlServerBulkLoadDialect);
+        assertTrue(BulkClinicalDataDao.getDialect("H2", "jdbc:postgresql://localhost/i2b2") instanceof H2BulkLoadDialect);
+        assertTrue(BulkClinicalDataDao.getDialect(H2BulkLoadDialect.class.getName(), "") instanceof H2BulkLoadDialect);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetUnknownDialect() {
+        BulkClinicalDataDao.getDialect("sqlite", "jdbc:sqlite:i2b2.db");
+    }
+
+    @Test
+    public void testGetLoadSql() {
+        assertEquals("COPY fact (a,b) FROM '/tmp/o''brien.csv' WITH (FORMAT csv, HEADER true, ENCODING 'UTF8')",
+                     new PostgresBulkLoadDialect().getLoadSql("fact", "a,b", "/tmp/o'brien.csv"));
+        final String sqlServerSql = new SqlServerBulkLoadDialect().getLoadSql("fact", "a,b", "C:\\staging\\facts.csv");
+        assertTrue(sqlServerSql.contains("CREATE TABLE #fact_staging (a NVARCHAR(MAX) NULL,b NVARCHAR(MAX) NULL); "
+                                         + "BULK INSERT #fact_staging FROM 'C:\\staging\\facts.csv' WITH (FORMAT = 'CSV', FIRSTROW = 2"));
+        assertTrue(sqlServerSql.endsWith("INSERT INTO fact (a,b) SELECT a,b FROM #fact_staging; DROP TABLE #fact_staging"));
+    }
+
+    private static void insertObservations(final IClinicalDataDao clinicalDataDao) throws SQLException {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(2015, Calendar.JUNE, 11);
+        final long date = calendar.getTimeInMillis();
+        for (int index = 0; index < TEXT_VALUES.length; index++) {
+            final String conceptCd = "STUDY|S|" + index;
+            clinicalDataDao.insertObservation(index % 2 == 0
+                                              ? ObservationFact.text(index + 1, "subject-" + index, conceptCd, TEXT_VALUES[index], date, "test")
+                                              : ObservationFact.numeric(index + 1, "subject-" + index, conceptCd, NUMERIC_VALUES[index], date, "test"));
+        }
+        clinicalDataDao.executeBatch();
+    }
+
+    /**
+     * Writer that fails like a full disk.
+     */
+    private static class FailingWriter extends Writer {
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static List<List<Object>> readObservations() throws SQLException {
+        final List<List<Object>> rows = new ArrayList<>();
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        final ResultSet resultSet = statement.executeQuery("SELECT * FROM Observation_Fact ORDER BY Encounter_Num");
+        final ResultSetMetaData metaData = resultSet.getMetaData();
+        while (resultSet.next()) {
+            final List<Object> row = new ArrayList<>();
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                row.add(resultSet.getString(column));
+            }
+            rows.add(row);
+        }
+        statement.close();
+        return rows;
+    }
+}
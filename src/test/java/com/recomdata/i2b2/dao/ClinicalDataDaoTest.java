@@ -0,0 +1,67 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import com.recomdata.i2b2.entity.ObservationFact;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the cleanup of the ClinicalDataDao class, with an embedded H2 database standing in for the i2b2 database.
+ */
+public class ClinicalDataDaoTest {
+
+    @Test
+    public void testCleanupDeletesOnlyTheProject() throws Exception {
+        I2B2TestSchema.createDatabase("cleanup");
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        statement.executeUpdate("INSERT INTO STUDY (C_DIMCODE, C_BASECODE, C_NAME, SOURCESYSTEM_CD) "
+                                + "VALUES ('\\STUDY\\test:S_1\\a\\', 'STUDY|S_1|a', 'a', 'test')");
+        statement.close();
+
+        // More concepts than fit in one chunk, plus concepts of a study whose OID matches S_1 as a LIKE pattern.
+        final ClinicalDataDao dao = new ClinicalDataDao();
+        for (int concept = 0; concept < 1234; concept++) {
+            dao.insertObservation(ObservationFact.text(1, "p1", "STUDY|S_1|" + concept, "value", 0L, "test"));
+        }
+        dao.insertObservation(ObservationFact.text(1, "p1", "STUDY|SX1|0", "value", 0L, "test"));
+        dao.insertObservation(ObservationFact.text(1, "p1", "STUDY|S_1|0", "value", 0L, "other"));
+        dao.executeBatch();
+
+        dao.cleanupClinicalData("S_1", "test");
+        dao.close();
+
+        assertEquals(2, count("SELECT count(*) FROM Observation_Fact"));
+        assertEquals(1, count("SELECT count(*) FROM Observation_Fact WHERE Concept_Cd = 'STUDY|SX1|0'"));
+        assertEquals(1, count("SELECT count(*) FROM Observation_Fact WHERE SOURCESYSTEM_CD = 'other'"));
+        assertEquals(1, count("SELECT count(*) FROM Concept_Dimension WHERE concept_cd = 'STUDY|S_1|a'"));
+        assertTrue(I2B2DBUtils.getI2B2DBConnection().getAutoCommit());
+        I2B2DBUtils.shutdown();
+    }
+
+    @Test
+    public void testGetPrefixPattern() {
+        assertEquals("STUDY|S!_1|%", I2B2DBUtils.getPrefixPattern("STUDY|S_1|"));
+        assertEquals("\\STUDY\\test:50!%!![a]\\%",
+                     I2B2DBUtils.getPrefixPattern("\\STUDY\\test:50%![a]\\", "jdbc:oracle:thin:@localhost:1521:xe"));
+        assertEquals("\\STUDY\\test:50!%!!![a]\\%",
+                     I2B2DBUtils.getPrefixPattern("\\STUDY\\test:50%![a]\\", "jdbc:jtds:sqlserver://localhost/i2b2"));
+    }
+
+    private static int count(final String query) throws SQLException {
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        final ResultSet resultSet = statement.executeQuery(query);
+        resultSet.next();
+        final int count = resultSet.getInt(1);
+        statement.close();
+        return count;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import com.recomdata.config.Config;
+import com.recomdata.i2b2.entity.ObservationFact;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ClinicalDataWriterPool class, with an embedded H2 database standing in for the i2b2 database.
+ */
+public class ClinicalDataWriterPoolTest {
+
+    private static final int OBSERVATION_COUNT = 1000;
+
+    @Test
+    public void testWritersCommitAllObservations() throws Exception {
+        I2B2TestSchema.createDatabase("pool");
+        final ConnectionPool connectionPool = new ConnectionPool(3);
+        try {
+            final ClinicalDataWriterPool writerPool = new ClinicalDataWriterPool(Config.getConfig(), connectionPool, 3);
+            final long date = System.currentTimeMillis();
+            for (int index = 0; index < OBSERVATION_COUNT; index++) {
+                writerPool.insertObservation(ObservationFact.text(index, "subject", "STUDY|S|" + index, "value", date, "test"));
+            }
+            writerPool.executeBatch();
+
+            final List<List<Object>> rows = BulkClinicalDataDaoTest.readObservations();
+            assertEquals(OBSERVATION_COUNT, rows.size());
+            final Set<Object> conceptCodes = new HashSet<>();
+            for (final List<Object> row : rows) {
+                assertEquals("STUDY|S|" + row.get(0), row.get(2));
+                conceptCodes.add(row.get(2));
+            }
+            assertEquals(OBSERVATION_COUNT, conceptCodes.size());
+
+            writerPool.close();
+            for (int index = 0; index < connectionPool.size(); index++) {
+                final Connection connection = connectionPool.getConnection();
+                assertTrue(connection.getAutoCommit());
+            }
+        } finally {
+            connectionPool.close();
+            I2B2DBUtils.shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRuntimeExceptionFailsTheLoad() throws Exception {
+        I2B2TestSchema.createDatabase("poolFailure");
+        System.setProperty("chb.i2b2.bulkload.dialect", FailingDialect.class.getName());
+        System.setProperty("chb.i2b2.bulkload.rows", "1");
+        System.setProperty("chb.i2b2.jdbc.writer.queue", "2");
+        final ConnectionPool connectionPool = new ConnectionPool(2);
+        try {
+            final ClinicalDataWriterPool writerPool = new ClinicalDataWriterPool(Config.getConfig(), connectionPool, 2);
+            final long date = System.currentTimeMillis();
+            try {
+                for (int index = 0; index < OBSERVATION_COUNT; index++) {
+                    writerPool.insertObservation(ObservationFact.text(index, "subject", "STUDY|S|" + index, "value", date, "test"));
+                }
+                writerPool.executeBatch();
+                fail("The load should have failed");
+            } catch (final SQLException e) {
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+
+            try {
+                writerPool.close();
+                fail("Closing the pool should report the failure");
+            } catch (final SQLException e) {
+                assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+            }
+            assertEquals(0, BulkClinicalDataDaoTest.readObservations().size());
+        } finally {
+            System.clearProperty("chb.i2b2.bulkload.dialect");
+            System.clearProperty("chb.i2b2.bulkload.rows");
+            System.clearProperty("chb.i2b2.jdbc.writer.queue");
+            connectionPool.close();
+            I2B2DBUtils.shutdown();
+        }
+    }
+
+    /**
+     * Bulk load dialect that fails with an unchecked exception.
+     */
+    public static class FailingDialect implements IBulkLoadDialect {
+        @Override
+        public boolean supports(final String jdbcUrl) {
+            return true;
+        }
+
+        @Override
+        public String getLoadSql(final String tableName, final String columnNames, final String stagingFilePath) {
+            throw new IllegalStateException("Unchecked failure of the bulk load");
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import com.recomdata.i2b2.entity.ObservationFact;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DeltaClinicalDataDao class, with an embedded H2 database standing in for the i2b2 database.
+ */
+public class DeltaClinicalDataDaoTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testDeltaLoadWritesOnlyChanges() throws Exception {
+        I2B2TestSchema.createDatabase("delta");
+        final File indexDirectory = new File(temporaryFolder.getRoot(), "index");
+        final long firstDate = getDate(2015, Calendar.JUNE, 11);
+        final long secondDate = getDate(2015, Calendar.JUNE, 12);
+
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "unchanged", firstDate, "test"),
+             ObservationFact.numeric(1, "p1", "STUDY|S|b", "10", firstDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|a", "removed", firstDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|c", "repeat 1", firstDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|c", "repeat 2", firstDate, "test"));
+        assertEquals(1, indexDirectory.list().length);
+        assertEquals(5, readObservations().size());
+
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "unchanged", secondDate, "test"),
+             ObservationFact.numeric(1, "p1", "STUDY|S|b", "11", secondDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|c", "repeat 1", secondDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|c", "repeat 2", secondDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|c", "repeat 3", secondDate, "test"),
+             ObservationFact.text(3, "p3", "STUDY|S|a", "added", secondDate, "test"));
+
+        final List<String> observations = readObservations();
+        I2B2DBUtils.shutdown();
+
+        assertEquals(Arrays.asList("p1|STUDY|S|a|0|unchanged||2015-06-11",
+                                   "p1|STUDY|S|b|0|E|11|2015-06-12",
+                                   "p2|STUDY|S|c|0|repeat 1||2015-06-11",
+                                   "p2|STUDY|S|c|1|repeat 2||2015-06-11",
+                                   "p2|STUDY|S|c|2|repeat 3||2015-06-12",
+                                   "p3|STUDY|S|a|0|added||2015-06-12"),
+                     observations);
+    }
+
+    @Test
+    public void testUnfinishedLoadIsFollowedByFullReload() throws Exception {
+        I2B2TestSchema.createDatabase("unfinished");
+        final File indexDirectory = new File(temporaryFolder.getRoot(), "index");
+        final long date = getDate(2015, Calendar.JUNE, 11);
+        final ObservationFact fact = ObservationFact.text(1, "p1", "STUDY|S|a", "value", date, "test");
+
+        load(indexDirectory, true, fact);
+        load(indexDirectory, false, fact);
+        assertEquals(0, indexDirectory.list().length);
+
+        load(indexDirectory, true, fact);
+        final List<String> observations = readObservations();
+        I2B2DBUtils.shutdown();
+
+        assertEquals(1, indexDirectory.list().length);
+        assertEquals(Arrays.asList("p1|STUDY|S|a|0|value||2015-06-11"), observations);
+    }
+
+    @Test
+    public void testDeltaLoadKeepsEncounterNumbers() throws Exception {
+        I2B2TestSchema.createDatabase("encounters");
+        final File indexDirectory = new File(temporaryFolder.getRoot(), "index");
+        final long firstDate = getDate(2015, Calendar.JUNE, 11);
+        final long secondDate = getDate(2015, Calendar.JUNE, 12);
+
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "value", firstDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|a", "value", firstDate, "test"),
+             ObservationFact.text(3, "p3", "STUDY|S|a", "value", firstDate, "test"));
+
+        // p2 is removed, p4 is added and p3 appears twice, with the positional encounter numbers of the handler.
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "value", secondDate, "test"),
+             ObservationFact.text(2, "p3", "STUDY|S|a", "value", secondDate, "test"),
+             ObservationFact.text(3, "p4", "STUDY|S|a", "value", secondDate, "test"),
+             ObservationFact.text(4, "p3", "STUDY|S|b", "value", secondDate, "test"));
+
+        final List<String> observations = readObservations();
+        final List<String> encounters = readEncounters();
+        I2B2DBUtils.shutdown();
+
+        assertEquals(Arrays.asList("p1|STUDY|S|a|0|value||2015-06-11",
+                                   "p3|STUDY|S|a|0|value||2015-06-11",
+                                   "p3|STUDY|S|b|0|value||2015-06-12",
+                                   "p4|STUDY|S|a|0|value||2015-06-12"),
+                     observations);
+        assertEquals(Arrays.asList("p1|1", "p3|3", "p3|3", "p4|4"), encounters);
+    }
+
+    @Test
+    public void testDeltaLoadKeepsFactsOfPatientInTwoBlocks() throws Exception {
+        I2B2TestSchema.createDatabase("split");
+        final File indexDirectory = new File(temporaryFolder.getRoot(), "index");
+        final long firstDate = getDate(2015, Calendar.JUNE, 11);
+        final long secondDate = getDate(2015, Calendar.JUNE, 12);
+
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "value a", firstDate, "test"),
+             ObservationFact.text(1, "p1", "STUDY|S|b", "value b", firstDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|a", "value a", firstDate, "test"));
+
+        // The fact of p1 with concept b moves to a second subject data block of p1.
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "value a", secondDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|a", "value a", secondDate, "test"),
+             ObservationFact.text(3, "p1", "STUDY|S|b", "value b", secondDate, "test"));
+        final List<String> expected = Arrays.asList("p1|STUDY|S|a|0|value a||2015-06-11",
+                                                    "p1|STUDY|S|b|0|value b||2015-06-11",
+                                                    "p2|STUDY|S|a|0|value a||2015-06-11");
+        assertEquals(expected, readObservations());
+
+        load(indexDirectory, true,
+             ObservationFact.text(1, "p1", "STUDY|S|a", "value a", secondDate, "test"),
+             ObservationFact.text(1, "p1", "STUDY|S|b", "value b", secondDate, "test"),
+             ObservationFact.text(2, "p2", "STUDY|S|a", "value a", secondDate, "test"));
+        final List<String> observations = readObservations();
+        I2B2DBUtils.shutdown();
+
+        assertEquals(expected, observations);
+    }
+
+    @Test
+    public void testGetProjectID() {
+        assertEquals("S-1", DeltaClinicalDataDao.getProjectID("STUDY|S-1|3a5f"));
+        assertEquals("S|1", DeltaClinicalDataDao.getProjectID("STUDY|S|1|3a5f"));
+        assertNull(DeltaClinicalDataDao.getProjectID("OTHER|S|3a5f"));
+        assertNull(DeltaClinicalDataDao.getProjectID("STUDY|3a5f"));
+    }
+
+    @Test
+    public void testFingerprintIgnoresDatesAndEncounters() {
+        final ObservationFact fact = ObservationFact.numeric(1, "p1", "STUDY|S|a", "12.5", 1000L, "test");
+        assertEquals(DeltaClinicalDataDao.getFingerprint(fact),
+                     DeltaClinicalDataDao.getFingerprint(ObservationFact.numeric(1, "p1", "STUDY|S|a", "12.5", 2000L, "test")));
+        assertEquals(DeltaClinicalDataDao.getFingerprint(fact),
+                     DeltaClinicalDataDao.getFingerprint(ObservationFact.numeric(2, "p1", "STUDY|S|a", "12.5", 1000L, "test")));
+        assertNotEquals(DeltaClinicalDataDao.getFingerprint(fact),
+                        DeltaClinicalDataDao.getFingerprint(ObservationFact.numeric(1, "p1", "STUDY|S|a", "12.6", 1000L, "test")));
+        assertNotEquals(DeltaClinicalDataDao.getFingerprint(ObservationFact.text(1, "p1", "STUDY|S|a", null, 1000L, "test")),
+                        DeltaClinicalDataDao.getFingerprint(ObservationFact.text(1, "p1", "STUDY|S|a", "", 1000L, "test")));
+    }
+
+    private static void load(final File indexDirectory, final boolean finish, final ObservationFact... facts)
+            throws SQLException {
+        final DeltaClinicalDataDao deltaDao = new DeltaClinicalDataDao(new ClinicalDataDao(), indexDirectory);
+        deltaDao.cleanupClinicalData("S", "test");
+        for (final ObservationFact fact : facts) {
+            deltaDao.insertObservation(fact);
+        }
+        if (finish) {
+            deltaDao.finish();
+        }
+        deltaDao.close();
+    }
+
+    private static List<String> readObservations() throws SQLException {
+        final List<String> observations = new ArrayList<>();
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        final ResultSet resultSet = statement.executeQuery(
+                "SELECT REDCap_Subject_ID, Concept_Cd, INSTANCE_NUM, TVal_Char, CAST(NVal_Num AS INT), UPDATE_DATE "
+                + "FROM Observation_Fact ORDER BY REDCap_Subject_ID, Concept_Cd, INSTANCE_NUM");
+        while (resultSet.next()) {
+            final String nvalNum = resultSet.getString(5);
+            observations.add(resultSet.getString(1) + "|" + resultSet.getString(2) + "|" + resultSet.getInt(3) + "|"
+                             + resultSet.getString(4) + "|" + (nvalNum == null ? "" : nvalNum) + "|" + resultSet.getString(6));
+        }
+        statement.close();
+        return observations;
+    }
+
+    private static List<String> readEncounters() throws SQLException {
+        final List<String> encounters = new ArrayList<>();
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        final ResultSet resultSet = statement.executeQuery(
+                "SELECT REDCap_Subject_ID, Encounter_Num FROM Observation_Fact ORDER BY REDCap_Subject_ID, Concept_Cd");
+        while (resultSet.next()) {
+            encounters.add(resultSet.getString(1) + "|" + resultSet.getInt(2));
+        }
+        statement.close();
+        return encounters;
+    }
+
+    private static long getDate(final int year, final int month, final int day) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.dao;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The i2b2 tables that the DAOs write to, created in an embedded H2 database that stands in for the i2b2 database
+ * in the unit tests.
+ */
+public final class I2B2TestSchema {
+
+    private I2B2TestSchema() {
+    }
+
+    /**
+     * Initialize I2B2DBUtils with a new in-memory H2 database with the STUDY, Concept_Dimension and
+     * Observation_Fact tables.
+     *
+     * @param name the name of the database, which is unique for each test.
+     */
+    public static void createDatabase(final String name) throws ClassNotFoundException, SQLException {
+        I2B2DBUtils.init("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "", "org.h2.Driver");
+        final Statement statement = I2B2DBUtils.getI2B2DBConnection().createStatement();
+        statement.executeUpdate("CREATE TABLE STUDY (C_HLEVEL INT, C_FULLNAME VARCHAR(900), C_NAME VARCHAR(2000), "
+                                + "C_SYNONYM_CD CHAR(1), C_VISUALATTRIBUTES CHAR(3), C_TOTALNUM INT, C_BASECODE VARCHAR(50), "
+                                + "C_METADATAXML CLOB, C_FACTTABLECOLUMN VARCHAR(50), C_TABLENAME VARCHAR(50), "
+                                + "C_COLUMNNAME VARCHAR(50), C_COLUMNDATATYPE VARCHAR(50), C_OPERATOR VARCHAR(10), "
+                                + "C_DIMCODE VARCHAR(900), C_COMMENT CLOB, C_TOOLTIP VARCHAR(900), M_APPLIED_PATH VARCHAR(700), "
+                                + "UPDATE_DATE DATE, DOWNLOAD_DATE DATE, IMPORT_DATE DATE, SOURCESYSTEM_CD VARCHAR(50), "
+                                + "VALUETYPE_CD VARCHAR(50))");
+        statement.executeUpdate("CREATE TABLE Concept_Dimension (concept_path VARCHAR(700), concept_cd VARCHAR(50), "
+                                + "name_char VARCHAR(2000), update_date DATE, download_date DATE, import_date DATE, "
+                                + "sourcesystem_cd VARCHAR(50))");
+        statement.executeUpdate("CREATE TABLE Observation_Fact (Encounter_Num INT, REDCap_Subject_ID VARCHAR(50), "
+                                + "Concept_Cd VARCHAR(50), Provider_Id VARCHAR(50), Start_Date DATE, Modifier_Cd VARCHAR(100), "
+                                + "ValType_Cd VARCHAR(50), TVal_Char VARCHAR(255), NVal_Num DECIMAL(18,5), INSTANCE_NUM INT, "
+                                + "ValueFlag_Cd VARCHAR(50), Quantity_Num DECIMAL(18,5), Units_Cd VARCHAR(50), End_Date DATE, "
+                                + "Location_Cd VARCHAR(50), Observation_Blob CLOB, Confidence_Num DECIMAL(18,5), "
+                                + "UPDATE_DATE DATE, DOWNLOAD_DATE DATE, IMPORT_DATE DATE, SOURCESYSTEM_CD VARCHAR(50), "
+                                + "UPLOAD_ID INT)");
+        statement.close();
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.entity;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ObservationFact class.
+ */
+public class ObservationFactTest {
+
+    @Test
+    public void testNumericValues() {
+        final ObservationFact integer = numeric("-123456789012345678");
+        assertTrue(integer.isNvalLong());
+        assertEquals(-123456789012345678L, integer.getNvalLong());
+        assertEquals("N", integer.getValTypeCd());
+        assertEquals("E", integer.getTvalChar());
+
+        final ObservationFact decimal = numeric("12.50");
+        assertFalse(decimal.isNvalLong());
+        assertEquals(new BigDecimal("12.50"), decimal.getNvalNum());
+
+        final ObservationFact large = numeric("1234567890123456789");
+        assertFalse(large.isNvalLong());
+        assertEquals(new BigDecimal("1234567890123456789"), large.getNvalNum());
+
+        assertNull(numeric(" ").getNvalNum());
+        assertNull(numeric(null).getNvalNum());
+        assertFalse(numeric("+5").isNvalLong());
+        assertEquals(new BigDecimal("5"), numeric("+5").getNvalNum());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidNumericValue() {
+        numeric("twelve");
+    }
+
+    @Test
+    public void testTextValue() {
+        final ObservationFact text = ObservationFact.text(3, "subject", "STUDY|S|abc", "value", ObservationFact.NO_DATE, "test");
+        assertEquals("T", text.getValTypeCd());
+        assertEquals("value", text.getTvalChar());
+        assertNull(text.getNvalNum());
+        assertEquals("@", text.getProviderId());
+        assertEquals("@", text.getModifierCd());
+        assertEquals(ObservationFact.NO_DATE, text.getLoadDate());
+    }
+
+    private static ObservationFact numeric(final String value) {
+        return ObservationFact.numeric(1, "subject", "STUDY|S|abc", value, 0, "test");
+    }
+}
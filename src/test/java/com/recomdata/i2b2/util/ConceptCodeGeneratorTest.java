@@ -0,0 +1,62 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.i2b2.util;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ConceptCodeGenerator class.
+ */
+public class ConceptCodeGeneratorTest {
+
+    @Test
+    public void testGetConceptCode() throws Exception {
+        final ConceptCodeGenerator generator = new ConceptCodeGenerator("source");
+        boolean shortHexFound = false;
+        for (int index = 0; index < 50; index++) {
+            final String value = index % 2 == 0 ? null : "value-é-" + index;
+            final String conceptCode = generator.getConceptCode("S.1", "SE.1", "F.1", "I." + index, value);
+            assertEquals(referenceConceptCode("source", "S.1", "SE.1", "F.1", "I." + index, value), conceptCode);
+            assertSame(conceptCode, generator.getConceptCode("S.1", "SE.1", "F.1", "I." + index, value));
+            shortHexFound |= conceptCode.length() < "STUDY|S.1|".length() + 32;
+        }
+        // Bytes below 0x10 are written with one hexadecimal digit.
+        assertTrue(shortHexFound);
+        assertNotEquals(generator.getConceptCode("S.1", "SE.1", "F.1", "I.1", null),
+                        generator.getConceptCode("S.1", "SE.1", "F.1", "I.1", ""));
+    }
+
+    /**
+     * The original concept code generation of I2B2ODMStudyHandler.
+     */
+    private static String referenceConceptCode(final String sourceSystem, final String studyOID, final String studyEventOID,
+                                               final String formOID, final String itemOID, final String value)
+            throws Exception {
+        final MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+        final StringBuffer conceptBuffer = new StringBuffer("STUDY|");
+        conceptBuffer.append(studyOID).append("|");
+        messageDigest.update(sourceSystem.getBytes(Charset.forName("UTF-8")));
+        messageDigest.update((byte) '|');
+        messageDigest.update(studyEventOID.getBytes(Charset.forName("UTF-8")));
+        messageDigest.update((byte) '|');
+        messageDigest.update(formOID.getBytes(Charset.forName("UTF-8")));
+        messageDigest.update((byte) '|');
+        messageDigest.update(itemOID.getBytes(Charset.forName("UTF-8")));
+        if (value != null) {
+            messageDigest.update((byte) '|');
+            messageDigest.update(value.getBytes(Charset.forName("UTF-8")));
+        }
+        for (final byte digestByte : messageDigest.digest()) {
+            conceptBuffer.append(Integer.toHexString(0xFF & digestByte));
+        }
+        return conceptBuffer.toString();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeList;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionCodeListItem;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionDecode;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionMetaDataVersion;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionTranslatedText;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DecodeTable class.
+ */
+public class DecodeTableTest {
+
+    @Test
+    public void testDecode() {
+        final ODMcomplexTypeDefinitionCodeList codeList = new ODMcomplexTypeDefinitionCodeList();
+        addCodeListItem(codeList, "1", "nl", "Ja", "en", "Yes");
+        addCodeListItem(codeList, "2", "nl", "Nee");
+        addCodeListItem(codeList, "1", "en", "Duplicate");
+
+        final DecodeTable english = DecodeTable.compile(codeList, "en");
+        assertEquals("Yes", english.decode("1"));
+        assertEquals("Nee", english.decode("2"));
+        assertNull(english.decode("3"));
+
+        final DecodeTable dutch = DecodeTable.compile(codeList, "nl");
+        assertEquals("Ja", dutch.decode("1"));
+    }
+
+    @Test
+    public void testMetaDataDecodeTableIsCached() {
+        final ODMcomplexTypeDefinitionMetaDataVersion metaDataVersion = new ODMcomplexTypeDefinitionMetaDataVersion();
+        final ODMcomplexTypeDefinitionCodeList codeList = new ODMcomplexTypeDefinitionCodeList();
+        codeList.setOID("CL.1");
+        addCodeListItem(codeList, "M", "en", "Male");
+        metaDataVersion.getCodeList().add(codeList);
+        final MetaDataWithIncludes metaData = new MetaDataWithIncludes(metaDataVersion, "S.1",
+                new ArrayList<MetaDataWithIncludes>());
+
+        assertEquals("Male", metaData.getDecodeTable("CL.1", "en").decode("M"));
+        assertSame(metaData.getDecodeTable("CL.1", "en"), metaData.getDecodeTable("CL.1", "en"));
+        assertNull(metaData.getDecodeTable("CL.2", "en"));
+    }
+
+    private void addCodeListItem(final ODMcomplexTypeDefinitionCodeList codeList, final String codedValue,
+                                 final String... translations) {
+        final ODMcomplexTypeDefinitionDecode decode = new ODMcomplexTypeDefinitionDecode();
+        for (int index = 0; index < translations.length; index += 2) {
+            final ODMcomplexTypeDefinitionTranslatedText translatedText = new ODMcomplexTypeDefinitionTranslatedText();
+            translatedText.setLang(translations[index]);
+            translatedText.setValue(translations[index + 1]);
+            decode.getTranslatedText().add(translatedText);
+        }
+        final ODMcomplexTypeDefinitionCodeListItem codeListItem = new ODMcomplexTypeDefinitionCodeListItem();
+        codeListItem.setCodedValue(codedValue);
+        codeListItem.setDecode(decode);
+        codeList.getCodeListItem().add(codeListItem);
+    }
+}
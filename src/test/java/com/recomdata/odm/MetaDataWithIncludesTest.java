@@ -0,0 +1,65 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionItemDef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionMetaDataVersion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the MetaDataWithIncludes class.
+ */
+public class MetaDataWithIncludesTest {
+
+    @Test
+    public void testLastDefinitionInBlockWins() {
+        final ODMcomplexTypeDefinitionMetaDataVersion metaDataVersion = new ODMcomplexTypeDefinitionMetaDataVersion();
+        final ODMcomplexTypeDefinitionItemDef first = createItemDef(metaDataVersion, "IT.1");
+        final ODMcomplexTypeDefinitionItemDef second = createItemDef(metaDataVersion, "IT.1");
+        final MetaDataWithIncludes metaData = new MetaDataWithIncludes(metaDataVersion, "S.1",
+                new ArrayList<MetaDataWithIncludes>());
+
+        assertNotSame(first, metaData.getItemDef("IT.1"));
+        assertSame(second, metaData.getItemDef("IT.1"));
+        assertNull(metaData.getItemDef("IT.2"));
+        assertNull(metaData.getFormDef("IT.1"));
+    }
+
+    @Test
+    public void testIncludesInOrder() {
+        final ODMcomplexTypeDefinitionMetaDataVersion ownVersion = new ODMcomplexTypeDefinitionMetaDataVersion();
+        final ODMcomplexTypeDefinitionItemDef ownItem = createItemDef(ownVersion, "IT.1");
+        final ODMcomplexTypeDefinitionMetaDataVersion firstVersion = new ODMcomplexTypeDefinitionMetaDataVersion();
+        createItemDef(firstVersion, "IT.1");
+        final ODMcomplexTypeDefinitionItemDef firstItem = createItemDef(firstVersion, "IT.2");
+        final ODMcomplexTypeDefinitionMetaDataVersion secondVersion = new ODMcomplexTypeDefinitionMetaDataVersion();
+        createItemDef(secondVersion, "IT.2");
+        final ODMcomplexTypeDefinitionItemDef secondItem = createItemDef(secondVersion, "IT.3");
+
+        final List<MetaDataWithIncludes> includes = Arrays.asList(
+                new MetaDataWithIncludes(firstVersion, "S.1", new ArrayList<MetaDataWithIncludes>()),
+                new MetaDataWithIncludes(secondVersion, "S.2", new ArrayList<MetaDataWithIncludes>()));
+        final MetaDataWithIncludes metaData = new MetaDataWithIncludes(ownVersion, "S.3", includes);
+
+        assertSame(ownItem, metaData.getItemDef("IT.1"));
+        assertSame(firstItem, metaData.getItemDef("IT.2"));
+        assertSame(secondItem, metaData.getItemDef("IT.3"));
+    }
+
+    private ODMcomplexTypeDefinitionItemDef createItemDef(final ODMcomplexTypeDefinitionMetaDataVersion metaDataVersion,
+                                                          final String oid) {
+        final ODMcomplexTypeDefinitionItemDef itemDef = new ODMcomplexTypeDefinitionItemDef();
+        itemDef.setOID(oid);
+        metaDataVersion.getItemDef().add(itemDef);
+        return itemDef;
+    }
+}
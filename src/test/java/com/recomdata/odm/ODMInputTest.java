@@ -0,0 +1,144 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ODMInput class and the compressed input of the ODMLoader and ODMStreamReader classes.
+ */
+public class ODMInputTest {
+    /**
+     * The examples directory.
+     */
+    private static final String EXAMPLES_DIRECTORY = Paths.get("src", "test", "resources", "examples") + File.separator;
+
+    private static final File CLINICAL_XML_FILE = new File(EXAMPLES_DIRECTORY + "CDISC_ODM_example_3.xml");
+
+    private static final File MINIMAL_XML_FILE = new File(EXAMPLES_DIRECTORY + "CDISC_ODM_example_minim.xml");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompressedFilesMatchPlainFile() throws Exception {
+        final ODMLoader odmLoader = new ODMLoader();
+        final String expectedXml = odmLoader.getODMXMLString(odmLoader.unmarshall(CLINICAL_XML_FILE));
+
+        // The format is recognized by the content, so the names do not give it away.
+        final File gzipFile = gzip(CLINICAL_XML_FILE, temporaryFolder.newFile("odm-gzip.xml"));
+        final File zipFile = zip(temporaryFolder.newFile("odm-zip.xml"), CLINICAL_XML_FILE);
+
+        assertEquals(expectedXml, odmLoader.getODMXMLString(odmLoader.unmarshall(gzipFile)));
+        assertEquals(expectedXml, odmLoader.getODMXMLString(odmLoader.unmarshall(zipFile)));
+        assertTrue(getStreamedSubjectCount(CLINICAL_XML_FILE) > 0);
+        assertEquals(getStreamedSubjectCount(CLINICAL_XML_FILE), getStreamedSubjectCount(gzipFile));
+        assertEquals(getStreamedSubjectCount(CLINICAL_XML_FILE), getStreamedSubjectCount(zipFile));
+    }
+
+    @Test
+    public void testZipWithSeveralDocuments() throws Exception {
+        final File zipFile = zip(temporaryFolder.newFile("odm.zip"), CLINICAL_XML_FILE, MINIMAL_XML_FILE);
+        final List<String> systemIds = new ArrayList<>();
+
+        final int documentCount = ODMInput.readDocuments(zipFile, new ODMInput.DocumentReader() {
+            @Override
+            public void read(final String systemId, final InputStream inputStream) throws Exception {
+                systemIds.add(systemId);
+                new ODMStreamReader().read(systemId, inputStream, new CountingHandler());
+            }
+        });
+
+        assertEquals(2, documentCount);
+        assertEquals("jar:" + zipFile.toURI() + "!/odm/" + CLINICAL_XML_FILE.getName(), systemIds.get(0));
+        assertEquals("jar:" + zipFile.toURI() + "!/odm/" + MINIMAL_XML_FILE.getName(), systemIds.get(1));
+
+        final List<ODM> odms = new ODMLoader().unmarshallAll(zipFile);
+        assertEquals(2, odms.size());
+        assertEquals(2, odms.get(0).getClinicalData().size());
+        assertEquals(1, odms.get(1).getStudy().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamReaderRejectsZipWithSeveralDocuments() throws Exception {
+        final File zipFile = zip(temporaryFolder.newFile("odm.zip"), CLINICAL_XML_FILE, MINIMAL_XML_FILE);
+        new ODMStreamReader().read(zipFile, new CountingHandler());
+    }
+
+    private static int getStreamedSubjectCount(final File file) throws Exception {
+        final CountingHandler handler = new CountingHandler();
+        new ODMStreamReader().read(file, handler);
+        return handler.subjectCount;
+    }
+
+    private static File gzip(final File file, final File gzipFile) throws IOException {
+        try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            Files.copy(file.toPath(), outputStream);
+        }
+        return gzipFile;
+    }
+
+    private static File zip(final File zipFile, final File... files) throws IOException {
+        try (ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            outputStream.putNextEntry(new ZipEntry("odm/"));
+            outputStream.closeEntry();
+            outputStream.putNextEntry(new ZipEntry("odm/README.txt"));
+            outputStream.write("Not an ODM document.".getBytes("UTF-8"));
+            outputStream.closeEntry();
+            for (final File file : files) {
+                outputStream.putNextEntry(new ZipEntry("odm/" + file.getName()));
+                Files.copy(file.toPath(), outputStream);
+                outputStream.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+
+    /**
+     * A handler that counts the subjects.
+     */
+    private static class CountingHandler implements ODMStreamHandler {
+        private int subjectCount;
+
+        @Override
+        public void processMetaData(final ODM odm) {
+        }
+
+        @Override
+        public void processClinicalDataStart(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+        }
+
+        @Override
+        public void processSubjectData(final ODMcomplexTypeDefinitionClinicalData clinicalData,
+                                       final ODMcomplexTypeDefinitionSubjectData subjectData) {
+            subjectCount++;
+        }
+
+        @Override
+        public void processClinicalDataEnd(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODM;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ODMLoader class.
+ */
+public class ODMLoaderTest {
+    /**
+     * The test ODM file with clinical data.
+     */
+    private static final File ODM_XML_FILE = Paths.get("src", "test", "resources", "examples",
+            "CDISC_ODM_example_3.xml").toFile();
+
+    @Test
+    public void testContextIsShared() throws Exception {
+        ODMLoader.initialize();
+        assertSame(ODMLoader.getContext(), ODMLoader.getContext());
+    }
+
+    @Test
+    public void testConcurrentUnmarshall() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<ODM>> futures = new ArrayList<>();
+            for (int taskIndex = 0; taskIndex < 8; taskIndex++) {
+                futures.add(executor.submit(new Callable<ODM>() {
+                    @Override
+                    public ODM call() throws Exception {
+                        return new ODMLoader().unmarshall(ODM_XML_FILE);
+                    }
+                }));
+            }
+            for (Future<ODM> future : futures) {
+                final ODM odm = future.get();
+                assertEquals(1, odm.getStudy().size());
+                assertEquals(2, odm.getClinicalData().size());
+                assertEquals(12, odm.getClinicalData().get(0).getSubjectData().size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMarshallRoundTrip() throws Exception {
+        final ODMLoader odmLoader = new ODMLoader();
+        final String xml = odmLoader.getODMXMLString(odmLoader.unmarshall(ODM_XML_FILE));
+        assertTrue(xml.contains("FileOID=\"987-654-321\""));
+        assertEquals(xml, odmLoader.getODMXMLString(odmLoader.unmarshall(ODM_XML_FILE)));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.odm;
+
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ODMStreamReader class.
+ */
+public class ODMStreamReaderTest {
+    /**
+     * The examples directory.
+     */
+    private static final String EXAMPLES_DIRECTORY = Paths.get("src", "test", "resources", "examples") + File.separator;
+
+    @Test
+    public void testReadMatchesUnmarshall() throws Exception {
+        final File xmlFile = new File(EXAMPLES_DIRECTORY + "CDISC_ODM_example_3.xml");
+        final ODM odm = new ODMLoader().unmarshall(xmlFile);
+        final RecordingHandler handler = new RecordingHandler();
+
+        new ODMStreamReader().read(xmlFile, handler);
+
+        assertEquals(1, handler.metaDataCount);
+        assertEquals(odm.getFileOID(), handler.metaData.getFileOID());
+        assertEquals(odm.getCreationDateTime(), handler.metaData.getCreationDateTime());
+        assertEquals(odm.getStudy().size(), handler.metaData.getStudy().size());
+        assertEquals(odm.getStudy().get(0).getOID(), handler.metaData.getStudy().get(0).getOID());
+        assertTrue(handler.metaData.getClinicalData().isEmpty());
+
+        final List<String> expectedEvents = new ArrayList<>();
+        for (ODMcomplexTypeDefinitionClinicalData clinicalData : odm.getClinicalData()) {
+            expectedEvents.add("start " + clinicalData.getStudyOID());
+            for (ODMcomplexTypeDefinitionSubjectData subjectData : clinicalData.getSubjectData()) {
+                expectedEvents.add(subjectData.getSubjectKey() + " " + subjectData.getStudyEventData().size());
+            }
+            expectedEvents.add("end " + clinicalData.getStudyOID());
+        }
+        assertEquals(expectedEvents, handler.events);
+    }
+
+    @Test
+    public void testReadWithoutClinicalData() throws Exception {
+        final RecordingHandler handler = new RecordingHandler();
+
+        new ODMStreamReader().read(new File(EXAMPLES_DIRECTORY + "CDISC_ODM_example_minim.xml"), handler);
+
+        assertEquals(1, handler.metaDataCount);
+        assertEquals(1, handler.metaData.getStudy().size());
+        assertTrue(handler.events.isEmpty());
+    }
+
+    /**
+     * A handler that records what it receives.
+     */
+    private static class RecordingHandler implements ODMStreamHandler {
+        private int metaDataCount;
+        private ODM metaData;
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void processMetaData(final ODM odm) {
+            metaDataCount++;
+            metaData = odm;
+        }
+
+        @Override
+        public void processClinicalDataStart(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+            assertTrue(clinicalData.getSubjectData().isEmpty());
+            events.add("start " + clinicalData.getStudyOID());
+        }
+
+        @Override
+        public void processSubjectData(final ODMcomplexTypeDefinitionClinicalData clinicalData,
+                                       final ODMcomplexTypeDefinitionSubjectData subjectData) {
+            events.add(subjectData.getSubjectKey() + " " + subjectData.getStudyEventData().size());
+        }
+
+        @Override
+        public void processClinicalDataEnd(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+            events.add("end " + clinicalData.getStudyOID());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.redcap.odm;
+
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionFormRef;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionMetaDataVersion;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudyEventDef;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the study metadata that the Redcap2ODM class builds from a REDCap metadata export.
+ */
+public class Redcap2ODMMetaDataTest {
+
+    @Test
+    public void testEventThatReturnsIsDefinedOnce() throws Exception {
+        final String metadata = "{\"fields\": ["
+                                + field("Baseline", "demographics", "record_id", "text", null) + ","
+                                + field("Baseline", "demographics", "sex", "radio", "1, Male\\\\n2, Female") + ","
+                                + field("Follow-up", "vitals", "weight", "text", null) + ","
+                                + field("Baseline", "vitals", "weight", "text", null) + ","
+                                + field("Baseline", "demographics", "record_id", "text", null) + ","
+                                + field("Follow-up", "labs", "glucose", "text", null) + ","
+                                + field("Follow-up", "labs", "smoker", "yesno", "1, Male\\\\n2, Female")
+                                + "]}";
+
+        final ODMcomplexTypeDefinitionMetaDataVersion metaDataVersion = new Redcap2ODM().buildODM(
+                "42", "REDCap Test", "Test project", "redcap.example.org", new StringReader(metadata),
+                new StringReader("{\"records\": []}")).getStudy().get(0).getMetaDataVersion().get(0);
+
+        assertEquals(2, metaDataVersion.getStudyEventDef().size());
+        assertEquals(2, metaDataVersion.getProtocol().getStudyEventRef().size());
+        assertEquals(Arrays.asList("FM.demographics", "FM.vitals"), getFormOIDs(metaDataVersion.getStudyEventDef().get(0)));
+        assertEquals(Arrays.asList("FM.vitals", "FM.labs"), getFormOIDs(metaDataVersion.getStudyEventDef().get(1)));
+        assertEquals(3, metaDataVersion.getFormDef().size());
+        assertEquals(3, metaDataVersion.getItemGroupDef().size());
+        assertEquals(5, metaDataVersion.getItemDef().size());
+        assertEquals(1, metaDataVersion.getCodeList().size());
+    }
+
+    private static List<String> getFormOIDs(final ODMcomplexTypeDefinitionStudyEventDef studyEventDef) {
+        final List<String> formOIDs = new ArrayList<>();
+        for (final ODMcomplexTypeDefinitionFormRef formRef : studyEventDef.getFormRef()) {
+            formOIDs.add(formRef.getFormOID());
+        }
+        return formOIDs;
+    }
+
+    private static String field(final String eventName, final String formName, final String name, final String type,
+                                final String enumeration) {
+        return "{\"arm_num\": \"1\", \"arm_name\": \"Arm 1\", \"event_name\": \"" + eventName + "\", "
+               + "\"form_name\": \"" + formName + "\", \"field_order\": \"1\", \"field_name\": \"" + name + "\", "
+               + "\"field_label\": \"" + name + "\", \"field_type\": \"" + type + "\", \"select_choices\": "
+               + (enumeration == null ? "null" : "\"" + enumeration + "\"")
+               + ", \"min\": null, \"max\": null, \"validation\": null}";
+    }
+}
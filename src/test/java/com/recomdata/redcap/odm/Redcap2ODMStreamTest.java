@@ -0,0 +1,161 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.redcap.odm;
+
+import com.recomdata.odm.ODMStreamHandler;
+import com.recomdata.odm.ODMStreamSource;
+import com.recomdata.redcap.ws.RedcapStubServer;
+import nl.vumc.odmtoi2b2.export.OdmToFilesConverter;
+import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionSubjectData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the streaming conversion of the Redcap2ODM class, with canned REDCap JSON exports.
+ */
+public class Redcap2ODMStreamTest {
+
+    private static final Path REDCAP_DIRECTORY = Paths.get("src", "test", "resources", "redcap");
+
+    private static final String PROPERTIES_FILE_PATH = Paths.get("src", "test", "resources", "nl", "vumc", "odmtoi2b2",
+                                                                 "export", "filled-configuration.properties").toString();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testStreamedConversionMatchesODMConversion() throws Exception {
+        final File odmDirectory = temporaryFolder.newFolder("odm");
+        final OdmToFilesConverter odmConverter = new OdmToFilesConverter();
+        odmConverter.processODM(buildODM(), odmDirectory.getPath(), PROPERTIES_FILE_PATH);
+        odmConverter.closeExportWriters();
+
+        final File streamDirectory = temporaryFolder.newFolder("stream");
+        final OdmToFilesConverter streamConverter = new OdmToFilesConverter();
+        streamConverter.processODMStream(new ODMStreamSource() {
+            @Override
+            public void read(final ODMStreamHandler handler) throws Exception {
+                streamODM(handler);
+            }
+        }, streamDirectory.getPath(), PROPERTIES_FILE_PATH);
+        streamConverter.closeExportWriters();
+
+        final String[] fileNames = odmDirectory.list();
+        Arrays.sort(fileNames);
+        assertEquals(3, fileNames.length);
+        for (final String fileName : fileNames) {
+            final byte[] expectedContents = Files.readAllBytes(new File(odmDirectory, fileName).toPath());
+            assertTrue(fileName, expectedContents.length > 0);
+            assertArrayEquals(fileName, expectedContents, Files.readAllBytes(new File(streamDirectory, fileName).toPath()));
+        }
+    }
+
+    @Test
+    public void testPagedConversionMatchesODMConversion() throws Exception {
+        final File odmDirectory = temporaryFolder.newFolder("odm");
+        final OdmToFilesConverter odmConverter = new OdmToFilesConverter();
+        odmConverter.processODM(buildODM(), odmDirectory.getPath(), PROPERTIES_FILE_PATH);
+        odmConverter.closeExportWriters();
+
+        final RedcapStubServer server = new RedcapStubServer(REDCAP_DIRECTORY.resolve("metadata.json"),
+                                                             REDCAP_DIRECTORY.resolve("records.json"));
+        final File pagedDirectory = temporaryFolder.newFolder("paged");
+        try {
+            final OdmToFilesConverter pagedConverter = new OdmToFilesConverter();
+            pagedConverter.processODMStream(new Redcap2ODM().createPagedStreamSource(
+                    "42", "REDCap Test", "Test project", server.getBaseUrl(), RedcapStubServer.METADATA_PATH,
+                    RedcapStubServer.RECORDS_PATH, "token", 2, 2), pagedDirectory.getPath(), PROPERTIES_FILE_PATH);
+            pagedConverter.closeExportWriters();
+        } finally {
+            server.stop();
+        }
+
+        // The record ids are requested first; the pages are requested concurrently, in any order.
+        final List<String> recordRequests = server.getRecordRequests();
+        assertNull(recordRequests.get(0));
+        assertEquals(new HashSet<>(Arrays.asList("1,2", "3")), new HashSet<>(recordRequests.subList(1, recordRequests.size())));
+        assertEquals(3, recordRequests.size());
+        for (final String fileName : odmDirectory.list()) {
+            assertArrayEquals(fileName, Files.readAllBytes(new File(odmDirectory, fileName).toPath()),
+                              Files.readAllBytes(new File(pagedDirectory, fileName).toPath()));
+        }
+    }
+
+    @Test
+    public void testStreamPassesOneSubjectAtATime() throws Exception {
+        final ODM odm = buildODM();
+        final List<String> expectedEvents = new ArrayList<>();
+        expectedEvents.add("metadata " + odm.getStudy().get(0).getOID());
+        expectedEvents.add("start");
+        for (final ODMcomplexTypeDefinitionSubjectData subjectData : odm.getClinicalData().get(0).getSubjectData()) {
+            expectedEvents.add(subjectData.getSubjectKey() + " " + subjectData.getStudyEventData().size());
+        }
+        expectedEvents.add("end");
+
+        final List<String> events = new ArrayList<>();
+        streamODM(new ODMStreamHandler() {
+            @Override
+            public void processMetaData(final ODM odmMetaData) {
+                assertTrue(odmMetaData.getClinicalData().isEmpty());
+                events.add("metadata " + odmMetaData.getStudy().get(0).getOID());
+            }
+
+            @Override
+            public void processClinicalDataStart(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+                events.add("start");
+            }
+
+            @Override
+            public void processSubjectData(final ODMcomplexTypeDefinitionClinicalData clinicalData,
+                                           final ODMcomplexTypeDefinitionSubjectData subjectData) {
+                assertTrue(clinicalData.getSubjectData().isEmpty());
+                events.add(subjectData.getSubjectKey() + " " + subjectData.getStudyEventData().size());
+            }
+
+            @Override
+            public void processClinicalDataEnd(final ODMcomplexTypeDefinitionClinicalData clinicalData) {
+                events.add("end");
+            }
+        });
+
+        assertEquals(Arrays.asList("metadata 42", "start", "1 2", "2 1", "3 2", "end"), events);
+        assertEquals(expectedEvents, events);
+    }
+
+    private static ODM buildODM() throws Exception {
+        try (Reader metadataReader = openJson("metadata.json"); Reader recordsReader = openJson("records.json")) {
+            return new Redcap2ODM().buildODM("42", "REDCap Test", "Test project", "redcap.example.org",
+                                             metadataReader, recordsReader);
+        }
+    }
+
+    private static void streamODM(final ODMStreamHandler handler) throws Exception {
+        try (Reader metadataReader = openJson("metadata.json"); Reader recordsReader = openJson("records.json")) {
+            new Redcap2ODM().streamODM("42", "REDCap Test", "Test project", "redcap.example.org",
+                                       metadataReader, recordsReader, handler);
+        }
+    }
+
+    private static Reader openJson(final String fileName) throws Exception {
+        return Files.newBufferedReader(REDCAP_DIRECTORY.resolve(fileName), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.redcap.ws;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the paged retrieval of the GetRedcapService class, against a local stub of the REDCap web service.
+ */
+public class GetRedcapServiceTest {
+
+    private static final Path REDCAP_DIRECTORY = Paths.get("src", "test", "resources", "redcap");
+
+    private RedcapStubServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RedcapStubServer(REDCAP_DIRECTORY.resolve("metadata.json"), REDCAP_DIRECTORY.resolve("records.json"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testPagesAreReturnedInOrderAndFailedPagesAreRetried() throws IOException {
+        server.setDelayMillis(100);
+        server.failPage("2", 2);
+
+        final RedcapPageReader pageReader = new GetRedcapService().readRedcapWebServicePages(
+                server.getBaseUrl() + RedcapStubServer.RECORDS_PATH, Collections.<String, String>emptyMap(),
+                Arrays.asList("1", "2", "3"), 1, 3, null, 0);
+        pageReader.setRetries(3, 10);
+        final List<String> pageRecords = new ArrayList<>();
+        try {
+            assertEquals(3, pageReader.getPageCount());
+            Reader page;
+            while ((page = pageReader.nextPage()) != null) {
+                pageRecords.add(getRecordIds(page));
+            }
+        } finally {
+            pageReader.close();
+        }
+
+        assertEquals(Arrays.asList("1,1,1,1,1", "2,2,2", "3,3,3"), pageRecords);
+        assertEquals(5, server.getRecordRequests().size());
+        assertTrue(server.getMaxActiveRequests() > 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testPageFailsAfterLastAttempt() throws IOException {
+        server.failPage("1,2", 2);
+
+        final RedcapPageReader pageReader = new GetRedcapService().readRedcapWebServicePages(
+                server.getBaseUrl() + RedcapStubServer.RECORDS_PATH, Collections.<String, String>emptyMap(),
+                Arrays.asList("1", "2", "3"), 2, 2, null, 0);
+        pageReader.setRetries(2, 10);
+        try {
+            pageReader.nextPage();
+        } finally {
+            pageReader.close();
+        }
+    }
+
+    private static String getRecordIds(final Reader page) throws IOException {
+        final List<String> recordIds = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(page);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("{\"record\": \"")) {
+                recordIds.add(line.substring(12, line.indexOf('"', 12)));
+            }
+        }
+        final StringBuilder joined = new StringBuilder();
+        for (final String recordId : recordIds) {
+            joined.append(joined.length() > 0 ? "," : "").append(recordId);
+        }
+        return joined.toString();
+    }
+}
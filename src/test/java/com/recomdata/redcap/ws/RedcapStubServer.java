@@ -0,0 +1,183 @@
+/**
+ * Copyright(c) 2014 VU University Medical Center.
+ * Licensed under the Apache License version 2.0 (see http://opensource.org/licenses/Apache-2.0).
+ */
+
+package com.recomdata.redcap.ws;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP server that stands in for the REDCap web service in the tests. It serves a canned metadata export
+ * and a canned record export (with one record per line), filtered by the records and fields parameters of the
+ * request. A record page can be made to fail a number of times before it is served.
+ */
+public class RedcapStubServer {
+    public static final String METADATA_PATH = "metadata";
+    public static final String RECORDS_PATH = "records";
+
+    private final HttpServer server;
+    private final String metadata;
+    private final List<String> records;
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final List<String> recordRequests = new ArrayList<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+    private volatile long delayMillis;
+
+    public RedcapStubServer(final Path metadataFile, final Path recordsFile) throws IOException {
+        metadata = new String(Files.readAllBytes(metadataFile), StandardCharsets.UTF_8);
+        records = new ArrayList<>();
+        for (final String line : Files.readAllLines(recordsFile, StandardCharsets.UTF_8)) {
+            if (line.trim().startsWith("{\"record\"")) {
+                records.add(line.trim().replaceAll(",$", ""));
+            }
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/" + METADATA_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                send(exchange, 200, metadata);
+            }
+        });
+        server.createContext("/" + RECORDS_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                handleRecords(exchange);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Makes the requests for a page of records fail with a server error before the page is served.
+     */
+    public void failPage(final String recordsParam, final int count) {
+        failures.put(recordsParam, new AtomicInteger(count));
+    }
+
+    public void setDelayMillis(final long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Gets the records parameters of the record requests, in the order in which they were received.
+     */
+    public synchronized List<String> getRecordRequests() {
+        return new ArrayList<>(recordRequests);
+    }
+
+    public int getMaxActiveRequests() {
+        return maxActiveRequests.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handleRecords(final HttpExchange exchange) throws IOException {
+        final int active = activeRequests.incrementAndGet();
+        try {
+            int max;
+            while ((max = maxActiveRequests.get()) < active && !maxActiveRequests.compareAndSet(max, active)) {
+                continue;
+            }
+
+            final Map<String, String> params = readParams(exchange);
+            final String recordsParam = params.get("records");
+            synchronized (this) {
+                recordRequests.add(recordsParam);
+            }
+            Thread.sleep(delayMillis);
+
+            final AtomicInteger failureCount = recordsParam != null ? failures.get(recordsParam) : null;
+            if (failureCount != null && failureCount.getAndDecrement() > 0) {
+                send(exchange, 500, "server error");
+                return;
+            }
+
+            final Set<String> recordIds = recordsParam != null
+                                          ? new HashSet<>(Arrays.asList(recordsParam.split(","))) : null;
+            final String field = params.get("fields");
+            final StringBuilder response = new StringBuilder("{\"records\": [\n");
+            String separator = "";
+            for (final String record : records) {
+                if ((recordIds == null || recordIds.contains(getValue(record, "record")))
+                    && (field == null || field.equals(getValue(record, "field_name")))) {
+                    response.append(separator).append(record);
+                    separator = ",\n";
+                }
+            }
+            send(exchange, 200, response.append("\n]}\n").toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 500, "interrupted");
+        } finally {
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private static String getValue(final String record, final String name) {
+        final String prefix = "\"" + name + "\": \"";
+        final int start = record.indexOf(prefix) + prefix.length();
+        return record.substring(start, record.indexOf('"', start));
+    }
+
+    private static Map<String, String> readParams(final HttpExchange exchange) throws IOException {
+        final String query = new String(readAll(exchange), StandardCharsets.UTF_8);
+        final Map<String, String> params = new HashMap<>();
+        for (final String param : query.split("&")) {
+            final int index = param.indexOf('=');
+            if (index > 0) {
+                params.put(URLDecoder.decode(param.substring(0, index), "UTF-8"),
+                           URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] readAll(final HttpExchange exchange) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = exchange.getRequestBody().read(buffer)) != -1) {
+            body.write(buffer, 0, count);
+        }
+        return body.toByteArray();
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package nl.vumc.odmtoi2b2.export;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the ClinicalDataStore class.
+ */
+public class ClinicalDataStoreTest {
+    /**
+     * Test storing and reading dictionary encoded and inline values in memory.
+     */
+    @Test
+    public void testSetAndReadValues() throws IOException {
+        final ClinicalDataStore store = new ClinicalDataStore();
+        final int column1 = store.addColumn("column-id1");
+        final int column2 = store.addColumn("column-id2");
+        assertEquals(column1, store.addColumn("column-id1"));
+        assertEquals(2, store.getColumnCount());
+
+        final int row1 = store.addRow("row-id1");
+        final int row2 = store.addRow("row-id2");
+        final int row3 = store.addRow("row-id3");
+
+        final String[] values = {"0", "42", "999999999", "1000000000", "007", "-1", "3.5", "", "word"};
+        for (final String value : values) {
+            store.setValue(row2, column2, value);
+            assertArrayEquals(new String[]{null, value}, readRows(store)[row2]);
+        }
+        store.setValue(row1, column1, "word");
+        store.setValue(row2, column1, "word");
+        store.setValue(row3, column1, "12");
+        store.setValue(row3, column1, null);
+
+        assertArrayEquals(new String[][]{{"word", null}, {"word", "word"}, {null, null}}, readRows(store));
+        assertEquals("row-id1", store.getRowId(row1));
+        assertEquals(3, store.getRowCount());
+        assertEquals(0, store.getRunCount());
+    }
+
+    /**
+     * Test that spilled cells are merged back in row order and that later values replace earlier ones.
+     */
+    @Test
+    public void testSpillAndMerge() throws IOException {
+        final ClinicalDataStore store = new ClinicalDataStore(1);
+        final int column1 = store.addColumn("column-id1");
+        final int column2 = store.addColumn("column-id2");
+        final int row1 = store.addRow("row-id1");
+        store.setValue(row1, column1, "first");
+        final int row2 = store.addRow("row-id2");
+        store.setValue(row2, column2, "Ünïcode");
+        store.setValue(row1, column1, "second");
+        store.setValue(row2, column1, "7");
+        store.setValue(row2, column1, null);
+        store.setValue(row1, column2, "third");
+        assertTrue(store.getRunCount() > 1);
+
+        assertArrayEquals(new String[][]{{"second", "third"}, {null, "Ünïcode"}}, readRows(store));
+        store.deleteRunFiles();
+        assertEquals(0, store.getRunCount());
+    }
+
+    /**
+     * Test that a small memory budget with many rows spills in proportion to the cells and that the run files are
+     * merged, so their number stays small.
+     */
+    @Test
+    public void testSpillManyRowsWithSmallBudget() throws IOException {
+        final ClinicalDataStore store = new ClinicalDataStore(16 * 1024);
+        final int columnCount = 8;
+        final int rowCount = 20000;
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            store.addColumn("column-id" + columnIndex);
+        }
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            store.addRow("row-id" + rowIndex);
+            store.setValue(rowIndex, rowIndex % columnCount, "value-" + rowIndex);
+            // Also change an earlier row, which may already have been spilled.
+            if (rowIndex >= 100) {
+                store.setValue(rowIndex - 100, (rowIndex + 1) % columnCount, String.valueOf(rowIndex));
+            }
+        }
+        assertTrue(store.getRunCount() > 1);
+        assertTrue("run files: " + store.getRunCount(), store.getRunCount() < 50);
+
+        final String[][] rows = readRows(store);
+        assertTrue(store.getRunCount() <= 16);
+        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+            final String[] expectedRow = new String[columnCount];
+            expectedRow[rowIndex % columnCount] = "value-" + rowIndex;
+            if (rowIndex + 100 < rowCount) {
+                expectedRow[(rowIndex + 101) % columnCount] = String.valueOf(rowIndex + 100);
+            }
+            assertArrayEquals(expectedRow, rows[rowIndex]);
+        }
+        store.deleteRunFiles();
+    }
+
+    private String[][] readRows(final ClinicalDataStore store) throws IOException {
+        final String[][] rows = new String[store.getRowCount()][];
+        try (ClinicalDataStore.RowReader rowReader = store.openRowReader()) {
+            for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+                assertTrue(rowReader.hasNext());
+                rows[rowIndex] = rowReader.next().clone();
+            }
+            assertFalse(rowReader.hasNext());
+        }
+        return rows;
+    }
+}
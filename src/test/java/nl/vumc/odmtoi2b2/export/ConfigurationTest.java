@@ -34,6 +34,8 @@ public class ConfigurationTest {
 	  assertEquals(0, configuration.getMaxClinicalDataEntry());
 	  assertEquals("", configuration.getForbiddenSymbolRegex());
 	  assertFalse(configuration.getAvoidTransmartSymbolBugs());
+	  assertEquals(OutputCodec.NONE, configuration.getOutputCodec());
+	  assertEquals(8, configuration.getOutputBufferSize());
 	}
 
 	/**
@@ -46,6 +48,9 @@ public class ConfigurationTest {
 	  assertEquals(33550336, configuration.getMaxClinicalDataEntry());
 	  assertEquals("\t", configuration.getForbiddenSymbolRegex());
 	  assertTrue(configuration.getAvoidTransmartSymbolBugs());
+	  assertEquals(64, configuration.getClinicalDataMemoryBudget());
+	  assertEquals(4, configuration.getConversionThreads());
+	  assertEquals(3, configuration.getClinicalDataShards());
 	}
 
 	/**
@@ -58,5 +63,8 @@ public class ConfigurationTest {
 	  assertEquals(0, configuration.getMaxClinicalDataEntry());
 	  assertNull(configuration.getForbiddenSymbolRegex());
 	  assertFalse(configuration.getAvoidTransmartSymbolBugs());
+	  assertEquals(0, configuration.getClinicalDataMemoryBudget());
+	  assertEquals(1, configuration.getConversionThreads());
+	  assertEquals(1, configuration.getClinicalDataShards());
 	}
 }
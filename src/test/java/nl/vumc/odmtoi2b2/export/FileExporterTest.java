@@ -190,4 +190,28 @@ public class FileExporterTest {
 
         assertEquals(expectedClinicalDataMap, fileExporter.getClinicalDataMap());
     }
+
+    /**
+     * Test that the types of repeating events and item groups are numbered in order of appearance and that values
+     * for the same entity end up in the same row.
+     */
+    @Test
+    public void testWriteExportClinicalDataInfoRepeatOrdinals() throws IOException {
+        final Configuration configuration = new Configuration(EXPORT_DIRECTORY + "filled-configuration.properties");
+        final FileExporter fileExporter = new FileExporter(OUTPUT_DIRECTORY, "study-name", configuration);
+
+        fileExporter.storeClinicalDataInfo("column-id1", "value1", "patient-id", "event-id2", "1", null, null);
+        fileExporter.storeClinicalDataInfo("column-id2", "value2", "patient-id", "event-id1", null,
+                "item-group-id1", "1");
+        fileExporter.storeClinicalDataInfo("column-id3", "value3", "patient-id", "event-id1", "2",
+                "item-group-id2", "1");
+        fileExporter.storeClinicalDataInfo("column-id4", "value4", "patient-id", "event-id2", "1", null, null);
+
+        final Map<String, Map<String, String>> clinicalDataMap = fileExporter.getClinicalDataMap();
+        assertEquals(3, clinicalDataMap.size());
+        assertEquals("value1", clinicalDataMap.get("patient-id_E1_R1").get("column-id1"));
+        assertEquals("value4", clinicalDataMap.get("patient-id_E1_R1").get("column-id4"));
+        assertEquals("value2", clinicalDataMap.get("patient-id_E2_IG1_R1").get("column-id2"));
+        assertEquals("value3", clinicalDataMap.get("patient-id_E2_R2_IG2_R1").get("column-id3"));
+    }
 }
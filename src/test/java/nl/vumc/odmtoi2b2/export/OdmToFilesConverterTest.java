@@ -2,13 +2,23 @@ package nl.vumc.odmtoi2b2.export;
 
 import com.recomdata.odm.ODMLoader;
 import org.cdisk.odm.jaxb.ODM;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionClinicalData;
+import org.cdisk.odm.jaxb.ODMcomplexTypeDefinitionStudy;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -35,6 +45,21 @@ public class OdmToFilesConverterTest {
     private static final String EXPORT_DIRECTORY = Paths.get(
             "src", "test", "resources", "nl", "vumc", "odmtoi2b2", "export") + File.separator;
 
+    /**
+     * The test ODM file with clinical data.
+     */
+    private static final String CLINICAL_ODM_XML_PATH = Paths.get("src", "test", "resources", "examples",
+            "CDISC_ODM_example_3.xml").toString();
+
+    /**
+     * The names of the export files that are created for the test ODM file with clinical data.
+     */
+    private static final String[] CLINICAL_EXPORT_FILE_NAMES = {
+        "CDISC_Connect-A-Thon_Test_Study_III_columns.txt",
+        "CDISC_Connect-A-Thon_Test_Study_III_word_map.txt",
+        "CDISC_Connect-A-Thon_Test_Study_III_clinical_data.txt"
+    };
+
     private static final String PROPERTIES_FILE_PATH = EXPORT_DIRECTORY + "filled-configuration.properties";
 
     private File minimalClinicalDataFile;
@@ -97,4 +122,169 @@ public class OdmToFilesConverterTest {
         odmHandler.processODM(minimalOdm, OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
         odmHandler.closeExportWriters();
     }
+
+    @Test
+    public void testProcessODMStreamMatchesProcessODM() throws Exception {
+        final File clinicalXmlFile = new File(CLINICAL_ODM_XML_PATH);
+        odmHandler.processODM(odmLoader.unmarshall(clinicalXmlFile), OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
+        odmHandler.closeExportWriters();
+        final byte[][] expectedContents = readClinicalExportFiles();
+
+        final OdmToFilesConverter streamingHandler = new OdmToFilesConverter();
+        streamingHandler.processODMStream(clinicalXmlFile, OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
+        streamingHandler.closeExportWriters();
+        final byte[][] actualContents = readClinicalExportFiles();
+
+        for (int fileIndex = 0; fileIndex < CLINICAL_EXPORT_FILE_NAMES.length; fileIndex++) {
+            assertTrue(expectedContents[fileIndex].length > 0);
+            assertTrue(CLINICAL_EXPORT_FILE_NAMES[fileIndex],
+                    Arrays.equals(expectedContents[fileIndex], actualContents[fileIndex]));
+        }
+    }
+
+    @Test
+    public void testParallelConversionMatchesSequentialConversion() throws Exception {
+        final String copyStudyName = "Parallel Copy";
+        final String[] copyExportFileNames = new String[CLINICAL_EXPORT_FILE_NAMES.length];
+        for (int fileIndex = 0; fileIndex < CLINICAL_EXPORT_FILE_NAMES.length; fileIndex++) {
+            copyExportFileNames[fileIndex] = CLINICAL_EXPORT_FILE_NAMES[fileIndex]
+                    .replace("CDISC_Connect-A-Thon_Test_Study_III", "Parallel_Copy");
+        }
+        final Path sequentialPropertiesFile = Files.createTempFile("sequential-configuration", ".properties");
+        try {
+            final String filledProperties = new String(Files.readAllBytes(Paths.get(PROPERTIES_FILE_PATH)),
+                    StandardCharsets.UTF_8);
+            Files.write(sequentialPropertiesFile, filledProperties.replace("conversion-threads=4", "conversion-threads=1")
+                    .replace("clinical-data-shards=3", "clinical-data-shards=1").getBytes(StandardCharsets.UTF_8));
+            final Configuration sequentialConfiguration = new Configuration(sequentialPropertiesFile.toString());
+            assertEquals(1, sequentialConfiguration.getConversionThreads());
+            assertEquals(1, sequentialConfiguration.getClinicalDataShards());
+
+            odmHandler.processODM(loadTwoStudyOdm(copyStudyName), OUTPUT_DIRECTORY, sequentialPropertiesFile.toString());
+            odmHandler.closeExportWriters();
+            final byte[][] expectedContents = readExportFiles(CLINICAL_EXPORT_FILE_NAMES);
+            final byte[][] expectedCopyContents = readExportFiles(copyExportFileNames);
+
+            final OdmToFilesConverter parallelHandler = new OdmToFilesConverter();
+            parallelHandler.processODM(loadTwoStudyOdm(copyStudyName), OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
+            parallelHandler.closeExportWriters();
+            final byte[][] actualContents = readExportFiles(CLINICAL_EXPORT_FILE_NAMES);
+            final byte[][] actualCopyContents = readExportFiles(copyExportFileNames);
+
+            for (int fileIndex = 0; fileIndex < CLINICAL_EXPORT_FILE_NAMES.length; fileIndex++) {
+                assertTrue(expectedContents[fileIndex].length > 0);
+                assertTrue(CLINICAL_EXPORT_FILE_NAMES[fileIndex],
+                        Arrays.equals(expectedContents[fileIndex], actualContents[fileIndex]));
+                assertTrue(copyExportFileNames[fileIndex],
+                        Arrays.equals(expectedCopyContents[fileIndex], actualCopyContents[fileIndex]));
+            }
+        } finally {
+            Files.delete(sequentialPropertiesFile);
+        }
+    }
+
+    @Test
+    public void testColumnNamesAreUniqueAcrossDefiningStudies() throws Exception {
+        final String copyStudyName = "Parallel Copy";
+        final String[] copyExportFileNames = new String[CLINICAL_EXPORT_FILE_NAMES.length];
+        for (int fileIndex = 0; fileIndex < CLINICAL_EXPORT_FILE_NAMES.length; fileIndex++) {
+            copyExportFileNames[fileIndex] = CLINICAL_EXPORT_FILE_NAMES[fileIndex]
+                    .replace("CDISC_Connect-A-Thon_Test_Study_III", "Parallel_Copy");
+        }
+        odmHandler.processODM(loadTwoStudyOdm(copyStudyName), OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
+        odmHandler.closeExportWriters();
+        final String columns = new String(readExportFiles(CLINICAL_EXPORT_FILE_NAMES)[0], StandardCharsets.UTF_8);
+        final String copyColumns = new String(readExportFiles(copyExportFileNames)[0], StandardCharsets.UTF_8);
+
+        // The first defining study keeps the questions; the second one falls back to the item names.
+        assertTrue(columns.contains("\tPost-treatment+Adverse Events+Adverse Events\t102\tActions taken re study drug?\t"));
+        assertTrue(copyColumns.contains("\tPost-treatment+Adverse Events+Adverse Events\t102\tActions taken re study drug\t"));
+        assertTrue(columns.contains("\tPre-treatment+Physical Exam+Physical Exam\t83\tEnglish: Normal/Abnormal/Not Done?\t"));
+        assertTrue(copyColumns.contains("\tPre-treatment+Physical Exam+Physical Exam\t83\tNormal/Abnormal/Not Done\t"));
+    }
+
+    @Test
+    public void testCompressedOutputMatchesPlainOutput() throws Exception {
+        final File clinicalXmlFile = new File(CLINICAL_ODM_XML_PATH);
+        odmHandler.processODM(odmLoader.unmarshall(clinicalXmlFile), OUTPUT_DIRECTORY, PROPERTIES_FILE_PATH);
+        odmHandler.closeExportWriters();
+        final byte[][] expectedContents = readClinicalExportFiles();
+
+        final String filledProperties = new String(Files.readAllBytes(Paths.get(PROPERTIES_FILE_PATH)),
+                StandardCharsets.UTF_8);
+        for (final OutputCodec outputCodec : Arrays.asList(OutputCodec.GZIP, OutputCodec.FAST)) {
+            final Path compressedPropertiesFile = Files.createTempFile("compressed-configuration", ".properties");
+            try {
+                Files.write(compressedPropertiesFile, (filledProperties + "\noutput-codec=" + outputCodec.name().toLowerCase()
+                        + "\noutput-buffer-size=64\n").getBytes(StandardCharsets.UTF_8));
+                final Configuration compressedConfiguration = new Configuration(compressedPropertiesFile.toString());
+                assertEquals(outputCodec, compressedConfiguration.getOutputCodec());
+                assertEquals(64, compressedConfiguration.getOutputBufferSize());
+
+                final OdmToFilesConverter compressedHandler = new OdmToFilesConverter();
+                compressedHandler.processODM(odmLoader.unmarshall(clinicalXmlFile), OUTPUT_DIRECTORY,
+                        compressedPropertiesFile.toString());
+                compressedHandler.closeExportWriters();
+
+                for (int fileIndex = 0; fileIndex < CLINICAL_EXPORT_FILE_NAMES.length; fileIndex++) {
+                    assertFalse(new File(OUTPUT_DIRECTORY + CLINICAL_EXPORT_FILE_NAMES[fileIndex]).exists());
+                    final File compressedFile = new File(OUTPUT_DIRECTORY + CLINICAL_EXPORT_FILE_NAMES[fileIndex] + ".gz");
+                    final byte[] actualContents;
+                    try (InputStream inputStream = new GZIPInputStream(new FileInputStream(compressedFile))) {
+                        actualContents = readFully(inputStream);
+                    }
+                    assertTrue(compressedFile.delete());
+                    assertTrue(outputCodec + " " + CLINICAL_EXPORT_FILE_NAMES[fileIndex],
+                            Arrays.equals(expectedContents[fileIndex], actualContents));
+                }
+            } finally {
+                Files.delete(compressedPropertiesFile);
+            }
+        }
+    }
+
+    /**
+     * Load the test ODM file with clinical data and add a renamed copy of its study and clinical data, so the ODM
+     * contains two defining studies.
+     */
+    private ODM loadTwoStudyOdm(final String copyStudyName) throws JAXBException {
+        final File clinicalXmlFile = new File(CLINICAL_ODM_XML_PATH);
+        final ODM odm = odmLoader.unmarshall(clinicalXmlFile);
+        final ODM copyOdm = odmLoader.unmarshall(clinicalXmlFile);
+        final String copyStudyOID = "copy-of-" + copyOdm.getStudy().get(0).getOID();
+        for (final ODMcomplexTypeDefinitionStudy copyStudy : copyOdm.getStudy()) {
+            copyStudy.setOID(copyStudyOID);
+            copyStudy.getGlobalVariables().getStudyName().setValue(copyStudyName);
+            odm.getStudy().add(copyStudy);
+        }
+        for (final ODMcomplexTypeDefinitionClinicalData copyClinicalData : copyOdm.getClinicalData()) {
+            copyClinicalData.setStudyOID(copyStudyOID);
+            odm.getClinicalData().add(copyClinicalData);
+        }
+        return odm;
+    }
+
+    private byte[][] readClinicalExportFiles() throws IOException {
+        return readExportFiles(CLINICAL_EXPORT_FILE_NAMES);
+    }
+
+    private byte[][] readExportFiles(final String[] exportFileNames) throws IOException {
+        final byte[][] contents = new byte[exportFileNames.length][];
+        for (int fileIndex = 0; fileIndex < exportFileNames.length; fileIndex++) {
+            final File exportFile = new File(OUTPUT_DIRECTORY + exportFileNames[fileIndex]);
+            contents[fileIndex] = Files.readAllBytes(exportFile.toPath());
+            assertTrue(exportFile.delete());
+        }
+        return contents;
+    }
+
+    private static byte[] readFully(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
 }
@@ -0,0 +1,45 @@
+package nl.vumc.odmtoi2b2.export;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for the OrdinalRegistry class.
+ */
+public class OrdinalRegistryTest {
+    /**
+     * Test that the ordinals are given out in the order of the first registration.
+     */
+    @Test
+    public void testGetOrdinal() {
+        final OrdinalRegistry registry = new OrdinalRegistry();
+        assertEquals(1, registry.getOrdinal("event-b"));
+        assertEquals(2, registry.getOrdinal("event-a"));
+        assertEquals(1, registry.getOrdinal("event-b"));
+        assertEquals(2, registry.size());
+        assertEquals("event-a", registry.getId(2));
+    }
+
+    /**
+     * Test that merged registries get the ordinals of a single registry with the registrations in sequence order.
+     */
+    @Test
+    public void testMerge() {
+        final OrdinalRegistry registry1 = new OrdinalRegistry();
+        registry1.getOrdinal("event-c", 2);
+        registry1.getOrdinal("event-a", 2);
+        registry1.getOrdinal("event-b", 5);
+        final OrdinalRegistry registry2 = new OrdinalRegistry();
+        registry2.getOrdinal("event-b", 1);
+        registry2.getOrdinal("event-d", 3);
+
+        final List<int[]> ordinalMaps = OrdinalRegistry.merge(Arrays.asList(registry1, registry2));
+        assertArrayEquals(new int[]{0, 2, 3, 1}, ordinalMaps.get(0));
+        assertArrayEquals(new int[]{0, 1, 4}, ordinalMaps.get(1));
+    }
+}
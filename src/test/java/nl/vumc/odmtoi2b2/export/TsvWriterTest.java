@@ -0,0 +1,84 @@
+package nl.vumc.odmtoi2b2.export;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for the TsvWriter class.
+ */
+public class TsvWriterTest {
+    /**
+     * Values with the symbols that are removed, substituted or escaped.
+     */
+    private static final List<String> VALUES = Arrays.asList(
+            "", "plain", "a\"b", "a\"\"\"b", "\"x\"", "back\\slash", "`tick`", "it's", "<tag>", "[1]", "\u0000",
+            "tab\there", "Ünïcode €", "a\"<\"b", "--&&--", "\r\n");
+
+    /**
+     * The forbidden symbol regexes: blank, a single character, the default of the configuration file, a class with
+     * escape sequences and regexes that are not a simple character class.
+     */
+    private static final String[] REGEXES = {
+            null, "", "\t", "<", "[`'\"<>\\[\\]]", "[\\t\\n\\r\"]", "[a-c]", "[^a-z]", "\\s", "<.*?>"};
+
+    /**
+     * Test that the output is the same as that of the replaceAll, convertString and CSVWriter combination that the
+     * file exporter used to have.
+     */
+    @Test
+    public void testSameAsOpenCsv() throws IOException {
+        for (final String regex : REGEXES) {
+            for (final boolean avoidTransmartSymbolBugs : new boolean[]{false, true}) {
+                final TsvWriter tsvWriter = new TsvWriter(regex, avoidTransmartSymbolBugs);
+                final StringWriter actual = new StringWriter();
+                tsvWriter.writeLine(actual, VALUES);
+                tsvWriter.writeLine(actual, VALUES.subList(1, 3));
+                final StringWriter expected = new StringWriter();
+                writeWithOpenCsv(expected, VALUES, regex, avoidTransmartSymbolBugs);
+                writeWithOpenCsv(expected, VALUES.subList(1, 3), regex, avoidTransmartSymbolBugs);
+                assertEquals(regex + " " + avoidTransmartSymbolBugs, expected.toString(), actual.toString());
+            }
+        }
+    }
+
+    /**
+     * Test which regexes are turned into a set of characters.
+     */
+    @Test
+    public void testParseCharacterClass() {
+        assertTrue(TsvWriter.parseCharacterClass("[`'\"<>\\[\\]]").get('['));
+        assertTrue(TsvWriter.parseCharacterClass("\t").get('\t'));
+        assertNull(TsvWriter.parseCharacterClass("[a-c]"));
+        assertNull(TsvWriter.parseCharacterClass("[^a]"));
+        assertNull(TsvWriter.parseCharacterClass("[\\d]"));
+        assertNull(TsvWriter.parseCharacterClass("."));
+    }
+
+    private void writeWithOpenCsv(final StringWriter writer, final List<String> values, final String regex,
+                                  final boolean avoidTransmartSymbolBugs) throws IOException {
+        final List<String> rowAsList = new ArrayList<>(values);
+        if (regex != null && !"".equals(regex.trim())) {
+            for (int i = 0; i < rowAsList.size(); i++) {
+                rowAsList.set(i, rowAsList.get(i).replaceAll(regex, ""));
+            }
+        }
+        if (avoidTransmartSymbolBugs) {
+            for (int i = 0; i < rowAsList.size(); i++) {
+                rowAsList.set(i, StringUtilities.convertString(rowAsList.get(i)));
+            }
+        }
+        final CSVWriter csvWriter = new CSVWriter(writer, '\t', CSVWriter.NO_QUOTE_CHARACTER);
+        csvWriter.writeNext(rowAsList.toArray(new String[rowAsList.size()]));
+        csvWriter.flush();
+    }
+}